@@ -0,0 +1,323 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Generates synthetic bundles to index.
+ * <p>
+ * The bundles look like real ones: they import and export versioned packages
+ * with uses constraints, may declare SCR components, and carry a payload of
+ * incompressible bytes. The same seed and settings always generate the same
+ * bytes, so runs on different revisions index the same corpus.
+ * <p>
+ * The generator can also be run from the command line:
+ *
+ * <pre>
+ * java -cp benchmarks.jar org.osgi.service.indexer.benchmarks.CorpusGenerator
+ *     &lt;dir&gt; &lt;count&gt; [imports] [exports] [components] [payloadKb]
+ * </pre>
+ */
+public final class CorpusGenerator {
+
+    private static final String SCR_NAMESPACE = "http://www.osgi.org/xmlns/scr/v1.2.0";
+
+    /** the number of distinct packages bundles import from and export to */
+    private static final int PACKAGE_POOL = 5000;
+
+    private final long seed;
+    private int imports = 30;
+    private int exports = 10;
+    private int components = 0;
+    private int componentProperties = 10;
+    private int componentReferences = 3;
+    private int payloadSize = 16 * 1024;
+
+    /**
+     * @param seed
+     *                 the seed of the random data.
+     */
+    public CorpusGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param count
+     *                  the number of clauses of the Import-Package headers.
+     * @return this
+     */
+    public CorpusGenerator setImports(int count) {
+        this.imports = count;
+        return this;
+    }
+
+    /**
+     * @param count
+     *                  the number of clauses of the Export-Package headers.
+     * @return this
+     */
+    public CorpusGenerator setExports(int count) {
+        this.exports = count;
+        return this;
+    }
+
+    /**
+     * @param count
+     *                  the number of SCR components of every bundle.
+     * @return this
+     */
+    public CorpusGenerator setComponents(int count) {
+        this.components = count;
+        return this;
+    }
+
+    /**
+     * @param properties
+     *                       the number of properties of every component.
+     * @param references
+     *                       the number of references of every component.
+     * @return this
+     */
+    public CorpusGenerator setComponentSize(int properties, int references) {
+        this.componentProperties = properties;
+        this.componentReferences = references;
+        return this;
+    }
+
+    /**
+     * @param bytes
+     *                  the size of the random payload of every bundle.
+     * @return this
+     */
+    public CorpusGenerator setPayloadSize(int bytes) {
+        this.payloadSize = bytes;
+        return this;
+    }
+
+    private static String packageName(int index) {
+        return "org.example.p" + (index / 100) + ".api" + (index % 100);
+    }
+
+    /**
+     * Builds an Import-Package header like the ones bnd generates.
+     *
+     * @param random
+     *                   the source of the package numbers.
+     * @param count
+     *                   the number of clauses.
+     * @return the header value.
+     */
+    public static String importPackage(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(',');
+            int major = 1 + random.nextInt(3);
+            sb.append(packageName(random.nextInt(PACKAGE_POOL)))
+                    .append(";version=\"[").append(major).append('.')
+                    .append(random.nextInt(10)).append(',')
+                    .append(major + 1).append(")\"");
+            if (random.nextInt(5) == 0)
+                sb.append(";resolution:=optional");
+        }
+        return sb.toString();
+    }
+
+    private static String exportPackage(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(packageName(random.nextInt(PACKAGE_POOL)))
+                    .append(";version=\"").append(1 + random.nextInt(3))
+                    .append('.').append(random.nextInt(10)).append(".0\"")
+                    .append(";uses:=\"");
+            int uses = 1 + random.nextInt(4);
+            for (int u = 0; u < uses; u++) {
+                if (u > 0)
+                    sb.append(',');
+                sb.append(packageName(random.nextInt(PACKAGE_POOL)));
+            }
+            sb.append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Builds the XML description of an SCR component.
+     *
+     * @param name
+     *                       the name of the component.
+     * @param properties
+     *                       the number of properties.
+     * @param references
+     *                       the number of references.
+     * @return the XML document.
+     */
+    public static String componentXml(String name, int properties,
+            int references) {
+        StringBuilder sb = new StringBuilder(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<scr:component xmlns:scr=\"").append(SCR_NAMESPACE)
+                .append("\" name=\"").append(name).append("\">\n");
+        sb.append("  <implementation class=\"").append(name)
+                .append("Impl\"/>\n");
+        for (int i = 0; i < properties; i++) {
+            if (i % 2 == 0) {
+                sb.append("  <property name=\"p").append(i)
+                        .append("\" type=\"Integer\" value=\"").append(i)
+                        .append("\"/>\n");
+            } else {
+                sb.append("  <property name=\"p").append(i)
+                        .append("\" type=\"String\">\n    a").append(i)
+                        .append("\n    b").append(i).append("\n  </property>\n");
+            }
+        }
+        sb.append("  <service>\n    <provide interface=\"").append(name)
+                .append("\"/>\n  </service>\n");
+        for (int i = 0; i < references; i++) {
+            sb.append("  <reference name=\"r").append(i)
+                    .append("\" interface=\"org.example.Service").append(i)
+                    .append("\" cardinality=\"")
+                    .append(i % 2 == 0 ? "1..1" : "0..n")
+                    .append("\" policy=\"dynamic\"/>\n");
+        }
+        sb.append("</scr:component>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Writes one bundle.
+     *
+     * @param dir
+     *                  the directory to write to.
+     * @param index
+     *                  the number of the bundle.
+     * @return the bundle file.
+     * @throws IOException
+     *                         when the bundle cannot be written.
+     */
+    public File generateBundle(File dir, int index) throws IOException {
+        Random random = new Random(seed * 31 + index);
+        String bsn = "org.example.bundle" + index;
+
+        Manifest manifest = new Manifest();
+        Attributes main = manifest.getMainAttributes();
+        main.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        main.putValue("Bundle-ManifestVersion", "2");
+        main.putValue("Bundle-SymbolicName", bsn);
+        main.putValue("Bundle-Version",
+                "1." + random.nextInt(10) + "." + random.nextInt(10));
+        main.putValue("Bundle-Name", "Generated bundle " + index);
+        main.putValue("Require-Capability",
+                "osgi.ee;filter:=\"(&(osgi.ee=JavaSE)(version=1.8))\"");
+        if (imports > 0)
+            main.putValue("Import-Package", importPackage(random, imports));
+        if (exports > 0)
+            main.putValue("Export-Package", exportPackage(random, exports));
+        if (components > 0)
+            main.putValue("Service-Component", "OSGI-INF/*.xml");
+
+        File file = new File(dir, bsn + ".jar");
+        try (OutputStream out = Files.newOutputStream(file.toPath());
+                JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (int i = 0; i < components; i++) {
+                String name = bsn + ".Component" + i;
+                jar.putNextEntry(new JarEntry("OSGI-INF/" + name + ".xml"));
+                jar.write(componentXml(name, componentProperties,
+                        componentReferences).getBytes(StandardCharsets.UTF_8));
+                jar.closeEntry();
+            }
+            if (payloadSize > 0) {
+                byte[] payload = new byte[payloadSize];
+                random.nextBytes(payload);
+                jar.putNextEntry(
+                        new JarEntry("org/example/bundle" + index + "/data.bin"));
+                jar.write(payload);
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes a corpus of bundles.
+     *
+     * @param dir
+     *                  the directory to write to, created when missing.
+     * @param count
+     *                  the number of bundles.
+     * @return the bundle files, sorted.
+     * @throws IOException
+     *                         when a bundle cannot be written.
+     */
+    public Set<File> generate(File dir, int count) throws IOException {
+        Files.createDirectories(dir.toPath());
+        Set<File> files = new TreeSet<>();
+        for (int i = 0; i < count; i++) {
+            files.add(generateBundle(dir, i));
+        }
+        return files;
+    }
+
+    /**
+     * Deletes a generated corpus.
+     *
+     * @param dir
+     *                the directory of the corpus.
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory())
+                    delete(file);
+                else
+                    file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CorpusGenerator <dir> <count>"
+                    + " [imports] [exports] [components] [payloadKb]");
+            System.exit(1);
+        }
+        CorpusGenerator generator = new CorpusGenerator(42);
+        if (args.length > 2)
+            generator.setImports(Integer.parseInt(args[2]));
+        if (args.length > 3)
+            generator.setExports(Integer.parseInt(args[3]));
+        if (args.length > 4)
+            generator.setComponents(Integer.parseInt(args[4]));
+        if (args.length > 5)
+            generator.setPayloadSize(Integer.parseInt(args[5]) * 1024);
+        Set<File> files = generator.generate(new File(args[0]),
+                Integer.parseInt(args[1]));
+        System.out.println(
+                "Generated " + files.size() + " bundles in " + args[0]);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.impl.BundleAnalyzer;
+import org.osgi.service.indexer.impl.JarResource;
+import org.osgi.service.indexer.impl.MappedJarResource;
+
+/**
+ * Opens a bundle and computes its SHA-256, as the identity analysis does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DigestBenchmark {
+
+    @Param({ "16", "1024", "16384" })
+    public int payloadKb;
+
+    private File dir;
+    private File bundle;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("repoindex-digest").toFile();
+        bundle = new CorpusGenerator(42).setPayloadSize(payloadKb * 1024)
+                .generateBundle(dir, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        CorpusGenerator.delete(dir);
+    }
+
+    private static String digest(Resource resource) throws Exception {
+        try {
+            return BundleAnalyzer.calculateSHA(resource);
+        } finally {
+            resource.close();
+        }
+    }
+
+    @Benchmark
+    public String jarResource() throws Exception {
+        return digest(new JarResource(bundle));
+    }
+
+    @Benchmark
+    public String mappedJarResource() throws Exception {
+        return digest(new MappedJarResource(bundle));
+    }
+}
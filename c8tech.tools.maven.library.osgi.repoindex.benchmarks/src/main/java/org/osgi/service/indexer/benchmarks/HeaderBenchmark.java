@@ -0,0 +1,65 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.indexer.impl.util.OSGiHeader;
+
+/**
+ * Parses Import-Package headers of several sizes.
+ * <p>
+ * {@code reference} measures the reporting parser, which parses the header
+ * every time; {@code shared} measures the parser the analyzers use, which
+ * keeps parsed headers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class HeaderBenchmark {
+
+    @Param({ "10", "100", "500" })
+    public int clauses;
+
+    private String header;
+
+    @Setup
+    public void setUp() {
+        header = CorpusGenerator.importPackage(new Random(42), clauses);
+    }
+
+    @Benchmark
+    public Map<String, Map<String, String>> reference() {
+        return OSGiHeader.parseHeader(header, null);
+    }
+
+    @Benchmark
+    public Map<String, Map<String, String>> shared() {
+        return OSGiHeader.parseHeader(header);
+    }
+}
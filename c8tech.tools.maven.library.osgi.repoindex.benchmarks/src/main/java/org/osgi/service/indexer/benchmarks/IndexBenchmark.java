@@ -0,0 +1,97 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.impl.RepoIndex;
+
+/**
+ * Indexes a whole generated repository, the way the maven plugins do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class IndexBenchmark {
+
+    /** counts the bytes written, and drops them */
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Param({ "100", "1000", "10000" })
+    public int bundles;
+
+    @Param({ "false", "true" })
+    public boolean compressed;
+
+    private File dir;
+    private Set<File> files;
+    private Map<String, String> config;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("repoindex-corpus").toFile();
+        files = new CorpusGenerator(42).setComponents(2).generate(dir,
+                bundles);
+        config = new HashMap<>();
+        config.put(Constants.ROOT_DIR, dir.getAbsolutePath());
+        config.put(Constants.PRETTY, "false");
+        config.put(Constants.COMPRESSED, Boolean.toString(compressed));
+    }
+
+    @TearDown
+    public void tearDown() {
+        CorpusGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public long index() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        new RepoIndex(new QuietLog(), false).index(files, out,
+                new HashMap<>(config));
+        return out.count;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.impl.JarResource;
+import org.osgi.service.indexer.impl.SCRAnalyzer;
+
+/**
+ * Analyzes the SCR components of a bundle holding large component
+ * descriptions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SCRBenchmark {
+
+    @Param({ "4", "64" })
+    public int components;
+
+    @Param({ "100" })
+    public int properties;
+
+    private File dir;
+    private JarResource resource;
+    private final SCRAnalyzer analyzer = new SCRAnalyzer(new QuietLog(),
+            false);
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("repoindex-scr").toFile();
+        File bundle = new CorpusGenerator(42).setComponents(components)
+                .setComponentSize(properties, 20).setPayloadSize(0)
+                .generateBundle(dir, 0);
+        resource = new JarResource(bundle);
+    }
+
+    @TearDown
+    public void tearDown() {
+        resource.close();
+        CorpusGenerator.delete(dir);
+    }
+
+    @Benchmark
+    public int analyze() throws Exception {
+        List<Capability> caps = new ArrayList<>();
+        List<Requirement> reqs = new ArrayList<>();
+        analyzer.analyzeResource(resource, caps, reqs);
+        return caps.size() + reqs.size();
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.resource.Capability;
+import org.osgi.service.indexer.impl.RepoIndex;
+import org.osgi.service.indexer.impl.Schema;
+import org.osgi.service.indexer.impl.types.TypedAttribute;
+import org.osgi.service.indexer.impl.util.Indent;
+import org.osgi.service.indexer.impl.util.Tag;
+
+/**
+ * Builds and prints the tags of the capabilities of a bundle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TagBenchmark {
+
+    /** counts the characters written, and drops them */
+    private static final class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private List<Capability> capabilities;
+    private Tag tag;
+
+    @Setup
+    public void setUp() throws Exception {
+        File dir = Files.createTempDirectory("repoindex-tag").toFile();
+        try {
+            File bundle = new CorpusGenerator(42).setImports(200)
+                    .setExports(100).setComponents(10).generateBundle(dir, 0);
+            capabilities = new RepoIndex(new QuietLog(), false)
+                    .indexFile(bundle).getCapabilities();
+        } finally {
+            CorpusGenerator.delete(dir);
+        }
+        tag = toTag(capabilities);
+    }
+
+    private static Tag toTag(List<Capability> capabilities) {
+        Tag resource = new Tag(Schema.ELEM_RESOURCE);
+        for (Capability capability : capabilities) {
+            Tag tag = new Tag(Schema.ELEM_CAPABILITY);
+            tag.addAttribute(Schema.ATTR_NAMESPACE, capability.getNamespace());
+            for (Map.Entry<String, Object> attribute : capability
+                    .getAttributes().entrySet()) {
+                tag.addContent(TypedAttribute
+                        .create(attribute.getKey(), attribute.getValue())
+                        .toXML());
+            }
+            for (Map.Entry<String, String> directive : capability
+                    .getDirectives().entrySet()) {
+                Tag child = new Tag(Schema.ELEM_DIRECTIVE);
+                child.addAttribute(Schema.ATTR_NAME, directive.getKey());
+                child.addAttribute(Schema.ATTR_VALUE, directive.getValue());
+                tag.addContent(child);
+            }
+            resource.addContent(tag);
+        }
+        return resource;
+    }
+
+    private static long print(Tag tag) throws IOException {
+        CountingWriter writer = new CountingWriter();
+        PrintWriter pw = new PrintWriter(writer);
+        tag.print(Indent.PRETTY, pw);
+        pw.flush();
+        return writer.count;
+    }
+
+    @Benchmark
+    public long buildAndPrint() throws IOException {
+        return print(toTag(capabilities));
+    }
+
+    @Benchmark
+    public long print() throws IOException {
+        return print(tag);
+    }
+}
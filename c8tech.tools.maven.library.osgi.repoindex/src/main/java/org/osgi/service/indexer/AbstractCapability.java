@@ -11,7 +11,6 @@
  */
 package org.osgi.service.indexer;
 
-import java.util.Collections;
 import java.util.Map;
 
 import org.osgi.resource.Resource;
@@ -27,6 +26,9 @@ public class AbstractCapability {
     /** the directives */
     private final Map<String, String> directives;
 
+    /** the hash code, computed on first use */
+    private int hash;
+
     private Resource resource;
 
     /**
@@ -35,9 +37,9 @@ public class AbstractCapability {
      * @param namespace
      *            the namespace
      * @param attributes
-     *            the attributes
+     *            the attributes, unmodifiable
      * @param directives
-     *            the directives
+     *            the directives, unmodifiable
      */
     AbstractCapability(String namespace, Map<String, Object> attributes,
             Map<String, String> directives) {
@@ -57,14 +59,14 @@ public class AbstractCapability {
      * @return the attributes
      */
     public Map<String, Object> getAttributes() {
-        return Collections.unmodifiableMap(attributes);
+        return attributes;
     }
 
     /**
      * @return the directives
      */
     public Map<String, String> getDirectives() {
-        return Collections.unmodifiableMap(directives);
+        return directives;
     }
 
     @Override
@@ -74,6 +76,8 @@ public class AbstractCapability {
         if (!(o instanceof AbstractCapability))
             return false;
         AbstractCapability c = (AbstractCapability) o;
+        if (hash != 0 && c.hash != 0 && hash != c.hash)
+            return false;
         return (c.getNamespace().equals(getNamespace())
                 && c.getAttributes().equals(getAttributes())
                 && c.getDirectives().equals(getDirectives())
@@ -84,6 +88,15 @@ public class AbstractCapability {
     
     @Override
     public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = computeHashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    private int computeHashCode() {
         int result = 17;
         result = 31 * result + getNamespace().hashCode();
         result = 31 * result + getAttributes().hashCode();
@@ -24,8 +24,17 @@ import org.osgi.resource.Requirement;
 /**
  * A container for attributes and directives under a certain namespace. Can
  * generate a capability and/or a requirement from the contained information.
+ * <p>
+ * The namespace, the attribute and directive names, and the string and
+ * {@link org.osgi.framework.Version} values of the generated capabilities and
+ * requirements are interned, so that equal values share one instance. The
+ * content digest and url are left out, as they are unique to a resource.
+ * Their attributes and directives are immutable.
  */
 public final class Builder {
+    /** pools the values shared by the capabilities of many resources */
+    private static final Interner INTERNER = Interner.INSTANCE;
+
     /** the namespace */
     private String namespace = null;
 
@@ -41,7 +50,7 @@ public final class Builder {
      * @return this
      */
     public Builder setNamespace(String namespace) {
-        this.namespace = namespace;
+        this.namespace = INTERNER.intern(namespace);
         return this;
     }
 
@@ -55,10 +64,20 @@ public final class Builder {
      * @return this
      */
     public Builder addAttribute(String name, Object value) {
-        attributes.put(name, value);
+        attributes.put(INTERNER.intern(name),
+                isShared(name) ? INTERNER.internValue(value) : value);
         return this;
     }
 
+    /*
+     * Pooling the values unique to a resource would only cost memory and a
+     * lock round-trip.
+     */
+    private static boolean isShared(String attributeName) {
+        return !Namespaces.NS_CONTENT.equals(attributeName)
+                && !Namespaces.ATTR_CONTENT_URL.equals(attributeName);
+    }
+
     /**
      * Add a directive
      * 
@@ -69,7 +88,7 @@ public final class Builder {
      * @return this
      */
     public Builder addDirective(String name, String value) {
-        directives.put(name, value);
+        directives.put(INTERNER.intern(name), INTERNER.intern(value));
         return this;
     }
 
@@ -84,8 +103,7 @@ public final class Builder {
             throw new IllegalStateException("Namespace not set");
 
         return new CapabilityImpl(namespace,
-                new LinkedHashMap<String, Object>(attributes),
-                new LinkedHashMap<String, String>(directives));
+                SmallMap.copyOf(attributes), SmallMap.copyOf(directives));
     }
 
     /**
@@ -99,7 +117,6 @@ public final class Builder {
             throw new IllegalStateException("Namespace not set");
 
         return new RequirementImpl(namespace,
-                new LinkedHashMap<String, Object>(attributes),
-                new LinkedHashMap<String, String>(directives));
+                SmallMap.copyOf(attributes), SmallMap.copyOf(directives));
     }
 }
@@ -13,6 +13,13 @@ package org.osgi.service.indexer;
 
 public class Constants {
 
+    /**
+     * Name of the configuration variable for the file of the analysis cache.
+     * When set, the capabilities and requirements of every analyzed file are
+     * stored there and reused for as long as the file, the analyzers and the
+     * other configuration stay the same.
+     */
+    public static final String ANALYSIS_CACHE = "analysis.cache";
     /**
      * Name of the configuration variable for the location where <b>bundles</b>
      * which will be embedded with the repository index file are stored.
@@ -26,6 +33,69 @@ public class Constants {
      * Name of the configuration variable to enable compression: gzipped XML
      */
     public static final String COMPRESSED = "compressed";
+    /**
+     * Name of the configuration variable for the size, in bytes, of the blocks
+     * compressed independently when {@link #COMPRESSION_THREADS} is greater
+     * than one. Defaults to 128 KB.
+     */
+    public static final String COMPRESSION_BLOCK_SIZE = "compression.block.size";
+    /**
+     * Name of the configuration variable for the GZIP compression level, from
+     * {@code 0} (no compression) to {@code 9} (best compression).
+     */
+    public static final String COMPRESSION_LEVEL = "compression.level";
+    /**
+     * Name of the configuration variable for the number of threads used to
+     * compress the index. When not set, or set to {@code 1}, the index is
+     * compressed on the indexing thread. A value of {@code 0} uses one thread
+     * per available processor.
+     * <p>
+     * With more than one thread the output is still a single standard GZIP
+     * stream, but it is not byte for byte identical to the single threaded
+     * one.
+     */
+    public static final String COMPRESSION_THREADS = "compression.threads";
+    /**
+     * Name of the configuration variable to analyze identical files once. A
+     * file with the same size, SHA-256 digest and matching analyzers as
+     * another file of the indexing call reuses its capabilities and
+     * requirements, with its own content url. Only files the bundle analyzer
+     * applies to are deduplicated, since the content url of other files,
+     * such as subsystem archives, is computed by other analyzers. Only use it
+     * with analyzers whose output does not otherwise depend on the name or
+     * location of the file. Defaults to {@code false}.
+     */
+    public static final String DEDUPLICATE = "deduplicate";
+    /**
+     * Name of the configuration variable for the digest algorithms computed
+     * besides SHA-256, as a comma separated list such as {@code SHA-1,MD5}.
+     * They are computed in the same pass over each file and are available
+     * from {@code GeneratorState.getDigestService()}; the index itself only
+     * holds the SHA-256 digest.
+     */
+    public static final String DIGEST_ALGORITHMS = "digest.algorithms";
+    /**
+     * Name of the configuration variable for the file of the digest cache.
+     * When set, the digests of every indexed file are stored there and reused
+     * for as long as the size and last modification time of the file stay the
+     * same.
+     */
+    public static final String DIGEST_CACHE = "digest.cache";
+    /**
+     * Name of the configuration variable for the file keeping the names found
+     * in every indexed directory. When set, a directory whose last
+     * modification time has not changed since is not listed again.
+     */
+    public static final String DIRECTORY_SNAPSHOT = "directory.snapshot";
+    /**
+     * Name of the configuration variable for the comma separated glob patterns
+     * of the files and directories to skip when walking a directory, such as
+     * {@code **}{@code /target/**,*-sources.jar}. Patterns are matched against
+     * the path relative to the walked directory, and a trailing
+     * {@code /}{@code **} also matches the directory itself, which is then not
+     * walked.
+     */
+    public static final String EXCLUDES = "excludes";
     /**
      * The service property used to declare a resource filter, so that the
      * analyzer is only invoked on a subset of resources. Example:
@@ -42,6 +112,40 @@ public class Constants {
      * point to indexed contents.
      */
     public static final String FORCE_BASE_URL = "force.base.url";
+    /**
+     * Name of the configuration variable for the format of the index: either
+     * {@link #FORMAT_XML}, the default, or {@link #FORMAT_BINARY}.
+     * <p>
+     * The binary format holds the same capabilities and requirements as the
+     * XML, with typed values, and is read back by
+     * {@code org.osgi.service.indexer.impl.RepositoryBinaryReader}. It ignores
+     * {@link #PRETTY} and is only compressed when {@link #COMPRESSED} is
+     * explicitly set to {@code true}.
+     */
+    public static final String FORMAT = "format";
+    /** the value of {@link #FORMAT} selecting the binary format */
+    public static final String FORMAT_BINARY = "binary";
+    /** the value of {@link #FORMAT} selecting the R5 XML format */
+    public static final String FORMAT_XML = "xml";
+    /**
+     * Name of the configuration variable for the directory
+     * {@code ResourceIndexer.indexFragment} writes fragments to. When set,
+     * every resource element goes to a file of its own, named after the
+     * SHA-256 digest of its content, and the writer receives the names of
+     * those files, one per line, in the order of the input files. Unchanged
+     * resources keep their file, so the files can be kept between runs and
+     * assembled with {@code ResourceIndexer.assembleFragments}.
+     */
+    public static final String FRAGMENT_DIR = "fragment.dir";
+    /**
+     * Name of the configuration variable for the comma separated glob patterns
+     * of the files to index when walking a directory, such as
+     * {@code **}{@code /*.jar}. Patterns are matched against the path relative
+     * to the walked directory, and a leading {@code **}{@code /} also matches
+     * the files at its top. When not set, the files any registered analyzer
+     * applies to are indexed.
+     */
+    public static final String INCLUDES = "includes";
     /**
      * Name of the configuration variable for the index file name.
      */
@@ -54,8 +158,56 @@ public class Constants {
     public static final String LICENSE_URL = "license.url";
     /** the name of the location attribute */
     public static final String LOCATION = "location";
+    /**
+     * Name of the configuration variable to read the indexed jars through a
+     * memory mapping instead of loading them or opening them as a
+     * {@link java.util.jar.JarFile}. Entries are then looked up and inflated
+     * on demand, which saves allocations when indexing many large jars.
+     * Defaults to {@code false}.
+     */
+    public static final String MEMORY_MAPPED = "memory.mapped";
+    /**
+     * Name of the configuration variable to log timings of the indexing
+     * call through the log service: every resource and analyzer at debug
+     * level, slow analyzers as warnings, and a summary with the throughput
+     * and the time spent in each analyzer at info level. Defaults to
+     * {@code false}.
+     *
+     * @see IndexingListener
+     */
+    public static final String METRICS = "metrics";
+    /**
+     * Name of the configuration variable for the time, in milliseconds, above
+     * which {@link #METRICS} reports an analyzer call as slow. Defaults to
+     * {@code 1000}.
+     */
+    public static final String METRICS_SLOW_ANALYZER = "metrics.slow.analyzer";
     /** the name of the name attribute */
     public static final String NAME = "name";
+    /**
+     * Name of the configuration variable for the number of worker threads used
+     * to analyze resources concurrently. When not set, or set to {@code 1},
+     * resources are analyzed one after the other. A value of {@code 0} uses
+     * one thread per available processor.
+     * <p>
+     * Resources are always written in the same sorted order, regardless of
+     * the number of threads. Registered analyzers must be thread-safe when this
+     * is greater than one.
+     */
+    public static final String PARALLEL_THREADS = "parallel.threads";
+    /**
+     * Name of the configuration variable for the number of worker threads used
+     * to run the analyzers of a resource concurrently. When not set, or set to
+     * {@code 1}, the analyzers of a resource run one after the other. A value
+     * of {@code 0} uses one thread per available processor.
+     * <p>
+     * Only analyzers that declare their dependencies run concurrently with
+     * other analyzers, and their output is merged in registration order, so
+     * the index is the same regardless of the number of threads.
+     *
+     * @see org.osgi.service.indexer.ResourceAnalyzer#getDependencies()
+     */
+    public static final String PARALLEL_ANALYZERS = "parallel.analyzers";
     /**
      * Name of the configuration variable to enable pretty-printing: indented
      * XML
@@ -0,0 +1,101 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer;
+
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * <p>
+ * Receives timings and counts from the indexer, to find out which analyzers
+ * and which resources make indexing slow.
+ * </p>
+ * 
+ * <p>
+ * Clients may implement this interface and register instances as services,
+ * or add them to the indexer directly. All methods do nothing by default.
+ * </p>
+ * 
+ * <p>
+ * When resources are analyzed concurrently, the methods are called from the
+ * worker threads, so implementations must be thread-safe. They should also
+ * be quick, since they run on the indexing path. Exceptions thrown by a
+ * listener are logged and otherwise ignored.
+ * </p>
+ */
+@ConsumerType
+public interface IndexingListener {
+
+    /**
+     * Called after an analyzer was invoked on a resource.
+     * 
+     * @param location
+     *            The location of the resource.
+     * @param analyzer
+     *            The analyzer.
+     * @param nanos
+     *            The wall time spent in the analyzer, in nanoseconds.
+     * @param capabilities
+     *            The number of capabilities the analyzer added.
+     * @param requirements
+     *            The number of requirements the analyzer added.
+     * @param failure
+     *            What the analyzer threw, or null when it completed normally.
+     */
+    default void analyzerCompleted(String location, ResourceAnalyzer analyzer,
+            long nanos, int capabilities, int requirements,
+            Throwable failure) {
+        // nothing by default
+    }
+
+    /**
+     * Called after a resource was analyzed, restored from the analysis cache,
+     * or given the analysis of an identical resource.
+     * 
+     * @param location
+     *            The location of the resource.
+     * @param nanos
+     *            The wall time spent on the resource, in nanoseconds.
+     * @param size
+     *            The size of the file of the resource, in bytes, or 0 when it
+     *            was not analyzed because its analysis was cached or reused.
+     * @param capabilities
+     *            The number of capabilities of the resource.
+     * @param requirements
+     *            The number of requirements of the resource.
+     * @param cached
+     *            Whether the analysis was restored from the analysis cache,
+     *            or reused from an identical resource of the same call.
+     */
+    default void resourceCompleted(String location, long nanos, long size,
+            int capabilities, int requirements, boolean cached) {
+        // nothing by default
+    }
+
+    /**
+     * Called at the end of an indexing call.
+     * 
+     * @param resources
+     *            The number of resources analyzed or restored.
+     * @param failed
+     *            The number of resources that could not be indexed, or for
+     *            which an analyzer failed.
+     * @param nanos
+     *            The wall time of the analysis, in nanoseconds.
+     * @param size
+     *            The total size of the files of the resources analyzed, in
+     *            bytes.
+     */
+    default void runCompleted(int resources, int failed, long nanos,
+            long size) {
+        // nothing by default
+    }
+}
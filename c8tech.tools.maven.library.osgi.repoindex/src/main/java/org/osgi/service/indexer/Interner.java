@@ -0,0 +1,99 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.osgi.framework.Version;
+
+/**
+ * A weak pool of the strings and versions held by capabilities and
+ * requirements.
+ * <p>
+ * The same namespaces, attribute names, package names and versions show up
+ * in the capabilities of many resources. Interning them lets a whole indexed
+ * repository share one instance of each value. Values are only weakly held,
+ * so the pool never keeps alive a value that no capability uses anymore.
+ * <p>
+ * The pool is split in stripes, each with its own lock, so that analyzers
+ * running on several threads do not all queue on the same lock.
+ */
+final class Interner {
+
+    /** the pool shared by all the builders */
+    static final Interner INSTANCE = new Interner();
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private static final class Stripe {
+        private final Map<Object, WeakReference<Object>> pool = new WeakHashMap<>();
+
+        synchronized Object intern(Object value) {
+            WeakReference<Object> ref = pool.get(value);
+            Object existing = ref == null ? null : ref.get();
+            if (existing != null)
+                return existing;
+            pool.put(value, new WeakReference<>(value));
+            return value;
+        }
+
+        synchronized int size() {
+            return pool.size();
+        }
+    }
+
+    Interner() {
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new Stripe();
+    }
+
+    /**
+     * @param value
+     *                  a string, or null.
+     * @return the pooled string equal to the value.
+     */
+    String intern(String value) {
+        return value == null ? null : (String) pooled(value);
+    }
+
+    /**
+     * @param value
+     *                  an attribute value.
+     * @return the pooled instance when the value is a string or a version,
+     *         otherwise the value itself.
+     */
+    Object internValue(Object value) {
+        if (value instanceof String || value instanceof Version)
+            return pooled(value);
+        return value;
+    }
+
+    private Object pooled(Object value) {
+        int hash = value.hashCode();
+        hash ^= hash >>> 16;
+        return stripes[hash & (STRIPES - 1)].intern(value);
+    }
+
+    /**
+     * @return the number of values currently pooled.
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes)
+            size += stripe.size();
+        return size;
+    }
+}
@@ -15,7 +15,9 @@ package org.osgi.service.indexer;
  * Part of this code was borrowed from BIndex project (https://github.com/osgi/bindex) 
  * and it is released under OSGi Specification License, VERSION 2.0
  */
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.osgi.annotation.versioning.ConsumerType;
 import org.osgi.resource.Capability;
@@ -36,6 +38,28 @@ import org.osgi.resource.Requirement;
  */
 @ConsumerType
 public interface ResourceAnalyzer {
+
+    /**
+     * The parts of a resource an analyzer may read.
+     */
+    enum Input {
+        /**
+         * The manifest and the properties of the resource.
+         */
+        MANIFEST,
+        /**
+         * The children of the resource, through
+         * {@link Resource#listChildren(String)} and
+         * {@link Resource#getChild(String)}.
+         */
+        ENTRIES,
+        /**
+         * The whole content of the resource, through
+         * {@link Resource#getStream()}.
+         */
+        CONTENT
+    }
+
     /**
      * <p>
      * This method is invoked for each resource that the analyzer is requested
@@ -76,4 +100,46 @@ public interface ResourceAnalyzer {
      */
     void analyzeResource(Resource resource, List<Capability> capabilities,
             List<Requirement> requirements) throws AnalyzerException;
+
+    /**
+     * <p>
+     * Declares the parts of a resource this analyzer reads. When every
+     * analyzer of an indexing call reads the manifest only, the indexer opens
+     * resources without reading their content or building their entry tables.
+     * </p>
+     * 
+     * <p>
+     * The other parts remain available, at a higher cost, so a declaration
+     * that is too narrow makes the analyzer slower, not wrong.
+     * </p>
+     * 
+     * @return the parts read by this analyzer. All of them by default.
+     */
+    default Set<Input> getInputs() {
+        return EnumSet.allOf(Input.class);
+    }
+
+    /**
+     * <p>
+     * Declares the analyzers whose capabilities and requirements this analyzer
+     * reads from the supplied lists. An analyzer depends on the analyzers
+     * registered before it that are instances of one of the returned classes.
+     * </p>
+     * 
+     * <p>
+     * When the indexer analyzes a resource with several analyzers at once, an
+     * analyzer is only invoked after the analyzers it depends on, and the
+     * supplied lists hold their output alone. The output of all analyzers is
+     * still merged in registration order. Analyzers that declare their
+     * dependencies must be thread-safe, and must not assume that the lists
+     * hold the output of any other analyzer.
+     * </p>
+     * 
+     * @return the classes of the analyzers this analyzer depends on, or
+     *         {@code null}, the default, when it may read the output of every
+     *         analyzer registered before it.
+     */
+    default Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return null;
+    }
 }
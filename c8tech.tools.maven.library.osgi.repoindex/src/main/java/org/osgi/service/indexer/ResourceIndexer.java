@@ -131,5 +131,76 @@ public interface ResourceIndexer {
     void indexFragment(Set<File> files, Writer out, Map<String, String> config)
             throws AnalyzerException;
 
+    /**
+     * <p>
+     * Assemble fragment files written by {@link #indexFragment} with
+     * {@link Constants#FRAGMENT_DIR} into a complete Repository XML
+     * representation, and write it to the stream.
+     * </p>
+     * <p>
+     * The fragments are copied in the given order, without being parsed. The
+     * same files and configuration produce the same document as
+     * {@link #index}, so the fragments must have been written with the same
+     * {@link Constants#PRETTY} and {@link Constants#COMPRESSED} settings.
+     * Only the XML format is supported.
+     * </p>
+     *
+     * @param fragments
+     *            the fragment files, in index order
+     * @param out
+     *            the stream to write the XML representation to
+     * @param config
+     *            a set of optional parameters (use the interface constants as
+     *            keys)
+     * @throws AnalyzerException
+     *             in case of an error
+     */
+    void assembleFragments(List<File> fragments, OutputStream out,
+            Map<String, String> config) throws AnalyzerException;
+
+    /**
+     * <p>
+     * Update an existing Repository XML representation and write the result
+     * to the stream.
+     * </p>
+     * <p>
+     * Only the added and modified files are analyzed. A modified file replaces
+     * the resource with the same content url, keeping its position, while
+     * the resources of removed files are left out. All other resources are
+     * copied from the existing index unchanged. Files that were not in the
+     * existing index yet are appended at the end. The repository increment is
+     * bumped.
+     * </p>
+     * <p>
+     * Removed files may no longer exist. With a {@link Constants#URL_TEMPLATE},
+     * their url is then computed from the identity the existing index holds,
+     * which requires the template to hold the file name ({@code %f}).
+     * </p>
+     * <p>
+     * The existing index may be compressed or not, and must be a different
+     * file than the one the stream writes to. Only the XML format is
+     * supported.
+     * </p>
+     *
+     * @param existingIndex
+     *            the existing index file
+     * @param added
+     *            the files added to the repository, may be null
+     * @param removed
+     *            the files removed from the repository, may be null
+     * @param modified
+     *            the files of the repository that have changed, may be null
+     * @param out
+     *            the stream to write the updated XML representation to
+     * @param config
+     *            a set of optional parameters (use the interface constants as
+     *            keys)
+     * @throws AnalyzerException
+     *             in case of an error
+     */
+    void update(File existingIndex, Set<File> added, Set<File> removed,
+            Set<File> modified, OutputStream out, Map<String, String> config)
+            throws AnalyzerException;
+
     void setKnownBundlesExtraProperties(Properties props);
 }
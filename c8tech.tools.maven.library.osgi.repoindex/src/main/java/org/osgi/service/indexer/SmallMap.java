@@ -0,0 +1,163 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable map of a few entries, kept in insertion order in one array.
+ * <p>
+ * Most capabilities and requirements have between one and three attributes
+ * and directives, for which a {@link LinkedHashMap} costs an entry object per
+ * mapping besides its table. Lookups scan the keys linearly, which is as fast
+ * as hashing for this many entries.
+ *
+ * @param <V>
+ *                the type of the values.
+ */
+final class SmallMap<V> extends AbstractMap<String, V> {
+
+    /** maps with more entries are copied into a linked hash map */
+    static final int MAX_SIZE = 8;
+
+    /** keys and values, one after the other */
+    private final Object[] table;
+
+    private int hash;
+
+    private SmallMap(Object[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Returns an immutable copy of a map, keeping the order of its entries.
+     *
+     * @param source
+     *                   the map to copy.
+     * @param <V>
+     *                   the type of the values.
+     * @return an empty map, a small map, or an unmodifiable linked hash map
+     *         for maps of more than {@value #MAX_SIZE} entries.
+     */
+    static <V> Map<String, V> copyOf(Map<String, V> source) {
+        int size = source.size();
+        if (size == 0)
+            return Collections.emptyMap();
+        if (size > MAX_SIZE)
+            return Collections.unmodifiableMap(new LinkedHashMap<>(source));
+
+        Object[] table = new Object[size * 2];
+        int i = 0;
+        for (Entry<String, V> entry : source.entrySet()) {
+            table[i++] = entry.getKey();
+            table[i++] = entry.getValue();
+        }
+        return new SmallMap<>(table);
+    }
+
+    private int indexOf(Object key) {
+        // keys are usually interned, so try identity first
+        for (int i = 0; i < table.length; i += 2) {
+            if (table[i] == key)
+                return i;
+        }
+        if (key != null) {
+            for (int i = 0; i < table.length; i += 2) {
+                if (key.equals(table[i]))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return table.length / 2;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : (V) table[i + 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void forEach(BiConsumer<? super String, ? super V> action) {
+        for (int i = 0; i < table.length; i += 2)
+            action.accept((String) table[i], (V) table[i + 1]);
+    }
+
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        return new AbstractSet<Entry<String, V>>() {
+            @Override
+            public Iterator<Entry<String, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return table.length / 2;
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        int result = hash;
+        if (result == 0) {
+            result = super.hashCode();
+            hash = result;
+        }
+        return result;
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String, V>> {
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < table.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Entry<String, V> next() {
+            if (next >= table.length)
+                throw new NoSuchElementException();
+            Entry<String, V> entry = new SimpleImmutableEntry<>(
+                    (String) table[next], (V) table[next + 1]);
+            next += 2;
+            return entry;
+        }
+    }
+}
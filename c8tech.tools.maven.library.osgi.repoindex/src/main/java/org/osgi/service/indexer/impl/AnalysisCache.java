@@ -0,0 +1,440 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.log.LogService;
+
+/**
+ * An on-disk cache of analysis results.
+ * <p>
+ * Entries are keyed by the canonical path of the analyzed file. An entry is
+ * only reused while the size and last modification time of the file, the
+ * signature of the analyzers and the generator state all match the ones it
+ * was stored with; otherwise the file is analyzed again and the entry is
+ * replaced.
+ * <p>
+ * Instances are thread-safe.
+ */
+final class AnalysisCache {
+
+    /**
+     * The fingerprint of a file at the moment it was looked up.
+     */
+    static final class Fingerprint {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final long signature;
+        private final String state;
+
+        Fingerprint(String path, long size, long lastModified, long signature,
+                String state) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.signature = signature;
+            this.state = state;
+        }
+
+        boolean matches(Fingerprint other) {
+            return size == other.size && lastModified == other.lastModified
+                    && signature == other.signature
+                    && state.equals(other.state);
+        }
+    }
+
+    private static final class CachedEntry {
+        private final Fingerprint fingerprint;
+        private final List<Capability> capabilities;
+        private final List<Requirement> requirements;
+
+        CachedEntry(Fingerprint fingerprint, List<Capability> capabilities,
+                List<Requirement> requirements) {
+            this.fingerprint = fingerprint;
+            this.capabilities = capabilities;
+            this.requirements = requirements;
+        }
+    }
+
+    private static final int MAGIC = 0x52494143; // RIAC
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_VERSION = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_INTEGER = 3;
+    private static final byte TYPE_DOUBLE = 4;
+    private static final byte TYPE_FLOAT = 5;
+    private static final byte TYPE_BOOLEAN = 6;
+    private static final byte TYPE_LIST = 7;
+
+    private final File cacheFile;
+    private final Map<String, CachedEntry> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+    private AnalysisCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Loads a cache from disk. A missing, unreadable or incompatible file
+     * results in an empty cache, so the worst case is a full analysis.
+     *
+     * @param cacheFile
+     *                      the file backing the cache.
+     * @param log
+     *                      the log service, may be null.
+     * @return the cache.
+     */
+    static AnalysisCache load(File cacheFile, LogService log) {
+        AnalysisCache cache = new AnalysisCache(cacheFile);
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Fingerprint fingerprint = new Fingerprint(readString(in),
+                        in.readLong(), in.readLong(), in.readLong(),
+                        readString(in));
+                List<Capability> caps = new ArrayList<>();
+                int capCount = in.readInt();
+                for (int j = 0; j < capCount; j++) {
+                    caps.add(readClause(in).buildCapability());
+                }
+                List<Requirement> reqs = new ArrayList<>();
+                int reqCount = in.readInt();
+                for (int j = 0; j < reqCount; j++) {
+                    reqs.add(readClause(in).buildRequirement());
+                }
+                cache.entries.put(fingerprint.path,
+                        new CachedEntry(fingerprint, caps, reqs));
+            }
+        } catch (IOException | RuntimeException e) {
+            cache.entries.clear();
+            if (log != null) {
+                log.log(LogService.LOG_WARNING, MessageFormat.format(
+                        "Could not read the analysis cache {0}, ignoring it.",
+                        cacheFile), e);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Describes the generator state, which determines the computed urls.
+     */
+    static String describe(GeneratorState state) {
+        if (state == null) {
+            return "";
+        }
+        return state.getRootPath() + "|" + state.getBundleCopyDirPath() + "|"
+                + state.getSubsystemCopyDirPath() + "|"
+                + state.getUrlTemplate() + "|" + state.isForceAbsolutePath();
+    }
+
+    Fingerprint fingerprint(File file, long signature, String state)
+            throws IOException {
+        return new Fingerprint(file.getCanonicalPath(), file.length(),
+                file.lastModified(), signature, state);
+    }
+
+    /**
+     * Copies the cached capabilities and requirements of a file to the given
+     * lists.
+     *
+     * @return true when the cache had a matching entry.
+     */
+    boolean restore(Fingerprint fingerprint, List<Capability> caps,
+            List<Requirement> reqs) {
+        CachedEntry entry = entries.get(fingerprint.path);
+        if (entry == null || !entry.fingerprint.matches(fingerprint)) {
+            return false;
+        }
+        caps.addAll(entry.capabilities);
+        reqs.addAll(entry.requirements);
+        return true;
+    }
+
+    /**
+     * Stores the analysis result of a file. Results holding attribute values
+     * the cache cannot persist are not stored.
+     */
+    void store(Fingerprint fingerprint, List<Capability> caps,
+            List<Requirement> reqs) {
+        for (Capability cap : caps) {
+            if (!isSupported(cap.getAttributes())) {
+                return;
+            }
+        }
+        for (Requirement req : reqs) {
+            if (!isSupported(req.getAttributes())) {
+                return;
+            }
+        }
+        entries.put(fingerprint.path,
+                new CachedEntry(fingerprint,
+                        Collections.unmodifiableList(new ArrayList<>(caps)),
+                        Collections.unmodifiableList(new ArrayList<>(reqs))));
+        modified = true;
+    }
+
+    /**
+     * Writes the cache back to disk when it has changed. Entries of files that
+     * no longer exist are dropped. The file is replaced atomically where the
+     * file system supports it, so readers never see a partial cache.
+     *
+     * @throws IOException
+     *                         when the cache cannot be written.
+     */
+    void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        modified = false;
+
+        List<CachedEntry> toSave = new ArrayList<>(entries.size());
+        for (CachedEntry entry : entries.values()) {
+            if (new File(entry.fingerprint.path).exists()) {
+                toSave.add(entry);
+            } else {
+                entries.remove(entry.fingerprint.path);
+            }
+        }
+
+        Path target = cacheFile.getAbsoluteFile().toPath();
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, target.getFileName().toString(),
+                ".tmp");
+        boolean saved = false;
+        try {
+            try (OutputStream fileOut = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(toSave.size());
+                for (CachedEntry entry : toSave) {
+                    Fingerprint fingerprint = entry.fingerprint;
+                    writeString(out, fingerprint.path);
+                    out.writeLong(fingerprint.size);
+                    out.writeLong(fingerprint.lastModified);
+                    out.writeLong(fingerprint.signature);
+                    writeString(out, fingerprint.state);
+                    out.writeInt(entry.capabilities.size());
+                    for (Capability cap : entry.capabilities) {
+                        writeClause(out, cap.getNamespace(),
+                                cap.getAttributes(), cap.getDirectives());
+                    }
+                    out.writeInt(entry.requirements.size());
+                    for (Requirement req : entry.requirements) {
+                        writeClause(out, req.getNamespace(),
+                                req.getAttributes(), req.getDirectives());
+                    }
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                modified = true;
+            }
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static boolean isSupported(Map<String, Object> attributes) {
+        for (Object value : attributes.values()) {
+            if (value instanceof Collection<?>) {
+                for (Object item : (Collection<?>) value) {
+                    if (typeOf(item) < 0) {
+                        return false;
+                    }
+                }
+            } else if (typeOf(value) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte typeOf(Object value) {
+        if (value instanceof String)
+            return TYPE_STRING;
+        if (value instanceof Version)
+            return TYPE_VERSION;
+        if (value instanceof Long)
+            return TYPE_LONG;
+        if (value instanceof Integer)
+            return TYPE_INTEGER;
+        if (value instanceof Double)
+            return TYPE_DOUBLE;
+        if (value instanceof Float)
+            return TYPE_FLOAT;
+        if (value instanceof Boolean)
+            return TYPE_BOOLEAN;
+        return -1;
+    }
+
+    private static void writeClause(DataOutputStream out, String namespace,
+            Map<String, Object> attributes, Map<String, String> directives)
+            throws IOException {
+        writeString(out, namespace);
+        out.writeInt(attributes.size());
+        for (Entry<String, Object> attribute : attributes.entrySet()) {
+            writeString(out, attribute.getKey());
+            writeValue(out, attribute.getValue());
+        }
+        out.writeInt(directives.size());
+        for (Entry<String, String> directive : directives.entrySet()) {
+            writeString(out, directive.getKey());
+            writeString(out, directive.getValue());
+        }
+    }
+
+    private static Builder readClause(DataInputStream in) throws IOException {
+        Builder builder = new Builder().setNamespace(readString(in));
+        int attributeCount = in.readInt();
+        for (int i = 0; i < attributeCount; i++) {
+            builder.addAttribute(readString(in), readValue(in));
+        }
+        int directiveCount = in.readInt();
+        for (int i = 0; i < directiveCount; i++) {
+            builder.addDirective(readString(in), readString(in));
+        }
+        return builder;
+    }
+
+    private static void writeValue(DataOutputStream out, Object value)
+            throws IOException {
+        if (value instanceof Collection<?>) {
+            Collection<?> items = (Collection<?>) value;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(items.size());
+            for (Object item : items) {
+                writeValue(out, item);
+            }
+            return;
+        }
+        byte type = typeOf(value);
+        out.writeByte(type);
+        switch (type) {
+        case TYPE_LONG:
+            out.writeLong((Long) value);
+            break;
+        case TYPE_INTEGER:
+            out.writeInt((Integer) value);
+            break;
+        case TYPE_DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case TYPE_FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        case TYPE_BOOLEAN:
+            out.writeBoolean((Boolean) value);
+            break;
+        default:
+            writeString(out, value.toString());
+            break;
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case TYPE_STRING:
+            return readString(in);
+        case TYPE_VERSION:
+            return Version.parseVersion(readString(in));
+        case TYPE_LONG:
+            return in.readLong();
+        case TYPE_INTEGER:
+            return in.readInt();
+        case TYPE_DOUBLE:
+            return in.readDouble();
+        case TYPE_FLOAT:
+            return in.readFloat();
+        case TYPE_BOOLEAN:
+            return in.readBoolean();
+        case TYPE_LIST:
+            int count = in.readInt();
+            List<Object> items = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                items.add(readValue(in));
+            }
+            return items;
+        default:
+            throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    /*
+     * DataOutputStream.writeUTF() is limited to 64k, which long uses
+     * directives can exceed.
+     */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -16,7 +16,10 @@ import java.io.IOException;
  * Part of this code was borrowed from BIndex project (https://github.com/osgi/bindex) 
  * and it is released under OSGi Specification License, VERSION 2.0
  */
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
@@ -40,6 +43,16 @@ public class BlueprintAnalyzer implements ResourceAnalyzer {
         this.verbose = pVerbose;
     }
 
+    @Override
+    public Set<Input> getInputs() {
+        return EnumSet.of(Input.MANIFEST, Input.ENTRIES);
+    }
+
+    @Override
+    public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return Collections.emptySet();
+    }
+
     @Override
     public void analyzeResource(Resource resource,
             List<Capability> capabilities, List<Requirement> requirements)
@@ -11,20 +11,20 @@
  */
 package org.osgi.service.indexer.impl;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
 import org.osgi.framework.Constants;
@@ -39,7 +39,6 @@ import org.osgi.service.indexer.ResourceAnalyzer;
 import org.osgi.service.indexer.impl.types.SymbolicName;
 import org.osgi.service.indexer.impl.types.VersionKey;
 import org.osgi.service.indexer.impl.types.VersionRange;
-import org.osgi.service.indexer.impl.util.Hex;
 import org.osgi.service.indexer.impl.util.OSGiHeader;
 import org.osgi.service.indexer.impl.util.Yield;
 import org.osgi.service.log.LogService;
@@ -52,9 +51,8 @@ public class BundleAnalyzer implements ResourceAnalyzer {
     // Duplicate these constants here to avoid a compile-time dependency on OSGi
     // R4.3
     private static final String PROVIDE_CAPABILITY = "Provide-Capability";
-    private static final String REQUIRE_CAPABILITY = "Require-Capability";
 
-    private static final String SHA_256 = "SHA-256";
+    static final String SHA_256 = "SHA-256";
 
     // Filename suffix for JAR files
     private static final String SUFFIX_JAR = ".jar";
@@ -107,9 +105,11 @@ public class BundleAnalyzer implements ResourceAnalyzer {
             Yield<Builder> output) {
         if (headerStr == null)
             return;
-        Map<String, Map<String, String>> header = OSGiHeader
-                .parseHeader(headerStr);
+        buildFromHeader(OSGiHeader.parseHeader(headerStr), output);
+    }
 
+    static void buildFromHeader(Map<String, Map<String, String>> header,
+            Yield<Builder> output) {
         for (Entry<String, Map<String, String>> entry : header.entrySet()) {
             String namespace = OSGiHeader.removeDuplicateMarker(entry.getKey());
             Builder builder = new Builder().setNamespace(namespace);
@@ -120,41 +120,53 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static String calculateLocation(Resource resource)
-            throws IOException {
+    /**
+     * Calculates the location of a bundle as the url of its content, ignoring
+     * the url template.
+     */
+    static Path calculatePathLocation(Path resourcePath, GeneratorState state) {
+        if (state == null || state.isForceAbsolutePath()) {
+            return resourcePath.toAbsolutePath().normalize();
+        }
+        Path artifactCopyDirPath = state.getBundleCopyDirPath();
+        if (artifactCopyDirPath != null) {
+            resourcePath = artifactCopyDirPath.normalize()
+                    .resolve(resourcePath.getFileName());
+        }
+        return state.getRootPath().relativize(resourcePath);
+    }
+
+    /**
+     * Applies the url template to the location of a bundle, replacing
+     * {@code %s} with its symbolic name, {@code %f} with its file name,
+     * {@code %p} with its parent directory and {@code %v} with its version.
+     */
+    static Path applyUrlTemplate(String urlTemplate, Path location,
+            String symbolicName, String version) {
+        String fileName = location.getFileName().toString();
+        Path parent = location.getParent().toAbsolutePath();
+        String result = urlTemplate.replaceAll("%s", symbolicName);
+        result = result.replaceAll("%f", fileName);
+        result = result.replaceAll("%p", parent.toString());
+        result = result.replaceAll("%v", version);
+        return parent.resolve(result);
+    }
+
+    static String calculateLocation(Resource resource) throws IOException {
         Path resourcePath = Paths.get(resource.getLocation());
         Path resultPath;
-        GeneratorState state = RepoIndex.getStateLocal();
+        GeneratorState state = RepoIndex.getState(resource);
         if (state != null) {
-            Path rootPath = state.getRootPath();
-            if (state.isForceAbsolutePath()) {
-                resultPath = resourcePath.toAbsolutePath().normalize();
-            } else {
-                Path artifactCopyDirPath = state.getBundleCopyDirPath();
-                if (artifactCopyDirPath != null) {
-                    resourcePath = artifactCopyDirPath.normalize()
-                            .resolve(resourcePath.getFileName());
-                }
-                resultPath = rootPath.relativize(resourcePath);
-            }
+            resultPath = calculatePathLocation(resourcePath, state);
 
             String urlTemplate = state.getUrlTemplate();
             if (urlTemplate != null) {
-                String result;
-                String fileName = resultPath.getFileName().toString();
-                Path parent = resultPath.getParent().toAbsolutePath();
-                result = urlTemplate.replaceAll("%s",
-                        Util.getSymbolicName(resource).getName());
-                result = result.replaceAll("%f", fileName);
-                result = result.replaceAll("%p", parent.toString());
-                result = result.replaceAll("%v",
+                resultPath = applyUrlTemplate(urlTemplate, resultPath,
+                        Util.getSymbolicName(resource).getName(),
                         "" + Util.getVersion(resource));
-                resultPath = parent.resolve(result);
             }
-        } else
-
-        {
-            resultPath = resourcePath.toAbsolutePath().normalize();
+        } else {
+            resultPath = calculatePathLocation(resourcePath, null);
         }
         return resultPath.toString();
 
@@ -162,20 +174,29 @@ public class BundleAnalyzer implements ResourceAnalyzer {
 
     public static String calculateSHA(Resource resource)
             throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance(SHA_256);
-        byte[] buf = new byte[1024];
+        String contentDigest = null;
+        File file = null;
+        if (resource instanceof JarResource) {
+            contentDigest = ((JarResource) resource).getContentDigest();
+            file = new File(resource.getLocation());
+        } else if (resource instanceof MappedJarResource) {
+            file = new File(resource.getLocation());
+        }
 
-        try (InputStream stream = resource.getStream()) {
-            while (true) {
-                int bytesRead = stream.read(buf, 0, 1024);
-                if (bytesRead < 0)
-                    break;
+        GeneratorState state = RepoIndex.getState(resource);
+        DigestService digestService = state == null ? null
+                : state.getDigestService();
+        if (digestService != null && file != null && file.isFile()) {
+            return digestService.getSHA256(file, contentDigest);
+        }
 
-                digest.update(buf, 0, bytesRead);
-            }
+        if (contentDigest == null && resource instanceof MappedJarResource) {
+            contentDigest = ((MappedJarResource) resource).getContentDigest();
         }
+        if (contentDigest != null)
+            return contentDigest;
 
-        return Hex.toHexString(digest.digest());
+        return DigestService.sha256(resource.getStream());
     }
 
     private static void copyAttribsAndDirectives(Map<String, String> input,
@@ -226,10 +247,9 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static void doBundleAndHost(Resource resource,
-            List<? super Capability> caps) throws IOException {
-        Attributes attribs = resource.getManifest().getMainAttributes();
-        if (attribs.getValue(Constants.FRAGMENT_HOST) != null)
+    private static void doBundleAndHost(BundleDescriptor descriptor,
+            List<? super Capability> caps) {
+        if (descriptor.getHeader(Constants.FRAGMENT_HOST) != null)
             return;
 
         Builder bundleBuilder = new Builder()
@@ -238,8 +258,8 @@ public class BundleAnalyzer implements ResourceAnalyzer {
                 .setNamespace(Namespaces.NS_WIRING_HOST);
         boolean allowFragments = true;
         
-        SymbolicName bsn = Util.getSymbolicName(resource);
-        Version version = Util.getVersion(resource);
+        SymbolicName bsn = descriptor.getSymbolicName();
+        Version version = descriptor.getVersion();
 
         bundleBuilder.addAttribute(Namespaces.NS_WIRING_BUNDLE, bsn.getName())
                 .addAttribute(Constants.BUNDLE_VERSION_ATTRIBUTE, version);
@@ -272,7 +292,8 @@ public class BundleAnalyzer implements ResourceAnalyzer {
             caps.add(hostBuilder.buildCapability());
     }
 
-    private static void doBundleIdentity(Resource resource, MimeType mimeType,
+    private static void doBundleIdentity(Resource resource,
+            BundleDescriptor descriptor, MimeType mimeType,
             List<? super Capability> caps) throws IOException {
         Manifest manifest = resource.getManifest();
         if (manifest == null)
@@ -291,11 +312,11 @@ public class BundleAnalyzer implements ResourceAnalyzer {
             break;
         }
 
-        SymbolicName bsn = Util.getSymbolicName(resource);
+        SymbolicName bsn = descriptor.getSymbolicName();
         boolean singleton = Boolean.TRUE.toString().equalsIgnoreCase(
                 bsn.getAttributes().get(Constants.SINGLETON_DIRECTIVE + ":"));
 
-        Version version = Util.getVersion(resource);
+        Version version = descriptor.getVersion();
 
         Builder builder = new Builder().setNamespace(Namespaces.NS_IDENTITY)
                 .addAttribute(Namespaces.NS_IDENTITY, bsn.getName())
@@ -414,14 +435,15 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         capabilities.add(builder.buildCapability());
     }
 
-    private static void doExports(Resource resource,
-            List<? super Capability> caps) throws IOException {
-        Manifest manifest = resource.getManifest();
+    private static void doExports(BundleDescriptor descriptor,
+            List<? super Capability> caps) {
+        Map<String, Map<String, String>> exports = descriptor
+                .getExportPackage();
+        if (exports.isEmpty())
+            return;
 
-        String exportsStr = manifest.getMainAttributes()
-                .getValue(Constants.EXPORT_PACKAGE);
-        Map<String, Map<String, String>> exports = OSGiHeader
-                .parseHeader(exportsStr);
+        String bsn = descriptor.getSymbolicName().getName();
+        Version bundleVersion = descriptor.getVersion();
         for (Entry<String, Map<String, String>> entry : exports.entrySet()) {
             Builder builder = new Builder()
                     .setNamespace(Namespaces.NS_WIRING_PACKAGE);
@@ -448,10 +470,7 @@ public class BundleAnalyzer implements ResourceAnalyzer {
                 }
             }
 
-            SymbolicName bsn = Util.getSymbolicName(resource);
-            builder.addAttribute(Namespaces.ATTR_BUNDLE_SYMBOLIC_NAME,
-                    bsn.getName());
-            Version bundleVersion = Util.getVersion(resource);
+            builder.addAttribute(Namespaces.ATTR_BUNDLE_SYMBOLIC_NAME, bsn);
             builder.addAttribute(Namespaces.ATTR_BUNDLE_VERSION, bundleVersion);
 
             caps.add(builder.buildCapability());
@@ -480,16 +499,12 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static void doFragment(Resource resource,
-            List<? super Requirement> reqs) throws IOException {
-        Manifest manifest = resource.getManifest();
-        String fragmentHost = manifest.getMainAttributes()
-                .getValue(Constants.FRAGMENT_HOST);
-
-        if (fragmentHost != null) {
+    private static void doFragment(BundleDescriptor descriptor,
+            List<? super Requirement> reqs) {
+        if (descriptor.getHeader(Constants.FRAGMENT_HOST) != null) {
             StringBuilder filter = new StringBuilder();
-            Map<String, Map<String, String>> fragmentList = OSGiHeader
-                    .parseHeader(fragmentHost);
+            Map<String, Map<String, String>> fragmentList = descriptor
+                    .getFragmentHost();
             if (fragmentList.size() != 1)
                 throw new IllegalArgumentException(
                         "Invalid FRAGMENT-Host header: cannot contain multiple entries");
@@ -515,14 +530,10 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static void doImports(Resource resource,
-            List<? super Requirement> reqs) throws IOException {
-        Manifest manifest = resource.getManifest();
-
-        String importsStr = manifest.getMainAttributes()
-                .getValue(Constants.IMPORT_PACKAGE);
-        Map<String, Map<String, String>> imports = OSGiHeader
-                .parseHeader(importsStr);
+    private static void doImports(BundleDescriptor descriptor,
+            List<? super Requirement> reqs) {
+        Map<String, Map<String, String>> imports = descriptor
+                .getImportPackage();
         for (Entry<String, Map<String, String>> entry : imports.entrySet()) {
             StringBuilder filter = new StringBuilder();
 
@@ -621,34 +632,43 @@ public class BundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static void doRequirements(Resource resource,
-            final List<? super Requirement> reqs) throws IOException {
-        String reqsStr = resource.getManifest().getMainAttributes()
-                .getValue(REQUIRE_CAPABILITY);
-        buildFromHeader(reqsStr,
+    private static void doRequirements(BundleDescriptor descriptor,
+            final List<? super Requirement> reqs) {
+        buildFromHeader(descriptor.getRequireCapability(),
                 builder -> reqs.add(builder.buildRequirement()));
     }
 
+    @Override
+    public Set<Input> getInputs() {
+        return EnumSet.of(Input.MANIFEST, Input.CONTENT);
+    }
+
+    @Override
+    public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return Collections.emptySet();
+    }
+
     @Override
     public void analyzeResource(Resource resource,
             List<Capability> capabilities, List<Requirement> requirements)
             throws AnalyzerException {
         MimeType mimeType;
         try {
-            mimeType = Util.getMimeType(resource);
+            BundleDescriptor descriptor = BundleDescriptor.of(resource);
+            mimeType = descriptor.getMimeType();
             if (mimeType == MimeType.BUNDLE || mimeType == MimeType.FRAGMENT) {
-                doBundleIdentity(resource, mimeType, capabilities);
+                doBundleIdentity(resource, descriptor, mimeType, capabilities);
                 doContent(resource, mimeType, capabilities);
-                doBundleAndHost(resource, capabilities);
-                doExports(resource, capabilities);
-                doImports(resource, requirements);
+                doBundleAndHost(descriptor, capabilities);
+                doExports(descriptor, capabilities);
+                doImports(descriptor, requirements);
                 doRequireBundles(resource, requirements);
-                doFragment(resource, requirements);
+                doFragment(descriptor, requirements);
                 doExportService(resource, capabilities);
                 doImportService(resource, requirements);
                 doBREE(resource, requirements);
                 doCapabilities(resource, capabilities);
-                doRequirements(resource, requirements);
+                doRequirements(descriptor, requirements);
                 doBundleNativeCode(resource, requirements);
             } else {
                 doPlainJarIdentity(resource, capabilities);
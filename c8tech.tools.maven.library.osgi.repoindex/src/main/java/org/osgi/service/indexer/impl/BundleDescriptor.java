@@ -0,0 +1,216 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.impl.types.SymbolicName;
+import org.osgi.service.indexer.impl.util.OSGiHeader;
+
+/**
+ * The identity and the main headers of a bundle, parsed from its manifest.
+ * <p>
+ * Each value is parsed the first time it is asked for and then kept, so the
+ * analyzers working on the same resource share one parse of every header.
+ * Values that cannot be parsed are not kept: asking for them again throws
+ * again. The parsed headers are unmodifiable.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class BundleDescriptor {
+
+    private static final String REQUIRE_CAPABILITY = "Require-Capability";
+
+    private final String location;
+    private final Attributes attributes;
+
+    private volatile SymbolicName symbolicName;
+    private volatile Version version;
+    private volatile Map<String, Map<String, String>> fragmentHost;
+    private volatile Map<String, Map<String, String>> importPackage;
+    private volatile Map<String, Map<String, String>> exportPackage;
+    private volatile Map<String, Map<String, String>> requireCapability;
+
+    BundleDescriptor(String location, Manifest manifest) {
+        this.location = location;
+        this.attributes = manifest == null ? null
+                : manifest.getMainAttributes();
+    }
+
+    /**
+     * Returns the descriptor of a resource. Jar resources build theirs once
+     * and keep it; other resources get a new one on every call.
+     *
+     * @param resource
+     *                     the resource.
+     * @return the descriptor.
+     * @throws IOException
+     *                         when the manifest cannot be read.
+     */
+    public static BundleDescriptor of(Resource resource) throws IOException {
+        if (resource instanceof JarResource) {
+            return ((JarResource) resource).getBundleDescriptor();
+        }
+        if (resource instanceof MappedJarResource) {
+            return ((MappedJarResource) resource).getBundleDescriptor();
+        }
+        return new BundleDescriptor(resource.getLocation(),
+                resource.getManifest());
+    }
+
+    /**
+     * @return the kind of archive, from the presence of the
+     *         Bundle-SymbolicName and Fragment-Host headers.
+     */
+    public MimeType getMimeType() {
+        if (getHeader(Constants.BUNDLE_SYMBOLICNAME) == null)
+            return MimeType.JAR;
+        if (getHeader(Constants.FRAGMENT_HOST) != null)
+            return MimeType.FRAGMENT;
+        return MimeType.BUNDLE;
+    }
+
+    /**
+     * @param name
+     *                 the header name.
+     * @return the raw value of a main manifest header, or null when the header
+     *         or the manifest are missing.
+     */
+    public String getHeader(String name) {
+        return attributes == null ? null : attributes.getValue(name);
+    }
+
+    /**
+     * @return the parsed Bundle-SymbolicName header.
+     * @throws IllegalArgumentException
+     *                                      when the manifest or the header are
+     *                                      missing, or the header does not
+     *                                      hold exactly one name.
+     */
+    public SymbolicName getSymbolicName() {
+        SymbolicName result = symbolicName;
+        if (result == null) {
+            result = parseSymbolicName();
+            symbolicName = result;
+        }
+        return result;
+    }
+
+    private SymbolicName parseSymbolicName() {
+        if (attributes == null)
+            throw new IllegalArgumentException(String.format(
+                    "Cannot identify symbolic name for resource %s: manifest unavailable",
+                    location));
+
+        String header = attributes.getValue(Constants.BUNDLE_SYMBOLICNAME);
+        if (header == null)
+            throw new IllegalArgumentException(
+                    "Not an OSGi R4+ bundle: missing 'BUNDLE-SymbolicName' entry from manifest.");
+
+        Map<String, Map<String, String>> map = OSGiHeader.parseHeader(header);
+        if (map.size() != 1)
+            throw new IllegalArgumentException(
+                    "Invalid format for BUNDLE-SymbolicName header.");
+
+        Entry<String, Map<String, String>> entry = map.entrySet().iterator()
+                .next();
+        return new SymbolicName(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * @return the Bundle-Version, or the empty version when the header is
+     *         missing.
+     * @throws IllegalArgumentException
+     *                                      when the manifest is missing or the
+     *                                      version is invalid.
+     */
+    public Version getVersion() {
+        Version result = version;
+        if (result == null) {
+            if (attributes == null)
+                throw new IllegalArgumentException(String.format(
+                        "Cannot identify version for resource %s: manifest unavailable",
+                        location));
+            String versionStr = attributes.getValue(Constants.BUNDLE_VERSION);
+            result = (versionStr != null) ? new Version(versionStr)
+                    : Version.emptyVersion;
+            version = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the parsed Fragment-Host header, empty when the bundle is not a
+     *         fragment.
+     */
+    public Map<String, Map<String, String>> getFragmentHost() {
+        Map<String, Map<String, String>> result = fragmentHost;
+        if (result == null) {
+            result = parse(Constants.FRAGMENT_HOST);
+            fragmentHost = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the parsed Import-Package header.
+     */
+    public Map<String, Map<String, String>> getImportPackage() {
+        Map<String, Map<String, String>> result = importPackage;
+        if (result == null) {
+            result = parse(Constants.IMPORT_PACKAGE);
+            importPackage = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the parsed Export-Package header.
+     */
+    public Map<String, Map<String, String>> getExportPackage() {
+        Map<String, Map<String, String>> result = exportPackage;
+        if (result == null) {
+            result = parse(Constants.EXPORT_PACKAGE);
+            exportPackage = result;
+        }
+        return result;
+    }
+
+    /**
+     * @return the parsed Require-Capability header.
+     */
+    public Map<String, Map<String, String>> getRequireCapability() {
+        Map<String, Map<String, String>> result = requireCapability;
+        if (result == null) {
+            result = parse(REQUIRE_CAPABILITY);
+            requireCapability = result;
+        }
+        return result;
+    }
+
+    private Map<String, Map<String, String>> parse(String headerName) {
+        // parsed headers are unmodifiable, and shared with other bundles
+        return OSGiHeader.parseHeader(getHeader(headerName));
+    }
+
+    @Override
+    public String toString() {
+        return "BundleDescriptor [location=" + location + "]";
+    }
+}
@@ -0,0 +1,584 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.osgi.framework.FrameworkUtil.createFilter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.Filter;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Namespaces;
+
+/**
+ * An in-memory index of capabilities, answering which capabilities, and
+ * which resources, satisfy a requirement.
+ * <p>
+ * Within a namespace the capabilities are indexed by their primary attribute,
+ * the one named after the namespace ({@code objectClass} for services), and
+ * then by version. The filter of a requirement is inspected for an equality
+ * (or trailing wildcard) on the primary attribute and for version bounds as
+ * written by {@link Util#addVersionFilter(StringBuilder,
+ * org.osgi.service.indexer.impl.types.VersionRange,
+ * org.osgi.service.indexer.impl.types.VersionKey)}; only the capabilities
+ * within those bounds are then matched against the filter. Filters that give
+ * no such hint are matched against every capability of the namespace.
+ * <p>
+ * Matching follows {@link Filter#matches(Map)} on the capability attributes;
+ * directives such as {@code mandatory} are not taken into account. Results
+ * are returned in the order the capabilities were added. Parsed filters are
+ * cached.
+ * <p>
+ * Adding is not thread-safe. Once built, the index may be queried from
+ * several threads.
+ *
+ * @param <R>
+ *                the type of the resources owning the capabilities.
+ */
+public final class CapabilityIndex<R> {
+
+    private static final int MAX_CACHED_QUERIES = 4096;
+
+    private static final Comparator<Entry<?>> ORDER = (a, b) -> Integer
+            .compare(a.order, b.order);
+
+    private final Map<String, NamespaceIndex<R>> namespaces = new HashMap<>();
+    private final Map<String, Query> queries = new ConcurrentHashMap<>();
+    private int count;
+
+    /**
+     * Adds the capabilities of a resource.
+     *
+     * @param resource
+     *                         the resource owning the capabilities.
+     * @param capabilities
+     *                         the capabilities.
+     */
+    public void add(R resource, Collection<? extends Capability> capabilities) {
+        for (Capability capability : capabilities) {
+            NamespaceIndex<R> index = namespaces.computeIfAbsent(
+                    capability.getNamespace(), NamespaceIndex::new);
+            index.add(new Entry<>(capability, resource, count++));
+        }
+    }
+
+    /**
+     * @return the number of capabilities in the index.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Finds the capabilities satisfying a requirement.
+     *
+     * @param requirement
+     *                        the requirement.
+     * @return the matching capabilities, in the order they were added.
+     * @throws InvalidSyntaxException
+     *                                    when the filter of the requirement is
+     *                                    invalid.
+     */
+    public List<Capability> findCapabilities(Requirement requirement)
+            throws InvalidSyntaxException {
+        List<Entry<R>> entries = find(requirement);
+        List<Capability> result = new ArrayList<>(entries.size());
+        for (Entry<R> entry : entries) {
+            result.add(entry.capability);
+        }
+        return result;
+    }
+
+    /**
+     * Finds the resources having a capability satisfying a requirement.
+     *
+     * @param requirement
+     *                        the requirement.
+     * @return the matching resources, in the order their capabilities were
+     *         added.
+     * @throws InvalidSyntaxException
+     *                                    when the filter of the requirement is
+     *                                    invalid.
+     */
+    public Set<R> findResources(Requirement requirement)
+            throws InvalidSyntaxException {
+        Set<R> result = new LinkedHashSet<>();
+        for (Entry<R> entry : find(requirement)) {
+            result.add(entry.resource);
+        }
+        return result;
+    }
+
+    private List<Entry<R>> find(Requirement requirement)
+            throws InvalidSyntaxException {
+        String filterStr = requirement.getDirectives()
+                .get(Namespaces.DIRECTIVE_FILTER);
+        NamespaceIndex<R> index = namespaces.get(requirement.getNamespace());
+        if (index == null) {
+            if (filterStr != null) {
+                // invalid filters are reported whatever the namespace
+                createFilter(filterStr);
+            }
+            return Collections.emptyList();
+        }
+        if (filterStr == null) {
+            return new ArrayList<>(index.all);
+        }
+
+        Query query = getQuery(index, filterStr);
+        Set<Entry<R>> candidates = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+        index.collect(query, candidates);
+
+        List<Entry<R>> result = new ArrayList<>();
+        for (Entry<R> candidate : candidates) {
+            if (query.filter.matches(candidate.capability.getAttributes())) {
+                result.add(candidate);
+            }
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    private Query getQuery(NamespaceIndex<R> index, String filterStr)
+            throws InvalidSyntaxException {
+        String key = index.namespace + '\0' + filterStr;
+        Query query = queries.get(key);
+        if (query == null) {
+            query = Query.create(createFilter(filterStr), filterStr,
+                    index.primaryAttribute, index.versionAttribute);
+            if (queries.size() >= MAX_CACHED_QUERIES) {
+                queries.clear();
+            }
+            queries.put(key, query);
+        }
+        return query;
+    }
+
+    private static final class Entry<R> {
+        private final Capability capability;
+        private final R resource;
+        private final int order;
+
+        Entry(Capability capability, R resource, int order) {
+            this.capability = capability;
+            this.resource = resource;
+            this.order = order;
+        }
+    }
+
+    /**
+     * The capabilities sharing a primary attribute value.
+     */
+    private static final class Bucket<R> {
+        private final List<Entry<R>> all = new ArrayList<>();
+        private final List<Entry<R>> unversioned = new ArrayList<>();
+        private final TreeMap<Version, List<Entry<R>>> versioned = new TreeMap<>();
+
+        void collect(Query query, Set<Entry<R>> candidates) {
+            if (query.low == null && query.high == null) {
+                candidates.addAll(all);
+                return;
+            }
+            candidates.addAll(unversioned);
+            if (query.isEmptyRange()) {
+                return;
+            }
+            NavigableMap<Version, List<Entry<R>>> range = versioned;
+            if (query.low != null) {
+                range = range.tailMap(query.low, query.lowInclusive);
+            }
+            if (query.high != null) {
+                range = range.headMap(query.high, query.highInclusive);
+            }
+            for (List<Entry<R>> entries : range.values()) {
+                candidates.addAll(entries);
+            }
+        }
+    }
+
+    private static final class NamespaceIndex<R> {
+        private final String namespace;
+        private final String primaryAttribute;
+        private final String versionAttribute;
+        private final List<Entry<R>> all = new ArrayList<>();
+        private final TreeMap<String, Bucket<R>> byPrimary = new TreeMap<>();
+        private final Bucket<R> unkeyed = new Bucket<>();
+
+        NamespaceIndex(String namespace) {
+            this.namespace = namespace;
+            this.primaryAttribute = Namespaces.NS_SERVICE.equals(namespace)
+                    ? org.osgi.framework.Constants.OBJECTCLASS
+                    : namespace;
+            this.versionAttribute = Namespaces.NS_WIRING_BUNDLE
+                    .equals(namespace)
+                    || Namespaces.NS_WIRING_HOST.equals(namespace)
+                            ? Namespaces.ATTR_BUNDLE_VERSION
+                            : Namespaces.ATTR_VERSION;
+        }
+
+        void add(Entry<R> entry) {
+            all.add(entry);
+            Map<String, Object> attributes = entry.capability.getAttributes();
+            List<Object> keys = values(attributes.get(primaryAttribute));
+            boolean keyed = !keys.isEmpty();
+            for (Object key : keys) {
+                // other types compare by their own rules, not as strings
+                if (!(key instanceof String)) {
+                    keyed = false;
+                }
+            }
+            if (!keyed) {
+                addTo(unkeyed, entry, attributes);
+                return;
+            }
+            for (Object key : keys) {
+                Bucket<R> bucket = byPrimary.computeIfAbsent((String) key,
+                        k -> new Bucket<>());
+                addTo(bucket, entry, attributes);
+            }
+        }
+
+        private void addTo(Bucket<R> bucket, Entry<R> entry,
+                Map<String, Object> attributes) {
+            bucket.all.add(entry);
+            // with several versions, the bounds of a filter may each be met
+            // by a different one, so only single versions can be looked up
+            Object version = attributes.get(versionAttribute);
+            if (version instanceof Version) {
+                bucket.versioned.computeIfAbsent((Version) version,
+                        v -> new ArrayList<>()).add(entry);
+            } else {
+                bucket.unversioned.add(entry);
+            }
+        }
+
+        void collect(Query query, Set<Entry<R>> candidates) {
+            if (query.keys != null) {
+                for (String key : query.keys) {
+                    Bucket<R> bucket = byPrimary.get(key);
+                    if (bucket != null) {
+                        bucket.collect(query, candidates);
+                    }
+                }
+            } else if (query.prefix != null) {
+                for (Bucket<R> bucket : byPrimary
+                        .subMap(query.prefix, true, query.prefix + '\uffff', true)
+                        .values()) {
+                    bucket.collect(query, candidates);
+                }
+            } else {
+                candidates.addAll(all);
+                return;
+            }
+            unkeyed.collect(query, candidates);
+        }
+
+        private static List<Object> values(Object value) {
+            if (value == null) {
+                return Collections.emptyList();
+            }
+            if (value instanceof Collection<?>) {
+                return new ArrayList<Object>((Collection<?>) value);
+            }
+            return Collections.singletonList(value);
+        }
+    }
+
+    /**
+     * A parsed requirement filter, with the lookups it allows.
+     */
+    private static final class Query {
+        private final Filter filter;
+        private Set<String> keys;
+        private String prefix;
+        private Version low;
+        private boolean lowInclusive;
+        private Version high;
+        private boolean highInclusive;
+
+        private Query(Filter filter) {
+            this.filter = filter;
+        }
+
+        static Query create(Filter filter, String filterStr,
+                String primaryAttribute, String versionAttribute) {
+            Query query = new Query(filter);
+            Node root;
+            try {
+                root = new FilterParser(filterStr).parse();
+            } catch (IllegalArgumentException e) {
+                // the filter is valid, just not understood by the planner
+                return query;
+            }
+
+            List<Node> conjuncts = new ArrayList<>();
+            flattenAnd(root, conjuncts);
+            for (Node node : conjuncts) {
+                if (query.keys == null && query.prefix == null) {
+                    query.planPrimary(node, primaryAttribute);
+                }
+                query.planVersion(node, versionAttribute);
+            }
+            return query;
+        }
+
+        private static void flattenAnd(Node node, List<Node> conjuncts) {
+            if (node.op == '&') {
+                for (Node child : node.children) {
+                    flattenAnd(child, conjuncts);
+                }
+            } else {
+                conjuncts.add(node);
+            }
+        }
+
+        private void planPrimary(Node node, String primaryAttribute) {
+            if (node.isEquality(primaryAttribute)) {
+                keys = Collections.singleton(node.value);
+            } else if (node.isPrefix(primaryAttribute)) {
+                prefix = node.parts.get(0);
+            } else if (node.op == '|' && !node.children.isEmpty()) {
+                Set<String> alternatives = new LinkedHashSet<>();
+                for (Node child : node.children) {
+                    if (!child.isEquality(primaryAttribute)) {
+                        return;
+                    }
+                    alternatives.add(child.value);
+                }
+                keys = alternatives;
+            }
+        }
+
+        private void planVersion(Node node, String versionAttribute) {
+            boolean negated = node.op == '!';
+            Node item = negated ? node.children.get(0) : node;
+            if (item.op != '=' && item.op != '<' && item.op != '>') {
+                return;
+            }
+            if (!versionAttribute.equals(item.attribute)
+                    || item.parts != null) {
+                return;
+            }
+            Version version;
+            try {
+                version = Version.parseVersion(item.value.trim());
+            } catch (IllegalArgumentException e) {
+                return;
+            }
+            if (!negated) {
+                if (item.op == '>' || item.op == '=') {
+                    lowerBound(version, true);
+                }
+                if (item.op == '<' || item.op == '=') {
+                    upperBound(version, true);
+                }
+            } else if (item.op == '<') {
+                // (!(version<=v)) is version > v
+                lowerBound(version, false);
+            } else if (item.op == '>') {
+                // (!(version>=v)) is version < v
+                upperBound(version, false);
+            }
+        }
+
+        boolean isEmptyRange() {
+            if (low == null || high == null) {
+                return false;
+            }
+            int c = low.compareTo(high);
+            return c > 0 || (c == 0 && !(lowInclusive && highInclusive));
+        }
+
+        private void lowerBound(Version version, boolean inclusive) {
+            int c = low == null ? 1 : version.compareTo(low);
+            if (c > 0) {
+                low = version;
+                lowInclusive = inclusive;
+            } else if (c == 0) {
+                lowInclusive &= inclusive;
+            }
+        }
+
+        private void upperBound(Version version, boolean inclusive) {
+            int c = high == null ? -1 : version.compareTo(high);
+            if (c < 0) {
+                high = version;
+                highInclusive = inclusive;
+            } else if (c == 0) {
+                highInclusive &= inclusive;
+            }
+        }
+    }
+
+    /**
+     * A node of a parsed filter. The operator is one of {@code & | !} for
+     * composite nodes, or {@code = < > ~} for the comparisons {@code =},
+     * {@code <=}, {@code >=} and {@code ~=}.
+     */
+    private static final class Node {
+        private final char op;
+        private final List<Node> children;
+        private final String attribute;
+        private final String value;
+        private final List<String> parts;
+
+        Node(char op, List<Node> children) {
+            this(op, children, null, null, null);
+        }
+
+        Node(char op, List<Node> children, String attribute, String value,
+                List<String> parts) {
+            this.op = op;
+            this.children = children;
+            this.attribute = attribute;
+            this.value = value;
+            this.parts = parts;
+        }
+
+        boolean isEquality(String name) {
+            return op == '=' && parts == null && name.equals(attribute);
+        }
+
+        boolean isPrefix(String name) {
+            return op == '=' && parts != null && parts.size() == 2
+                    && parts.get(1).isEmpty() && !parts.get(0).isEmpty()
+                    && name.equals(attribute);
+        }
+    }
+
+    /**
+     * A minimal RFC 1960 filter parser, only used to plan lookups; the
+     * filters themselves are evaluated by the framework implementation.
+     */
+    private static final class FilterParser {
+        private final String filter;
+        private int pos;
+
+        FilterParser(String filter) {
+            this.filter = filter;
+        }
+
+        Node parse() {
+            Node node = parseNode();
+            skipWhitespace();
+            if (pos != filter.length()) {
+                throw new IllegalArgumentException(filter);
+            }
+            return node;
+        }
+
+        private Node parseNode() {
+            skipWhitespace();
+            expect('(');
+            skipWhitespace();
+            char c = peek();
+            Node node;
+            if (c == '&' || c == '|') {
+                pos++;
+                List<Node> children = new ArrayList<>();
+                skipWhitespace();
+                while (peek() == '(') {
+                    children.add(parseNode());
+                    skipWhitespace();
+                }
+                node = new Node(c, children);
+            } else if (c == '!') {
+                pos++;
+                node = new Node(c, Collections.singletonList(parseNode()));
+                skipWhitespace();
+            } else {
+                node = parseItem();
+            }
+            expect(')');
+            return node;
+        }
+
+        private Node parseItem() {
+            int start = pos;
+            while (pos < filter.length() && "=<>~()".indexOf(peek()) < 0) {
+                pos++;
+            }
+            String attribute = filter.substring(start, pos).trim();
+            if (attribute.isEmpty()) {
+                throw new IllegalArgumentException(filter);
+            }
+            char op = peek();
+            if (op == '=') {
+                pos++;
+            } else if (op == '<' || op == '>' || op == '~') {
+                pos++;
+                expect('=');
+            } else {
+                throw new IllegalArgumentException(filter);
+            }
+
+            StringBuilder value = new StringBuilder();
+            List<String> parts = null;
+            while (peek() != ')') {
+                char ch = filter.charAt(pos++);
+                if (ch == '\\') {
+                    value.append(filter.charAt(pos++));
+                } else if (ch == '*' && op == '=') {
+                    if (parts == null) {
+                        parts = new ArrayList<>();
+                    }
+                    parts.add(value.toString());
+                    value.setLength(0);
+                } else {
+                    value.append(ch);
+                }
+            }
+            if (parts != null) {
+                parts.add(value.toString());
+            }
+            return new Node(op, Collections.<Node> emptyList(), attribute,
+                    value.toString(), parts);
+        }
+
+        private char peek() {
+            if (pos >= filter.length()) {
+                throw new IllegalArgumentException(filter);
+            }
+            return filter.charAt(pos);
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException(filter);
+            }
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < filter.length()
+                    && Character.isWhitespace(filter.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+/**
+ * Finds the files of an indexing call holding the same content, so that the
+ * content is analyzed once.
+ * <p>
+ * Only files sharing their size with another file of the call are digested.
+ * Their key is made of the size, the SHA-256 digest and the analyzers whose
+ * filter matches the file, since an analyzer filtered on the name or location
+ * may apply to one copy and not to another. Hard links are recognized by
+ * their file key and digested once.
+ * <p>
+ * Instances are thread-safe.
+ */
+final class ContentDeduplicator {
+
+    /** the analysis of a content, shared by its copies */
+    static final class Analysis {
+        final List<Capability> capabilities;
+        final List<Requirement> requirements;
+        final boolean failed;
+
+        Analysis(List<Capability> capabilities, List<Requirement> requirements,
+                boolean failed) {
+            this.capabilities = capabilities;
+            this.requirements = requirements;
+            this.failed = failed;
+        }
+    }
+
+    private final Set<Long> sharedSizes = new HashSet<>();
+    private final DigestService digestService;
+    private final Map<Object, String> digestsByFileKey = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Analysis>> analyses = new ConcurrentHashMap<>();
+
+    /**
+     * @param files
+     *                          the files of the indexing call.
+     * @param digestService
+     *                          the digest service of the call, or null to
+     *                          digest the files directly.
+     */
+    ContentDeduplicator(Collection<File> files, DigestService digestService) {
+        this.digestService = digestService;
+        Map<Long, Integer> counts = new HashMap<>();
+        for (File file : files) {
+            counts.merge(file.length(), 1, Integer::sum);
+        }
+        for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+            if (entry.getValue() > 1)
+                sharedSizes.add(entry.getKey());
+        }
+    }
+
+    /**
+     * @param file
+     *                      the file to index.
+     * @param analyzers
+     *                      the indexes of the analyzers applying to the file.
+     * @return the key of the content of the file, or null when no other file
+     *         of the call can hold the same content.
+     * @throws IOException
+     *                         when the file cannot be read.
+     */
+    String key(File file, BitSet analyzers) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class);
+        if (!sharedSizes.contains(attributes.size()))
+            return null;
+
+        Object fileKey = attributes.fileKey();
+        String digest = fileKey == null ? null : digestsByFileKey.get(fileKey);
+        if (digest == null) {
+            digest = digestService != null
+                    ? digestService.getSHA256(file, null)
+                    : DigestService.sha256(new FileInputStream(file));
+            if (fileKey != null)
+                digestsByFileKey.put(fileKey, digest);
+        }
+        return attributes.size() + ":" + digest + ":" + analyzers;
+    }
+
+    /**
+     * Registers the future analysis of a content, unless another file
+     * registered one first.
+     *
+     * @param key
+     *                     the key of the content.
+     * @param analysis
+     *                     the analysis the caller will complete.
+     * @return the analysis registered first, or null when the caller's one was
+     *         registered.
+     */
+    CompletableFuture<Analysis> claim(String key,
+            CompletableFuture<Analysis> analysis) {
+        return analyses.putIfAbsent(key, analysis);
+    }
+}
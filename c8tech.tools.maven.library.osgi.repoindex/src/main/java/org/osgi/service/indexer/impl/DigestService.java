@@ -0,0 +1,389 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.service.indexer.impl.util.Hex;
+import org.osgi.service.log.LogService;
+
+/**
+ * Computes the content digests of files, optionally remembering them on disk.
+ * <p>
+ * SHA-256 is always computed; other algorithms, such as the SHA-1 and MD5
+ * checksums used by p2 and Maven repositories, are computed in the same pass
+ * over the file. Files are read through a large direct buffer.
+ * <p>
+ * Digests are keyed by the canonical path of the file and only reused while
+ * its size and last modification time match the ones they were computed
+ * with, so an unchanged file is never hashed twice.
+ * <p>
+ * Instances are thread-safe.
+ */
+public final class DigestService {
+
+    /** The algorithm of the osgi.content capability. */
+    public static final String SHA_256 = "SHA-256";
+
+    private static final int MAGIC = 0x52494447; // RIDG
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private static final class CachedDigests {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final Map<String, String> digests;
+
+        CachedDigests(String path, long size, long lastModified,
+                Map<String, String> digests) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digests = digests;
+        }
+
+        boolean matches(long otherSize, long otherLastModified,
+                Collection<String> algorithms) {
+            return size == otherSize && lastModified == otherLastModified
+                    && digests.keySet().containsAll(algorithms);
+        }
+    }
+
+    private final File cacheFile;
+    private final List<String> algorithms;
+    private final Map<String, CachedDigests> entries = new ConcurrentHashMap<>();
+    private volatile boolean modified;
+
+    private DigestService(File cacheFile, List<String> algorithms) {
+        this.cacheFile = cacheFile;
+        this.algorithms = algorithms;
+    }
+
+    /**
+     * Creates a service, loading its cache from disk. A missing, unreadable or
+     * incompatible file results in an empty cache.
+     *
+     * @param cacheFile
+     *                       the file backing the cache, or null to keep the
+     *                       digests in memory only.
+     * @param algorithms
+     *                       the algorithms to compute besides SHA-256, may be
+     *                       empty.
+     * @param log
+     *                       the log service, may be null.
+     * @return the service.
+     * @throws NoSuchAlgorithmException
+     *                                      when one of the algorithms is not
+     *                                      available.
+     */
+    public static DigestService load(File cacheFile,
+            Collection<String> algorithms, LogService log)
+            throws NoSuchAlgorithmException {
+        Set<String> all = new LinkedHashSet<>();
+        all.add(SHA_256);
+        for (String algorithm : algorithms) {
+            String name = algorithm.trim().toUpperCase(Locale.ROOT);
+            if (!name.isEmpty()) {
+                MessageDigest.getInstance(name);
+                all.add(name);
+            }
+        }
+        DigestService service = new DigestService(cacheFile,
+                Collections.unmodifiableList(new ArrayList<>(all)));
+        if (cacheFile == null || !cacheFile.isFile()) {
+            return service;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return service;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = readString(in);
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                int digestCount = in.readInt();
+                Map<String, String> digests = new LinkedHashMap<>();
+                for (int j = 0; j < digestCount; j++) {
+                    digests.put(readString(in), readString(in));
+                }
+                service.entries.put(path, new CachedDigests(path, size,
+                        lastModified, Collections.unmodifiableMap(digests)));
+            }
+        } catch (IOException | RuntimeException e) {
+            service.entries.clear();
+            if (log != null) {
+                log.log(LogService.LOG_WARNING, MessageFormat.format(
+                        "Could not read the digest cache {0}, ignoring it.",
+                        cacheFile), e);
+            }
+        }
+        return service;
+    }
+
+    /**
+     * @return the algorithms computed for every file, SHA-256 first.
+     */
+    public List<String> getAlgorithms() {
+        return algorithms;
+    }
+
+    /**
+     * Returns the digests of a file, computing them when the cache does not
+     * hold them for its current size and last modification time.
+     *
+     * @param file
+     *                 the file.
+     * @return the hex encoded digests, keyed by algorithm.
+     * @throws IOException
+     *                         when the file cannot be read.
+     */
+    public Map<String, String> getDigests(File file) throws IOException {
+        return getDigests(file, null);
+    }
+
+    /**
+     * Returns the SHA-256 digest of a file.
+     *
+     * @param file
+     *                        the file.
+     * @param knownDigest
+     *                        the SHA-256 digest of the file when the caller
+     *                        already computed it, or null. It is stored as is
+     *                        when no other algorithm is configured, so that
+     *                        the file is not read again.
+     * @return the hex encoded digest.
+     * @throws IOException
+     *                         when the file cannot be read.
+     */
+    String getSHA256(File file, String knownDigest) throws IOException {
+        return getDigests(file, knownDigest).get(SHA_256);
+    }
+
+    private Map<String, String> getDigests(File file, String knownDigest)
+            throws IOException {
+        String path = file.getCanonicalPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        CachedDigests cached = entries.get(path);
+        if (cached != null && cached.matches(size, lastModified, algorithms)) {
+            return cached.digests;
+        }
+
+        Map<String, String> digests;
+        if (knownDigest != null && algorithms.size() == 1) {
+            digests = Collections.singletonMap(SHA_256, knownDigest);
+        } else {
+            digests = digest(file, algorithms);
+        }
+        // a file changed while being read gets no entry, and is digested
+        // again next time
+        if (file.length() == size && file.lastModified() == lastModified) {
+            entries.put(path,
+                    new CachedDigests(path, size, lastModified, digests));
+            modified = true;
+        }
+        return digests;
+    }
+
+    /**
+     * Digests a file in a single pass.
+     *
+     * @param file
+     *                       the file.
+     * @param algorithms
+     *                       the algorithms to compute.
+     * @return the hex encoded digests, keyed by algorithm, in the order of the
+     *         algorithms.
+     * @throws IOException
+     *                         when the file cannot be read or an algorithm is
+     *                         not available.
+     */
+    static Map<String, String> digest(File file, List<String> algorithms)
+            throws IOException {
+        MessageDigest[] digests = createDigests(algorithms);
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            while (true) {
+                buffer.clear();
+                if (channel.read(buffer) < 0)
+                    break;
+                buffer.flip();
+                for (MessageDigest digest : digests) {
+                    buffer.rewind();
+                    digest.update(buffer);
+                }
+            }
+        }
+        return toHex(algorithms, digests);
+    }
+
+    /**
+     * Computes the SHA-256 digest of a stream and closes it.
+     *
+     * @param stream
+     *                   the stream.
+     * @return the hex encoded digest.
+     * @throws IOException
+     *                         when the stream cannot be read.
+     */
+    static String sha256(InputStream stream) throws IOException {
+        MessageDigest digest = createDigests(
+                Collections.singletonList(SHA_256))[0];
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = stream) {
+            int bytesRead;
+            while ((bytesRead = in.read(buf)) >= 0) {
+                digest.update(buf, 0, bytesRead);
+            }
+        }
+        return Hex.toHexString(digest.digest());
+    }
+
+    private static MessageDigest[] createDigests(List<String> algorithms)
+            throws IOException {
+        MessageDigest[] digests = new MessageDigest[algorithms.size()];
+        try {
+            for (int i = 0; i < digests.length; i++) {
+                digests[i] = MessageDigest.getInstance(algorithms.get(i));
+            }
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        return digests;
+    }
+
+    private static Map<String, String> toHex(List<String> algorithms,
+            MessageDigest[] digests) {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < digests.length; i++) {
+            result.put(algorithms.get(i),
+                    Hex.toHexString(digests[i].digest()));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Writes the cache back to disk when it has changed. Entries of files that
+     * no longer exist are dropped. Nothing is written when the service has no
+     * cache file.
+     *
+     * @throws IOException
+     *                         when the cache cannot be written.
+     */
+    public void save() throws IOException {
+        if (cacheFile == null || !modified) {
+            return;
+        }
+        modified = false;
+
+        List<CachedDigests> toSave = new ArrayList<>(entries.size());
+        for (CachedDigests entry : entries.values()) {
+            if (new File(entry.path).exists()) {
+                toSave.add(entry);
+            } else {
+                entries.remove(entry.path);
+            }
+        }
+
+        Path target = cacheFile.getAbsoluteFile().toPath();
+        Path dir = target.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, target.getFileName().toString(),
+                ".tmp");
+        boolean saved = false;
+        try {
+            try (OutputStream fileOut = Files.newOutputStream(temp);
+                    DataOutputStream out = new DataOutputStream(
+                            new BufferedOutputStream(fileOut))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(toSave.size());
+                for (CachedDigests entry : toSave) {
+                    writeString(out, entry.path);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeInt(entry.digests.size());
+                    for (Map.Entry<String, String> digest : entry.digests
+                            .entrySet()) {
+                        writeString(out, digest.getKey());
+                        writeString(out, digest.getValue());
+                    }
+                }
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                modified = true;
+            }
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string length.");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,450 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+
+import org.osgi.service.log.LogService;
+
+/**
+ * Finds the files to index in a set of files and directories.
+ * <p>
+ * Directories are walked on several threads. Symbolic links are followed,
+ * except those pointing back to a directory being walked, so links do not
+ * loop. A directory reachable through several paths is walked through each of
+ * them, whatever the number of threads, so the result does not depend on the
+ * order the threads reach it in. The files found in directories are kept when
+ * their path relative to the walked directory matches one of the include
+ * patterns, if any, none of the exclude patterns, and the file filter.
+ * Directories matching an exclude pattern are not walked. Files given
+ * explicitly are always kept.
+ * <p>
+ * The names found in each directory can be kept in a snapshot file. A
+ * directory whose modification time has not changed since the snapshot is not
+ * listed again; only its entries are checked.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class DirectoryWalker {
+
+    private static final int MAGIC = 0x52494453; // RIDS
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Directories changed this recently may change again within the
+     * resolution of their modification time, so they are not snapshot.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private static final class Snapshot {
+        private final long lastModified;
+        private final List<String> names;
+
+        Snapshot(long lastModified, List<String> names) {
+            this.lastModified = lastModified;
+            this.names = names;
+        }
+    }
+
+    private final LogService log;
+
+    private List<PathMatcher> includes = Collections.emptyList();
+    private List<PathMatcher> excludes = Collections.emptyList();
+    private BiPredicate<File, BasicFileAttributes> filter = (file,
+            attributes) -> true;
+    private int threads = 1;
+    private File snapshotFile;
+
+    private final Map<String, Snapshot> previous = new ConcurrentHashMap<>();
+    private final Map<String, Snapshot> current = new ConcurrentHashMap<>();
+    private final Queue<File> found = new ConcurrentLinkedQueue<>();
+    private long started;
+
+    /**
+     * @param log
+     *                the log service, may be null.
+     */
+    DirectoryWalker(LogService log) {
+        this.log = log;
+    }
+
+    /**
+     * @param patterns
+     *                     comma separated glob patterns, or null to keep every
+     *                     file. A leading {@code **}{@code /} also matches
+     *                     files at the top of the walked directory.
+     * @return this
+     */
+    DirectoryWalker setIncludes(String patterns) {
+        this.includes = compile(patterns, false);
+        return this;
+    }
+
+    /**
+     * @param patterns
+     *                     comma separated glob patterns, or null. A trailing
+     *                     {@code /}{@code **} also matches the directory
+     *                     itself, so it is not walked at all.
+     * @return this
+     */
+    DirectoryWalker setExcludes(String patterns) {
+        this.excludes = compile(patterns, true);
+        return this;
+    }
+
+    /**
+     * @param fileFilter
+     *                       tells whether a file found in a directory is kept.
+     * @return this
+     */
+    DirectoryWalker setFilter(
+            BiPredicate<File, BasicFileAttributes> fileFilter) {
+        this.filter = fileFilter;
+        return this;
+    }
+
+    /**
+     * @param count
+     *                  the number of threads walking the directories.
+     * @return this
+     */
+    DirectoryWalker setThreads(int count) {
+        this.threads = Math.max(1, count);
+        return this;
+    }
+
+    /**
+     * @param file
+     *                 the snapshot file, or null to list every directory.
+     * @return this
+     */
+    DirectoryWalker setSnapshotFile(File file) {
+        this.snapshotFile = file;
+        return this;
+    }
+
+    /*
+     * Excluded directories are matched by the patterns of their content too,
+     * so they are pruned rather than walked with every file dropped.
+     */
+    private static List<PathMatcher> compile(String patterns,
+            boolean directories) {
+        if (patterns == null || patterns.trim().isEmpty())
+            return Collections.emptyList();
+        List<PathMatcher> matchers = new ArrayList<>();
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim().replace('\\', '/');
+            if (pattern.isEmpty())
+                continue;
+            add(matchers, pattern);
+            if (directories && pattern.endsWith("/**")
+                    && pattern.length() > 3) {
+                add(matchers, pattern.substring(0, pattern.length() - 3));
+            }
+        }
+        return matchers;
+    }
+
+    private static void add(List<PathMatcher> matchers, String pattern) {
+        matchers.add(
+                FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        if (pattern.startsWith("**/")) {
+            matchers.add(FileSystems.getDefault()
+                    .getPathMatcher("glob:" + pattern.substring(3)));
+        }
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resolves files and directories to the files they hold.
+     *
+     * @param files
+     *                  the files and directories to resolve.
+     * @return the files, sorted.
+     */
+    Set<File> walk(Collection<File> files) {
+        started = System.currentTimeMillis();
+        if (snapshotFile != null) {
+            loadSnapshots();
+        }
+
+        Set<File> result = new TreeSet<>();
+        List<DirectoryTask> tasks = new ArrayList<>();
+        for (File file : files) {
+            BasicFileAttributes attributes = readAttributes(file.toPath());
+            if (attributes != null && attributes.isDirectory()) {
+                tasks.add(new DirectoryTask(file.toPath(), file.toPath(),
+                        attributes, new Ancestors(
+                                key(file.toPath(), attributes), null)));
+            } else {
+                result.add(file);
+            }
+        }
+
+        if (!tasks.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                for (DirectoryTask task : tasks) {
+                    pool.invoke(task);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+        result.addAll(found);
+
+        if (snapshotFile != null) {
+            saveSnapshots();
+        }
+        return result;
+    }
+
+    private BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Identifies a directory whatever the path it is reached through.
+     */
+    private static Object key(Path directory, BasicFileAttributes attributes) {
+        Object key = attributes.fileKey();
+        if (key == null) {
+            try {
+                key = directory.toRealPath();
+            } catch (IOException e) {
+                key = directory.toAbsolutePath().normalize();
+            }
+        }
+        return key;
+    }
+
+    /**
+     * The keys of a directory being walked and of its parents up to the
+     * walked root.
+     */
+    private static final class Ancestors {
+        private final Object key;
+        private final Ancestors parent;
+
+        Ancestors(Object key, Ancestors parent) {
+            this.key = key;
+            this.parent = parent;
+        }
+
+        boolean contains(Object directoryKey) {
+            for (Ancestors ancestor = this; ancestor != null;
+                    ancestor = ancestor.parent) {
+                if (ancestor.key.equals(directoryKey))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Path root;
+        private final transient Path directory;
+        private final transient BasicFileAttributes attributes;
+        private final transient Ancestors ancestors;
+
+        DirectoryTask(Path root, Path directory,
+                BasicFileAttributes attributes, Ancestors ancestors) {
+            this.root = root;
+            this.directory = directory;
+            this.attributes = attributes;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected void compute() {
+            List<String> names;
+            try {
+                names = list(directory, attributes);
+            } catch (IOException e) {
+                warn(MessageFormat.format("Could not list {0}, skipped.",
+                        directory), e);
+                return;
+            }
+
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            for (String name : names) {
+                Path path = directory.resolve(name);
+                BasicFileAttributes entry = readAttributes(path);
+                if (entry == null)
+                    continue;
+                Path relative = root.relativize(path);
+                if (matches(excludes, relative))
+                    continue;
+                if (entry.isDirectory()) {
+                    // a link back to a directory being walked would loop
+                    Object key = key(path, entry);
+                    if (!ancestors.contains(key))
+                        subdirectories.add(new DirectoryTask(root, path, entry,
+                                new Ancestors(key, ancestors)));
+                } else if (entry.isRegularFile()
+                        && (includes.isEmpty() || matches(includes, relative))
+                        && filter.test(path.toFile(), entry)) {
+                    found.add(path.toFile());
+                }
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /*
+     * Lists a directory, or takes its names from the snapshot when it has not
+     * changed since.
+     */
+    private List<String> list(Path directory, BasicFileAttributes attributes)
+            throws IOException {
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        String key = snapshotFile == null ? null
+                : directory.toAbsolutePath().normalize().toString();
+        if (key != null) {
+            Snapshot snapshot = previous.get(key);
+            if (snapshot != null && snapshot.lastModified == lastModified) {
+                current.put(key, snapshot);
+                return snapshot.names;
+            }
+        }
+
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files
+                .newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        if (key != null && lastModified < started - RACY_MILLIS) {
+            current.put(key, new Snapshot(lastModified, names));
+        }
+        return names;
+    }
+
+    private void loadSnapshots() {
+        if (!snapshotFile.isFile())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(snapshotFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+                return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String directory = in.readUTF();
+                long lastModified = in.readLong();
+                int size = in.readInt();
+                List<String> names = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    names.add(in.readUTF());
+                }
+                previous.put(directory, new Snapshot(lastModified,
+                        Collections.unmodifiableList(names)));
+            }
+        } catch (IOException | RuntimeException e) {
+            previous.clear();
+            warn(MessageFormat.format(
+                    "Could not read the directory snapshot {0}, ignoring it.",
+                    snapshotFile), e);
+        }
+    }
+
+    /*
+     * Writes the snapshots of the directories walked this time, replacing the
+     * file atomically where the file system supports it.
+     */
+    private void saveSnapshots() {
+        try {
+            Path target = snapshotFile.getAbsoluteFile().toPath();
+            Path dir = target.getParent();
+            Files.createDirectories(dir);
+            Path temp = Files.createTempFile(dir,
+                    target.getFileName().toString(), ".tmp");
+            try {
+                try (OutputStream fileOut = Files.newOutputStream(temp);
+                        DataOutputStream out = new DataOutputStream(
+                                new BufferedOutputStream(fileOut))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeInt(current.size());
+                    for (Map.Entry<String, Snapshot> entry : current
+                            .entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.writeLong(entry.getValue().lastModified);
+                        out.writeInt(entry.getValue().names.size());
+                        for (String name : entry.getValue().names) {
+                            out.writeUTF(name);
+                        }
+                    }
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            warn(MessageFormat.format(
+                    "Could not save the directory snapshot {0}.",
+                    snapshotFile), e);
+        }
+    }
+
+    private void warn(String message, Exception e) {
+        if (log != null)
+            log.log(LogService.LOG_WARNING, message, e);
+    }
+}
@@ -20,15 +20,24 @@ public class GeneratorState {
     private final Path futureSubsystemCopyPath;
     private final Path rootPath;
     private final String urlTemplate;
+    private final DigestService digestService;
 
     public GeneratorState(Path pRootPath, Path pFutureBundleCopyPath,
             Path pFutureSubsystemCopyPath, String urlTemplate,
             boolean skipRelativise) {
+        this(pRootPath, pFutureBundleCopyPath, pFutureSubsystemCopyPath,
+                urlTemplate, skipRelativise, null);
+    }
+
+    public GeneratorState(Path pRootPath, Path pFutureBundleCopyPath,
+            Path pFutureSubsystemCopyPath, String urlTemplate,
+            boolean skipRelativise, DigestService pDigestService) {
         this.rootPath = pRootPath;
         this.futureBundleCopyPath = pFutureBundleCopyPath;
         this.futureSubsystemCopyPath = pFutureSubsystemCopyPath;
         this.urlTemplate = urlTemplate;
         this.forceAbsolutePath = skipRelativise;
+        this.digestService = pDigestService;
     }
 
     @Override
@@ -59,6 +68,15 @@ public class GeneratorState {
         return futureBundleCopyPath;
     }
 
+    /**
+     * @return the digest service of the indexing run, or {@code null} when
+     *         neither a digest cache nor extra digest algorithms were
+     *         configured.
+     */
+    public DigestService getDigestService() {
+        return digestService;
+    }
+
     public Path getRootPath() {
         return rootPath;
     }
@@ -15,10 +15,14 @@ package org.osgi.service.indexer.impl;
  * Part of this code was borrowed from BIndex project (https://github.com/osgi/bindex) 
  * and it is released under OSGi Specification License, VERSION 2.0
  */
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Enumeration;
@@ -30,46 +34,197 @@ import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipException;
 
 import org.osgi.service.indexer.Constants;
 import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.impl.util.Hex;
 
+/**
+ * A resource backed by a jar file.
+ * <p>
+ * Files up to {@link #SINGLE_PASS_LIMIT} bytes are read from disk exactly
+ * once: the content digest is computed while the file is loaded, and the
+ * entry list, the manifest and every child resource are then served from
+ * memory. Larger files, and archives the in-memory reader does not
+ * understand, are accessed through a {@link JarFile}.
+ * <p>
+ * When only the manifest will be read, the file is opened as a
+ * {@link JarFile} and the entry tables are only built if a child is asked for
+ * after all. A resource kept after its analysis can {@link #release()} the
+ * loaded content the same way.
+ */
 public class JarResource implements Resource {
 
+    /**
+     * The size, in bytes, up to which a jar is loaded in memory.
+     */
+    static final long SINGLE_PASS_LIMIT = 32L * 1024 * 1024;
+
+    private static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
     private final File file;
-    private final JarFile jarFile;
     private final String ilocation;
+    private final long size;
 
     private final Dictionary<String, Object> properties = new Hashtable<>(); // NOSONAR
 
-    private final Map<String, List<JarEntry>> prefixMap = new HashMap<>();
-    private final Map<String, JarEntry> paths = new HashMap<>();
+    private final Map<String, List<String>> prefixMap = new HashMap<>();
+    private final Map<String, ZipArchive.Entry> archiveEntries = new HashMap<>();
+    private final Map<String, JarEntry> jarEntries = new HashMap<>();
+
+    private JarFile jarFile;
+    private byte[] content;
+    private int contentLength;
+    private ZipArchive archive;
+    private String contentDigest;
+
+    /** whether the entry tables were built */
+    private volatile boolean indexed;
 
     private Manifest manifest;
+    private BundleDescriptor bundleDescriptor;
+
+    private GeneratorState generatorState;
 
     public JarResource(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param file
+     *                         the jar file.
+     * @param manifestOnly
+     *                         whether only the manifest and the properties
+     *                         are expected to be read.
+     * @throws IOException
+     *                         when the file cannot be opened.
+     */
+    JarResource(File file, boolean manifestOnly) throws IOException {
         this.file = file;
 
         this.ilocation = file.getPath();
-        this.jarFile = new JarFile(file);
+        this.size = file.length();
 
         properties.put(Constants.NAME, file.getName());
         properties.put(Constants.LOCATION, ilocation);
-        properties.put(Constants.SIZE, file.length());
+        properties.put(Constants.SIZE, size);
         properties.put(Constants.LAST_MODIFIED, file.lastModified());
 
+        if (manifestOnly) {
+            this.jarFile = new JarFile(file);
+            return;
+        }
+        if (size <= SINGLE_PASS_LIMIT && load()) {
+            for (ZipArchive.Entry entry : archive.getEntries()) {
+                String path = entry.getName();
+                archiveEntries.put(path, entry);
+                getOrCreatePrefix(getParentPath(path)).add(path);
+            }
+        } else {
+            this.jarFile = new JarFile(file);
+            indexJarEntries();
+        }
+        indexed = true;
+    }
+
+    private void indexJarEntries() {
         Enumeration<JarEntry> entries = jarFile.entries();
         while (entries.hasMoreElements()) {
             JarEntry entry = entries.nextElement();
 
             String path = entry.getName();
-            paths.put(path, entry);
+            jarEntries.put(path, entry);
 
             String parentPath = getParentPath(path);
 
-            List<JarEntry> list = getOrCreatePrefix(parentPath);
-            list.add(entry);
+            List<String> list = getOrCreatePrefix(parentPath);
+            list.add(path);
+        }
+    }
+
+    /*
+     * Builds the entry tables of a resource opened for its manifest only, or
+     * released.
+     */
+    private void ensureIndexed() throws IOException {
+        if (indexed)
+            return;
+        synchronized (this) {
+            if (!indexed) {
+                openJarFile();
+                indexJarEntries();
+                indexed = true;
+            }
+        }
+    }
+
+    private synchronized JarFile openJarFile() throws IOException {
+        if (jarFile == null) {
+            jarFile = new JarFile(file);
+        }
+        return jarFile;
+    }
+
+    /**
+     * Drops the content loaded in memory and the entry tables built from it.
+     * The resource stays usable: its entries are read from a {@link JarFile},
+     * opened when one is asked for.
+     */
+    synchronized void release() {
+        if (content == null)
+            return;
+        content = null;
+        archive = null;
+        archiveEntries.clear();
+        prefixMap.clear();
+        indexed = false;
+    }
+
+    /*
+     * Reads the whole file, computing its digest on the way, and parses its
+     * central directory. Returns false when the archive must be opened as a
+     * JarFile instead; the digest is kept in that case.
+     */
+    private boolean load() throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(BundleAnalyzer.SHA_256);
+        } catch (NoSuchAlgorithmException e) {
+            return false;
         }
+
+        byte[] data = new byte[(int) size];
+        int total = 0;
+        boolean grown = false;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] chunk = new byte[READ_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                digest.update(chunk, 0, read);
+                if (total + read > data.length) {
+                    grown = true;
+                } else {
+                    System.arraycopy(chunk, 0, data, total, read);
+                }
+                total += read;
+            }
+        }
+        contentDigest = Hex.toHexString(digest.digest());
+        if (grown) {
+            // The file changed while it was read; let the JarFile deal with it.
+            return false;
+        }
+
+        try {
+            archive = ZipArchive.parse(ByteBuffer.wrap(data, 0, total));
+        } catch (ZipException e) {
+            return false;
+        }
+        content = data;
+        contentLength = total;
+        return true;
     }
 
     private static String getParentPath(String path) {
@@ -88,9 +243,29 @@ public class JarResource implements Resource {
         return parentPath;
     }
 
-    private synchronized List<JarEntry> getOrCreatePrefix(String prefix) {
+    private synchronized List<String> getOrCreatePrefix(String prefix) {
         return prefixMap.computeIfAbsent(prefix,
-                k -> new LinkedList<JarEntry>());
+                k -> new LinkedList<String>());
+    }
+
+    /**
+     * @return the hex encoded SHA-256 digest of the file, when it was
+     *         computed while the file was loaded, otherwise {@code null}.
+     */
+    String getContentDigest() {
+        return contentDigest;
+    }
+
+    /**
+     * @return the generator state of the indexing run this resource belongs
+     *         to, or {@code null} when none was configured.
+     */
+    public GeneratorState getGeneratorState() {
+        return generatorState;
+    }
+
+    void setGeneratorState(GeneratorState pGeneratorState) {
+        this.generatorState = pGeneratorState;
     }
 
     @Override
@@ -105,19 +280,25 @@ public class JarResource implements Resource {
 
     @Override
     public long getSize() {
-        return file.length();
+        return size;
     }
 
     @Override
     public InputStream getStream() throws IOException {
+        byte[] data = content;
+        if (data != null) {
+            return new ByteArrayInputStream(data, 0, contentLength);
+        }
         return new FileInputStream(file);
     }
 
     @Override
     public Manifest getManifest() throws IOException {
         synchronized (this) {
-            if (manifest == null) {
-                Resource manifestResource = getChild("META-INF/MANIFEST.MF");
+            if (manifest == null && !indexed) {
+                manifest = openJarFile().getManifest();
+            } else if (manifest == null) {
+                Resource manifestResource = getChild(MANIFEST_PATH);
                 if (manifestResource != null) {
                     try {
                         manifest = new Manifest(manifestResource.getStream());
@@ -130,15 +311,29 @@ public class JarResource implements Resource {
         }
     }
 
+    /**
+     * @return the descriptor of the bundle, parsed from the manifest once and
+     *         shared by every analyzer.
+     * @throws IOException
+     *                         when the manifest cannot be read.
+     */
+    synchronized BundleDescriptor getBundleDescriptor() throws IOException {
+        if (bundleDescriptor == null) {
+            bundleDescriptor = new BundleDescriptor(ilocation, getManifest());
+        }
+        return bundleDescriptor;
+    }
+
     @Override
     public List<String> listChildren(String prefix) throws IOException {
-        List<JarEntry> entries = prefixMap.get(prefix);
+        ensureIndexed();
+        List<String> entries = prefixMap.get(prefix);
         if (entries == null)
             return null; // NOSONAR
 
         List<String> result = new ArrayList<>(entries.size());
-        for (JarEntry entry : entries) {
-            String unprefixedPath = entry.getName().substring(prefix.length());
+        for (String entry : entries) {
+            String unprefixedPath = entry.substring(prefix.length());
             result.add(unprefixedPath);
         }
         return result;
@@ -146,9 +341,19 @@ public class JarResource implements Resource {
 
     @Override
     public Resource getChild(String path) throws IOException {
+        ensureIndexed();
         String childLocation = getLocation() + "#" + path;
 
-        JarEntry entry = paths.get(path);
+        ZipArchive.Entry archiveEntry = archiveEntries.get(path);
+        if (archiveEntry != null) {
+            ZipArchive current = archive;
+            if (current == null)
+                throw new IOException("Resource closed: " + ilocation);
+            return new FlatStreamResource(path, childLocation,
+                    new ByteArrayInputStream(current.read(archiveEntry)));
+        }
+
+        JarEntry entry = jarEntries.get(path);
         if (entry != null) {
             return new FlatStreamResource(path, childLocation,
                     jarFile.getInputStream(entry));
@@ -158,6 +363,10 @@ public class JarResource implements Resource {
 
     @Override
     public void close() {
+        content = null;
+        archive = null;
+        if (jarFile == null)
+            return;
         try {
             jarFile.close();
         } catch (IOException e) {
@@ -18,11 +18,16 @@ package org.osgi.service.indexer.impl;
 import java.io.IOException;
 import java.io.InputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
 
 import org.osgi.framework.Version;
 import org.osgi.resource.Capability;
@@ -52,10 +57,53 @@ public class KnownBundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
+    /**
+     * The capabilities and requirements a property gives to the versions of a
+     * bundle, built when the properties are set. Errors are kept and thrown
+     * when a bundle the property applies to is analyzed.
+     */
+    private static final class KnownBundle {
+        private final VersionRange versionRange;
+        private final RuntimeException versionRangeError;
+        private final List<Capability> caps = new ArrayList<>();
+        private final List<Requirement> reqs = new ArrayList<>();
+        private RuntimeException clauseError;
+
+        KnownBundle(String[] parts) {
+            VersionRange range = null;
+            RuntimeException error = null;
+            if (parts.length > 1) {
+                try {
+                    range = new VersionRange(parts[1]);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            this.versionRange = range;
+            this.versionRangeError = error;
+        }
+
+        boolean matches(Version version) {
+            if (versionRangeError != null)
+                throw versionRangeError;
+            return versionRange == null || versionRange.match(version);
+        }
+
+        void addTo(List<Capability> allCaps, List<Requirement> allReqs) {
+            allCaps.addAll(caps);
+            allReqs.addAll(reqs);
+            if (clauseError != null)
+                throw clauseError;
+        }
+    }
+
     private final Properties defaultProperties;
 
     private Properties extraProperties = null;
 
+    /** the known bundles by symbolic name, in property order */
+    private volatile Map<String, List<KnownBundle>> knownBundles;
+
     private final LogService log;
 
     private final boolean verbose;
@@ -83,6 +131,7 @@ public class KnownBundleAnalyzer implements ResourceAnalyzer {
                 }
             }
         }
+        this.knownBundles = compile(defaultProperties, null);
     }
 
     public KnownBundleAnalyzer(Properties properties, LogService log,
@@ -90,7 +139,41 @@ public class KnownBundleAnalyzer implements ResourceAnalyzer {
         this.defaultProperties = properties;
         this.log = log;
         this.verbose = pVerbose;
+        this.knownBundles = compile(defaultProperties, null);
+    }
 
+    /**
+     * Builds the lookup table of the default and extra properties, so that
+     * analyzing a resource costs a single lookup by symbolic name.
+     */
+    private static Map<String, List<KnownBundle>> compile(
+            Properties defaults, Properties extras) {
+        Map<String, List<KnownBundle>> result = new HashMap<>();
+        if (defaults != null) {
+            compile(result, defaults, defaults);
+        }
+        if (extras != null) {
+            compile(result, extras, extras, defaults);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void compile(Map<String, List<KnownBundle>> result,
+            Properties names, Properties... propertiesList) {
+        for (Enumeration<?> e = names.propertyNames(); e.hasMoreElements();) {
+            String name = (String) e.nextElement();
+            String[] bundleRef = name.split(";");
+            KnownBundle knownBundle = new KnownBundle(bundleRef);
+            try {
+                processClause(name,
+                        Util.readProcessedProperty(name, propertiesList),
+                        knownBundle.caps, knownBundle.reqs);
+            } catch (RuntimeException ex) {
+                knownBundle.clauseError = ex;
+            }
+            result.computeIfAbsent(bundleRef[0], k -> new ArrayList<>())
+                    .add(knownBundle);
+        }
     }
 
     private static void processClause(String bundleRef, String clauseStr,
@@ -132,25 +215,14 @@ public class KnownBundleAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private static void processPropertyName(Resource resource,
-            List<Capability> caps, List<Requirement> reqs,
-            SymbolicName resourceName, String name,
-            Properties... propertiesList) throws IOException {
-        String[] bundleRef = name.split(";");
-        String bsn = bundleRef[0];
-
-        if (resourceName.getName().equals(bsn)) {
-            VersionRange versionRange = null;
-            if (bundleRef.length > 1)
-                versionRange = new VersionRange(bundleRef[1]);
+    @Override
+    public Set<Input> getInputs() {
+        return EnumSet.of(Input.MANIFEST);
+    }
 
-            Version version = Util.getVersion(resource);
-            if (versionRange == null || versionRange.match(version)) {
-                processClause(name,
-                        Util.readProcessedProperty(name, propertiesList), caps,
-                        reqs);
-            }
-        }
+    @Override
+    public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return Collections.emptySet();
     }
 
     @Override
@@ -173,28 +245,29 @@ public class KnownBundleAnalyzer implements ResourceAnalyzer {
                     e);
         }
 
+        List<KnownBundle> candidates = knownBundles
+                .get(resourceName.getName());
+        if (candidates == null)
+            return;
         try {
-            for (Enumeration<?> names = defaultProperties.propertyNames(); names
-                    .hasMoreElements();) {
-                String propName = (String) names.nextElement();
-                processPropertyName(resource, caps, reqs, resourceName,
-                        propName, defaultProperties);
-            }
-
-            if (extraProperties != null)
-                for (Enumeration<?> names = extraProperties
-                        .propertyNames(); names.hasMoreElements();) {
-                    String propName = (String) names.nextElement();
-                    processPropertyName(resource, caps, reqs, resourceName,
-                            propName, extraProperties, defaultProperties);
+            Version version = Util.getVersion(resource);
+            for (KnownBundle candidate : candidates) {
+                if (candidate.matches(version)) {
+                    candidate.addTo(caps, reqs);
                 }
+            }
         } catch (IOException e) {
             throw new AnalyzerException("Failure while processing artifact.",
                     e);
         }
     }
 
+    Properties getKnownBundlesExtra() {
+        return extraProperties;
+    }
+
     public void setKnownBundlesExtra(Properties extras) {
+        this.knownBundles = compile(defaultProperties, extras);
         this.extraProperties = extras;
     }
 
@@ -0,0 +1,142 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.osgi.service.indexer.IndexingListener;
+import org.osgi.service.indexer.ResourceAnalyzer;
+import org.osgi.service.log.LogService;
+
+/**
+ * Reports the timings of the indexer through a {@link LogService}.
+ * <p>
+ * Every resource and analyzer call is logged at debug level, analyzer calls
+ * slower than a threshold are logged as warnings, and the end of every
+ * indexing call logs the throughput and the time spent in each analyzer.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @see org.osgi.service.indexer.Constants#METRICS
+ */
+public final class LoggingIndexingListener implements IndexingListener {
+
+    /** the default threshold of a slow analyzer call, in milliseconds */
+    public static final int DEFAULT_SLOW_MILLIS = 1000;
+
+    private final LogService log;
+    private final long slowNanos;
+
+    /** the totals of each analyzer class since the last run completed */
+    private final Map<String, Totals> totals = new ConcurrentHashMap<>();
+
+    private static final class Totals {
+        final String name;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder capabilities = new LongAdder();
+        final LongAdder requirements = new LongAdder();
+
+        Totals(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * @param log
+     *                       the log service to report to.
+     * @param slowMillis
+     *                       the time above which an analyzer call is reported
+     *                       as a warning.
+     */
+    public LoggingIndexingListener(LogService log, long slowMillis) {
+        this.log = log;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    @Override
+    public void analyzerCompleted(String location, ResourceAnalyzer analyzer,
+            long nanos, int capabilities, int requirements,
+            Throwable failure) {
+        String name = analyzer.getClass().getName();
+        Totals analyzerTotals = totals.computeIfAbsent(name, Totals::new);
+        analyzerTotals.calls.increment();
+        analyzerTotals.nanos.add(nanos);
+        analyzerTotals.capabilities.add(capabilities);
+        analyzerTotals.requirements.add(requirements);
+        if (failure != null) {
+            analyzerTotals.failures.increment();
+        }
+
+        if (nanos > slowNanos) {
+            log.log(LogService.LOG_WARNING,
+                    MessageFormat.format(
+                            "Analyzer \"{0}\" took {1} ms on resource {2}.",
+                            name, Long.toString(millis(nanos)), location));
+        } else {
+            log.log(LogService.LOG_DEBUG, MessageFormat.format(
+                    "Analyzer \"{0}\" took {1} ms on resource {2}, adding {3} capabilities and {4} requirements.",
+                    name, Long.toString(millis(nanos)), location,
+                    Integer.toString(capabilities),
+                    Integer.toString(requirements)));
+        }
+    }
+
+    @Override
+    public void resourceCompleted(String location, long nanos, long size,
+            int capabilities, int requirements, boolean cached) {
+        log.log(LogService.LOG_DEBUG, MessageFormat.format(
+                "Indexed resource {0} in {1} ms{2}: {3} bytes, {4} capabilities, {5} requirements.",
+                location, Long.toString(millis(nanos)),
+                cached ? " reusing an earlier analysis" : "", Long.toString(size),
+                Integer.toString(capabilities),
+                Integer.toString(requirements)));
+    }
+
+    @Override
+    public void runCompleted(int resources, int failed, long nanos,
+            long size) {
+        double seconds = nanos / 1e9;
+        log.log(LogService.LOG_INFO, MessageFormat.format(
+                "Indexed {0} resources ({1} failed, {2} bytes) in {3} ms, {4} resources per second.",
+                Integer.toString(resources), Integer.toString(failed),
+                Long.toString(size), Long.toString(millis(nanos)),
+                String.format("%.1f", seconds > 0 ? resources / seconds : 0d)));
+
+        List<Totals> sorted = new ArrayList<>(totals.values());
+        totals.clear();
+        sorted.sort(Comparator.comparingLong((Totals t) -> t.nanos.sum())
+                .reversed());
+        for (Totals analyzerTotals : sorted) {
+            log.log(LogService.LOG_INFO, MessageFormat.format(
+                    "  {0}: {1} ms in {2} calls ({3} failed), {4} capabilities, {5} requirements.",
+                    analyzerTotals.name,
+                    Long.toString(millis(analyzerTotals.nanos.sum())),
+                    Long.toString(analyzerTotals.calls.sum()),
+                    Long.toString(analyzerTotals.failures.sum()),
+                    Long.toString(analyzerTotals.capabilities.sum()),
+                    Long.toString(analyzerTotals.requirements.sum())));
+        }
+    }
+}
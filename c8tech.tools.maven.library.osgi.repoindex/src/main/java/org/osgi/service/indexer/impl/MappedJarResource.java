@@ -0,0 +1,240 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.jar.Manifest;
+
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.impl.util.Hex;
+
+/**
+ * A resource backed by a memory-mapped jar file.
+ * <p>
+ * Nothing is read when the resource is created besides a check of the central
+ * directory. Entries are looked up in the mapped central directory when they
+ * are asked for, and inflated straight from the mapping; no entry table is
+ * built and jar signatures are not verified. The content digest is computed
+ * over the mapping as well.
+ * <p>
+ * The mapping is released by the garbage collector, not by {@link #close()},
+ * so on some platforms the file cannot be deleted for a while after the
+ * resource was closed. Files that cannot be mapped in one piece, and archives
+ * {@link ZipArchive} does not understand, are rejected with an
+ * {@link IOException}; {@link JarResource} handles those.
+ */
+public class MappedJarResource implements Resource {
+
+    private static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+
+    private final File file;
+    private final String ilocation;
+    private final long size;
+
+    private final Dictionary<String, Object> properties = new Hashtable<>(); // NOSONAR
+
+    private MappedByteBuffer mapping;
+    private ZipArchive archive;
+    private String contentDigest;
+
+    private Manifest manifest;
+    private BundleDescriptor bundleDescriptor;
+
+    private GeneratorState generatorState;
+
+    public MappedJarResource(File file) throws IOException {
+        this.file = file;
+
+        this.ilocation = file.getPath();
+        this.size = file.length();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File too large to be mapped: " + ilocation);
+        }
+
+        properties.put(Constants.NAME, file.getName());
+        properties.put(Constants.LOCATION, ilocation);
+        properties.put(Constants.SIZE, size);
+        properties.put(Constants.LAST_MODIFIED, file.lastModified());
+
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            this.mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        this.archive = ZipArchive.parse(mapping);
+    }
+
+    /**
+     * @return the generator state of the indexing run this resource belongs
+     *         to, or {@code null} when none was configured.
+     */
+    public GeneratorState getGeneratorState() {
+        return generatorState;
+    }
+
+    void setGeneratorState(GeneratorState pGeneratorState) {
+        this.generatorState = pGeneratorState;
+    }
+
+    /**
+     * @return the hex encoded SHA-256 digest of the file, computed over the
+     *         mapping the first time it is asked for, or {@code null} when the
+     *         resource is closed.
+     */
+    synchronized String getContentDigest() {
+        if (contentDigest == null && mapping != null) {
+            try {
+                MessageDigest digest = MessageDigest
+                        .getInstance(BundleAnalyzer.SHA_256);
+                digest.update(mapping.duplicate());
+                contentDigest = Hex.toHexString(digest.digest());
+            } catch (NoSuchAlgorithmException e) {
+                return null;
+            }
+        }
+        return contentDigest;
+    }
+
+    @Override
+    public String getLocation() {
+        return ilocation;
+    }
+
+    @Override
+    public Dictionary<String, Object> getProperties() {
+        return properties;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public InputStream getStream() throws IOException {
+        return new ByteBufferInputStream(currentMapping().duplicate());
+    }
+
+    @Override
+    public Manifest getManifest() throws IOException {
+        synchronized (this) {
+            if (manifest == null) {
+                Resource manifestResource = getChild(MANIFEST_PATH);
+                if (manifestResource != null) {
+                    try {
+                        manifest = new Manifest(manifestResource.getStream());
+                    } finally {
+                        manifestResource.close();
+                    }
+                }
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * @return the descriptor of the bundle, parsed from the manifest once and
+     *         shared by every analyzer.
+     * @throws IOException
+     *                         when the manifest cannot be read.
+     */
+    synchronized BundleDescriptor getBundleDescriptor() throws IOException {
+        if (bundleDescriptor == null) {
+            bundleDescriptor = new BundleDescriptor(ilocation, getManifest());
+        }
+        return bundleDescriptor;
+    }
+
+    @Override
+    public List<String> listChildren(String prefix) throws IOException {
+        return currentArchive().listChildren(prefix);
+    }
+
+    @Override
+    public Resource getChild(String path) throws IOException {
+        ZipArchive current = currentArchive();
+        ZipArchive.Entry entry = current.find(path);
+        if (entry == null)
+            return null;
+        return new FlatStreamResource(path, getLocation() + "#" + path,
+                new ByteArrayInputStream(current.read(entry)));
+    }
+
+    private synchronized MappedByteBuffer currentMapping() throws IOException {
+        if (mapping == null)
+            throw new IOException("Resource closed: " + ilocation);
+        return mapping;
+    }
+
+    private synchronized ZipArchive currentArchive() throws IOException {
+        if (archive == null)
+            throw new IOException("Resource closed: " + ilocation);
+        return archive;
+    }
+
+    @Override
+    public synchronized void close() {
+        mapping = null;
+        archive = null;
+    }
+
+    /**
+     * Reads a byte buffer, sharing its content.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
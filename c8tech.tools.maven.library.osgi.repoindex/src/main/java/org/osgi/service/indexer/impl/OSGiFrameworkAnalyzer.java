@@ -13,6 +13,7 @@ package org.osgi.service.indexer.impl;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 /*
  * Part of this code was borrowed from BIndex project (https://github.com/osgi/bindex) 
@@ -20,6 +21,7 @@ import java.util.HashMap;
  */
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.osgi.framework.Version;
 import org.osgi.resource.Capability;
@@ -68,6 +70,19 @@ public class OSGiFrameworkAnalyzer implements ResourceAnalyzer {
         VERSIONS = Collections.unmodifiableMap(mymap);
     }
 
+    @Override
+    public Set<Input> getInputs() {
+        return EnumSet.of(Input.ENTRIES);
+    }
+
+    /**
+     * Reads the package capabilities added by the {@link BundleAnalyzer}.
+     */
+    @Override
+    public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return Collections.singleton(BundleAnalyzer.class);
+    }
+
     @Override
     public void analyzeResource(Resource resource, List<Capability> caps,
             List<Requirement> reqs) throws AnalyzerException {
@@ -17,41 +17,69 @@ package org.osgi.service.indexer.impl;
  */
 import static org.osgi.framework.FrameworkUtil.createFilter;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
 
 import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
 import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Builder;
 import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.IndexingListener;
+import org.osgi.service.indexer.Namespaces;
 import org.osgi.service.indexer.ResourceAnalyzer;
 import org.osgi.service.indexer.ResourceIndexer;
-import org.osgi.service.indexer.impl.types.TypedAttribute;
 import org.osgi.service.indexer.impl.util.AddOnlyList;
 import org.osgi.service.indexer.impl.util.Indent;
 import org.osgi.service.indexer.impl.util.Pair;
-import org.osgi.service.indexer.impl.util.Tag;
+import org.osgi.service.indexer.impl.util.ParallelGZIPOutputStream;
 import org.osgi.service.log.LogService;
 
 /**
@@ -65,13 +93,20 @@ public class RepoIndex implements ResourceIndexer {
      */
     public static final String REPOSITORY_INCREMENT_OVERRIDE = "-repository.increment.override";
 
+    /** the extension of the files written to {@link Constants#FRAGMENT_DIR} */
+    public static final String FRAGMENT_SUFFIX = ".xml";
+
     private static final ThreadLocal<GeneratorState> state = new ThreadLocal<>();
 
     /**
-     * the list of analyzer/filter pairs. The filter determines which resources
-     * can be analyzed
+     * the registered analyzer/filter pairs. The filter determines which
+     * resources can be analyzed. Registrations replace the whole snapshot, so
+     * indexing calls read it without locking.
      */
-    private final List<Pair<ResourceAnalyzer, Filter>> analyzers = new LinkedList<>();
+    private volatile AnalyzerSnapshot analyzers = AnalyzerSnapshot.EMPTY;
+
+    /** serializes the changes to the analyzer snapshot */
+    private final Object analyzersLock = new Object();
 
     /** the BluePrint analyzer */
     private final BlueprintAnalyzer blueprintAnalyzer;
@@ -88,9 +123,15 @@ public class RepoIndex implements ResourceIndexer {
     /** the logger */
     private final LogService log;
 
+    /** the analysis cache used when a call does not configure its own */
+    private volatile AnalysisCache analysisCache;
+
     /** the Declarative Services analyzer */
     private final SCRAnalyzer scrAnalyzer;
 
+    /** the listeners told about the timings of every indexing call */
+    private final List<IndexingListener> listeners = new CopyOnWriteArrayList<>();
+
     /**
      * Construct a default instance that uses a console logger.
      * 
@@ -132,31 +173,81 @@ public class RepoIndex implements ResourceIndexer {
         }
     }
 
-    private static void appendAttributeAndDirectiveTags(Tag parentTag,
-            Map<String, Object> attribs, Map<String, String> directives) {
-        for (Entry<String, Object> attribEntry : attribs.entrySet()) {
-            Tag attribTag = new Tag(Schema.ELEM_ATTRIBUTE);
-            attribTag.addAttribute(Schema.ATTR_NAME, attribEntry.getKey());
-
-            TypedAttribute typedAttrib = TypedAttribute
-                    .create(attribEntry.getKey(), attribEntry.getValue());
-            parentTag.addContent(typedAttrib.toXML());
+    /**
+     * Returns the generator state the given resource is being indexed with.
+     * Analyzers should prefer this over {@link #getStateLocal()}, since it does
+     * not depend on the thread the analysis runs on.
+     *
+     * @param resource
+     *                     the resource being analyzed.
+     * @return the generator state, or {@code null} when none was configured.
+     */
+    public static GeneratorState getState(
+            org.osgi.service.indexer.Resource resource) {
+        GeneratorState resourceState = null;
+        if (resource instanceof JarResource) {
+            resourceState = ((JarResource) resource).getGeneratorState();
+        } else if (resource instanceof MappedJarResource) {
+            resourceState = ((MappedJarResource) resource).getGeneratorState();
         }
-
-        for (Entry<String, String> directiveEntry : directives.entrySet()) {
-            Tag directiveTag = new Tag(Schema.ELEM_DIRECTIVE);
-            directiveTag.addAttribute(Schema.ATTR_NAME,
-                    directiveEntry.getKey());
-            directiveTag.addAttribute(Schema.ATTR_VALUE,
-                    directiveEntry.getValue());
-            parentTag.addContent(directiveTag);
+        if (resourceState != null) {
+            return resourceState;
         }
+        return state.get();
     }
 
+    /**
+     * @return the generator state bound to the current analysis thread.
+     * @deprecated use {@link #getState(org.osgi.service.indexer.Resource)}.
+     */
+    @Deprecated
     public static GeneratorState getStateLocal() {
         return state.get();
     }
 
+    static GeneratorState createGeneratorState(Map<String, String> config) {
+        return createGeneratorState(config, null);
+    }
+
+    static GeneratorState createGeneratorState(Map<String, String> config,
+            DigestService digestService) {
+        if (config == null) {
+            return null;
+        }
+        Path rootPath = null;
+        Path bundlesCopyPath = null;
+        Path subsystemsCopyPath = null;
+        Boolean forceAbsolutePath;
+        String rootPathStr = config.get(Constants.ROOT_DIR);
+        if (rootPathStr == null) {
+            rootPathStr = System.getProperty("user.dir");
+        }
+        if (rootPathStr.startsWith("file:")) {
+            rootPathStr = rootPathStr.substring(5);
+        }
+        File rootDir = new File(rootPathStr);
+        if (rootDir.isDirectory())
+            rootPath = rootDir.toPath();
+        else
+            rootPath = rootDir.getParentFile().toPath();
+
+        String bundlesCopyPathStr = config.get(Constants.BUNDLES_COPY_DIR);
+        if (bundlesCopyPathStr != null) {
+            bundlesCopyPath = Paths.get(bundlesCopyPathStr);
+        }
+        String subsystemsCopyPathStr = config
+                .get(Constants.SUBSYSTEMS_COPY_DIR);
+        if (subsystemsCopyPathStr != null) {
+            subsystemsCopyPath = Paths.get(subsystemsCopyPathStr);
+        }
+        forceAbsolutePath = Boolean
+                .valueOf(config.get(Constants.FORCE_ABSOLUTE_PATH));
+        String urlTemplate = config.get(Constants.URL_TEMPLATE);
+        return new GeneratorState(rootPath, bundlesCopyPath,
+                subsystemsCopyPath, urlTemplate, forceAbsolutePath,
+                digestService);
+    }
+
     /**
      * @param analyzer
      *                     the analyzer to add
@@ -165,115 +256,754 @@ public class RepoIndex implements ResourceIndexer {
      *                     analyzed
      */
     public final void addAnalyzer(ResourceAnalyzer analyzer, Filter filter) {
-        synchronized (analyzers) {
-            analyzers.add(Pair.create(analyzer, filter));
+        synchronized (analyzersLock) {
+            List<Pair<ResourceAnalyzer, Filter>> entries = new ArrayList<>(
+                    analyzers.entries);
+            entries.add(Pair.create(analyzer, filter));
+            analyzers = createSnapshot(entries);
         }
     }
 
-    private Tag generateResource(File file, Map<String, String> config)
+    private AnalyzerSnapshot createSnapshot(
+            List<Pair<ResourceAnalyzer, Filter>> entries) {
+        return new AnalyzerSnapshot(Collections.unmodifiableList(entries),
+                getSignature(entries), new AnalyzerDependencies(entries));
+    }
+
+    private IndexResult generateResource(File file, IndexingRun run)
             throws IOException {
+        try {
+            return generateResource(file, run, System.nanoTime());
+        } catch (IOException | RuntimeException e) {
+            run.failed.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private IndexResult generateResource(File file, IndexingRun run,
+            long start) throws IOException {
 
-        JarResource resource = new JarResource(file);
         List<Capability> caps = new AddOnlyList<>();
         List<Requirement> reqs = new AddOnlyList<>();
 
-        try {
-            // Read config settings and save in thread local state
-            if (config != null) {
-                Path rootPath = null;
-                Path bundlesCopyPath = null;
-                Path subsystemsCopyPath = null;
-                Boolean forceAbsolutePath;
-                String rootPathStr = config.get(Constants.ROOT_DIR);
-                if (rootPathStr == null) {
-                    rootPathStr = System.getProperty("user.dir");
+        AnalysisCache.Fingerprint fingerprint = null;
+        if (run.cache != null) {
+            fingerprint = run.cache.fingerprint(file, run.signature,
+                    run.stateDescription);
+            if (run.cache.restore(fingerprint, caps, reqs)) {
+                resourceCompleted(run, file.getPath(), start, 0, caps, reqs,
+                        true);
+                return createResult(null, run.signature, caps, reqs);
+            }
+        }
+
+        CompletableFuture<ContentDeduplicator.Analysis> shared = null;
+        ContentDeduplicator deduplicator = run.deduplicator;
+        if (deduplicator != null) {
+            BitSet matching = getMatchingAnalyzers(run, file);
+            String key = isDeduplicable(run, matching)
+                    ? deduplicator.key(file, matching)
+                    : null;
+            if (key != null) {
+                shared = new CompletableFuture<>();
+                CompletableFuture<ContentDeduplicator.Analysis> earlier = deduplicator
+                        .claim(key, shared);
+                if (earlier != null) {
+                    IndexResult reused = reuseAnalysis(file, run, start,
+                            fingerprint, earlier);
+                    if (reused != null) {
+                        return reused;
+                    }
+                    shared = null;
                 }
-                if (rootPathStr.startsWith("file:")) {
-                    rootPathStr = rootPathStr.substring(5);
+            }
+        }
+        try {
+            return analyzeResource(file, run, start, fingerprint, caps, reqs,
+                    shared);
+        } catch (IOException | RuntimeException | Error e) {
+            if (shared != null) {
+                shared.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private IndexResult analyzeResource(File file, IndexingRun run,
+            long start, AnalysisCache.Fingerprint fingerprint,
+            List<Capability> caps, List<Requirement> reqs,
+            CompletableFuture<ContentDeduplicator.Analysis> shared)
+            throws IOException {
+        org.osgi.service.indexer.Resource resource = openResource(file, run);
+        boolean failed = false;
+
+        // keep the thread local state for analyzers still relying on it
+        setStateLocal(run.generatorState);
+        try {
+            if (run.analyzerExecutor != null) {
+                failed = analyzeConcurrently(run, resource, caps, reqs);
+            } else {
+                for (Pair<ResourceAnalyzer, Filter> entry : run.analyzers) {
+                    ResourceAnalyzer analyzer = entry.getFirst();
+                    Filter filter = entry.getSecond();
+
+                    if (filter == null
+                            || filter.match(resource.getProperties())) {
+                        try {
+                            analyze(run, analyzer, resource, caps, reqs);
+                        } catch (Exception e) {
+                            failed = true;
+                            logAnalyzerFailure(analyzer, resource, e);
+                        }
+                    }
                 }
-                File rootDir = new File(rootPathStr);
-                if (rootDir.isDirectory())
-                    rootPath = rootDir.toPath();
-                else
-                    rootPath = rootDir.getParentFile().toPath();
-
-                String bundlesCopyPathStr = config
-                        .get(Constants.BUNDLES_COPY_DIR);
-                if (bundlesCopyPathStr != null) {
-                    bundlesCopyPath = Paths.get(bundlesCopyPathStr);
+            }
+        } finally {
+            setStateLocal(null);
+            resource.close();
+        }
+
+        // incomplete results are not cached, so the failure shows up again
+        if (run.cache != null && !failed) {
+            run.cache.store(fingerprint, caps, reqs);
+        }
+        if (failed) {
+            run.failed.incrementAndGet();
+        }
+        if (shared != null) {
+            shared.complete(new ContentDeduplicator.Analysis(
+                    new ArrayList<>(caps), new ArrayList<>(reqs), failed));
+        }
+        resourceCompleted(run, resource.getLocation(), start,
+                resource.getSize(), caps, reqs, false);
+        return createResult(resource, run.signature, caps, reqs);
+    }
+
+    /*
+     * Only the content url the bundle analyzer writes is recomputed for
+     * copies, so files it does not apply to, such as subsystem archives whose
+     * url is computed by their own analyzer, are not deduplicated.
+     */
+    private static boolean isDeduplicable(IndexingRun run, BitSet matching) {
+        for (int i = matching.nextSetBit(0); i >= 0; i = matching
+                .nextSetBit(i + 1)) {
+            if (run.analyzers.get(i).getFirst() instanceof BundleAnalyzer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Builds the result of a file from the analysis of an identical file,
+     * recomputing the content url, the only part depending on the file.
+     * Returns null when that analysis failed, so the file is analyzed on its
+     * own and fails the same way it would without deduplication.
+     */
+    private IndexResult reuseAnalysis(File file, IndexingRun run, long start,
+            AnalysisCache.Fingerprint fingerprint,
+            CompletableFuture<ContentDeduplicator.Analysis> earlier)
+            throws IOException {
+        ContentDeduplicator.Analysis analysis;
+        try {
+            analysis = earlier.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Indexing was interrupted.");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not analyze an identical file.",
+                    e.getCause());
+        }
+
+        if (analysis.failed) {
+            return null;
+        }
+
+        String url = calculateCopyUrl(file, run);
+        List<Capability> caps = new AddOnlyList<>();
+        for (Capability cap : analysis.capabilities) {
+            caps.add(withContentUrl(cap, url));
+        }
+        List<Requirement> reqs = new AddOnlyList<>();
+        reqs.addAll(analysis.requirements);
+
+        if (run.cache != null) {
+            run.cache.store(fingerprint, caps, reqs);
+        }
+        resourceCompleted(run, file.getPath(), start, 0, caps, reqs, true);
+        return createResult(null, run.signature, caps, reqs);
+    }
+
+    private static String calculateCopyUrl(File file, IndexingRun run)
+            throws IOException {
+        JarResource resource = new JarResource(file, true);
+        try {
+            resource.setGeneratorState(run.generatorState);
+            return BundleAnalyzer.calculateLocation(resource);
+        } finally {
+            resource.close();
+        }
+    }
+
+    private static Capability withContentUrl(Capability cap, String url) {
+        if (!Namespaces.NS_CONTENT.equals(cap.getNamespace()) || !cap
+                .getAttributes().containsKey(Namespaces.ATTR_CONTENT_URL)) {
+            return cap;
+        }
+        Builder builder = new Builder().setNamespace(cap.getNamespace());
+        for (Entry<String, Object> attribute : cap.getAttributes()
+                .entrySet()) {
+            builder.addAttribute(attribute.getKey(),
+                    Namespaces.ATTR_CONTENT_URL.equals(attribute.getKey())
+                            ? url
+                            : attribute.getValue());
+        }
+        for (Entry<String, String> directive : cap.getDirectives()
+                .entrySet()) {
+            builder.addDirective(directive.getKey(), directive.getValue());
+        }
+        return builder.buildCapability();
+    }
+
+    private void logAnalyzerFailure(ResourceAnalyzer analyzer,
+            org.osgi.service.indexer.Resource resource, Exception e) {
+        log(LogService.LOG_ERROR, MessageFormat.format(
+                "Error calling analyzer \"{0}\" on resource {1}.",
+                analyzer.getClass().getName(), resource.getLocation()), e);
+    }
+
+    /*
+     * Runs the analyzers of a resource on the analyzer threads, each one after
+     * the analyzers it depends on, and merges their output in registration
+     * order, as if they had run one after the other. Returns whether an
+     * analyzer failed.
+     */
+    private boolean analyzeConcurrently(IndexingRun run,
+            org.osgi.service.indexer.Resource resource, List<Capability> caps,
+            List<Requirement> reqs) throws IOException {
+        int count = run.analyzers.size();
+        AnalyzerOutput[] outputs = new AnalyzerOutput[count];
+        List<CompletableFuture<Void>> futures = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int[] waits = run.dependencies.waits[i];
+            CompletableFuture<?>[] ready = new CompletableFuture<?>[waits.length];
+            for (int w = 0; w < waits.length; w++) {
+                ready[w] = futures.get(waits[w]);
+            }
+            final int index = i;
+            futures.add(CompletableFuture.allOf(ready).thenRunAsync(
+                    () -> outputs[index] = analyzeAlone(run, index, resource,
+                            outputs),
+                    run.analyzerExecutor));
+        }
+
+        boolean failed = false;
+        for (int i = 0; i < count; i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                for (CompletableFuture<Void> future : futures) {
+                    future.cancel(false);
                 }
-                String subsystemsCopyPathStr = config
-                        .get(Constants.SUBSYSTEMS_COPY_DIR);
-                if (subsystemsCopyPathStr != null) {
-                    subsystemsCopyPath = Paths.get(subsystemsCopyPathStr);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Analysis was interrupted.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+            AnalyzerOutput output = outputs[i];
+            if (output == null) {
+                continue;
+            }
+            caps.addAll(output.capabilities);
+            reqs.addAll(output.requirements);
+            if (output.failure != null) {
+                failed = true;
+                logAnalyzerFailure(run.analyzers.get(i).getFirst(), resource,
+                        output.failure);
+            }
+        }
+        return failed;
+    }
+
+    /*
+     * Runs one analyzer on lists holding the output of the analyzers it
+     * depends on. Returns null when the analyzer does not apply.
+     */
+    private AnalyzerOutput analyzeAlone(IndexingRun run, int index,
+            org.osgi.service.indexer.Resource resource,
+            AnalyzerOutput[] outputs) {
+        Pair<ResourceAnalyzer, Filter> entry = run.analyzers.get(index);
+        Filter filter = entry.getSecond();
+        if (filter != null && !filter.match(resource.getProperties())) {
+            return null;
+        }
+
+        List<Capability> caps = new AddOnlyList<>();
+        List<Requirement> reqs = new AddOnlyList<>();
+        for (int visible : run.dependencies.visible[index]) {
+            AnalyzerOutput output = outputs[visible];
+            if (output != null) {
+                caps.addAll(output.capabilities);
+                reqs.addAll(output.requirements);
+            }
+        }
+        int capsStart = caps.size();
+        int reqsStart = reqs.size();
+
+        Exception failure = null;
+        setStateLocal(run.generatorState);
+        try {
+            analyze(run, entry.getFirst(), resource, caps, reqs);
+        } catch (Exception e) {
+            failure = e;
+        } finally {
+            setStateLocal(null);
+        }
+        return new AnalyzerOutput(caps.subList(capsStart, caps.size()),
+                reqs.subList(reqsStart, reqs.size()), failure);
+    }
+
+    /*
+     * Runs an analyzer, timing it when the run has listeners.
+     */
+    private void analyze(IndexingRun run, ResourceAnalyzer analyzer,
+            org.osgi.service.indexer.Resource resource, List<Capability> caps,
+            List<Requirement> reqs) throws AnalyzerException {
+        if (run.listeners.isEmpty()) {
+            analyzer.analyzeResource(resource, caps, reqs);
+            return;
+        }
+        int capsBefore = caps.size();
+        int reqsBefore = reqs.size();
+        long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            analyzer.analyzeResource(resource, caps, reqs);
+        } catch (AnalyzerException | RuntimeException | Error e) {
+            failure = e;
+            throw e;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            for (IndexingListener listener : run.listeners) {
+                try {
+                    listener.analyzerCompleted(resource.getLocation(),
+                            analyzer, nanos, caps.size() - capsBefore,
+                            reqs.size() - reqsBefore, failure);
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
                 }
-                forceAbsolutePath = Boolean.valueOf(
-                        config.get(Constants.FORCE_ABSOLUTE_PATH));
-                String urlTemplate = config.get(Constants.URL_TEMPLATE);
-                setStateLocal(new GeneratorState(rootPath, bundlesCopyPath,
-                        subsystemsCopyPath, urlTemplate, forceAbsolutePath));
-            } else {
-                setStateLocal(null);
             }
+        }
+    }
 
-            // Iterate over the analyzers
+    private void resourceCompleted(IndexingRun run, String location,
+            long start, long size, List<Capability> caps,
+            List<Requirement> reqs, boolean cached) {
+        run.resources.incrementAndGet();
+        run.size.addAndGet(size);
+        if (run.listeners.isEmpty()) {
+            return;
+        }
+        long nanos = System.nanoTime() - start;
+        for (IndexingListener listener : run.listeners) {
             try {
-                synchronized (analyzers) {
-                    for (Pair<ResourceAnalyzer, Filter> entry : analyzers) {
-                        ResourceAnalyzer analyzer = entry.getFirst();
-                        Filter filter = entry.getSecond();
-
-                        if (filter == null
-                                || filter.match(resource.getProperties())) {
-                            try {
-                                analyzer.analyzeResource(resource, caps, reqs);
-                            } catch (Exception e) {
-                                log(LogService.LOG_ERROR, MessageFormat.format(
-                                        "Error calling analyzer \"{0}\" on resource {1}.",
-                                        analyzer.getClass().getName(),
-                                        resource.getLocation()), e);
-                            }
-                        }
-                    }
+                listener.resourceCompleted(location, nanos, size, caps.size(),
+                        reqs.size(), cached);
+            } catch (RuntimeException e) {
+                logListenerFailure(listener, e);
+            }
+        }
+    }
+
+    private void logListenerFailure(IndexingListener listener,
+            RuntimeException e) {
+        log(LogService.LOG_WARNING, MessageFormat.format(
+                "Error calling indexing listener \"{0}\".",
+                listener.getClass().getName()), e);
+    }
+
+    private static IndexResult createResult(
+            org.osgi.service.indexer.Resource resource, long signature,
+            List<Capability> caps, List<Requirement> reqs) {
+        IndexResult result = new IndexResult();
+        result.setResource(resource);
+        result.setSignature(signature);
+        result.getCapabilities().addAll(caps);
+        result.getRequirements().addAll(reqs);
+        return result;
+    }
+
+    /**
+     * Generates the resource tags for the given files, handing them to the
+     * output in iteration order. With more than one thread the files are
+     * analyzed concurrently, but at most a bounded number of results is kept
+     * in memory waiting for its turn to be written.
+     */
+    private void generateResources(Collection<File> files, IndexingRun run,
+            int threads, ResourceOutput output) throws AnalyzerException {
+        if (run.deduplicate) {
+            run.deduplicator = new ContentDeduplicator(files,
+                    run.generatorState == null ? null
+                            : run.generatorState.getDigestService());
+        }
+        if (threads <= 1 || files.size() <= 1) {
+            for (File file : files) {
+                IndexResult result;
+                try {
+                    result = generateResource(file, run);
+                } catch (Exception e) {
+                    logSkipped(file, e);
+                    continue;
                 }
-            } finally {
-                setStateLocal(null);
+                write(file, result, output);
             }
-        } finally
+            return;
+        }
 
-        {
-            resource.close();
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new IndexerThreadFactory());
+        Deque<Pair<File, Future<IndexResult>>> pending = new ArrayDeque<>();
+        int window = threads * 2;
+        try {
+            for (File file : files) {
+                if (pending.size() >= window) {
+                    writePending(pending.removeFirst(), output);
+                }
+                pending.addLast(Pair.create(file,
+                        executor.submit(() -> generateResource(file, run))));
+            }
+            while (!pending.isEmpty()) {
+                writePending(pending.removeFirst(), output);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Captures what an indexing call works with: the configured generator
+     * state, the analyzers registered when the call started, the analysis
+     * cache to use, if any, and how the files are opened.
+     */
+    private IndexingRun startRun(Map<String, String> config) {
+        AnalyzerSnapshot analyzersSnapshot = analyzers;
+        AnalysisCache cache = analysisCache;
+        String cachePath = config == null ? null
+                : config.get(Constants.ANALYSIS_CACHE);
+        if (cachePath != null) {
+            cache = AnalysisCache.load(new File(cachePath), log);
+        }
+        boolean memoryMapped = config != null
+                && Boolean.parseBoolean(config.get(Constants.MEMORY_MAPPED));
+        List<IndexingListener> runListeners = new ArrayList<>(listeners);
+        if (config != null
+                && Boolean.parseBoolean(config.get(Constants.METRICS))) {
+            runListeners.add(new LoggingIndexingListener(log,
+                    getInt(config, Constants.METRICS_SLOW_ANALYZER,
+                            LoggingIndexingListener.DEFAULT_SLOW_MILLIS)));
+        }
+        ExecutorService analyzerExecutor = null;
+        if (analyzersSnapshot.concurrent) {
+            int analyzerThreads = getThreads(config,
+                    Constants.PARALLEL_ANALYZERS,
+                    "Invalid value \"{0}\" for {1}, running the analyzers of a resource one after the other.");
+            if (analyzerThreads > 1) {
+                analyzerExecutor = Executors.newFixedThreadPool(
+                        analyzerThreads,
+                        new IndexerThreadFactory("repoindex-analyzer-"));
+            }
+        }
+        return new IndexingRun(
+                createGeneratorState(config, createDigestService(config)),
+                analyzersSnapshot, cache, memoryMapped, runListeners,
+                analyzerExecutor, isDeduplicated(config));
+    }
+
+    /**
+     * Creates the digest service of an indexing call, when the configuration
+     * asks for a digest cache, for extra digest algorithms or for
+     * deduplication.
+     */
+    private DigestService createDigestService(Map<String, String> config) {
+        if (config == null) {
+            return null;
         }
+        String cachePath = config.get(Constants.DIGEST_CACHE);
+        String algorithms = config.get(Constants.DIGEST_ALGORITHMS);
+        // the bundle analyzer then reuses the digests of the deduplication
+        if (cachePath == null && algorithms == null
+                && !isDeduplicated(config)) {
+            return null;
+        }
+        File cacheFile = cachePath == null ? null : new File(cachePath);
+        List<String> extra = algorithms == null ? Collections.emptyList()
+                : Arrays.asList(algorithms.split(","));
+        try {
+            return DigestService.load(cacheFile, extra, log);
+        } catch (NoSuchAlgorithmException e) {
+            log(LogService.LOG_WARNING, MessageFormat.format(
+                    "Unsupported digest algorithm in {0}, "
+                            + "only SHA-256 will be computed.",
+                    algorithms), e);
+            try {
+                return DigestService.load(cacheFile,
+                        Collections.<String>emptyList(), log);
+            } catch (NoSuchAlgorithmException e1) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Opens a file for analysis, memory-mapping it when the run asks for it
+     * and the archive allows it. When the analyzers only read manifests, the
+     * content of the file is not read at all.
+     */
+    private static org.osgi.service.indexer.Resource openResource(File file,
+            IndexingRun run) throws IOException {
+        if (run.manifestOnly) {
+            JarResource resource = new JarResource(file, true);
+            resource.setGeneratorState(run.generatorState);
+            return resource;
+        }
+        if (run.memoryMapped && file.length() <= Integer.MAX_VALUE) {
+            try {
+                MappedJarResource mapped = new MappedJarResource(file);
+                mapped.setGeneratorState(run.generatorState);
+                return mapped;
+            } catch (ZipException e) {
+                // not an archive the mapped reader understands
+            }
+        }
+        JarResource resource = new JarResource(file);
+        resource.setGeneratorState(run.generatorState);
+        return resource;
+    }
 
-        Tag resourceTag = new Tag(Schema.ELEM_RESOURCE);
-        for (Capability cap : caps)
+    private void finishRun(IndexingRun run) {
+        finishRun(run, true);
+    }
 
-        {
-            Tag capTag = new Tag(Schema.ELEM_CAPABILITY);
-            capTag.addAttribute(Schema.ATTR_NAMESPACE, cap.getNamespace());
+    /*
+     * The analysis cache set on the indexer is only saved when asked for, as
+     * indexing files one by one would otherwise write it after every file.
+     */
+    private void finishRun(IndexingRun run, boolean saveCache) {
+        if (run.analyzerExecutor != null) {
+            run.analyzerExecutor.shutdown();
+        }
+        if (!run.listeners.isEmpty()) {
+            long nanos = System.nanoTime() - run.started;
+            for (IndexingListener listener : run.listeners) {
+                try {
+                    listener.runCompleted(run.resources.get(),
+                            run.failed.get(), nanos, run.size.get());
+                } catch (RuntimeException e) {
+                    logListenerFailure(listener, e);
+                }
+            }
+        }
+        DigestService digestService = run.generatorState == null ? null
+                : run.generatorState.getDigestService();
+        if (digestService != null) {
+            try {
+                digestService.save();
+            } catch (IOException e) {
+                log(LogService.LOG_WARNING,
+                        "Could not save the digest cache.", e);
+            }
+        }
+        if (run.cache == null || !saveCache) {
+            return;
+        }
+        try {
+            run.cache.save();
+        } catch (IOException e) {
+            log(LogService.LOG_WARNING,
+                    "Could not save the analysis cache.", e);
+        }
+    }
 
-            appendAttributeAndDirectiveTags(capTag, cap.getAttributes(),
-                    cap.getDirectives());
+    private void writePending(Pair<File, Future<IndexResult>> pending,
+            ResourceOutput output) throws AnalyzerException {
+        IndexResult result;
+        try {
+            result = pending.getSecond().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalyzerException("Indexing was interrupted.", e);
+        } catch (ExecutionException e) {
+            logSkipped(pending.getFirst(), e.getCause());
+            return;
+        }
+        write(pending.getFirst(), result, output);
+    }
 
-            resourceTag.addContent(capTag);
+    private void write(File file, IndexResult result, ResourceOutput output)
+            throws AnalyzerException {
+        try {
+            output.write(file, result);
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        } catch (RuntimeException e) {
+            logSkipped(file, e);
         }
+    }
 
-        for (
+    private void logSkipped(File file, Throwable e) {
+        log(LogService.LOG_WARNING, MessageFormat.format(
+                "Could not index {0}, skipped ({1}).", file, e.getMessage()),
+                e);
+    }
 
-        Requirement req : reqs)
+    /**
+     * <pre>
+     * pretty   compressed         out-pretty     out-compressed
+     *   null         null        Indent.NONE               true*
+     *   null        false        Indent.NONE              false
+     *   null         true        Indent.NONE               true
+     *  false         null      Indent.PRETTY              false*
+     *  false        false        Indent.NONE              false
+     *  false         true        Indent.NONE               true
+     *   true         null      Indent.PRETTY              false*
+     *   true        false      Indent.PRETTY              false
+     *   true         true      Indent.PRETTY               true
+     *
+     *   * = original behaviour, before compressed was introduced
+     * </pre>
+     */
+    private static Indent getIndent(Map<String, String> config) {
+        String prettySetting = config.get(Constants.PRETTY);
+        String compressedSetting = config.get(Constants.COMPRESSED);
+        return (prettySetting == null
+                || (!Boolean.parseBoolean(prettySetting)
+                        && compressedSetting != null)) ? Indent.NONE
+                                : Indent.PRETTY;
+    }
 
-        {
-            Tag reqTag = new Tag(Schema.ELEM_REQUIREMENT);
-            reqTag.addAttribute(Schema.ATTR_NAMESPACE, req.getNamespace());
+    private static boolean isDeduplicated(Map<String, String> config) {
+        return config != null
+                && Boolean.parseBoolean(config.get(Constants.DEDUPLICATE));
+    }
 
-            appendAttributeAndDirectiveTags(reqTag, req.getAttributes(),
-                    req.getDirectives());
+    private static boolean isBinary(Map<String, String> config) {
+        String format = config.get(Constants.FORMAT);
+        return format != null
+                && Constants.FORMAT_BINARY.equalsIgnoreCase(format.trim());
+    }
+
+    /**
+     * @see #getIndent(Map)
+     */
+    private static boolean isCompressed(Map<String, String> config) {
+        String prettySetting = config.get(Constants.PRETTY);
+        String compressedSetting = config.get(Constants.COMPRESSED);
+        return (prettySetting == null && compressedSetting == null)
+                || Boolean.parseBoolean(compressedSetting);
+    }
+
+    private int getThreads(Map<String, String> config) {
+        return getThreads(config, Constants.PARALLEL_THREADS,
+                "Invalid value \"{0}\" for {1}, indexing sequentially.");
+    }
+
+    /*
+     * Reads a thread count, where 0 stands for the number of available
+     * processors and anything missing or invalid for a single thread.
+     */
+    private int getThreads(Map<String, String> config, String key,
+            String invalidMessage) {
+        String threadsStr = config == null ? null : config.get(key);
+        if (threadsStr == null || threadsStr.trim().isEmpty()) {
+            return 1;
+        }
+        try {
+            int threads = Integer.parseInt(threadsStr.trim());
+            if (threads == 0) {
+                return Runtime.getRuntime().availableProcessors();
+            }
+            return Math.max(1, threads);
+        } catch (NumberFormatException e) {
+            log(LogService.LOG_WARNING,
+                    MessageFormat.format(invalidMessage, threadsStr, key), e);
+            return 1;
+        }
+    }
 
-            resourceTag.addContent(reqTag);
+    /**
+     * Wraps the output in a GZIP stream, compressing in parallel when
+     * {@link Constants#COMPRESSION_THREADS} asks for more than one thread.
+     */
+    private OutputStream compress(OutputStream out, Map<String, String> config)
+            throws IOException {
+        int configuredLevel = getInt(config, Constants.COMPRESSION_LEVEL,
+                Deflater.DEFAULT_COMPRESSION);
+        if (configuredLevel < Deflater.DEFAULT_COMPRESSION
+                || configuredLevel > Deflater.BEST_COMPRESSION) {
+            log(LogService.LOG_WARNING, MessageFormat.format(
+                    "Invalid value \"{0}\" for {1}, using the default level.",
+                    Integer.toString(configuredLevel),
+                    Constants.COMPRESSION_LEVEL), null);
+            configuredLevel = Deflater.DEFAULT_COMPRESSION;
+        }
+        final int level = configuredLevel;
+        int threads = getThreads(config, Constants.COMPRESSION_THREADS,
+                "Invalid value \"{0}\" for {1}, compressing on a single thread.");
+        if (threads <= 1) {
+            return new GZIPOutputStream(out) {
+                {
+                    def.setLevel(level);
+                }
+            };
         }
+        int blockSize = getInt(config, Constants.COMPRESSION_BLOCK_SIZE,
+                ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE);
+        return new ParallelGZIPOutputStream(out, level,
+                blockSize > 0 ? blockSize
+                        : ParallelGZIPOutputStream.DEFAULT_BLOCK_SIZE,
+                threads);
+    }
 
-        return resourceTag;
+    private int getInt(Map<String, String> config, String key,
+            int defaultValue) {
+        String value = config.get(key);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log(LogService.LOG_WARNING, MessageFormat.format(
+                    "Invalid value \"{0}\" for {1}, using {2}.", value, key,
+                    Integer.toString(defaultValue)), e);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Adds a listener, told about the timings of the indexing calls started
+     * from now on.
+     *
+     * @param listener
+     *                     the listener to add.
+     */
+    public void addListener(IndexingListener listener) {
+        listeners.add(listener);
+    }
 
+    /**
+     * Removes a listener. Indexing calls already started keep telling it.
+     *
+     * @param listener
+     *                     the listener to remove.
+     */
+    public void removeListener(IndexingListener listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -284,17 +1014,26 @@ public class RepoIndex implements ResourceIndexer {
 
     public List<ResourceAnalyzer> getAnalyzers() {
         List<ResourceAnalyzer> list = new ArrayList<>();
-        for (Pair<ResourceAnalyzer, Filter> entry : analyzers) {
+        for (Pair<ResourceAnalyzer, Filter> entry : analyzers.entries) {
             list.add(entry.getFirst());
         }
         return list;
 
     }
 
-    private long getSignature() {
+    private long getSignature(
+            List<Pair<ResourceAnalyzer, Filter>> analyzersSnapshot) {
         long value = 97;
-        for (Pair<ResourceAnalyzer, Filter> ra : analyzers) {
-            value *= 997 * ra.getFirst().getClass().getName().hashCode() + 13;
+        for (Pair<ResourceAnalyzer, Filter> ra : analyzersSnapshot) {
+            value = 997 * value + ra.getFirst().getClass().getName().hashCode();
+            Filter filter = ra.getSecond();
+            value = 31 * value
+                    + (filter == null ? 0 : filter.toString().hashCode());
+        }
+        Properties knownBundlesExtra = knownBundleAnalyzer
+                .getKnownBundlesExtra();
+        if (knownBundlesExtra != null) {
+            value = 31 * value + knownBundlesExtra.hashCode();
         }
         return value;
     }
@@ -314,128 +1053,498 @@ public class RepoIndex implements ResourceIndexer {
 
         Set<File> filesToIndex = new TreeSet<>();
         if (files != null && !files.isEmpty()) {
-            resolveDirectories(files, filesToIndex);
+            filesToIndex = resolveFiles(files, config);
         }
 
-        Indent indent;
-        PrintWriter pw = null;
-        try {
-            String prettySetting = config.get(Constants.PRETTY);
-            String compressedSetting = config.get(Constants.COMPRESSED);
-            /**
-             * <pre>
-             * pretty   compressed         out-pretty     out-compressed
-             *   null         null        Indent.NONE               true*
-             *   null        false        Indent.NONE              false
-             *   null         true        Indent.NONE               true
-             *  false         null      Indent.PRETTY              false*
-             *  false        false        Indent.NONE              false
-             *  false         true        Indent.NONE               true
-             *   true         null      Indent.PRETTY              false*
-             *   true        false      Indent.PRETTY              false
-             *   true         true      Indent.PRETTY               true
-             *
-             *   * = original behaviour, before compressed was introduced
-             * </pre>
-             */
-            indent = (prettySetting == null
-                    || (!Boolean.parseBoolean(prettySetting)
-                            && compressedSetting != null)) ? Indent.NONE
-                                    : Indent.PRETTY;
-            boolean compressed = (prettySetting == null
-                    && compressedSetting == null)
-                    || Boolean.parseBoolean(compressedSetting);
+        final Indent indent = getIndent(config);
+        boolean compressed = isCompressed(config);
+
+        String repoName = config.get(Constants.REPOSITORY_NAME);
+        if (repoName == null)
+            repoName = Constants.REPOSITORYNAME_DEFAULT;
+
+        String increment = config.get(REPOSITORY_INCREMENT_OVERRIDE);
+        if (increment == null)
+            increment = Long.toString(System.currentTimeMillis());
+
+        if (isBinary(config)) {
+            indexBinary(filesToIndex, out, config, repoName, increment);
+            return;
+        }
+
+        try (RepositoryXmlWriter xmlWriter = new RepositoryXmlWriter(
+                compressed ? compress(out, config) : out)) {
+            xmlWriter.writeProcessingInstruction();
+            xmlWriter.writeRepositoryStart(indent, repoName, increment);
+            final Indent resourceIndent = indent.next();
+            IndexingRun run = startRun(config);
             try {
-                if (!compressed) {
-                    pw = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-                } else {
-                    pw = new PrintWriter(new GZIPOutputStream(out));
+                generateResources(filesToIndex, run, getThreads(config),
+                        (file, result) -> xmlWriter.writeResource(
+                                resourceIndent, result.getCapabilities(),
+                                result.getRequirements()));
+            } finally {
+                finishRun(run);
+            }
+            xmlWriter.writeRepositoryEnd(indent);
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    private void indexBinary(Set<File> filesToIndex, OutputStream out,
+            Map<String, String> config, String repoName, String increment)
+            throws AnalyzerException {
+        boolean compressed = Boolean
+                .parseBoolean(config.get(Constants.COMPRESSED));
+        try (RepositoryBinaryWriter binaryWriter = new RepositoryBinaryWriter(
+                compressed ? compress(out, config) : out)) {
+            binaryWriter.writeRepositoryStart(repoName, increment);
+            IndexingRun run = startRun(config);
+            try {
+                generateResources(filesToIndex, run, getThreads(config),
+                        (file, result) -> binaryWriter.writeResource(
+                                result.getCapabilities(),
+                                result.getRequirements()));
+            } finally {
+                finishRun(run);
+            }
+            binaryWriter.writeRepositoryEnd();
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    /*
+     * See ResourceIndexer interface
+     */
+    @Override
+    public void update(File existingIndex, Set<File> added,
+            Set<File> removed, Set<File> modified, OutputStream out,
+            Map<String, String> configMap) throws AnalyzerException {
+        Map<String, String> config;
+        if (configMap == null) {
+            config = new HashMap<>(0);
+        } else {
+            config = new HashMap<>(configMap);
+        }
+        if (isBinary(config)) {
+            throw new AnalyzerException(
+                    "Incremental updates are only supported for the XML format.");
+        }
+
+        Set<File> changed = new TreeSet<>();
+        if (added != null && !added.isEmpty()) {
+            changed.addAll(resolveFiles(added, config));
+        }
+        if (modified != null && !modified.isEmpty()) {
+            changed.addAll(resolveFiles(modified, config));
+        }
+
+        IndexingRun run = startRun(config);
+
+        // changed files replace the resources having the same url, wherever
+        // they are; the ones that were not indexed yet are appended at the end
+        final Map<File, IndexResult> pending = new LinkedHashMap<>();
+        final Map<String, File> changedByUrl = new HashMap<>();
+        try {
+            generateResources(changed, run, getThreads(config),
+                    (file, result) -> {
+                        pending.put(file, result);
+                        changedByUrl.put(calculatePathUrl(file, run), file);
+                        String url = getContentUrl(result);
+                        if (url != null) {
+                            changedByUrl.put(url, file);
+                        }
+                    });
+        } finally {
+            finishRun(run);
+        }
+
+        // removed files are usually gone, so a templated url is computed
+        // from the identity the existing index holds for them, which only
+        // tells resources apart when the template keeps the file name
+        Set<String> removedUrls = new HashSet<>();
+        List<File> removedTemplated = new ArrayList<>();
+        String urlTemplate = run.generatorState == null ? null
+                : run.generatorState.getUrlTemplate();
+        if (removed != null) {
+            for (File file : removed) {
+                removedUrls.add(calculatePathUrl(file, run));
+                removedUrls.add(calculateSubsystemPathUrl(file, run));
+                String url = calculateUrl(file, run);
+                if (url != null) {
+                    removedUrls.add(url);
+                } else if (urlTemplate != null && urlTemplate.contains("%f")) {
+                    removedTemplated.add(file);
+                } else if (urlTemplate != null) {
+                    log(LogService.LOG_WARNING, MessageFormat.format(
+                            "Cannot compute the templated url of the removed file {0}, as it no longer exists and {1} does not hold %f; its resource may stay in the index.",
+                            file, Constants.URL_TEMPLATE), null);
                 }
-            } catch (IOException e) {
-                throw new AnalyzerException("", e);
             }
+        }
+
+        final Indent indent = getIndent(config);
+        final Indent resourceIndent = indent.next();
+        boolean compressed = isCompressed(config);
 
-            pw.print(Schema.XML_PROCESSING_INSTRUCTION);
-            Tag repoTag = new Tag(Schema.ELEM_REPOSITORY);
+        try (ResourceElementScanner scanner = ResourceElementScanner
+                .open(new FileInputStream(existingIndex));
+                RepositoryXmlWriter xmlWriter = new RepositoryXmlWriter(
+                        compressed ? compress(out, config) : out)) {
+            Map<String, String> repoAttributes = scanner
+                    .readRepositoryStart();
 
             String repoName = config.get(Constants.REPOSITORY_NAME);
+            if (repoName == null)
+                repoName = repoAttributes.get(Schema.ATTR_NAME);
             if (repoName == null)
                 repoName = Constants.REPOSITORYNAME_DEFAULT;
-            repoTag.addAttribute(Schema.ATTR_NAME, repoName);
 
             String increment = config.get(REPOSITORY_INCREMENT_OVERRIDE);
             if (increment == null)
-                increment = Long.toString(System.currentTimeMillis());
-            repoTag.addAttribute(Schema.ATTR_INCREMENT, increment);
-
-            repoTag.addAttribute(Schema.ATTR_XML_NAMESPACE, Schema.NAMESPACE);
+                increment = Long.toString(nextIncrement(
+                        repoAttributes.get(Schema.ATTR_INCREMENT)));
 
-            repoTag.printOpen(indent, pw, false);
-            for (File file : filesToIndex) {
-                try {
-                    Tag resourceTag = generateResource(file, config);
-                    resourceTag.print(indent.next(), pw);
-                } catch (Exception e) {
-                    log(LogService.LOG_WARNING,
-                            MessageFormat.format(
-                                    "Could not index {0}, skipped ({1}).", file,
-                                    e.getMessage()),
-                            e);
+            xmlWriter.writeProcessingInstruction();
+            xmlWriter.writeRepositoryStart(indent, repoName, increment);
+            String element;
+            while ((element = scanner.nextResource()) != null) {
+                String url = ResourceElementScanner.contentUrl(element);
+                File changedFile = url == null ? null : changedByUrl.get(url);
+                if (changedFile != null) {
+                    IndexResult result = pending.remove(changedFile);
+                    if (result != null) {
+                        writeUpdated(changedFile, result, xmlWriter,
+                                resourceIndent);
+                    }
+                } else if (url == null || !(removedUrls.contains(url)
+                        || isRemovedTemplatedUrl(element, url,
+                                removedTemplated, run))) {
+                    xmlWriter.writeRawResource(resourceIndent, element);
                 }
             }
-            repoTag.printClose(indent, pw);
+            for (Entry<File, IndexResult> entry : pending.entrySet()) {
+                writeUpdated(entry.getKey(), entry.getValue(), xmlWriter,
+                        resourceIndent);
+            }
+            xmlWriter.writeRepositoryEnd(indent);
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    private void writeUpdated(File file, IndexResult result,
+            RepositoryXmlWriter xmlWriter, Indent resourceIndent)
+            throws AnalyzerException {
+        write(file, result, (f, r) -> xmlWriter.writeResource(resourceIndent,
+                r.getCapabilities(), r.getRequirements()));
+    }
+
+    private static long nextIncrement(String previous) {
+        long now = System.currentTimeMillis();
+        if (previous != null) {
+            try {
+                return Math.max(now, Long.parseLong(previous.trim()) + 1);
+            } catch (NumberFormatException e) {
+                // not a number, so just use the current time
+            }
+        }
+        return now;
+    }
+
+    private static String calculatePathUrl(File file, IndexingRun run) {
+        return BundleAnalyzer
+                .calculatePathLocation(file.toPath(), run.generatorState)
+                .toString();
+    }
+
+    /*
+     * Calculates the url of a file the same way the subsystem analyzer does,
+     * under the subsystems copy dir rather than the bundles one.
+     */
+    private static String calculateSubsystemPathUrl(File file,
+            IndexingRun run) {
+        GeneratorState state = run.generatorState;
+        Path resourcePath = file.toPath();
+        if (state == null) {
+            return resourcePath.toAbsolutePath().normalize().toString();
+        }
+        Path copyDir = state.getSubsystemCopyDirPath();
+        if (copyDir != null) {
+            resourcePath = copyDir.normalize()
+                    .resolve(resourcePath.getFileName());
+        }
+        if (state.isForceAbsolutePath()) {
+            return resourcePath.toAbsolutePath().normalize().toString();
+        }
+        return state.getRootPath().normalize().relativize(resourcePath)
+                .toString();
+    }
+
+    /*
+     * Tells whether a resource of an existing index has the templated url of
+     * one of the given removed files, taking the symbolic name and version
+     * the template needs from the identity of the resource. The template
+     * holds the file name, so no other resource can match.
+     */
+    private static boolean isRemovedTemplatedUrl(String element, String url,
+            List<File> files, IndexingRun run) {
+        if (files.isEmpty()) {
+            return false;
+        }
+        String symbolicName = ResourceElementScanner.capabilityAttribute(
+                element, Namespaces.NS_IDENTITY, Namespaces.NS_IDENTITY);
+        String version = ResourceElementScanner.capabilityAttribute(element,
+                Namespaces.NS_IDENTITY, Namespaces.ATTR_VERSION);
+        if (symbolicName == null || version == null) {
+            return false;
+        }
+        String urlTemplate = run.generatorState.getUrlTemplate();
+        for (File file : files) {
+            Path location = BundleAnalyzer.calculatePathLocation(
+                    file.toPath(), run.generatorState);
+            if (url.equals(BundleAnalyzer.applyUrlTemplate(urlTemplate,
+                    location, symbolicName, version).toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Calculates the url of a file the same way the bundle analyzer does,
+     * which needs the file to still exist when a url template is used.
+     */
+    private static String calculateUrl(File file, IndexingRun run) {
+        if (!file.isFile()) {
+            return null;
+        }
+        org.osgi.service.indexer.Resource resource = null;
+        try {
+            resource = openResource(file, run);
+            return BundleAnalyzer.calculateLocation(resource);
+        } catch (IOException | RuntimeException e) {
+            return null;
         } finally {
-            if (pw != null) {
-                pw.flush();
-                pw.close();
+            if (resource != null) {
+                resource.close();
             }
         }
     }
 
+    private static String getContentUrl(IndexResult result) {
+        for (Capability cap : result.getCapabilities()) {
+            if (Namespaces.NS_CONTENT.equals(cap.getNamespace())) {
+                Object url = cap.getAttributes()
+                        .get(Namespaces.ATTR_CONTENT_URL);
+                if (url != null) {
+                    return url.toString();
+                }
+            }
+        }
+        return null;
+    }
+
     @Override
     public IndexResult indexFile(File file) throws AnalyzerException {
+        long start = System.nanoTime();
+        IndexingRun run = startRun(null);
+        try {
+            return indexFile(file, run, start);
+        } finally {
+            finishRun(run, false);
+        }
+    }
+
+    private IndexResult indexFile(File file, IndexingRun run, long start)
+            throws AnalyzerException {
         IndexResult result = new IndexResult();
+        result.setSignature(run.signature);
+
+        // the cache is checked first, so a hit does not load the file
+        AnalysisCache.Fingerprint fingerprint = null;
         try {
-            result.setResource(new JarResource(file));
+            if (run.cache != null) {
+                fingerprint = run.cache.fingerprint(file, run.signature,
+                        run.stateDescription);
+                if (run.cache.restore(fingerprint, result.getCapabilities(),
+                        result.getRequirements())) {
+                    result.setResource(new JarResource(file, true));
+                    resourceCompleted(run, file.getPath(), start, 0,
+                            result.getCapabilities(), result.getRequirements(),
+                            true);
+                    return result;
+                }
+            }
+            result.setResource(new JarResource(file, run.manifestOnly));
         } catch (IOException e) {
+            run.failed.incrementAndGet();
             throw new AnalyzerException("", e);
         }
-        result.setSignature(getSignature());
-        synchronized (analyzers) {
-            for (Pair<ResourceAnalyzer, Filter> entry : analyzers) {
-                ResourceAnalyzer analyzer = entry.getFirst();
-                Filter filter = entry.getSecond();
+        JarResource resource = (JarResource) result.getResource();
+        for (Pair<ResourceAnalyzer, Filter> entry : run.analyzers) {
+            ResourceAnalyzer analyzer = entry.getFirst();
+            Filter filter = entry.getSecond();
 
-                if (filter != null
-                        && filter.match(result.getResource().getProperties())) {
-                    analyzer.analyzeResource(result.getResource(),
-                            result.getCapabilities(), result.getRequirements());
-                }
+            if (filter != null && filter.match(resource.getProperties())) {
+                analyze(run, analyzer, resource, result.getCapabilities(),
+                        result.getRequirements());
             }
         }
+        // the result may be kept long after, without the file content
+        resource.release();
+        if (run.cache != null) {
+            run.cache.store(fingerprint, result.getCapabilities(),
+                    result.getRequirements());
+        }
+        resourceCompleted(run, file.getPath(), start, resource.getSize(),
+                result.getCapabilities(), result.getRequirements(), false);
         return result;
     }
 
     @Override
     public void indexFragment(Set<File> files, Writer out,
             Map<String, String> config) throws AnalyzerException {
-        PrintWriter pw;
-        if (out instanceof PrintWriter)
-            pw = (PrintWriter) out;
-        else
-            pw = new PrintWriter(out);
+        String fragmentDir = config == null ? null
+                : config.get(Constants.FRAGMENT_DIR);
+        if (fragmentDir != null) {
+            indexFragmentFiles(files, out, config, new File(fragmentDir));
+            return;
+        }
 
-        for (File file : files) {
+        // the writer belongs to the caller, so it is flushed but not closed
+        RepositoryXmlWriter xmlWriter = new RepositoryXmlWriter(out);
+        IndexingRun run = startRun(config);
+        try {
+            generateResources(files, run, getThreads(config),
+                    (file, result) -> xmlWriter.writeResource(Indent.PRETTY,
+                            result.getCapabilities(),
+                            result.getRequirements()));
+        } finally {
+            finishRun(run);
+        }
+        try {
+            xmlWriter.flush();
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    /*
+     * Writes the resource element of every file to a file of its own in the
+     * fragment directory, and the names of those files to the writer, one per
+     * line.
+     */
+    private void indexFragmentFiles(Set<File> files, Writer out,
+            Map<String, String> config, File dir) throws AnalyzerException {
+        final Indent resourceIndent = getIndent(config).next();
+        try {
+            Files.createDirectories(dir.toPath());
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+        IndexingRun run = startRun(config);
+        try {
+            generateResources(files, run, getThreads(config),
+                    (file, result) -> {
+                        out.write(writeFragmentFile(dir, resourceIndent,
+                                result));
+                        out.write('\n');
+                    });
+        } finally {
+            finishRun(run);
+        }
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    /*
+     * Writes a resource element to a file named after the SHA-256 digest of
+     * its content, unless that file exists already, and returns its name. The
+     * element is rendered at the indentation it has in a full index, without
+     * the leading line break and indent, so the assembled document matches
+     * the one index() writes.
+     */
+    private static String writeFragmentFile(File dir, Indent resourceIndent,
+            IndexResult result) throws IOException {
+        StringWriter buffer = new StringWriter();
+        RepositoryXmlWriter xmlWriter = new RepositoryXmlWriter(buffer);
+        xmlWriter.writeResource(resourceIndent, result.getCapabilities(),
+                result.getRequirements());
+        xmlWriter.flush();
+        byte[] element = buffer.toString()
+                .substring(resourceIndent.getText().length())
+                .getBytes(StandardCharsets.UTF_8);
+
+        String name = DigestService.sha256(new ByteArrayInputStream(element))
+                + FRAGMENT_SUFFIX;
+        Path target = new File(dir, name).toPath();
+        if (Files.exists(target))
+            return name;
+        Path temp = Files.createTempFile(dir.toPath(), name, ".tmp");
+        try {
+            Files.write(temp, element);
             try {
-                Tag resourceTag = generateResource(file, config);
-                resourceTag.print(Indent.PRETTY, pw);
-            } catch (Exception e) {
-                log(LogService.LOG_WARNING,
-                        MessageFormat.format(
-                                "Could not index {0}, skipped ({1}).", file,
-                                e.getMessage()),
-                        e);
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
             }
+        } catch (IOException e) {
+            // another run may have written the same fragment meanwhile
+            if (!Files.exists(target))
+                throw e;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return name;
+    }
+
+    /*
+     * See ResourceIndexer interface
+     */
+    @Override
+    public void assembleFragments(List<File> fragments, OutputStream out,
+            Map<String, String> configMap) throws AnalyzerException {
+        Map<String, String> config;
+        if (configMap == null) {
+            config = new HashMap<>(0);
+        } else {
+            config = new HashMap<>(configMap);
+        }
+        if (isBinary(config)) {
+            throw new AnalyzerException(
+                    "Fragments can only be assembled into the XML format.");
+        }
+
+        final Indent indent = getIndent(config);
+        final Indent resourceIndent = indent.next();
+        boolean compressed = isCompressed(config);
+
+        String repoName = config.get(Constants.REPOSITORY_NAME);
+        if (repoName == null)
+            repoName = Constants.REPOSITORYNAME_DEFAULT;
+
+        String increment = config.get(REPOSITORY_INCREMENT_OVERRIDE);
+        if (increment == null)
+            increment = Long.toString(System.currentTimeMillis());
+
+        try (RepositoryXmlWriter xmlWriter = new RepositoryXmlWriter(
+                compressed ? compress(out, config) : out)) {
+            xmlWriter.writeProcessingInstruction();
+            xmlWriter.writeRepositoryStart(indent, repoName, increment);
+            for (File fragment : fragments) {
+                xmlWriter.writeRawResource(resourceIndent,
+                        new String(Files.readAllBytes(fragment.toPath()),
+                                StandardCharsets.UTF_8));
+            }
+            xmlWriter.writeRepositoryEnd(indent);
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
         }
     }
 
@@ -456,32 +1565,295 @@ public class RepoIndex implements ResourceIndexer {
      *                     analyzed
      */
     public final void removeAnalyzer(ResourceAnalyzer analyzer, Filter filter) {
-        synchronized (analyzers) {
-            analyzers.remove(Pair.create(analyzer, filter));
+        synchronized (analyzersLock) {
+            List<Pair<ResourceAnalyzer, Filter>> entries = new ArrayList<>(
+                    analyzers.entries);
+            if (entries.remove(Pair.create(analyzer, filter))) {
+                analyzers = createSnapshot(entries);
+            }
         }
     }
 
-    private void resolveDirectories(Set<File> files, Set<File> filesToIndex) {
-        for (File file : files) {
-            if (!file.isDirectory()) {
-                filesToIndex.add(file);
-            } else {
-                File[] dirFiles = file.listFiles();
-                if (dirFiles.length > 0) {
-                    Set<File> dirFilesSet = new LinkedHashSet<>(
-                            Arrays.asList(dirFiles));
-                    resolveDirectories(dirFilesSet, filesToIndex);
-                }
+    /**
+     * Resolves the given files and directories to the files to index. Files
+     * found in directories are skipped early when no registered analyzer
+     * applies to them, so they are never opened.
+     */
+    Set<File> resolveFiles(Set<File> files,
+            Map<String, String> config) {
+        final AnalyzerSnapshot snapshot = analyzers;
+        String snapshotPath = config.get(Constants.DIRECTORY_SNAPSHOT);
+        return new DirectoryWalker(log)
+                .setIncludes(config.get(Constants.INCLUDES))
+                .setExcludes(config.get(Constants.EXCLUDES))
+                .setThreads(getThreads(config))
+                .setSnapshotFile(
+                        snapshotPath == null ? null : new File(snapshotPath))
+                .setFilter((file, attributes) -> isAnalyzed(snapshot, file,
+                        attributes))
+                .walk(files);
+    }
+
+    private static Dictionary<String, Object> getFileProperties(File file,
+            BasicFileAttributes attributes) {
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.NAME, file.getName());
+        properties.put(Constants.LOCATION, file.getPath());
+        properties.put(Constants.SIZE, attributes.size());
+        properties.put(Constants.LAST_MODIFIED,
+                attributes.lastModifiedTime().toMillis());
+        return properties;
+    }
+
+    /*
+     * Returns the indexes of the analyzers of the run applying to a file.
+     */
+    private static BitSet getMatchingAnalyzers(IndexingRun run, File file)
+            throws IOException {
+        Dictionary<String, Object> properties = getFileProperties(file,
+                Files.readAttributes(file.toPath(),
+                        BasicFileAttributes.class));
+        BitSet matching = new BitSet();
+        for (int i = 0; i < run.analyzers.size(); i++) {
+            Filter filter = run.analyzers.get(i).getSecond();
+            if (filter == null || filter.match(properties)) {
+                matching.set(i);
             }
         }
+        return matching;
+    }
+
+    private static boolean isAnalyzed(AnalyzerSnapshot snapshot, File file,
+            BasicFileAttributes attributes) {
+        Dictionary<String, Object> properties = getFileProperties(file,
+                attributes);
+        for (Pair<ResourceAnalyzer, Filter> entry : snapshot.entries) {
+            Filter filter = entry.getSecond();
+            if (filter == null || filter.match(properties)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     void setStateLocal(GeneratorState state) {
-        RepoIndex.state.set(state);
+        if (state == null) {
+            RepoIndex.state.remove();
+        } else {
+            RepoIndex.state.set(state);
+        }
+    }
+
+    private static final class AnalyzerSnapshot {
+        private static final AnalyzerSnapshot EMPTY = new AnalyzerSnapshot(
+                Collections.<Pair<ResourceAnalyzer, Filter>> emptyList(), 0,
+                new AnalyzerDependencies(Collections
+                        .<Pair<ResourceAnalyzer, Filter>> emptyList()));
+
+        private final List<Pair<ResourceAnalyzer, Filter>> entries;
+        private final long signature;
+        private final AnalyzerDependencies dependencies;
+
+        /** whether every analyzer reads the manifest only */
+        private final boolean manifestOnly;
+
+        /** whether some analyzers do not depend on all the previous ones */
+        private final boolean concurrent;
+
+        AnalyzerSnapshot(List<Pair<ResourceAnalyzer, Filter>> entries,
+                long signature, AnalyzerDependencies dependencies) {
+            this.entries = entries;
+            this.signature = signature;
+            this.dependencies = dependencies;
+
+            boolean manifest = !entries.isEmpty();
+            for (Pair<ResourceAnalyzer, Filter> entry : entries) {
+                Set<ResourceAnalyzer.Input> inputs = entry.getFirst()
+                        .getInputs();
+                manifest &= inputs != null && inputs.size() == 1
+                        && inputs.contains(ResourceAnalyzer.Input.MANIFEST);
+            }
+            this.manifestOnly = manifest;
+
+            boolean independent = false;
+            for (int i = 0; i < entries.size(); i++) {
+                independent |= dependencies.waits[i].length < i;
+            }
+            this.concurrent = independent;
+        }
+    }
+
+    /**
+     * The order the analyzers of a resource can run in, from their declared
+     * dependencies. An analyzer waits for the previous analyzers it depends
+     * on, and sees the output of those and of their own dependencies.
+     */
+    private static final class AnalyzerDependencies {
+        /** the previous analyzers each analyzer depends on */
+        private final int[][] waits;
+
+        /** the analyzers whose output each analyzer sees, in order */
+        private final int[][] visible;
+
+        AnalyzerDependencies(List<Pair<ResourceAnalyzer, Filter>> entries) {
+            int count = entries.size();
+            waits = new int[count][];
+            visible = new int[count][];
+            BitSet[] closures = new BitSet[count];
+            for (int i = 0; i < count; i++) {
+                Set<Class<? extends ResourceAnalyzer>> dependencies = entries
+                        .get(i).getFirst().getDependencies();
+                BitSet direct = new BitSet(count);
+                BitSet closure = new BitSet(count);
+                for (int j = 0; j < i; j++) {
+                    if (dependsOn(dependencies, entries.get(j).getFirst())) {
+                        direct.set(j);
+                        closure.set(j);
+                        closure.or(closures[j]);
+                    }
+                }
+                closures[i] = closure;
+                waits[i] = direct.stream().toArray();
+                visible[i] = closure.stream().toArray();
+            }
+        }
+
+        private static boolean dependsOn(
+                Set<Class<? extends ResourceAnalyzer>> dependencies,
+                ResourceAnalyzer analyzer) {
+            if (dependencies == null) {
+                return true;
+            }
+            for (Class<? extends ResourceAnalyzer> dependency : dependencies) {
+                if (dependency.isInstance(analyzer)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * What an analyzer added to a resource when the analyzers ran
+     * concurrently.
+     */
+    private static final class AnalyzerOutput {
+        private final List<Capability> capabilities;
+        private final List<Requirement> requirements;
+        private final Exception failure;
+
+        AnalyzerOutput(List<Capability> capabilities,
+                List<Requirement> requirements, Exception failure) {
+            this.capabilities = capabilities;
+            this.requirements = requirements;
+            this.failure = failure;
+        }
+    }
+
+    private static final class IndexingRun {
+        private final GeneratorState generatorState;
+        private final String stateDescription;
+        private final List<Pair<ResourceAnalyzer, Filter>> analyzers;
+        private final long signature;
+        private final AnalyzerDependencies dependencies;
+        private final boolean manifestOnly;
+        private final AnalysisCache cache;
+        private final boolean memoryMapped;
+        private final List<IndexingListener> listeners;
+        private final ExecutorService analyzerExecutor;
+        private final boolean deduplicate;
+        private volatile ContentDeduplicator deduplicator;
+        private final long started = System.nanoTime();
+        private final AtomicInteger resources = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong size = new AtomicLong();
+
+        IndexingRun(GeneratorState generatorState, AnalyzerSnapshot snapshot,
+                AnalysisCache cache, boolean memoryMapped,
+                List<IndexingListener> listeners,
+                ExecutorService analyzerExecutor, boolean deduplicate) {
+            this.generatorState = generatorState;
+            this.stateDescription = AnalysisCache.describe(generatorState);
+            this.analyzers = snapshot.entries;
+            this.signature = snapshot.signature;
+            this.dependencies = snapshot.dependencies;
+            this.manifestOnly = snapshot.manifestOnly;
+            this.cache = cache;
+            this.memoryMapped = memoryMapped;
+            this.listeners = listeners;
+            this.analyzerExecutor = analyzerExecutor;
+            this.deduplicate = deduplicate;
+        }
+    }
+
+    /**
+     * Receives the analyzed resources, in the order they must be written.
+     */
+    @FunctionalInterface
+    private interface ResourceOutput {
+        void write(File file, IndexResult result) throws IOException;
+    }
+
+    private static final class IndexerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String prefix;
+
+        IndexerThreadFactory() {
+            this("repoindex-worker-");
+        }
+
+        IndexerThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Sets the analysis cache used by {@link #indexFile(File)} and by the
+     * index calls that do not configure {@link Constants#ANALYSIS_CACHE}. The
+     * cache is loaded now and kept in memory; it is written back at the end of
+     * every index call and by {@link #saveAnalysisCache()}.
+     *
+     * @param cacheFile
+     *                      the file backing the cache, or null to disable it.
+     */
+    public void setAnalysisCache(File cacheFile) {
+        analysisCache = cacheFile == null ? null
+                : AnalysisCache.load(cacheFile, log);
+    }
+
+    /**
+     * Writes the analysis cache set with {@link #setAnalysisCache(File)} to
+     * disk, if it has changed.
+     *
+     * @throws AnalyzerException
+     *                               when the cache cannot be written.
+     */
+    public void saveAnalysisCache() throws AnalyzerException {
+        AnalysisCache cache = analysisCache;
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                throw new AnalyzerException("", e);
+            }
+        }
     }
 
     @Override
     public void setKnownBundlesExtraProperties(final Properties props) {
-         knownBundleAnalyzer.setKnownBundlesExtra(props);
+        synchronized (analyzersLock) {
+            knownBundleAnalyzer.setKnownBundlesExtra(props);
+            // the signature depends on the extra properties
+            analyzers = createSnapshot(analyzers.entries);
+        }
     }
 }
@@ -0,0 +1,328 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Resource;
+import org.osgi.service.indexer.impl.types.ScalarType;
+
+/**
+ * Reads a repository written in the binary format, see
+ * {@link org.osgi.service.indexer.Constants#FORMAT}.
+ * <p>
+ * The resources are read one at a time, so a repository of any size can be
+ * processed with little memory. The attribute values have the types of the
+ * {@link ScalarType}s they were written with: {@link String},
+ * {@link Version}, {@link Long}, {@link Double} or an unmodifiable
+ * {@link List} of one of those.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class RepositoryBinaryReader implements Closeable {
+
+    private static final ScalarType[] SCALAR_TYPES = ScalarType.values();
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[64 * 1024];
+    private int position;
+    private int limit;
+
+    private final List<String> strings = new ArrayList<>();
+
+    private final String name;
+    private final String increment;
+    private boolean finished;
+
+    private RepositoryBinaryReader(InputStream in) throws IOException {
+        this.in = in;
+        if (readInt() != RepositoryBinaryWriter.MAGIC) {
+            throw new IOException("Not a binary repository.");
+        }
+        int version = readVarint();
+        if (version != RepositoryBinaryWriter.FORMAT_VERSION) {
+            throw new IOException(
+                    "Unsupported binary repository version " + version + ".");
+        }
+        this.name = readString();
+        this.increment = readString();
+    }
+
+    /**
+     * Opens a reader on a stream holding a plain or gzip compressed binary
+     * repository, and reads the repository header.
+     *
+     * @param in
+     *               the stream to read.
+     * @return the reader.
+     * @throws IOException
+     *                         when the stream cannot be read or does not hold
+     *                         a binary repository.
+     */
+    public static RepositoryBinaryReader open(InputStream in)
+            throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] signature = new byte[2];
+        int read = 0;
+        while (read < 2) {
+            int count = pushback.read(signature, read, 2 - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        pushback.unread(signature, 0, read);
+        if (read == 2 && signature[0] == (byte) 0x1f
+                && signature[1] == (byte) 0x8b) {
+            return new RepositoryBinaryReader(new GZIPInputStream(pushback));
+        }
+        return new RepositoryBinaryReader(pushback);
+    }
+
+    /**
+     * @return the name of the repository.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the increment of the repository.
+     */
+    public String getIncrement() {
+        return increment;
+    }
+
+    /**
+     * @return the next resource, or null when all resources were read.
+     * @throws IOException
+     *                         when the input cannot be read or is malformed.
+     */
+    public Resource next() throws IOException {
+        if (finished)
+            return null;
+        int tag = readByte();
+        if (tag == RepositoryBinaryWriter.END) {
+            finished = true;
+            return null;
+        }
+        if (tag != RepositoryBinaryWriter.RESOURCE) {
+            throw new IOException("Unexpected tag " + tag + ".");
+        }
+
+        RepositoryResource resource = new RepositoryResource();
+        int capabilities = readVarint();
+        for (int i = 0; i < capabilities; i++) {
+            String namespace = readString();
+            resource.addCapability(namespace, readAttributes(),
+                    readDirectives());
+        }
+        int requirements = readVarint();
+        for (int i = 0; i < requirements; i++) {
+            String namespace = readString();
+            resource.addRequirement(namespace, readAttributes(),
+                    readDirectives());
+        }
+        return resource;
+    }
+
+    /**
+     * Reads all the remaining resources.
+     *
+     * @return the resources, in index order.
+     * @throws IOException
+     *                         when the input cannot be read or is malformed.
+     */
+    public List<Resource> readAll() throws IOException {
+        List<Resource> resources = new ArrayList<>();
+        Resource resource;
+        while ((resource = next()) != null) {
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    private Map<String, Object> readAttributes() throws IOException {
+        int count = readVarint();
+        if (count == 0)
+            return Collections.emptyMap();
+        Map<String, Object> attributes = new LinkedHashMap<>(
+                count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String attributeName = readString();
+            attributes.put(attributeName, readValue());
+        }
+        return attributes;
+    }
+
+    private Map<String, String> readDirectives() throws IOException {
+        int count = readVarint();
+        if (count == 0)
+            return Collections.emptyMap();
+        Map<String, String> directives = new LinkedHashMap<>(
+                count * 4 / 3 + 1);
+        for (int i = 0; i < count; i++) {
+            String directiveName = readString();
+            directives.put(directiveName, readString());
+        }
+        return directives;
+    }
+
+    private Object readValue() throws IOException {
+        int tag = readByte();
+        int typeIndex = tag & ~RepositoryBinaryWriter.LIST;
+        if (typeIndex >= SCALAR_TYPES.length) {
+            throw new IOException("Unknown value type " + tag + ".");
+        }
+        ScalarType type = SCALAR_TYPES[typeIndex];
+        if ((tag & RepositoryBinaryWriter.LIST) == 0) {
+            return readScalar(type);
+        }
+        int count = readVarint();
+        List<Object> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(readScalar(type));
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private Object readScalar(ScalarType type) throws IOException {
+        switch (type) {
+        case VERSION:
+            int major = readVarint();
+            int minor = readVarint();
+            int micro = readVarint();
+            return new Version(major, minor, micro, readString());
+        case LONG:
+            long l = readVarlong();
+            return (l >>> 1) ^ -(l & 1);
+        case DOUBLE:
+            long high = readInt() & 0xFFFFFFFFL;
+            long low = readInt() & 0xFFFFFFFFL;
+            return Double.longBitsToDouble((high << 32) | low);
+        default:
+            return readString();
+        }
+    }
+
+    private String readString() throws IOException {
+        int code = readVarint();
+        switch (code) {
+        case RepositoryBinaryWriter.STRING_NULL:
+            return null;
+        case RepositoryBinaryWriter.STRING_LITERAL:
+            return readUTF8();
+        case RepositoryBinaryWriter.STRING_DEFINE:
+            String value = readUTF8();
+            strings.add(value);
+            return value;
+        default:
+            int index = code - RepositoryBinaryWriter.STRING_REFERENCE;
+            if (index >= strings.size()) {
+                throw new IOException("Undefined string " + index + ".");
+            }
+            return strings.get(index);
+        }
+    }
+
+    private String readUTF8() throws IOException {
+        int length = readVarint();
+        if (length < 0) {
+            throw new IOException("Invalid string length.");
+        }
+        if (length <= buffer.length) {
+            ensureAvailable(length);
+            String value = new String(buffer, position, length,
+                    StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            ensureAvailable(1);
+            int count = Math.min(limit - position, length - copied);
+            System.arraycopy(buffer, position, bytes, copied, count);
+            position += count;
+            copied += count;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarint() throws IOException {
+        long value = readVarlong();
+        if ((value >>> 32) != 0) {
+            throw new IOException("Invalid varint.");
+        }
+        return (int) value;
+    }
+
+    private long readVarlong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid varint.");
+    }
+
+    private int readInt() throws IOException {
+        ensureAvailable(4);
+        int value = ((buffer[position] & 0xFF) << 24)
+                | ((buffer[position + 1] & 0xFF) << 16)
+                | ((buffer[position + 2] & 0xFF) << 8)
+                | (buffer[position + 3] & 0xFF);
+        position += 4;
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        if (position == limit) {
+            ensureAvailable(1);
+        }
+        return buffer[position++] & 0xFF;
+    }
+
+    private void ensureAvailable(int count) throws IOException {
+        if (limit - position >= count)
+            return;
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < count) {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                throw new EOFException("Unexpected end of binary repository.");
+            }
+            limit += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,307 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.impl.types.ScalarType;
+import org.osgi.service.indexer.impl.types.TypedAttribute;
+
+/**
+ * Writes the binary repository format read by {@link RepositoryBinaryReader}.
+ * <p>
+ * The layout is:
+ *
+ * <pre>
+ * repository := MAGIC VERSION string(name) string(increment) resource* END
+ * resource   := RESOURCE varint(#capabilities) clause*
+ *                         varint(#requirements) clause*
+ * clause     := string(namespace)
+ *               varint(#attributes) (string(name) value)*
+ *               varint(#directives) (string(name) string(value))*
+ * value      := byte(type) scalar          for a single value
+ *             | byte(LIST | type) varint(#elements) scalar*
+ * scalar     := string                     STRING
+ *             | varint(major) varint(minor) varint(micro) string(qualifier)
+ *                                          VERSION
+ *             | zigzag varint              LONG
+ *             | 8 bytes, IEEE 754          DOUBLE
+ * string     := varint(NULL) | varint(LITERAL) bytes
+ *             | varint(DEFINE) bytes | varint(REFERENCE + index)
+ * bytes      := varint(#bytes) UTF-8
+ * </pre>
+ *
+ * The string table is built while writing: the first occurrence of a string
+ * is written as a definition and gets the next index of the table, later
+ * occurrences are written as references. Namespaces, names, package names
+ * and version qualifiers repeat a lot and are always defined; content digests
+ * and urls, which are unique to a resource, are written as literals. The
+ * values are converted the way the XML representation converts them, so both
+ * formats read back to the same values.
+ * <p>
+ * Every resource is written as a unit: if it fails half way, nothing of it
+ * reaches the output and the string table is restored. Instances are not
+ * thread-safe.
+ */
+final class RepositoryBinaryWriter implements Closeable {
+
+    static final int MAGIC = 0x52494458; // "RIDX"
+    static final int FORMAT_VERSION = 1;
+
+    static final int END = 0;
+    static final int RESOURCE = 1;
+
+    static final int LIST = 0x80;
+
+    static final int STRING_NULL = 0;
+    static final int STRING_LITERAL = 1;
+    static final int STRING_DEFINE = 2;
+    static final int STRING_REFERENCE = 3;
+
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+    private static final int MAX_DEFINED_LENGTH = 256;
+
+    private final OutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> defined = new ArrayList<>();
+
+    private byte[] buffer = new byte[2 * FLUSH_THRESHOLD];
+    private int length;
+
+    RepositoryBinaryWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void writeRepositoryStart(String name, String increment)
+            throws IOException {
+        writeInt(MAGIC);
+        writeVarint(FORMAT_VERSION);
+        writeString(name, true);
+        writeString(increment, false);
+        flushIfNeeded();
+    }
+
+    void writeRepositoryEnd() throws IOException {
+        writeByte(END);
+        flushIfNeeded();
+    }
+
+    /**
+     * Writes a resource.
+     *
+     * @param capabilities
+     *                         the capabilities of the resource.
+     * @param requirements
+     *                         the requirements of the resource.
+     * @throws IOException
+     *                         when the underlying output fails.
+     */
+    void writeResource(List<Capability> capabilities,
+            List<Requirement> requirements) throws IOException {
+        int mark = length;
+        int definedMark = defined.size();
+        try {
+            writeByte(RESOURCE);
+            writeVarint(capabilities.size());
+            for (Capability cap : capabilities) {
+                writeClause(cap.getNamespace(), cap.getAttributes(),
+                        cap.getDirectives());
+            }
+            writeVarint(requirements.size());
+            for (Requirement req : requirements) {
+                writeClause(req.getNamespace(), req.getAttributes(),
+                        req.getDirectives());
+            }
+        } catch (RuntimeException e) {
+            length = mark;
+            while (defined.size() > definedMark) {
+                strings.remove(defined.remove(defined.size() - 1));
+            }
+            throw e;
+        }
+        flushIfNeeded();
+    }
+
+    private void writeClause(String namespace, Map<String, Object> attributes,
+            Map<String, String> directives) {
+        writeString(namespace, true);
+        writeVarint(attributes.size());
+        for (Entry<String, Object> attribEntry : attributes.entrySet()) {
+            TypedAttribute typedAttrib = TypedAttribute
+                    .create(attribEntry.getKey(), attribEntry.getValue());
+            writeString(typedAttrib.getName(), true);
+            writeValue(typedAttrib, isDefined(typedAttrib.getName()));
+        }
+        writeVarint(directives.size());
+        for (Entry<String, String> directiveEntry : directives.entrySet()) {
+            writeString(directiveEntry.getKey(), true);
+            writeString(directiveEntry.getValue(), true);
+        }
+    }
+
+    /*
+     * The values of these attributes are unique to a resource, putting them in
+     * the string table would only cost memory.
+     */
+    private static boolean isDefined(String attributeName) {
+        return !Namespaces.NS_CONTENT.equals(attributeName)
+                && !Namespaces.ATTR_CONTENT_URL.equals(attributeName);
+    }
+
+    private void writeValue(TypedAttribute typedAttrib, boolean define) {
+        ScalarType type = typedAttrib.getScalarType();
+        if (typedAttrib.isList()) {
+            Collection<?> values = (Collection<?>) typedAttrib.getValue();
+            writeByte(LIST | type.ordinal());
+            writeVarint(values.size());
+            for (Object value : values) {
+                writeScalar(type, value, define);
+            }
+        } else {
+            writeByte(type.ordinal());
+            writeScalar(type, typedAttrib.getValue(), define);
+        }
+    }
+
+    private void writeScalar(ScalarType type, Object value, boolean define) {
+        switch (type) {
+        case VERSION:
+            Version version = value instanceof Version ? (Version) value
+                    : Version.parseVersion(String.valueOf(value));
+            writeVarint(version.getMajor());
+            writeVarint(version.getMinor());
+            writeVarint(version.getMicro());
+            writeString(version.getQualifier(), true);
+            break;
+        case LONG:
+            long l = value instanceof Number ? ((Number) value).longValue()
+                    : Long.parseLong(String.valueOf(value));
+            writeVarlong((l << 1) ^ (l >> 63));
+            break;
+        case DOUBLE:
+            double d = value instanceof Number ? ((Number) value).doubleValue()
+                    : Double.parseDouble(String.valueOf(value));
+            writeLong(Double.doubleToLongBits(d));
+            break;
+        default:
+            writeString(String.valueOf(value), define);
+            break;
+        }
+    }
+
+    private void writeString(String value, boolean define) {
+        if (value == null) {
+            writeVarint(STRING_NULL);
+            return;
+        }
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarint(STRING_REFERENCE + index);
+            return;
+        }
+        if (define && value.length() <= MAX_DEFINED_LENGTH) {
+            strings.put(value, defined.size());
+            defined.add(value);
+            writeVarint(STRING_DEFINE);
+        } else {
+            writeVarint(STRING_LITERAL);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeVarint(int value) {
+        writeVarlong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarlong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[length++] = (byte) (value >>> 24);
+        buffer[length++] = (byte) (value >>> 16);
+        buffer[length++] = (byte) (value >>> 8);
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer,
+                    Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private void flushIfNeeded() throws IOException {
+        if (length >= FLUSH_THRESHOLD) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, length);
+        length = 0;
+    }
+
+    /**
+     * Writes the buffered bytes and flushes the underlying output.
+     *
+     * @throws IOException
+     *                         when the underlying output fails.
+     */
+    void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}
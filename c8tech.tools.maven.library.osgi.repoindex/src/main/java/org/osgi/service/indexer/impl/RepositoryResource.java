@@ -0,0 +1,144 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+
+/**
+ * A resource read back from a repository index.
+ * <p>
+ * Instances are immutable. The capabilities and requirements are kept in the
+ * order they were indexed.
+ */
+public final class RepositoryResource implements Resource {
+
+    private final List<Capability> capabilities = new ArrayList<>();
+    private final List<Requirement> requirements = new ArrayList<>();
+
+    RepositoryResource() {
+    }
+
+    void addCapability(String namespace, Map<String, Object> attributes,
+            Map<String, String> directives) {
+        capabilities.add(new ResourceCapability(this, namespace, attributes,
+                directives));
+    }
+
+    void addRequirement(String namespace, Map<String, Object> attributes,
+            Map<String, String> directives) {
+        requirements.add(new ResourceRequirement(this, namespace, attributes,
+                directives));
+    }
+
+    @Override
+    public List<Capability> getCapabilities(String namespace) {
+        if (namespace == null)
+            return Collections.unmodifiableList(capabilities);
+        List<Capability> result = new ArrayList<>();
+        for (Capability capability : capabilities) {
+            if (namespace.equals(capability.getNamespace()))
+                result.add(capability);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public List<Requirement> getRequirements(String namespace) {
+        if (namespace == null)
+            return Collections.unmodifiableList(requirements);
+        List<Requirement> result = new ArrayList<>();
+        for (Requirement requirement : requirements) {
+            if (namespace.equals(requirement.getNamespace()))
+                result.add(requirement);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public String toString() {
+        return "RESOURCE [capabilities=" + capabilities + ", requirements="
+                + requirements + "]";
+    }
+
+    private abstract static class Clause {
+        private final Resource resource;
+        private final String namespace;
+        private final Map<String, Object> attributes;
+        private final Map<String, String> directives;
+
+        Clause(Resource resource, String namespace,
+                Map<String, Object> attributes,
+                Map<String, String> directives) {
+            this.resource = resource;
+            this.namespace = namespace;
+            this.attributes = Collections.unmodifiableMap(attributes);
+            this.directives = Collections.unmodifiableMap(directives);
+        }
+
+        public String getNamespace() {
+            return namespace;
+        }
+
+        public Map<String, Object> getAttributes() {
+            return attributes;
+        }
+
+        public Map<String, String> getDirectives() {
+            return directives;
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+    }
+
+    private static final class ResourceCapability extends Clause
+            implements Capability {
+
+        ResourceCapability(Resource resource, String namespace,
+                Map<String, Object> attributes,
+                Map<String, String> directives) {
+            super(resource, namespace, attributes, directives);
+        }
+
+        @Override
+        public String toString() {
+            return "CAPABILITY [namespace=" + getNamespace() + ", attributes="
+                    + getAttributes() + ", directives=" + getDirectives()
+                    + "]";
+        }
+    }
+
+    private static final class ResourceRequirement extends Clause
+            implements Requirement {
+
+        ResourceRequirement(Resource resource, String namespace,
+                Map<String, Object> attributes,
+                Map<String, String> directives) {
+            super(resource, namespace, attributes, directives);
+        }
+
+        @Override
+        public String toString() {
+            return "REQUIREMENT [namespace=" + getNamespace() + ", attributes="
+                    + getAttributes() + ", directives=" + getDirectives()
+                    + "]";
+        }
+    }
+}
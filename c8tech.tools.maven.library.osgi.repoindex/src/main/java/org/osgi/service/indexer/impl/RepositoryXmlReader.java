@@ -0,0 +1,258 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.osgi.framework.Version;
+import org.osgi.resource.Resource;
+import org.osgi.service.indexer.impl.types.TypedAttribute;
+
+/**
+ * Reads a repository XML document, such as the ones written by
+ * {@link RepoIndex}.
+ * <p>
+ * The document is pulled one resource at a time, so a repository of any size
+ * can be processed with little memory. The attribute values are typed as
+ * their {@code type} attribute says: {@link String}, {@link Version},
+ * {@link Long}, {@link Double} or an unmodifiable {@link List} of one of
+ * those.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class RepositoryXmlReader implements Closeable {
+
+    private static final String REPOSITORY = "repository";
+    private static final String RESOURCE = "resource";
+    private static final String CAPABILITY = "capability";
+    private static final String REQUIREMENT = "requirement";
+    private static final String ATTRIBUTE = "attribute";
+    private static final String DIRECTIVE = "directive";
+
+    private final InputStream in;
+    private final XMLStreamReader reader;
+
+    private final String name;
+    private final String increment;
+    private boolean finished;
+
+    private RepositoryXmlReader(InputStream in) throws IOException {
+        this.in = in;
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        try {
+            this.reader = factory.createXMLStreamReader(in);
+            while (!isStart(REPOSITORY)) {
+                if (!reader.hasNext())
+                    throw new IOException("Not a repository document.");
+                reader.next();
+            }
+            this.name = reader.getAttributeValue(null, Schema.ATTR_NAME);
+            this.increment = reader.getAttributeValue(null,
+                    Schema.ATTR_INCREMENT);
+        } catch (XMLStreamException e) {
+            throw new IOException("Not a repository document.", e);
+        }
+    }
+
+    /**
+     * Opens a reader on a stream holding a plain or gzip compressed
+     * repository document, and reads the repository element.
+     *
+     * @param in
+     *               the stream to read.
+     * @return the reader.
+     * @throws IOException
+     *                         when the stream cannot be read or does not hold
+     *                         a repository document.
+     */
+    public static RepositoryXmlReader open(InputStream in)
+            throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] signature = new byte[2];
+        int read = 0;
+        while (read < 2) {
+            int count = pushback.read(signature, read, 2 - read);
+            if (count < 0)
+                break;
+            read += count;
+        }
+        pushback.unread(signature, 0, read);
+        if (read == 2 && signature[0] == (byte) 0x1f
+                && signature[1] == (byte) 0x8b) {
+            return new RepositoryXmlReader(new GZIPInputStream(pushback));
+        }
+        return new RepositoryXmlReader(pushback);
+    }
+
+    /**
+     * @return the name of the repository, or null when it has none.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the increment of the repository, or null when it has none.
+     */
+    public String getIncrement() {
+        return increment;
+    }
+
+    /**
+     * @return the next resource, or null when all resources were read.
+     * @throws IOException
+     *                         when the input cannot be read or is malformed.
+     */
+    public Resource next() throws IOException {
+        if (finished)
+            return null;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (RESOURCE.equals(reader.getLocalName()))
+                        return readResource();
+                    skipElement();
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    // the end of the repository element
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        finished = true;
+        return null;
+    }
+
+    /**
+     * Reads all the remaining resources.
+     *
+     * @return the resources, in index order.
+     * @throws IOException
+     *                         when the input cannot be read or is malformed.
+     */
+    public List<Resource> readAll() throws IOException {
+        List<Resource> resources = new ArrayList<>();
+        Resource resource;
+        while ((resource = next()) != null) {
+            resources.add(resource);
+        }
+        return resources;
+    }
+
+    private RepositoryResource readResource()
+            throws XMLStreamException, IOException {
+        RepositoryResource resource = new RepositoryResource();
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            if (CAPABILITY.equals(element) || REQUIREMENT.equals(element)) {
+                String namespace = reader.getAttributeValue(null,
+                        Schema.ATTR_NAMESPACE);
+                if (namespace == null)
+                    throw new IOException("Missing namespace of " + element
+                            + " at " + reader.getLocation());
+                Map<String, Object> attributes = new LinkedHashMap<>();
+                Map<String, String> directives = new LinkedHashMap<>();
+                readClause(attributes, directives);
+                if (CAPABILITY.equals(element))
+                    resource.addCapability(namespace, attributes, directives);
+                else
+                    resource.addRequirement(namespace, attributes,
+                            directives);
+            } else {
+                skipElement();
+            }
+        }
+        return resource;
+    }
+
+    private void readClause(Map<String, Object> attributes,
+            Map<String, String> directives)
+            throws XMLStreamException, IOException {
+        while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            String key = reader.getAttributeValue(null, Schema.ATTR_NAME);
+            String value = reader.getAttributeValue(null, Schema.ATTR_VALUE);
+            if (ATTRIBUTE.equals(element)) {
+                String type = reader.getAttributeValue(null, Schema.ATTR_TYPE);
+                checkPresent(key, value, element);
+                try {
+                    attributes.put(key,
+                            TypedAttribute.fromXML(key, type, value)
+                                    .getValue());
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid attribute " + key + " at "
+                            + reader.getLocation() + ": " + e.getMessage(), e);
+                }
+            } else if (DIRECTIVE.equals(element)) {
+                checkPresent(key, value, element);
+                directives.put(key, value);
+            }
+            skipElement();
+        }
+    }
+
+    private void checkPresent(String key, String value, String element)
+            throws IOException {
+        if (key == null || value == null)
+            throw new IOException("Missing name or value of " + element
+                    + " at " + reader.getLocation());
+    }
+
+    private boolean isStart(String localName) {
+        return reader.getEventType() == XMLStreamConstants.START_ELEMENT
+                && localName.equals(reader.getLocalName());
+    }
+
+    /*
+     * Moves to the end of the current element, skipping its content.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (event == XMLStreamConstants.END_ELEMENT)
+                depth--;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.impl.types.TypedAttribute;
+import org.osgi.service.indexer.impl.util.Indent;
+
+/**
+ * Writes the repository XML straight from the capabilities and requirements
+ * of the indexed resources, without building an intermediate tree of
+ * {@link org.osgi.service.indexer.impl.util.Tag}s.
+ * <p>
+ * The output is identical to the one printed by the tag tree. Characters are
+ * collected in a reusable buffer and either encoded as UTF-8 bytes or handed
+ * to a writer. Every resource is written as a unit: if it fails half way, the
+ * partially written resource is discarded and nothing reaches the output.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class RepositoryXmlWriter implements Closeable {
+
+    private static final int FLUSH_THRESHOLD = 16 * 1024;
+
+    private final OutputStream stream;
+    private final Writer writer;
+
+    private char[] chars = new char[2 * FLUSH_THRESHOLD];
+    private int length;
+    private byte[] bytes;
+
+    /**
+     * Creates a writer that encodes the XML as UTF-8.
+     *
+     * @param out
+     *                the stream to write to.
+     */
+    RepositoryXmlWriter(OutputStream out) {
+        this.stream = out;
+        this.writer = null;
+        this.bytes = new byte[8 * 1024];
+    }
+
+    /**
+     * Creates a writer that hands the XML characters to a writer.
+     *
+     * @param out
+     *                the writer to write to.
+     */
+    RepositoryXmlWriter(Writer out) {
+        this.stream = null;
+        this.writer = out;
+    }
+
+    void writeProcessingInstruction() throws IOException {
+        append(String.valueOf(Schema.XML_PROCESSING_INSTRUCTION));
+        flushIfNeeded();
+    }
+
+    void writeRepositoryStart(Indent indent, String name, String increment)
+            throws IOException {
+        append(indent.getText());
+        append('<');
+        append(Schema.ELEM_REPOSITORY);
+        // the attributes are written in the order the tag tree sorts them
+        appendAttribute(Schema.ATTR_INCREMENT, increment);
+        appendAttribute(Schema.ATTR_NAME, name);
+        appendAttribute(Schema.ATTR_XML_NAMESPACE, Schema.NAMESPACE);
+        append('>');
+        flushIfNeeded();
+    }
+
+    void writeRepositoryEnd(Indent indent) throws IOException {
+        appendClose(indent, Schema.ELEM_REPOSITORY);
+        flushIfNeeded();
+    }
+
+    /**
+     * Writes a resource element.
+     *
+     * @param indent
+     *                         the indent of the resource element.
+     * @param capabilities
+     *                         the capabilities of the resource.
+     * @param requirements
+     *                         the requirements of the resource.
+     * @throws IOException
+     *                         when the underlying output fails.
+     */
+    void writeResource(Indent indent, List<Capability> capabilities,
+            List<Requirement> requirements) throws IOException {
+        int mark = length;
+        try {
+            append(indent.getText());
+            append('<');
+            append(Schema.ELEM_RESOURCE);
+            if (capabilities.isEmpty() && requirements.isEmpty()) {
+                append("/>");
+            } else {
+                append('>');
+                Indent childIndent = indent.next();
+                for (Capability cap : capabilities) {
+                    appendClause(childIndent, Schema.ELEM_CAPABILITY,
+                            cap.getNamespace(), cap.getAttributes(),
+                            cap.getDirectives());
+                }
+                for (Requirement req : requirements) {
+                    appendClause(childIndent, Schema.ELEM_REQUIREMENT,
+                            req.getNamespace(), req.getAttributes(),
+                            req.getDirectives());
+                }
+                appendClose(indent, Schema.ELEM_RESOURCE);
+            }
+        } catch (RuntimeException e) {
+            length = mark;
+            throw e;
+        }
+        flushIfNeeded();
+    }
+
+    /**
+     * Writes a resource element taken verbatim from another document.
+     *
+     * @param indent
+     *                    the indent of the resource element.
+     * @param element
+     *                    the raw resource element.
+     * @throws IOException
+     *                         when the underlying output fails.
+     */
+    void writeRawResource(Indent indent, String element) throws IOException {
+        append(indent.getText());
+        append(element);
+        flushIfNeeded();
+    }
+
+    private void appendClause(Indent indent, String element, String namespace,
+            Map<String, Object> attributes, Map<String, String> directives) {
+        append(indent.getText());
+        append('<');
+        append(element);
+        appendAttribute(Schema.ATTR_NAMESPACE, namespace);
+        if (attributes.isEmpty() && directives.isEmpty()) {
+            append("/>");
+            return;
+        }
+        append('>');
+
+        Indent childIndent = indent.next();
+        for (Entry<String, Object> attribEntry : attributes.entrySet()) {
+            TypedAttribute typedAttrib = TypedAttribute
+                    .create(attribEntry.getKey(), attribEntry.getValue());
+            append(childIndent.getText());
+            append('<');
+            append(Schema.ELEM_ATTRIBUTE);
+            appendAttribute(Schema.ATTR_NAME, typedAttrib.getName());
+            String xmlType = typedAttrib.getXMLType();
+            if (xmlType != null) {
+                appendAttribute(Schema.ATTR_TYPE, xmlType);
+            }
+            appendAttribute(Schema.ATTR_VALUE, typedAttrib.getXMLValue());
+            append("/>");
+        }
+        for (Entry<String, String> directiveEntry : directives.entrySet()) {
+            append(childIndent.getText());
+            append('<');
+            append(Schema.ELEM_DIRECTIVE);
+            appendAttribute(Schema.ATTR_NAME, directiveEntry.getKey());
+            appendAttribute(Schema.ATTR_VALUE, directiveEntry.getValue());
+            append("/>");
+        }
+        appendClose(indent, element);
+    }
+
+    private void appendClose(Indent indent, String element) {
+        append(indent.getText());
+        append("</");
+        append(element);
+        append('>');
+    }
+
+    private void appendAttribute(String name, String value) {
+        append(' ');
+        append(name);
+        append("=\"");
+        if (value == null) {
+            append("?null?");
+        } else {
+            appendEscaped(value);
+        }
+        append('"');
+    }
+
+    private void appendEscaped(String value) {
+        int valueLength = value.length();
+        for (int i = 0; i < valueLength; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '<':
+                append("&lt;");
+                break;
+            case '>':
+                append("&gt;");
+                break;
+            case '&':
+                append("&amp;");
+                break;
+            case '"':
+                append("&quot;");
+                break;
+            default:
+                append(c);
+                break;
+            }
+        }
+    }
+
+    private void append(char c) {
+        ensureCapacity(1);
+        chars[length++] = c;
+    }
+
+    private void append(String s) {
+        int sLength = s.length();
+        ensureCapacity(sLength);
+        s.getChars(0, sLength, chars, length);
+        length += sLength;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > chars.length) {
+            chars = Arrays.copyOf(chars,
+                    Math.max(chars.length * 2, length + extra));
+        }
+    }
+
+    private void flushIfNeeded() throws IOException {
+        if (length >= FLUSH_THRESHOLD) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.write(chars, 0, length);
+        } else {
+            encode();
+        }
+        length = 0;
+    }
+
+    /*
+     * Encodes the buffered characters as UTF-8. Lone surrogates are replaced
+     * by '?', the same as the JDK encoder does.
+     */
+    private void encode() throws IOException {
+        int pos = 0;
+        for (int i = 0; i < length; i++) {
+            if (pos > bytes.length - 4) {
+                stream.write(bytes, 0, pos);
+                pos = 0;
+            }
+            char c = chars[i];
+            if (c < 0x80) {
+                bytes[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[pos++] = (byte) (0xC0 | (c >> 6));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                bytes[pos++] = (byte) (0xF0 | (cp >> 18));
+                bytes[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[pos++] = (byte) '?';
+            } else {
+                bytes[pos++] = (byte) (0xE0 | (c >> 12));
+                bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        stream.write(bytes, 0, pos);
+    }
+
+    /**
+     * Writes the buffered characters and flushes the underlying output.
+     *
+     * @throws IOException
+     *                         when the underlying output fails.
+     */
+    void flush() throws IOException {
+        flushBuffer();
+        if (writer != null) {
+            writer.flush();
+        } else {
+            stream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            if (writer != null) {
+                writer.close();
+            } else {
+                stream.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.osgi.service.indexer.Namespaces;
+
+/**
+ * Splits an existing repository document into its raw {@code resource}
+ * elements, without parsing them.
+ * <p>
+ * Only documents using the element names written by this indexer are
+ * supported. The elements are returned exactly as they appear in the input,
+ * so they can be copied to a new document unchanged.
+ */
+final class ResourceElementScanner implements Closeable {
+
+    private static final String RESOURCE_START = "<" + Schema.ELEM_RESOURCE;
+    private static final String RESOURCE_END = "</" + Schema.ELEM_RESOURCE
+            + ">";
+    private static final String REPOSITORY_START = "<"
+            + Schema.ELEM_REPOSITORY;
+    private static final String REPOSITORY_END = "</"
+            + Schema.ELEM_REPOSITORY + ">";
+
+    private final Reader reader;
+    private final char[] chunk = new char[8192];
+    private final StringBuilder buffer = new StringBuilder();
+    private int position;
+    private boolean eof;
+
+    ResourceElementScanner(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Opens a scanner on a stream holding a plain or gzip compressed
+     * document.
+     *
+     * @param in
+     *               the stream to read.
+     * @return the scanner.
+     * @throws IOException
+     *                         when the stream cannot be read.
+     */
+    static ResourceElementScanner open(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        InputStream content = buffered;
+        if (first == 0x1f && second == 0x8b) {
+            content = new GZIPInputStream(buffered);
+        }
+        return new ResourceElementScanner(
+                new InputStreamReader(content, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Skips to the repository element and returns its attributes.
+     *
+     * @return the attributes of the repository element, in document order.
+     * @throws IOException
+     *                         when the input cannot be read or is not a
+     *                         repository document.
+     */
+    Map<String, String> readRepositoryStart() throws IOException {
+        int start = find(REPOSITORY_START, position);
+        if (start < 0) {
+            throw new IOException("Not a repository document.");
+        }
+        int end = findTagEnd(start);
+        if (end < 0) {
+            throw new IOException("Unterminated repository element.");
+        }
+        Map<String, String> attributes = parseAttributes(
+                buffer.substring(start + REPOSITORY_START.length(), end));
+        position = end + 1;
+        return attributes;
+    }
+
+    /**
+     * @return the next raw resource element, or null when there are no more
+     *         resources.
+     * @throws IOException
+     *                         when the input cannot be read or is malformed.
+     */
+    String nextResource() throws IOException {
+        compact();
+        int start = find("<", position);
+        while (start >= 0 && !startsWith(start, RESOURCE_START)) {
+            if (startsWith(start, REPOSITORY_END)) {
+                return null;
+            }
+            int end = findTagEnd(start);
+            if (end < 0) {
+                break;
+            }
+            start = find("<", end + 1);
+        }
+        if (start < 0) {
+            return null;
+        }
+        int tagEnd = findTagEnd(start);
+        if (tagEnd < 0) {
+            throw new IOException("Unterminated resource element.");
+        }
+        int end;
+        if (buffer.charAt(tagEnd - 1) == '/') {
+            end = tagEnd + 1;
+        } else {
+            int close = find(RESOURCE_END, tagEnd);
+            if (close < 0) {
+                throw new IOException("Unterminated resource element.");
+            }
+            end = close + RESOURCE_END.length();
+        }
+        String element = buffer.substring(start, end);
+        position = end;
+        return element;
+    }
+
+    /**
+     * Finds the url of the content capability of a raw resource element.
+     *
+     * @param element
+     *                    the raw resource element.
+     * @return the unescaped url, or null when the resource has none.
+     */
+    static String contentUrl(String element) {
+        return capabilityAttribute(element, Namespaces.NS_CONTENT,
+                Namespaces.ATTR_CONTENT_URL);
+    }
+
+    /**
+     * Finds an attribute of the first capability of a namespace in a raw
+     * resource element.
+     *
+     * @param element
+     *                      the raw resource element.
+     * @param namespace
+     *                      the namespace of the capability.
+     * @param name
+     *                      the name of the attribute.
+     * @return the unescaped value, or null when the resource has none.
+     */
+    static String capabilityAttribute(String element, String namespace,
+            String name) {
+        String marker = Schema.ATTR_NAMESPACE + "=\"" + namespace + "\"";
+        int from = 0;
+        while (true) {
+            int capStart = element.indexOf("<" + Schema.ELEM_CAPABILITY, from);
+            if (capStart < 0) {
+                return null;
+            }
+            int capTagEnd = element.indexOf('>', capStart);
+            int capEnd = element.indexOf("</" + Schema.ELEM_CAPABILITY,
+                    capStart);
+            if (capTagEnd < 0) {
+                return null;
+            }
+            if (element.substring(capStart, capTagEnd).contains(marker)) {
+                int limit = capEnd < 0 ? element.length() : capEnd;
+                int attrStart = element.indexOf("<" + Schema.ELEM_ATTRIBUTE,
+                        capTagEnd);
+                while (attrStart >= 0 && attrStart < limit) {
+                    int attrEnd = element.indexOf('>', attrStart);
+                    Map<String, String> attributes = parseAttributes(element
+                            .substring(attrStart
+                                    + Schema.ELEM_ATTRIBUTE.length() + 1,
+                                    attrEnd));
+                    if (name.equals(attributes.get(Schema.ATTR_NAME))) {
+                        return attributes.get(Schema.ATTR_VALUE);
+                    }
+                    attrStart = element.indexOf("<" + Schema.ELEM_ATTRIBUTE,
+                            attrEnd);
+                }
+            }
+            from = capEnd < 0 ? capTagEnd : capEnd;
+        }
+    }
+
+    private static Map<String, String> parseAttributes(String tagBody) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        int i = 0;
+        int length = tagBody.length();
+        while (i < length) {
+            int eq = tagBody.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String name = tagBody.substring(i, eq).trim();
+            int quoteStart = eq + 1;
+            while (quoteStart < length
+                    && Character.isWhitespace(tagBody.charAt(quoteStart))) {
+                quoteStart++;
+            }
+            if (quoteStart >= length) {
+                break;
+            }
+            char quote = tagBody.charAt(quoteStart);
+            int quoteEnd = tagBody.indexOf(quote, quoteStart + 1);
+            if (quoteEnd < 0) {
+                break;
+            }
+            attributes.put(name,
+                    unescape(tagBody.substring(quoteStart + 1, quoteEnd)));
+            i = quoteEnd + 1;
+        }
+        return attributes;
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        return value.replace("&lt;", "<").replace("&gt;", ">")
+                .replace("&quot;", "\"").replace("&apos;", "'")
+                .replace("&amp;", "&");
+    }
+
+    /*
+     * Returns the index of the '>' closing the tag starting at the given
+     * index, skipping quoted attribute values.
+     */
+    private int findTagEnd(int start) throws IOException {
+        char quote = 0;
+        int i = start;
+        while (true) {
+            if (i >= buffer.length() && !fill()) {
+                return -1;
+            }
+            char c = buffer.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return i;
+            }
+            i++;
+        }
+    }
+
+    private int find(String token, int from) throws IOException {
+        while (true) {
+            int index = buffer.indexOf(token, from);
+            if (index >= 0) {
+                return index;
+            }
+            from = Math.max(from, buffer.length() - token.length() + 1);
+            if (!fill()) {
+                return -1;
+            }
+        }
+    }
+
+    private boolean startsWith(int index, String token) throws IOException {
+        while (buffer.length() < index + token.length()) {
+            if (!fill()) {
+                return false;
+            }
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (buffer.charAt(index + i) != token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        int read = reader.read(chunk);
+        if (read < 0) {
+            eof = true;
+            return false;
+        }
+        buffer.append(chunk, 0, read);
+        return true;
+    }
+
+    private void compact() {
+        if (position > 0) {
+            buffer.delete(0, position);
+            position = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
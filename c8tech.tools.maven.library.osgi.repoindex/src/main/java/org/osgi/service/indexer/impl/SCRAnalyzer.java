@@ -16,17 +16,25 @@ package org.osgi.service.indexer.impl;
  * and it is released under OSGi Specification License, VERSION 2.0
  */
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.stream.Collectors;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.osgi.framework.Constants;
 import org.osgi.framework.Version;
@@ -41,9 +49,6 @@ import org.osgi.service.indexer.ResourceAnalyzer;
 import org.osgi.service.indexer.impl.types.VersionKey;
 import org.osgi.service.indexer.impl.types.VersionRange;
 import org.osgi.service.log.LogService;
-import org.xml.sax.Attributes;
-import org.xml.sax.SAXException;
-import org.xml.sax.helpers.DefaultHandler;
 
 public class SCRAnalyzer implements ResourceAnalyzer {
     public static final String NS_1_0 = Namespaces.NS_OSGI + "/scr/v1.0.0";
@@ -72,6 +77,25 @@ public class SCRAnalyzer implements ResourceAnalyzer {
     private static final String DOUBLE_STR = Double.class.getSimpleName();
     private static final String FLOAT_STR = Float.class.getSimpleName();
 
+    /**
+     * The number of component descriptions from which the descriptions of a
+     * bundle are parsed concurrently.
+     */
+    static final int PARALLEL_THRESHOLD = 8;
+
+    // looking up the factory implementation is expensive, so every thread
+    // keeps the one it created
+    private static final ThreadLocal<XMLInputFactory> INPUT_FACTORIES = ThreadLocal
+            .withInitial(() -> {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE,
+                        Boolean.TRUE);
+                factory.setProperty(
+                        XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                        Boolean.FALSE);
+                return factory;
+            });
+
     private final LogService log;
     
     private final boolean verbose;
@@ -82,6 +106,16 @@ public class SCRAnalyzer implements ResourceAnalyzer {
         this.verbose = pVerbose;
     }
 
+    @Override
+    public Set<Input> getInputs() {
+        return EnumSet.of(Input.MANIFEST, Input.ENTRIES);
+    }
+
+    @Override
+    public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+        return Collections.emptySet();
+    }
+
     @Override
     public void analyzeResource(Resource resource, List<Capability> caps,
             List<Requirement> reqs) throws AnalyzerException {
@@ -93,21 +127,26 @@ public class SCRAnalyzer implements ResourceAnalyzer {
                 return;
 
             StringTokenizer tokenizer = new StringTokenizer(header, ",");
-            Version highest = null;
+            List<String> paths = new ArrayList<>();
             while (tokenizer.hasMoreTokens()) {
                 String pattern = tokenizer.nextToken().trim();
-                List<String> paths = Util.findMatchingPaths(resource, pattern);
-                if (paths == null) {
-                    continue;
-                }
-                for (String path : paths) {
-                    Version version = processScrXml(resource, path, caps, reqs);
-                    if (highest == null || (version != null
-                            && version.compareTo(highest) > 0))
-                        highest = version;
+                List<String> matching = Util.findMatchingPaths(resource,
+                        pattern);
+                if (matching != null) {
+                    paths.addAll(matching);
                 }
             }
 
+            Version highest = null;
+            for (ParseResult result : processScrXmls(resource, paths)) {
+                caps.addAll(result.caps);
+                reqs.addAll(result.reqs);
+                Version version = result.highest;
+                if (highest == null || (version != null
+                        && version.compareTo(highest) > 0))
+                    highest = version;
+            }
+
             if (highest != null) {
                 Version lower = new Version(highest.getMajor(),
                         highest.getMinor(), 0);
@@ -121,33 +160,71 @@ public class SCRAnalyzer implements ResourceAnalyzer {
         }
     }
 
-    private Version processScrXml(Resource resource, String path,
-            List<Capability> caps, List<Requirement> reqs) throws IOException {
+    /**
+     * The outcome of parsing one component description.
+     */
+    private static final class ParseResult {
+        private final List<Capability> caps = new ArrayList<>();
+        private final List<Requirement> reqs = new ArrayList<>();
+        private Version highest;
+    }
+
+    /**
+     * Parses the component descriptions of a bundle, concurrently when there
+     * are many of them and the resource can be read from several threads.
+     *
+     * @return the results, in the order of the paths.
+     */
+    private List<ParseResult> processScrXmls(Resource resource,
+            List<String> paths) throws IOException {
+        if (paths.size() < PARALLEL_THRESHOLD
+                || !(resource instanceof JarResource
+                        || resource instanceof MappedJarResource)) {
+            List<ParseResult> results = new ArrayList<>(paths.size());
+            for (String path : paths) {
+                results.add(processScrXml(resource, path));
+            }
+            return results;
+        }
+        try {
+            return paths.parallelStream().map(path -> {
+                try {
+                    return processScrXml(resource, path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ParseResult processScrXml(Resource resource, String path)
+            throws IOException {
+        ParseResult result = new ParseResult();
         Resource childResource = resource.getChild(path);
         if (childResource == null) {
             if (log != null && verbose)
                 log.log(LogService.LOG_WARNING, MessageFormat.format(
                         "Cannot analyse SCR requirement version: resource {0} does not contain path {1} referred from Service-Component header.",
                         resource.getLocation(), path));
-            return null;
+            return result;
         }
 
-        SAXParserFactory spf = SAXParserFactory.newInstance();
-        spf.setNamespaceAware(true);
+        try (InputStream stream = childResource.getStream()) {
+            SCRParser parser = new SCRParser(result.caps, result.reqs);
+            parser.parse(INPUT_FACTORIES.get().createXMLStreamReader(stream));
 
-        try {
-            SAXParser parser = spf.newSAXParser();
-            SCRContentHandler handler = new SCRContentHandler(caps, reqs);
-            parser.parse(childResource.getStream(), handler);
-
-            return handler.highest;
+            result.highest = parser.highest;
         } catch (Exception e) {
             if (log != null)
                 log.log(LogService.LOG_ERROR, MessageFormat.format(
                         "Processing error: failed to parse child resource {0} in resource {1}.",
                         path, resource.getLocation()), e);
-            return null;
+        } finally {
+            childResource.close();
         }
+        return result;
     }
 
     private static Requirement createRequirement(VersionRange range) {
@@ -167,9 +244,24 @@ public class SCRAnalyzer implements ResourceAnalyzer {
         return builder.buildRequirement();
     }
 
-    private static class SCRContentHandler extends DefaultHandler {
-        private List<Capability> caps;
-        private List<Requirement> reqs;
+    /**
+     * Pulls the components out of a component description.
+     */
+    private static final class SCRParser {
+        private static final int OTHER = 0;
+        private static final int COMPONENT = 1;
+        private static final int PROVIDE = 2;
+        private static final int PROPERTY = 3;
+        private static final int REFERENCE = 4;
+
+        private static final Version V1_0 = new Version(1, 0, 0);
+        private static final Version V1_1 = new Version(1, 1, 0);
+        private static final Version V1_2 = new Version(1, 2, 0);
+        private static final Version V1_3 = new Version(1, 3, 0);
+        private static final Version V1_4 = new Version(1, 4, 0);
+
+        private final List<Capability> caps;
+        private final List<Requirement> reqs;
 
         private Version highest = null;
 
@@ -182,81 +274,118 @@ public class SCRAnalyzer implements ResourceAnalyzer {
         private String currentPropertyAttrib = null;
         private StringBuilder currentPropertyText = null;
 
-        public SCRContentHandler(List<Capability> caps,
-                List<Requirement> reqs) {
-            super();
+        SCRParser(List<Capability> caps, List<Requirement> reqs) {
             this.caps = caps;
             this.reqs = reqs;
         }
 
-        @Override
-        public void startElement(String uri, String localName, String qName,
-                Attributes attribs) throws SAXException {
-            super.startElement(uri, localName, qName, attribs);
+        /*
+         * Element names are matched ignoring case, as they always were.
+         */
+        private static int elementOf(String localName) {
+            if (ELEMENT_COMPONENT.equalsIgnoreCase(localName))
+                return COMPONENT;
+            if (ELEMENT_PROVIDE.equalsIgnoreCase(localName))
+                return PROVIDE;
+            if (ELEMENT_PROPERTY.equalsIgnoreCase(localName))
+                return PROPERTY;
+            if (ELEMENT_REFERENCE.equalsIgnoreCase(localName))
+                return REFERENCE;
+            return OTHER;
+        }
 
-            String localNameLowerCase = localName.toLowerCase();
-            if (ELEMENT_COMPONENT.equals(localNameLowerCase)) {
+        void parse(XMLStreamReader reader) throws XMLStreamException {
+            try {
+                while (reader.hasNext()) {
+                    switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        startElement(reader);
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        endElement(elementOf(reader.getLocalName()));
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (currentPropertyName != null
+                                && currentPropertyText != null)
+                            currentPropertyText.append(
+                                    reader.getTextCharacters(),
+                                    reader.getTextStart(),
+                                    reader.getTextLength());
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+
+        private void startElement(XMLStreamReader reader)
+                throws XMLStreamException {
+            switch (elementOf(reader.getLocalName())) {
+            case COMPONENT:
                 provides = new LinkedList<>();
                 properties = new LinkedHashMap<>();
                 references = new LinkedList<>();
 
+                String uri = reader.getNamespaceURI();
+                if (uri == null)
+                    uri = "";
                 switch (uri) {
                 case NS_1_4:
-                    setVersion(new Version(1, 4, 0));
+                    setVersion(V1_4);
                     break;
                 case NS_1_3:
-                    setVersion(new Version(1, 3, 0));
+                    setVersion(V1_3);
                     break;
                 case NS_1_2:
-                    setVersion(new Version(1, 2, 0));
+                    setVersion(V1_2);
                     break;
                 case NS_1_1:
-                    setVersion(new Version(1, 1, 0));
+                    setVersion(V1_1);
                     break;
-                case NS_1_0:
-                    setVersion(new Version(1, 0, 0));
-                    break;
-
                 default:
-                    setVersion(new Version(1, 0, 0));
+                    setVersion(V1_0);
                     break;
                 }
-
-            } else
-                if (ELEMENT_PROVIDE.equals(localNameLowerCase)) {
-                    String objectClass = attribs.getValue(ATTRIB_INTERFACE);
-                    provides.add(objectClass);
+                break;
+            case PROVIDE:
+                provides.add(reader.getAttributeValue(null, ATTRIB_INTERFACE));
+                break;
+            case PROPERTY:
+                currentPropertyName = reader.getAttributeValue(null,
+                        ATTRIB_NAME);
+                if (currentPropertyName == null)
+                    throw new XMLStreamException("Missing required attribute '"
+                            + ATTRIB_NAME + "'.", reader.getLocation());
+                currentPropertyType = reader.getAttributeValue(null,
+                        ATTRIB_TYPE);
+                if (currentPropertyType == null)
+                    currentPropertyType = String.class.getSimpleName();
+                String value = reader.getAttributeValue(null, ATTRIB_VALUE);
+                if (value != null) {
+                    currentPropertyAttrib = value;
+                } else {
+                    currentPropertyText = new StringBuilder();
                 }
-
-                else
-                    if (ELEMENT_PROPERTY.equals(localNameLowerCase)) {
-                        currentPropertyName = attribs.getValue(ATTRIB_NAME);
-                        if (currentPropertyName == null)
-                            throw new SAXException(
-                                    "Missing required attribute '" + ATTRIB_NAME
-                                            + "'.");
-                        currentPropertyType = attribs.getValue(ATTRIB_TYPE);
-                        if (currentPropertyType == null)
-                            currentPropertyType = String.class.getSimpleName();
-                        String value = attribs.getValue(ATTRIB_VALUE);
-                        if (value != null) {
-                            currentPropertyAttrib = value;
-                        } else {
-                            currentPropertyText = new StringBuilder();
-                        }
-                    }
-
-                    else
-                        if (ELEMENT_REFERENCE.equals(localNameLowerCase)) {
-                            references.add(createServiceRequirement(attribs));
-                        }
+                break;
+            case REFERENCE:
+                references.add(createServiceRequirement(reader));
+                break;
+            default:
+                break;
+            }
         }
 
-        @Override
-        public void characters(char[] chars, int start, int length)
-                throws SAXException {
-            if (currentPropertyName != null && currentPropertyText != null)
-                currentPropertyText.append(chars, start, length);
+        private void endElement(int element) throws XMLStreamException {
+            if (element == PROPERTY) {
+                handleProperty();
+            } else if (element == COMPONENT) {
+                handleComponent();
+            }
         }
 
         private void handleProperty() {
@@ -267,16 +396,8 @@ public class SCRAnalyzer implements ResourceAnalyzer {
                 properties.put(currentPropertyName, value);
             } else
                 if (currentPropertyText != null) {
-                    String[] lines = currentPropertyText.toString().split("\n");
-                    List<Object> values = new ArrayList<>(lines.length);
-                    for (int i = 0; i < lines.length; i++) {
-                        String line = lines[i].trim();
-                        if (line.length() > 0) {
-                            Object value = readTyped(currentPropertyType, line);
-                            values.add(value);
-                        }
-                    }
-                    properties.put(currentPropertyName, values);
+                    properties.put(currentPropertyName, readLines(
+                            currentPropertyType, currentPropertyText));
                 }
             currentPropertyName = null;
             currentPropertyType = null;
@@ -284,7 +405,27 @@ public class SCRAnalyzer implements ResourceAnalyzer {
 
         }
 
-        private void handleComponent() throws SAXException {
+        /*
+         * One value per non blank line of the element text.
+         */
+        private static List<Object> readLines(String type,
+                CharSequence text) {
+            List<Object> values = new ArrayList<>();
+            int length = text.length();
+            int start = 0;
+            while (start <= length) {
+                int end = start;
+                while (end < length && text.charAt(end) != '\n')
+                    end++;
+                String line = text.subSequence(start, end).toString().trim();
+                if (line.length() > 0)
+                    values.add(readTyped(type, line));
+                start = end + 1;
+            }
+            return values;
+        }
+
+        private void handleComponent() throws XMLStreamException {
 
             if (provides != null && !provides.isEmpty()) {
                 Builder builder = new Builder()
@@ -303,7 +444,7 @@ public class SCRAnalyzer implements ResourceAnalyzer {
 
                     int dotindex = objectClass.lastIndexOf('.');
                     if (dotindex < 0)
-                        throw new SAXException(
+                        throw new XMLStreamException(
                                 "Service interface in default package.");
                     String pkgName = objectClass.substring(0, dotindex);
                     uses.append(pkgName);
@@ -319,39 +460,25 @@ public class SCRAnalyzer implements ResourceAnalyzer {
 
         }
 
-        @Override
-        public void endElement(String uri, String localName, String qName)
-                throws SAXException {
-            String localNameLowerCase = localName.toLowerCase();
-
-            if (ELEMENT_PROPERTY.equals(localNameLowerCase)) {
-                handleProperty();
-            }
-
-            if (ELEMENT_COMPONENT.equals(localNameLowerCase)) {
-                handleComponent();
-            }
-
-            super.endElement(uri, localName, qName);
-        }
-
         private void setVersion(Version version) {
             if (highest == null || (version.compareTo(highest) > 0))
                 highest = version;
         }
 
-        private static Requirement createServiceRequirement(Attributes attribs)
-                throws SAXException {
-            String interfaceClass = attribs.getValue(ATTRIB_INTERFACE);
+        private static Requirement createServiceRequirement(
+                XMLStreamReader reader) throws XMLStreamException {
+            String interfaceClass = reader.getAttributeValue(null,
+                    ATTRIB_INTERFACE);
             if (interfaceClass == null || interfaceClass.length() == 0) {
-                throw new SAXException(
-                        "Missing required " + ATTRIB_INTERFACE + " attribute");
+                throw new XMLStreamException(
+                        "Missing required " + ATTRIB_INTERFACE + " attribute",
+                        reader.getLocation());
             }
 
             Builder builder = new Builder().setNamespace(Namespaces.NS_SERVICE);
 
             String filter;
-            String target = attribs.getValue(ATTRIB_TARGET);
+            String target = reader.getAttributeValue(null, ATTRIB_TARGET);
             if (target != null)
                 filter = String.format("(&(%s=%s)%s)", Constants.OBJECTCLASS,
                         interfaceClass, target);
@@ -360,7 +487,8 @@ public class SCRAnalyzer implements ResourceAnalyzer {
                         interfaceClass);
             builder.addDirective(Namespaces.DIRECTIVE_FILTER, filter);
 
-            String cardinality = attribs.getValue(ATTRIB_CARDINALITY);
+            String cardinality = reader.getAttributeValue(null,
+                    ATTRIB_CARDINALITY);
             if (cardinality != null) {
                 cardinality = cardinality.trim().toLowerCase();
                 if (cardinality.length() > 0) {
@@ -0,0 +1,140 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.log.LogService;
+
+/**
+ * Indexes one shard of a {@link ShardedIndexer} run in a process of its own.
+ * <p>
+ * The worker reads its configuration from a properties file and the files to
+ * index from a text file holding one path per line. It writes the fragment of
+ * every file to {@link Constants#FRAGMENT_DIR} and the names of the fragment
+ * files, in input order, to the names file, which only appears once the whole
+ * shard was indexed. It exits with status 0 on success and 1 on failure.
+ *
+ * <pre>
+ * java -cp repoindex.jar org.osgi.service.indexer.impl.ShardWorker
+ *     &lt;config.properties&gt; &lt;files.txt&gt; &lt;names.txt&gt;
+ * </pre>
+ *
+ * Workers can be started by hand, on several machines sharing a file system
+ * for instance, and their names files merged with
+ * {@link ShardedIndexer#merge}.
+ */
+public final class ShardWorker {
+
+    private ShardWorker() {
+    }
+
+    /**
+     * Indexes a shard.
+     *
+     * @param config
+     *                      the configuration, which must set
+     *                      {@link Constants#FRAGMENT_DIR}.
+     * @param filesFile
+     *                      the file listing the files to index, one per line.
+     * @param namesFile
+     *                      the file to write the names of the fragment files
+     *                      to.
+     * @param log
+     *                      the log service to use.
+     * @throws AnalyzerException
+     *                               when the shard cannot be indexed.
+     */
+    public static void run(Map<String, String> config, File filesFile,
+            File namesFile, LogService log) throws AnalyzerException {
+        if (config.get(Constants.FRAGMENT_DIR) == null) {
+            throw new AnalyzerException(
+                    "A shard needs a " + Constants.FRAGMENT_DIR + ".");
+        }
+        try {
+            Set<File> files = new LinkedHashSet<>();
+            for (String line : Files.readAllLines(filesFile.toPath(),
+                    StandardCharsets.UTF_8)) {
+                if (!line.isEmpty())
+                    files.add(new File(line));
+            }
+
+            RepoIndex indexer = new RepoIndex(log,
+                    Boolean.parseBoolean(config.get(Constants.VERBOSE)));
+            Path target = namesFile.getAbsoluteFile().toPath();
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(),
+                    target.getFileName().toString(), ".tmp");
+            try {
+                try (Writer out = Files.newBufferedWriter(temp,
+                        StandardCharsets.UTF_8)) {
+                    indexer.indexFragment(files, out, config);
+                }
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, target,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+    }
+
+    static Map<String, String> loadConfig(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        }
+        Map<String, String> config = new HashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            config.put(key, properties.getProperty(key));
+        }
+        return config;
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.err.println("Usage: ShardWorker <config.properties>" //NOSONAR
+                    + " <files.txt> <names.txt>");
+            System.exit(1);
+        }
+        LogService log = new ConsoleLogSvc();
+        try {
+            run(loadConfig(new File(args[0])), new File(args[1]),
+                    new File(args[2]), log);
+        } catch (IOException | AnalyzerException | RuntimeException e) {
+            log.log(LogService.LOG_ERROR,
+                    "Could not index the shard listed in " + args[1], e);
+            System.exit(1);
+        }
+    }
+}
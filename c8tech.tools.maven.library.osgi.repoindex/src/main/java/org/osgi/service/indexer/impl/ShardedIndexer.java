@@ -0,0 +1,317 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.log.LogService;
+
+/**
+ * Indexes very large sets of files in several worker processes.
+ * <p>
+ * The files to index are resolved and sorted as {@link RepoIndex#index} does,
+ * then split into contiguous shards. Every shard is indexed by a
+ * {@link ShardWorker} running in a JVM of its own, which writes one fragment
+ * file per resource. The fragments are then assembled in shard order, so the
+ * document is the same as the one {@link RepoIndex#index} writes for the same
+ * files and configuration, whatever the number of shards.
+ * <p>
+ * Workers only run the built-in analyzers. Every shard keeps its own
+ * {@link Constants#ANALYSIS_CACHE} and {@link Constants#DIGEST_CACHE}, named
+ * after the configured file with the number of the shard appended, since the
+ * caches cannot be shared between processes. When
+ * {@link Constants#FRAGMENT_DIR} is set, the fragments are kept there for
+ * later runs; otherwise they are written to a temporary directory.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public final class ShardedIndexer {
+
+    private final LogService log;
+
+    private int shards = Runtime.getRuntime().availableProcessors();
+    private String javaCommand = new File(
+            new File(System.getProperty("java.home"), "bin"), "java")
+                    .getPath();
+    private String classPath = System.getProperty("java.class.path");
+    private List<String> jvmOptions = Collections.emptyList();
+
+    /**
+     * @param log
+     *                the log service to use.
+     */
+    public ShardedIndexer(LogService log) {
+        this.log = log;
+    }
+
+    /**
+     * @param count
+     *                  the number of worker processes, the number of
+     *                  available processors by default.
+     * @return this
+     */
+    public ShardedIndexer setShards(int count) {
+        this.shards = Math.max(1, count);
+        return this;
+    }
+
+    /**
+     * @param command
+     *                    the java executable starting the workers, the one of
+     *                    the running JVM by default.
+     * @return this
+     */
+    public ShardedIndexer setJavaCommand(String command) {
+        this.javaCommand = command;
+        return this;
+    }
+
+    /**
+     * @param path
+     *                 the class path of the workers, the one of the running
+     *                 JVM by default.
+     * @return this
+     */
+    public ShardedIndexer setClassPath(String path) {
+        this.classPath = path;
+        return this;
+    }
+
+    /**
+     * @param options
+     *                    the options of the worker JVMs, such as
+     *                    {@code -Xmx512m}.
+     * @return this
+     */
+    public ShardedIndexer setJvmOptions(List<String> options) {
+        this.jvmOptions = new ArrayList<>(options);
+        return this;
+    }
+
+    /**
+     * Splits sorted files into contiguous shards of nearly equal sizes.
+     *
+     * @param files
+     *                   the files, in index order.
+     * @param count
+     *                   the number of shards.
+     * @return the non empty shards, in index order.
+     */
+    public static List<List<File>> partition(Set<File> files, int count) {
+        List<File> all = new ArrayList<>(files);
+        int shardCount = Math.max(1, Math.min(count, all.size()));
+        List<List<File>> result = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int from = (int) ((long) all.size() * i / shardCount);
+            int to = (int) ((long) all.size() * (i + 1) / shardCount);
+            if (from < to)
+                result.add(all.subList(from, to));
+        }
+        return result;
+    }
+
+    /**
+     * Indexes files in worker processes and writes the Repository XML
+     * representation to the stream.
+     *
+     * @param files
+     *                   the files and directories to index.
+     * @param out
+     *                   the stream to write to.
+     * @param config
+     *                   a set of optional parameters (use the
+     *                   {@link Constants} as keys). Only the XML format is
+     *                   supported.
+     * @throws AnalyzerException
+     *                               when the files cannot be indexed, or a
+     *                               worker fails.
+     */
+    public void index(Set<File> files, OutputStream out,
+            Map<String, String> config) throws AnalyzerException {
+        Map<String, String> parentConfig = config == null ? new HashMap<>()
+                : new HashMap<>(config);
+        String format = parentConfig.get(Constants.FORMAT);
+        if (format != null
+                && Constants.FORMAT_BINARY.equalsIgnoreCase(format.trim())) {
+            throw new AnalyzerException(
+                    "Sharded indexing only supports the XML format.");
+        }
+        RepoIndex indexer = new RepoIndex(log, false);
+        List<List<File>> parts = partition(
+                indexer.resolveFiles(files, parentConfig), shards);
+
+        File workDir;
+        try {
+            workDir = Files.createTempDirectory("repoindex-shards").toFile();
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+        String fragmentPath = parentConfig.get(Constants.FRAGMENT_DIR);
+        File fragmentDir = fragmentPath == null
+                ? new File(workDir, "fragments")
+                : new File(fragmentPath);
+
+        List<Process> processes = new ArrayList<>();
+        List<File> nameLists = new ArrayList<>();
+        boolean succeeded = false;
+        try {
+            for (int i = 0; i < parts.size(); i++) {
+                File names = new File(workDir, "names-" + i + ".txt");
+                nameLists.add(names);
+                processes.add(start(i, parts.get(i), parentConfig,
+                        fragmentDir, workDir, names));
+            }
+            for (int i = 0; i < processes.size(); i++) {
+                int status = processes.get(i).waitFor();
+                if (status != 0) {
+                    File shardLog = new File(workDir, "shard-" + i + ".log");
+                    log(LogService.LOG_ERROR,
+                            new String(Files.readAllBytes(shardLog.toPath()),
+                                    StandardCharsets.UTF_8));
+                    throw new AnalyzerException(MessageFormat.format(
+                            "Shard {0} failed with exit status {1}, see {2}.",
+                            Integer.toString(i), Integer.toString(status),
+                            shardLog));
+                }
+            }
+            merge(nameLists, fragmentDir, out, parentConfig);
+            succeeded = true;
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnalyzerException("Interrupted while indexing shards",
+                    e);
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            // the logs of failed runs are kept for diagnosis
+            if (succeeded) {
+                delete(workDir);
+            }
+        }
+    }
+
+    private Process start(int shard, List<File> files,
+            Map<String, String> parentConfig, File fragmentDir, File workDir,
+            File names) throws IOException {
+        Properties workerConfig = new Properties();
+        for (Map.Entry<String, String> entry : parentConfig.entrySet()) {
+            if (entry.getValue() != null)
+                workerConfig.setProperty(entry.getKey(), entry.getValue());
+        }
+        // the parent walked the directories already
+        workerConfig.remove(Constants.DIRECTORY_SNAPSHOT);
+        workerConfig.setProperty(Constants.FRAGMENT_DIR,
+                fragmentDir.getAbsolutePath());
+        for (String cache : new String[] { Constants.ANALYSIS_CACHE,
+                Constants.DIGEST_CACHE }) {
+            String path = parentConfig.get(cache);
+            if (path != null)
+                workerConfig.setProperty(cache, path + "." + shard);
+        }
+
+        File configFile = new File(workDir, "config-" + shard + ".properties");
+        try (OutputStream configOut = Files
+                .newOutputStream(configFile.toPath())) {
+            workerConfig.store(configOut, null);
+        }
+        File filesFile = new File(workDir, "files-" + shard + ".txt");
+        List<String> paths = new ArrayList<>(files.size());
+        for (File file : files) {
+            paths.add(file.getAbsolutePath());
+        }
+        Files.write(filesFile.toPath(), paths, StandardCharsets.UTF_8);
+
+        List<String> command = new ArrayList<>();
+        command.add(javaCommand);
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(classPath);
+        command.add(ShardWorker.class.getName());
+        command.add(configFile.getAbsolutePath());
+        command.add(filesFile.getAbsolutePath());
+        command.add(names.getAbsolutePath());
+
+        log(LogService.LOG_DEBUG,
+                MessageFormat.format("Starting shard {0} with {1} files.",
+                        Integer.toString(shard),
+                        Integer.toString(files.size())));
+        File shardLog = new File(workDir, "shard-" + shard + ".log");
+        return new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(shardLog).start();
+    }
+
+    /**
+     * Assembles the fragments listed by shard workers into a Repository XML
+     * representation and writes it to the stream.
+     *
+     * @param nameLists
+     *                        the names files of the workers, in shard order.
+     * @param fragmentDir
+     *                        the directory holding the fragment files.
+     * @param out
+     *                        the stream to write to.
+     * @param config
+     *                        the configuration the workers ran with.
+     * @throws AnalyzerException
+     *                               when a names file or fragment cannot be
+     *                               read.
+     */
+    public void merge(List<File> nameLists, File fragmentDir,
+            OutputStream out, Map<String, String> config)
+            throws AnalyzerException {
+        List<File> fragments = new ArrayList<>();
+        try {
+            for (File nameList : nameLists) {
+                for (String name : Files.readAllLines(nameList.toPath(),
+                        StandardCharsets.UTF_8)) {
+                    if (!name.isEmpty())
+                        fragments.add(new File(fragmentDir, name));
+                }
+            }
+        } catch (IOException e) {
+            throw new AnalyzerException("", e);
+        }
+        new RepoIndex(log, false).assembleFragments(fragments, out, config);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void log(int level, String message) {
+        if (log != null)
+            log.log(level, message);
+    }
+}
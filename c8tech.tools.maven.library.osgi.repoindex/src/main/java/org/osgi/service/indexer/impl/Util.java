@@ -22,7 +22,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.jar.Manifest;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,7 +33,6 @@ import org.osgi.service.indexer.impl.types.ScalarType;
 import org.osgi.service.indexer.impl.types.SymbolicName;
 import org.osgi.service.indexer.impl.types.VersionKey;
 import org.osgi.service.indexer.impl.types.VersionRange;
-import org.osgi.service.indexer.impl.util.OSGiHeader;
 import org.osgi.service.indexer.impl.util.QuotedTokenizer;
 
 public class Util {
@@ -151,56 +149,16 @@ public class Util {
     }
 
     public static MimeType getMimeType(Resource resource) throws IOException {
-        Manifest manifest = resource.getManifest();
-        if (manifest == null)
-            return MimeType.JAR;
-        String bsn = manifest.getMainAttributes()
-                .getValue(Constants.BUNDLE_SYMBOLICNAME);
-        if (bsn == null)
-            return MimeType.JAR;
-
-        String fragmentHost = manifest.getMainAttributes()
-                .getValue(Constants.FRAGMENT_HOST);
-        if (fragmentHost != null)
-            return MimeType.FRAGMENT;
-
-        return MimeType.BUNDLE;
+        return BundleDescriptor.of(resource).getMimeType();
     }
 
     public static SymbolicName getSymbolicName(Resource resource)
             throws IOException {
-        Manifest manifest = resource.getManifest();
-        if (manifest == null)
-            throw new IllegalArgumentException(String.format(
-                    "Cannot identify symbolic name for resource %s: manifest unavailable",
-                    resource.getLocation()));
-
-        String header = manifest.getMainAttributes()
-                .getValue(Constants.BUNDLE_SYMBOLICNAME);
-        if (header == null)
-            throw new IllegalArgumentException(
-                    "Not an OSGi R4+ bundle: missing 'BUNDLE-SymbolicName' entry from manifest.");
-
-        Map<String, Map<String, String>> map = OSGiHeader.parseHeader(header);
-        if (map.size() != 1)
-            throw new IllegalArgumentException(
-                    "Invalid format for BUNDLE-SymbolicName header.");
-
-        Entry<String, Map<String, String>> entry = map.entrySet().iterator()
-                .next();
-        return new SymbolicName(entry.getKey(), entry.getValue());
+        return BundleDescriptor.of(resource).getSymbolicName();
     }
 
     public static Version getVersion(Resource resource) throws IOException {
-        Manifest manifest = resource.getManifest();
-        if (manifest == null)
-            throw new IllegalArgumentException(String.format(
-                    "Cannot identify version for resource %s: manifest unavailable",
-                    resource.getLocation()));
-        String versionStr = manifest.getMainAttributes()
-                .getValue(Constants.BUNDLE_VERSION);
-        return (versionStr != null) ? new Version(versionStr)
-                : Version.emptyVersion;
+        return BundleDescriptor.of(resource).getVersion();
     }
 
     private static List<?> parseListValue(String value, String typeStr) {
@@ -0,0 +1,334 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a zip archive whose bytes are available in a buffer,
+ * either loaded in memory or mapped from the file.
+ * <p>
+ * Only the central directory is checked up front; entries are looked up, and
+ * their data inflated, when they are asked for. Archives this class does not
+ * understand (zip64, encrypted entries, unusual compression methods) are
+ * rejected with a {@link ZipException} so that callers can fall back to
+ * {@link java.util.jar.JarFile}.
+ */
+final class ZipArchive {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    /**
+     * An entry of the central directory.
+     */
+    static final class Entry {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long localHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size,
+                long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private final ByteBuffer buffer;
+    private final int directoryOffset;
+    private final int count;
+    private List<Entry> entries;
+
+    private ZipArchive(ByteBuffer buffer, int directoryOffset, int count) {
+        this.buffer = buffer;
+        this.directoryOffset = directoryOffset;
+        this.count = count;
+    }
+
+    /**
+     * Locates and checks the central directory of the archive held by the
+     * buffer. The entries are only materialized when they are asked for.
+     *
+     * @param content
+     *                    the whole archive. The buffer is not modified.
+     * @return the archive.
+     * @throws ZipException
+     *                          when the content is not an archive this class
+     *                          can read.
+     */
+    static ZipArchive parse(ByteBuffer content) throws ZipException {
+        ByteBuffer buffer = content.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int limit = buffer.limit();
+
+        int end = -1;
+        int lowest = Math.max(0, limit - END_SIZE - MAX_COMMENT_SIZE);
+        for (int i = limit - END_SIZE; i >= lowest; i--) {
+            if (buffer.getInt(i) == END_SIGNATURE
+                    && i + END_SIZE + (buffer.getShort(i + 20) & 0xFFFF) == limit) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new ZipException("End of central directory not found.");
+        }
+
+        int count = buffer.getShort(end + 10) & 0xFFFF;
+        long directorySize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directoryOffset == 0xFFFFFFFFL) {
+            throw new ZipException("Zip64 archives are not supported.");
+        }
+        if (directoryOffset + directorySize > end) {
+            throw new ZipException("Invalid central directory.");
+        }
+
+        // check every entry up front, so that unsupported archives are
+        // rejected before any analyzer sees them
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (position + CENTRAL_HEADER_SIZE > end
+                    || buffer.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory entry.");
+            }
+            int flags = buffer.getShort(position + 8) & 0xFFFF;
+            int method = buffer.getShort(position + 10) & 0xFFFF;
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted entries are not supported.");
+            }
+            if (method != STORED && method != DEFLATED) {
+                throw new ZipException(
+                        "Unsupported compression method " + method + ".");
+            }
+            if (buffer.getInt(position + 20) == -1
+                    || buffer.getInt(position + 24) == -1
+                    || buffer.getInt(position + 42) == -1) {
+                throw new ZipException("Zip64 archives are not supported.");
+            }
+            position = next(buffer, position);
+        }
+
+        return new ZipArchive(buffer, (int) directoryOffset, count);
+    }
+
+    private static int next(ByteBuffer buffer, int position) {
+        return position + CENTRAL_HEADER_SIZE
+                + (buffer.getShort(position + 28) & 0xFFFF)
+                + (buffer.getShort(position + 30) & 0xFFFF)
+                + (buffer.getShort(position + 32) & 0xFFFF);
+    }
+
+    private Entry entryAt(int position) {
+        int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+        return new Entry(name(position, 0, nameLength),
+                buffer.getShort(position + 10) & 0xFFFF,
+                buffer.getInt(position + 20) & 0xFFFFFFFFL,
+                buffer.getInt(position + 24) & 0xFFFFFFFFL,
+                buffer.getInt(position + 42) & 0xFFFFFFFFL);
+    }
+
+    private String name(int position, int from, int to) {
+        byte[] name = new byte[to - from];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position + CENTRAL_HEADER_SIZE + from);
+        slice.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Tells whether the name of the entry at the position starts with the
+     * given bytes.
+     */
+    private boolean nameStartsWith(int position, byte[] prefix) {
+        int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+        if (nameLength < prefix.length) {
+            return false;
+        }
+        int nameStart = position + CENTRAL_HEADER_SIZE;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(nameStart + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the entries, in central directory order.
+     */
+    List<Entry> getEntries() {
+        if (entries == null) {
+            List<Entry> list = new ArrayList<>(count);
+            int position = directoryOffset;
+            for (int i = 0; i < count; i++) {
+                list.add(entryAt(position));
+                position = next(buffer, position);
+            }
+            entries = Collections.unmodifiableList(list);
+        }
+        return entries;
+    }
+
+    /**
+     * Looks an entry up by scanning the central directory, without
+     * materializing the other entries.
+     *
+     * @param name
+     *                 the full name of the entry.
+     * @return the entry, or null when there is none with that name.
+     */
+    Entry find(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int position = directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if ((buffer.getShort(position + 28) & 0xFFFF) == bytes.length
+                    && nameStartsWith(position, bytes)) {
+                return entryAt(position);
+            }
+            position = next(buffer, position);
+        }
+        return null;
+    }
+
+    /**
+     * Lists the entries directly under a directory, in central directory
+     * order.
+     *
+     * @param prefix
+     *                   the directory, ending with a slash, or the empty string
+     *                   for the root.
+     * @return the names of the entries relative to the directory, or null when
+     *         the archive has no entries there.
+     */
+    List<String> listChildren(String prefix) {
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        List<String> result = null;
+        int position = directoryOffset;
+        for (int i = 0; i < count; i++) {
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            if (nameLength > bytes.length && nameStartsWith(position, bytes)) {
+                String child = name(position, bytes.length, nameLength);
+                int slash = child.indexOf('/');
+                if (slash < 0 || slash == child.length() - 1) {
+                    if (result == null) {
+                        result = new ArrayList<>();
+                    }
+                    result.add(child);
+                }
+            }
+            position = next(buffer, position);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the uncompressed content of an entry.
+     *
+     * @param entry
+     *                  an entry of this archive.
+     * @return the content.
+     * @throws ZipException
+     *                          when the entry data is corrupt.
+     */
+    byte[] read(Entry entry) throws ZipException {
+        int offset = (int) entry.localHeaderOffset;
+        if (offset + LOCAL_HEADER_SIZE > buffer.limit()
+                || buffer.getInt(offset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for " + entry.name);
+        }
+        int nameLength = buffer.getShort(offset + 26) & 0xFFFF;
+        int extraLength = buffer.getShort(offset + 28) & 0xFFFF;
+        long dataStart = (long) offset + LOCAL_HEADER_SIZE + nameLength
+                + extraLength;
+        if (dataStart + entry.compressedSize > buffer.limit()) {
+            throw new ZipException("Truncated entry " + entry.name);
+        }
+
+        ByteBuffer data = buffer.duplicate();
+        data.position((int) dataStart);
+        data.limit((int) (dataStart + entry.compressedSize));
+
+        byte[] result = new byte[(int) entry.size];
+        if (entry.method == STORED) {
+            data.get(result);
+            return result;
+        }
+
+        byte[] compressed;
+        int compressedOffset;
+        if (data.hasArray()) {
+            compressed = data.array();
+            compressedOffset = data.arrayOffset() + data.position();
+        } else {
+            compressed = new byte[data.remaining()];
+            data.get(compressed);
+            compressedOffset = 0;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed, compressedOffset,
+                    (int) entry.compressedSize);
+            int total = 0;
+            while (total < result.length) {
+                int count = inflater.inflate(result, total,
+                        result.length - total);
+                if (count == 0 && (inflater.finished()
+                        || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                total += count;
+            }
+            if (total != result.length) {
+                throw new ZipException("Invalid entry size for " + entry.name);
+            }
+            return result;
+        } catch (DataFormatException e) {
+            ZipException ze = new ZipException(
+                    "Invalid compressed data for " + entry.name);
+            ze.initCause(e);
+            throw ze;
+        } finally {
+            inflater.end();
+        }
+    }
+}
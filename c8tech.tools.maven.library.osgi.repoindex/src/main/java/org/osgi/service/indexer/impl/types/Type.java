@@ -15,26 +15,45 @@ package org.osgi.service.indexer.impl.types;
  * Part of this code was borrowed from BIndex project (https://github.com/osgi/bindex) 
  * and it is released under OSGi Specification License, VERSION 2.0
  */
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 
 import org.osgi.framework.Version;
 
 final class Type {
 
+    private static final Map<ScalarType, Type> LISTS = new EnumMap<>(
+            ScalarType.class);
+    private static final Map<ScalarType, Type> SCALARS = new EnumMap<>(
+            ScalarType.class);
+
+    static {
+        for (ScalarType scalarType : ScalarType.values()) {
+            LISTS.put(scalarType, new Type(scalarType, true));
+            SCALARS.put(scalarType, new Type(scalarType, false));
+        }
+    }
+
     private final boolean list;
+    private final String name;
     private final ScalarType typeAttribute;
 
     private Type(ScalarType type, boolean list) {
         this.typeAttribute = type;
         this.list = list;
+        this.name = list ? "List<" + type.getKey() + ">" : type.getKey();
     }
 
     public static Type list(ScalarType type) {
-        return new Type(type, true);
+        return LISTS.get(type);
     }
 
     public static Type scalar(ScalarType type) {
-        return new Type(type, false);
+        return SCALARS.get(type);
     }
 
     public static Type typeOf(Object value) {
@@ -73,6 +92,77 @@ final class Type {
         return result;
     }
 
+    /**
+     * Reads the type attribute of an XML attribute element.
+     *
+     * @param xmlType
+     *                    the value of the type attribute, or null when it was
+     *                    omitted.
+     * @return the type.
+     * @throws IllegalArgumentException
+     *                                      when the type is unknown.
+     */
+    public static Type fromXMLType(String xmlType) {
+        if (xmlType == null)
+            return scalar(ScalarType.STRING);
+        String trimmed = xmlType.trim();
+        boolean isList = trimmed.startsWith("List<") && trimmed.endsWith(">");
+        ScalarType scalarType = ScalarType.fromString(isList
+                ? trimmed.substring(5, trimmed.length() - 1).trim()
+                : trimmed);
+        if (scalarType == null)
+            throw new IllegalArgumentException("Unsupported type: " + xmlType);
+        return isList ? list(scalarType) : scalar(scalarType);
+    }
+
+    /**
+     * The reverse of {@link #convertToString(Object)}. List elements are
+     * separated by commas, and a comma preceded by a backslash is part of the
+     * element.
+     *
+     * @param value
+     *                  the string form of the value.
+     * @return the value, an unmodifiable list for list types.
+     * @throws IllegalArgumentException
+     *                                      when the value is not valid for the
+     *                                      type.
+     */
+    public Object convertFromString(String value) {
+        if (!list)
+            return convertScalar(value);
+
+        List<Object> result = new ArrayList<>();
+        StringBuilder element = new StringBuilder();
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < length && value.charAt(i + 1) == ',') {
+                element.append(',');
+                i++;
+            } else if (c == ',') {
+                result.add(convertScalar(element.toString()));
+                element.setLength(0);
+            } else {
+                element.append(c);
+            }
+        }
+        result.add(convertScalar(element.toString()));
+        return Collections.unmodifiableList(result);
+    }
+
+    private Object convertScalar(String value) {
+        switch (typeAttribute) {
+        case VERSION:
+            return Version.parseVersion(value);
+        case LONG:
+            return Long.valueOf(value.trim());
+        case DOUBLE:
+            return Double.valueOf(value.trim());
+        default:
+            return value;
+        }
+    }
+
     public String convertToString(Object value) {
         String result;
         if (list) {
@@ -101,7 +191,7 @@ final class Type {
 
     @Override
     public String toString() {
-        return list ? "List<" + typeAttribute.getKey() + ">" : typeAttribute.getKey();
+        return name;
     }
 
 }
@@ -34,15 +34,79 @@ public class TypedAttribute {
         return new TypedAttribute(name, Type.typeOf(value), value);
     }
 
+    /**
+     * Reads an attribute element of a repository document.
+     *
+     * @param name
+     *                    the name of the attribute.
+     * @param xmlType
+     *                    the type attribute, or null when it was omitted.
+     * @param xmlValue
+     *                    the value attribute.
+     * @return the attribute, with a value of the type named by the type
+     *         attribute.
+     * @throws IllegalArgumentException
+     *                                      when the type is unknown or the
+     *                                      value is not valid for it.
+     */
+    public static TypedAttribute fromXML(String name, String xmlType,
+            String xmlValue) {
+        Type type = Type.fromXMLType(xmlType);
+        return new TypedAttribute(name, type,
+                type.convertFromString(xmlValue));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the scalar type of the value, or of its elements when the value
+     *         is a list.
+     */
+    public ScalarType getScalarType() {
+        return type.getType();
+    }
+
+    /**
+     * @return true when the value is a list.
+     */
+    public boolean isList() {
+        return type.isList();
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @return the value of the XML type attribute, or {@code null} when the
+     *         attribute is a plain string and the type must be omitted.
+     */
+    public String getXMLType() {
+        if (type.isList() || type.getType() != ScalarType.STRING) {
+            return type.toString();
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the XML value attribute.
+     */
+    public String getXMLValue() {
+        return type.convertToString(value);
+    }
+
     public Tag toXML() {
         Tag tag = new Tag(Schema.ELEM_ATTRIBUTE);
         tag.addAttribute(Schema.ATTR_NAME, name);
 
-        if (type.isList() || type.getType() != ScalarType.STRING) {
-            tag.addAttribute(Schema.ATTR_TYPE, type.toString());
+        String xmlType = getXMLType();
+        if (xmlType != null) {
+            tag.addAttribute(Schema.ATTR_TYPE, xmlType);
         }
 
-        tag.addAttribute(Schema.ATTR_VALUE, type.convertToString(value));
+        tag.addAttribute(Schema.ATTR_VALUE, getXMLValue());
 
         return tag;
     }
@@ -11,35 +11,17 @@
  */
 package org.osgi.service.indexer.impl.util;
 
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
-
-class AddOnlyIterator<T> implements Iterator<T> {
-
-    private final Iterator<T> iter;
-
-    AddOnlyIterator(Iterator<T> iter) {
-        this.iter = iter;
-    }
-
-    @Override
-    public boolean hasNext() {
-        return iter.hasNext();
-    }
-
-    @Override
-    public T next() {
-        return iter.next();
-    }
-
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException(AddOnlyList.ERROR_REMOVE);
-    }
-}
+import java.util.RandomAccess;
+import java.util.Set;
 
 /**
  * <p>
@@ -52,8 +34,10 @@ class AddOnlyIterator<T> implements Iterator<T> {
  * </p>
  * 
  * <p>
- * Note that this is a wrapper class only. It must be initialized with an actual
- * {@link List} implementation for its underlying data structure.
+ * Elements already in the list are not added again. The elements are kept in
+ * an array; once the list grows past a few elements, a hash set of them is
+ * kept too, so that checking for duplicates does not compare the new element
+ * with every element of the list.
  * </p>
  * 
  * @author Neil Bartlett
@@ -61,93 +45,136 @@ class AddOnlyIterator<T> implements Iterator<T> {
  * @param <T>
  *            The type of the list.
  */
-public class AddOnlyList<T> extends LinkedList<T> {
+public class AddOnlyList<T> extends AbstractList<T>
+        implements RandomAccess, Serializable {
 
-    /**
-     * 
-     */
-    private static final long serialVersionUID = -8909342551974718439L;
+    private static final long serialVersionUID = 2519245378651366711L;
     static final String ERROR_REMOVE = "Removal of items is not permitted.";
     static final String ERROR_REPLACE = "Replacement of items is not permitted.";
 
+    /** lists up to this size are searched without the hash set */
+    private static final int INDEX_THRESHOLD = 8;
+
+    private Object[] elements;
+    private int size;
+
+    /** the elements, once the list is larger than the threshold */
+    private transient Set<Object> index;
+
     public AddOnlyList() {
-        super();
+        elements = new Object[INDEX_THRESHOLD];
     }
 
     /**
-     * Create a new add-only list based on the specified underlying list.
+     * Create a new add-only list holding the elements of a collection.
      * 
      * @param list
-     *                 The list providing the underlying data structure.
+     *                 The elements to add.
      */
     public AddOnlyList(Collection<? extends T> list) {
-        super(list);
+        elements = new Object[Math.max(INDEX_THRESHOLD, list.size())];
+        addAll(list);
     }
 
-    // FORBIDDEN METHODS: remove, removeAll, retailAll, clear, set
+    @SuppressWarnings("unchecked")
+    @Override
+    public T get(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(
+                    "Index: " + i + ", Size: " + size);
+        return (T) elements[i];
+    }
 
     @Override
-    public void add(int index, T element) {
-        if (!this.contains(element)) {
-            super.add(index, element);
-        }
+    public int size() {
+        return size;
     }
 
     @Override
-    public boolean add(T e) {
-        if (super.contains(e)) {
+    public boolean contains(Object o) {
+        if (size <= INDEX_THRESHOLD) {
+            for (int i = 0; i < size; i++) {
+                if (o == null ? elements[i] == null : o.equals(elements[i]))
+                    return true;
+            }
             return false;
-        } else {
-            return super.add(e);
         }
+        if (index == null)
+            index = new HashSet<>(Arrays.asList(elements).subList(0, size));
+        return index.contains(o);
     }
 
-    @Override
-    public boolean addAll(Collection<? extends T> c) {
-        Collection<T> copy = new LinkedList<>(c);
-        copy.removeAll(this);
-        return super.addAll(copy);
-    }
+    // ADDING METHODS: elements already in the list are skipped
 
     @Override
-    public boolean addAll(int index, Collection<? extends T> c) {
-        Collection<T> copy = new LinkedList<>(c);
-        copy.removeAll(this);
-        return super.addAll(index, copy);
+    public void add(int i, T element) {
+        if (i < 0 || i > size)
+            throw new IndexOutOfBoundsException(
+                    "Index: " + i + ", Size: " + size);
+        if (!contains(element)) {
+            insert(i, Arrays.asList(element));
+        }
     }
 
     @Override
-    public void clear() {
-        throw new UnsupportedOperationException(ERROR_REMOVE);
+    public boolean add(T e) {
+        if (contains(e)) {
+            return false;
+        }
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = e;
+        modCount++;
+        if (index != null) {
+            index.add(e);
+        }
+        return true;
     }
 
-    // WRAPPING METHODS: create restricted iterators and sublists
-
     @Override
-    public boolean equals(Object o) {
-        return super.equals(o);
+    public boolean addAll(Collection<? extends T> c) {
+        return addAll(size, c);
     }
 
     @Override
-    public int hashCode() {
-        return super.hashCode();
+    public boolean addAll(int i, Collection<? extends T> c) {
+        if (i < 0 || i > size)
+            throw new IndexOutOfBoundsException(
+                    "Index: " + i + ", Size: " + size);
+        List<T> copy = new ArrayList<>(c.size());
+        for (T e : c) {
+            if (!contains(e))
+                copy.add(e);
+        }
+        if (copy.isEmpty())
+            return false;
+        insert(i, copy);
+        return true;
     }
 
-    // STRAIGHT-THROUGH DELEGATED METHODS
-
-    @Override
-    public Iterator<T> iterator() {
-        return new AddOnlyIterator<>(super.iterator());
+    private void insert(int i, List<? extends T> added) {
+        int count = added.size();
+        if (size + count > elements.length) {
+            elements = Arrays.copyOf(elements,
+                    Math.max(size + count, elements.length * 2));
+        }
+        System.arraycopy(elements, i, elements, i + count, size - i);
+        for (T e : added) {
+            elements[i++] = e;
+        }
+        size += count;
+        modCount++;
+        if (index != null) {
+            index.addAll(added);
+        }
     }
 
-    @Override
-    public ListIterator<T> listIterator() {
-        return new AddOnlyListIterator<>(super.listIterator());
-    }
+    // FORBIDDEN METHODS: remove, removeAll, retainAll, clear, set
 
     @Override
-    public ListIterator<T> listIterator(int index) {
-        return new AddOnlyListIterator<>(super.listIterator(index));
+    public void clear() {
+        throw new UnsupportedOperationException(ERROR_REMOVE);
     }
 
     @Override
@@ -165,16 +192,6 @@ public class AddOnlyList<T> extends LinkedList<T> {
         throw new UnsupportedOperationException(ERROR_REMOVE);
     }
 
-    @Override
-    public boolean removeFirstOccurrence(Object o) {
-        throw new UnsupportedOperationException(ERROR_REMOVE);
-    }
-
-    @Override
-    public boolean removeLastOccurrence(Object o) {
-        throw new UnsupportedOperationException(ERROR_REMOVE);
-    }
-
     @Override
     protected void removeRange(int fromIndex, int toIndex) {
         throw new UnsupportedOperationException(ERROR_REMOVE);
@@ -196,57 +213,3 @@ public class AddOnlyList<T> extends LinkedList<T> {
     }
 
 }
-
-class AddOnlyListIterator<T> implements ListIterator<T> {
-
-    private final ListIterator<T> iter;
-
-    AddOnlyListIterator(ListIterator<T> iter) {
-        this.iter = iter;
-    }
-
-    @Override
-    public void add(T e) {
-        iter.add(e);
-    }
-
-    @Override
-    public boolean hasNext() {
-        return iter.hasNext();
-    }
-
-    @Override
-    public boolean hasPrevious() {
-        return iter.hasPrevious();
-    }
-
-    @Override
-    public T next() {
-        return iter.next();
-    }
-
-    @Override
-    public int nextIndex() {
-        return iter.nextIndex();
-    }
-
-    @Override
-    public T previous() {
-        return iter.previous();
-    }
-
-    @Override
-    public int previousIndex() {
-        return iter.previousIndex();
-    }
-
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException(AddOnlyList.ERROR_REMOVE);
-    }
-
-    @Override
-    public void set(T e) {
-        throw new UnsupportedOperationException(AddOnlyList.ERROR_REPLACE);
-    }
-}
@@ -0,0 +1,116 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl.util;
+
+/**
+ * Splits a manifest header into tokens, the same way {@link QuotedTokenizer}
+ * does, without going through a {@link StringBuilder} for every token.
+ * <p>
+ * Tokens without quotes are sliced straight out of the characters of the
+ * header; only quoted tokens are copied.
+ */
+final class HeaderTokenizer {
+
+    private final String value;
+    private final char[] chars;
+    private int index;
+    private char separator;
+
+    HeaderTokenizer(String value) {
+        this.value = value;
+        this.chars = value.toCharArray();
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @param withEquals
+     *                       whether '=' separates tokens, besides ',' and ';'.
+     * @return the trimmed token, or null at the end of the header.
+     */
+    String nextToken(boolean withEquals) {
+        separator = 0;
+        int length = chars.length;
+        if (index == length)
+            return null;
+
+        int start = index;
+        int end = index;
+        StringBuilder quoted = null;
+
+        while (index < length) {
+            char c = chars[index++];
+
+            if (Character.isWhitespace(c)) {
+                if (index == length)
+                    break;
+                if (quoted != null)
+                    quoted.append(c);
+                else
+                    end = index;
+                continue;
+            }
+
+            if (c == ',' || c == ';' || (withEquals && c == '=')) {
+                separator = c;
+                break;
+            }
+
+            if (c == '"' || c == '\'') {
+                if (quoted == null)
+                    quoted = new StringBuilder().append(chars, start,
+                            end - start);
+                quotedString(quoted, c);
+            } else if (quoted != null) {
+                quoted.append(c);
+            } else {
+                end = index;
+            }
+        }
+
+        String result;
+        if (quoted != null) {
+            result = quoted.toString().trim();
+        } else {
+            while (start < end && chars[start] <= ' ')
+                start++;
+            while (end > start && chars[end - 1] <= ' ')
+                end--;
+            result = start == end ? "" : new String(chars, start, end - start);
+        }
+        if (result.length() == 0 && index == length)
+            return null;
+        return result;
+    }
+
+    private void quotedString(StringBuilder sb, char quote) {
+        int length = chars.length;
+        while (index < length) {
+            char c = chars[index++];
+            if (c == quote)
+                break;
+            // looks one character too far, as QuotedTokenizer does
+            if (c == '\\' && index < length
+                    && value.charAt(index + 1) == quote)
+                c = chars[index++];
+            sb.append(c);
+        }
+    }
+
+    /**
+     * @return the separator that ended the last token, or 0 when it ended at
+     *         the end of the header.
+     */
+    char getSeparator() {
+        return separator;
+    }
+}
@@ -37,6 +37,9 @@ public final class Indent {
     /** the indent string */
     private char[] indentAttribute;
 
+    /** the text printed for this indent, including the newline */
+    private final String text;
+
     /** no indentAttribute */
     public static final Indent NONE = new Indent(false, 0, 0);
 
@@ -59,6 +62,15 @@ public final class Indent {
         this.increment = increment;
         this.indentAttribute = new char[level];
         Arrays.fill(this.indentAttribute, ' ');
+        this.text = (newLine ? eol : "") + new String(indentAttribute);
+    }
+
+    /**
+     * @return the text printed for this indent, including the leading newline
+     *         when there is one.
+     */
+    public String getText() {
+        return text;
     }
 
     /**
@@ -68,9 +80,7 @@ public final class Indent {
      *            the writer to print to
      */
     public void print(PrintWriter pw) {
-        if (newLine)
-            pw.print(eol);
-        pw.print(indentAttribute);
+        pw.print(text);
     }
 
     /**
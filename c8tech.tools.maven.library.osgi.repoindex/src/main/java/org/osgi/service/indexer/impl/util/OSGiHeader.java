@@ -11,19 +11,130 @@
  */
 package org.osgi.service.indexer.impl.util;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 public class OSGiHeader {
 
     private static final char DUPLICATE_MARKER = '~';
 
+    /** the number of parsed headers kept */
+    static final int CACHE_SIZE = 1024;
+
+    /** headers longer than this are parsed every time */
+    static final int MAX_CACHED_LENGTH = 16 * 1024;
+
+    // the same Import-Package and Export-Package values show up in many
+    // bundles, so parsed headers are kept, least recently used first
+    private static final Map<String, Map<String, Map<String, String>>> CACHE = new LinkedHashMap<String, Map<String, Map<String, String>>>(
+            CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(
+                Entry<String, Map<String, Map<String, String>>> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
     private OSGiHeader() {
 
     }
 
+    /**
+     * Parses a header the way {@link #parseHeader(String, Reporter)} does,
+     * sharing the result with every other caller parsing the same value.
+     *
+     * @param value
+     *                  A string to parse.
+     * @return an unmodifiable Map&lt;STRING,Map&lt;STRING,STRING&gt;&gt;, with
+     *         unmodifiable clauses.
+     */
     public static Map<String, Map<String, String>> parseHeader(String value) {
-        return parseHeader(value, null);
+        if (value == null || value.trim().length() == 0)
+            return Collections.emptyMap();
+        if (value.length() > MAX_CACHED_LENGTH)
+            return parse(value);
+
+        Map<String, Map<String, String>> result;
+        synchronized (CACHE) {
+            result = CACHE.get(value);
+        }
+        if (result == null) {
+            result = parse(value);
+            synchronized (CACHE) {
+                CACHE.put(value, result);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Same grammar and quirks as parseHeader(String, Reporter), minus the
+     * reporting.
+     */
+    private static Map<String, Map<String, String>> parse(String value) {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        HeaderTokenizer qt = new HeaderTokenizer(value);
+        char del;
+        do {
+            String name = qt.nextToken(false);
+            del = qt.getSeparator();
+            if (name == null)
+                break;
+            if (name.length() == 0)
+                continue;
+
+            Map<String, String> clause = null;
+            String[] aliases = null;
+            int aliasCount = 0;
+            while (del == ';') {
+                String adname = qt.nextToken(true);
+                if ((del = qt.getSeparator()) != '=') {
+                    if (adname != null && adname.length() > 0) {
+                        if (aliases == null)
+                            aliases = new String[4];
+                        else if (aliasCount == aliases.length)
+                            aliases = Arrays.copyOf(aliases,
+                                    aliasCount * 2);
+                        aliases[aliasCount++] = adname;
+                    }
+                } else {
+                    // the reporting parser fails the same way
+                    if (adname == null)
+                        throw new NullPointerException(
+                                "Missing attribute name in header: " + value);
+                    String advalue = qt.nextToken(true);
+                    if (advalue == null)
+                        advalue = "";
+                    if (clause == null)
+                        clause = new LinkedHashMap<>();
+                    while (clause.containsKey(adname))
+                        adname = adname + DUPLICATE_MARKER;
+                    clause.put(adname, advalue);
+                    del = qt.getSeparator();
+                }
+            }
+
+            Map<String, String> shared = clause == null
+                    ? Collections.<String, String>emptyMap()
+                    : Collections.unmodifiableMap(clause);
+            putClause(result, name, shared);
+            for (int i = 0; i < aliasCount; i++)
+                putClause(result, aliases[i], shared);
+        } while (del == ',');
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static void putClause(Map<String, Map<String, String>> result,
+            String clauseName, Map<String, String> clause) {
+        while (result.containsKey(clauseName))
+            clauseName += DUPLICATE_MARKER;
+        result.put(clauseName, clause);
     }
 
     /**
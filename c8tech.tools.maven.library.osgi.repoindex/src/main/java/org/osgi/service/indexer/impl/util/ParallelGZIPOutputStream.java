@@ -0,0 +1,248 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream writing the GZIP format, compressing on several threads.
+ * <p>
+ * The input is cut into blocks which are deflated independently. Every block
+ * but the last one ends with a sync flush, so the compressed blocks
+ * concatenate into a single deflate stream and the result is one ordinary
+ * GZIP member that any GZIP reader can decompress. Each block is primed with
+ * the last 32 KB of the previous block, which keeps the compression ratio
+ * close to the one of a single threaded stream.
+ * <p>
+ * At most twice as many blocks as threads are in flight at any time.
+ * {@link #flush()} only writes the blocks that are complete; the remaining
+ * data is written by {@link #close()}.
+ */
+public final class ParallelGZIPOutputStream extends FilterOutputStream {
+
+    /** the default size of the uncompressed blocks */
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final int level;
+    private final int blockSize;
+    private final int window;
+    private final ExecutorService executor;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] block;
+    private int blockLength;
+    private byte[] dictionary;
+    private long totalIn;
+    private boolean closed;
+
+    /**
+     * Creates a stream and writes the GZIP header.
+     *
+     * @param out
+     *                      the stream receiving the compressed data.
+     * @param level
+     *                      the compression level, see {@link Deflater}.
+     * @param blockSize
+     *                      the size of the uncompressed blocks.
+     * @param threads
+     *                      the number of compressing threads.
+     * @throws IOException
+     *                         when the header cannot be written.
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int blockSize,
+            int threads) throws IOException {
+        super(out);
+        if (blockSize <= 0)
+            throw new IllegalArgumentException("Invalid block size " + blockSize);
+        if (threads <= 0)
+            throw new IllegalArgumentException("Invalid thread count " + threads);
+        this.level = level;
+        this.blockSize = blockSize;
+        this.window = threads * 2;
+        this.block = new byte[blockSize];
+
+        final int pool = POOL_COUNT.incrementAndGet();
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "repoindex-gzip-" + pool + "-"
+                    + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        out.write(new byte[] { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8),
+                Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len | (off + len) | (b.length - (off + len))) < 0)
+            throw new IndexOutOfBoundsException();
+
+        crc.update(b, off, len);
+        totalIn += len;
+        while (len > 0) {
+            int count = Math.min(len, blockSize - blockLength);
+            System.arraycopy(b, off, block, blockLength, count);
+            blockLength += count;
+            off += count;
+            len -= count;
+            if (blockLength == blockSize) {
+                dispatch(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks that are complete and flushes the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    /**
+     * Compresses the remaining data, writes the GZIP trailer and closes the
+     * underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            dispatch(true);
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            writeInt((int) crc.getValue());
+            writeInt((int) totalIn);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void dispatch(boolean last) throws IOException {
+        final byte[] input = block;
+        final int length = blockLength;
+        final byte[] dict = dictionary;
+
+        if (!last) {
+            int dictLength = Math.min(DICTIONARY_SIZE, length);
+            dictionary = Arrays.copyOfRange(input, length - dictLength, length);
+            block = new byte[blockSize];
+            blockLength = 0;
+        }
+
+        pending.addLast(executor
+                .submit(() -> deflate(input, length, dict, level, last)));
+        if (pending.size() > window) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> next = pending.removeFirst();
+        try {
+            out.write(next.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(
+                    "Interrupted while compressing.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw new IOException("Compression failed.", cause);
+        }
+    }
+
+    private static byte[] deflate(byte[] input, int length, byte[] dictionary,
+            int level, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input, 0, length);
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream(
+                    Math.max(64, length / 2));
+            byte[] buf = new byte[Math.max(512, Math.min(length, 64 * 1024))];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(buf);
+                    result.write(buf, 0, count);
+                }
+            } else {
+                int count;
+                do {
+                    count = deflater.deflate(buf, 0, buf.length,
+                            Deflater.SYNC_FLUSH);
+                    result.write(buf, 0, count);
+                } while (count == buf.length);
+            }
+            return result.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeInt(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >> 8) & 0xFF);
+        out.write((value >> 16) & 0xFF);
+        out.write((value >> 24) & 0xFF);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed)
+            throw new IOException("Stream closed");
+    }
+}
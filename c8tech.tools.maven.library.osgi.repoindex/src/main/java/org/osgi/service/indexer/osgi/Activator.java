@@ -21,6 +21,7 @@ public class Activator implements BundleActivator {
 
     private LogTracker logTracker;
     private AnalyzerTracker analyzerTracker;
+    private ListenerTracker listenerTracker;
 
     private ServiceRegistration<?> registration;
 
@@ -36,6 +37,9 @@ public class Activator implements BundleActivator {
         analyzerTracker = new AnalyzerTracker(context, indexer, logTracker);
         analyzerTracker.open();
 
+        listenerTracker = new ListenerTracker(context, indexer);
+        listenerTracker.open();
+
         registration = context.registerService(ResourceIndexer.class.getName(),
                 indexer, null);
     }
@@ -43,6 +47,7 @@ public class Activator implements BundleActivator {
     @Override
     public void stop(BundleContext context) throws Exception {
         registration.unregister();
+        listenerTracker.close();
         analyzerTracker.close();
         logTracker.close();
     }
@@ -0,0 +1,45 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.osgi;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.indexer.IndexingListener;
+import org.osgi.service.indexer.impl.RepoIndex;
+import org.osgi.util.tracker.ServiceTracker;
+
+class ListenerTracker
+        extends ServiceTracker<IndexingListener, IndexingListener> {
+
+    private final RepoIndex indexer;
+
+    public ListenerTracker(BundleContext context, RepoIndex indexer) {
+        super(context, IndexingListener.class.getName(), null);
+        this.indexer = indexer;
+    }
+
+    @Override
+    public IndexingListener addingService(
+            ServiceReference<IndexingListener> reference) {
+        IndexingListener listener = context.getService(reference);
+        if (listener != null)
+            indexer.addListener(listener);
+        return listener;
+    }
+
+    @Override
+    public void removedService(ServiceReference<IndexingListener> reference,
+            IndexingListener listener) {
+        indexer.removeListener(listener);
+        context.ungetService(reference);
+    }
+}
@@ -13,5 +13,5 @@
  * @author cvgaviao
  *
  */
-@org.osgi.annotation.versioning.Version("2.1.0")
+@org.osgi.annotation.versioning.Version("2.4.0")
 package org.osgi.service.indexer;
\ No newline at end of file
@@ -0,0 +1,79 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.impl.util.AddOnlyList;
+
+public class AddOnlyListUnitTest {
+
+    @Test
+    public void testDuplicatesAreSkipped() {
+        List<String> list = new AddOnlyList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            assertTrue(list.add("e" + i));
+            expected.add("e" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertFalse(list.add("e" + i));
+        }
+        assertEquals(expected, list);
+
+        list.add(0, "first");
+        list.add(0, "e10");
+        assertEquals("first", list.get(0));
+        assertEquals(51, list.size());
+
+        assertTrue(list.addAll(1, Arrays.asList("e3", "x", "y")));
+        assertEquals(Arrays.asList("first", "x", "y", "e0"),
+                list.subList(0, 4));
+        assertFalse(list.addAll(Arrays.asList("x", "e49")));
+        assertTrue(list.contains("y"));
+        assertEquals(expected.hashCode(),
+                new AddOnlyList<>(expected).hashCode());
+    }
+
+    @Test
+    public void testRemovalIsForbidden() {
+        List<String> list = new AddOnlyList<>(Arrays.asList("a", "b"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> list.remove(0));
+        assertThrows(UnsupportedOperationException.class,
+                () -> list.remove("a"));
+        assertThrows(UnsupportedOperationException.class, () -> list.clear());
+        assertThrows(UnsupportedOperationException.class,
+                () -> list.set(0, "c"));
+        Iterator<String> iterator = list.iterator();
+        iterator.next();
+        assertThrows(UnsupportedOperationException.class,
+                () -> iterator.remove());
+        ListIterator<String> listIterator = list.listIterator();
+        listIterator.next();
+        assertThrows(UnsupportedOperationException.class,
+                () -> listIterator.set("c"));
+        listIterator.add("c");
+        assertEquals(Arrays.asList("a", "c", "b"), list);
+        assertThrows(IndexOutOfBoundsException.class, () -> list.get(3));
+    }
+}
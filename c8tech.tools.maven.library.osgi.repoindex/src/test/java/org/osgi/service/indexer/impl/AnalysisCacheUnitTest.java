@@ -0,0 +1,125 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.ResourceAnalyzer;
+import org.osgi.service.indexer.ResourceIndexer.IndexResult;
+
+public class AnalysisCacheUnitTest {
+
+    private static final class CountingAnalyzer implements ResourceAnalyzer {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void analyzeResource(Resource resource,
+                List<Capability> capabilities,
+                List<Requirement> requirements) {
+            count.incrementAndGet();
+        }
+    }
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private static String indexFragment(RepoIndex indexer,
+            Map<String, String> config) throws Exception {
+        return Utils.indexFragment(indexer,
+                Utils.testFiles("03-export.jar", "06-requirebundle.jar",
+                        "org.apache.felix.scr-1.6.0.jar"),
+                config);
+    }
+
+    @Test
+    public void testUnchangedFilesAreNotAnalyzedAgain() throws Exception {
+        File cacheFile = new File(
+                temp.create("analysis-cache"),
+                "cache.bin");
+        Map<String, String> config = Utils.testConfig();
+        config.put(Constants.ANALYSIS_CACHE, cacheFile.getPath());
+
+        CountingAnalyzer counter = new CountingAnalyzer();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(counter, null);
+
+        String first = indexFragment(indexer, config);
+        assertEquals(3, counter.count.get());
+        assertTrue(cacheFile.isFile());
+
+        RepoIndex other = new RepoIndex(new NullLogSvc(), false);
+        other.addAnalyzer(counter, null);
+        String second = indexFragment(other, config);
+        assertEquals(3, counter.count.get());
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testChangedAnalyzersInvalidateTheCache() throws Exception {
+        File cacheFile = new File(
+                temp.create("analysis-cache"),
+                "cache.bin");
+        Map<String, String> config = Utils.testConfig();
+        config.put(Constants.ANALYSIS_CACHE, cacheFile.getPath());
+
+        CountingAnalyzer counter = new CountingAnalyzer();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(counter, null);
+        indexFragment(indexer, config);
+
+        indexer.addAnalyzer(new WibbleAnalyzer(), null);
+        String withWibble = indexFragment(indexer, config);
+        assertEquals(6, counter.count.get());
+        assertTrue(withWibble.contains("namespace=\"wibble\""));
+    }
+
+    @Test
+    public void testIndexFileUsesInstanceCache() throws Exception {
+        File cacheFile = new File(
+                temp.create("analysis-cache"),
+                "cache.bin");
+        File jar = Utils.testFile("03-export.jar");
+
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.setAnalysisCache(cacheFile);
+        IndexResult first = indexer.indexFile(jar);
+        indexer.saveAnalysisCache();
+
+        RepoIndex other = new RepoIndex(new NullLogSvc(), false);
+        other.setAnalysisCache(cacheFile);
+        IndexResult second = other.indexFile(jar);
+
+        assertEquals(first.getSignature(), second.getSignature());
+        assertEquals(first.getCapabilities(), second.getCapabilities());
+        assertEquals(first.getRequirements(), second.getRequirements());
+        // a cache hit does not load the file
+        assertNull(((JarResource) second.getResource()).getContentDigest());
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.Namespaces;
+
+public class BuilderUnitTest {
+
+    private static Capability export(String pkg, String version) {
+        return new Builder()
+                .setNamespace(new String(Namespaces.NS_WIRING_PACKAGE))
+                .addAttribute(new String(Namespaces.NS_WIRING_PACKAGE),
+                        new String(pkg))
+                .addAttribute(Namespaces.ATTR_VERSION, new Version(version))
+                .addAttribute("count", 42L)
+                .addDirective(new String(Namespaces.DIRECTIVE_USES),
+                        new String("org.example.api"))
+                .buildCapability();
+    }
+
+    @Test
+    public void testEqualValuesShareOneInstance() {
+        Capability first = export("org.example", "1.2.3");
+        Capability second = export("org.example", "1.2.3");
+        assertNotSame(first, second);
+        assertEquals(first, second);
+
+        assertSame(first.getNamespace(), second.getNamespace());
+        Map<String, Object> a = first.getAttributes();
+        Map<String, Object> b = second.getAttributes();
+        assertSame(a.get(Namespaces.NS_WIRING_PACKAGE),
+                b.get(Namespaces.NS_WIRING_PACKAGE));
+        assertSame(a.get(Namespaces.ATTR_VERSION),
+                b.get(Namespaces.ATTR_VERSION));
+        assertSame(first.getDirectives().get(Namespaces.DIRECTIVE_USES),
+                second.getDirectives().get(Namespaces.DIRECTIVE_USES));
+        assertSame(a.keySet().iterator().next(),
+                b.keySet().iterator().next());
+
+        Requirement requirement = new Builder()
+                .setNamespace(new String(Namespaces.NS_WIRING_PACKAGE))
+                .addAttribute("pkg", new String("org.example"))
+                .buildRequirement();
+        assertSame(first.getNamespace(), requirement.getNamespace());
+        assertSame(a.get(Namespaces.NS_WIRING_PACKAGE),
+                requirement.getAttributes().get("pkg"));
+    }
+
+    @Test
+    public void testValuesUniqueToAResourceAreNotPooled() {
+        String sha = "0123456789abcdef";
+        Capability first = content(new String(sha), new String("a.jar"));
+        Capability second = content(new String(sha), new String("a.jar"));
+        assertEquals(first, second);
+
+        Map<String, Object> a = first.getAttributes();
+        Map<String, Object> b = second.getAttributes();
+        assertNotSame(a.get(Namespaces.NS_CONTENT),
+                b.get(Namespaces.NS_CONTENT));
+        assertNotSame(a.get(Namespaces.ATTR_CONTENT_URL),
+                b.get(Namespaces.ATTR_CONTENT_URL));
+        assertSame(a.get(Namespaces.ATTR_CONTENT_MIME),
+                b.get(Namespaces.ATTR_CONTENT_MIME));
+    }
+
+    private static Capability content(String sha, String url) {
+        return new Builder().setNamespace(Namespaces.NS_CONTENT)
+                .addAttribute(Namespaces.NS_CONTENT, sha)
+                .addAttribute(Namespaces.ATTR_CONTENT_URL, url)
+                .addAttribute(Namespaces.ATTR_CONTENT_MIME,
+                        new String("application/vnd.osgi.bundle"))
+                .buildCapability();
+    }
+
+    @Test
+    public void testOrderAndValuesAreKept() {
+        Capability capability = export("org.example.other", "2.0.0.q");
+        assertEquals(
+                "{osgi.wiring.package=org.example.other, version=2.0.0.q, count=42}",
+                capability.getAttributes().toString());
+        assertEquals("{uses=org.example.api}",
+                capability.getDirectives().toString());
+    }
+
+    @Test
+    public void testAttributesAreImmutableMaps() {
+        Capability capability = export("org.example", "1.0.0");
+        Map<String, Object> attributes = capability.getAttributes();
+        assertThrows(UnsupportedOperationException.class,
+                () -> attributes.put("x", "y"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> attributes.entrySet().iterator().remove());
+        assertEquals(new LinkedHashMap<>(attributes), attributes);
+        assertEquals(new LinkedHashMap<>(attributes).hashCode(),
+                attributes.hashCode());
+        assertEquals(42L, attributes.get(new String("count")));
+        assertEquals(null, attributes.get("missing"));
+        assertTrue(new Builder().setNamespace("empty").buildCapability()
+                .getDirectives().isEmpty());
+
+        Builder large = new Builder().setNamespace("large");
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 20; i > 0; i--) {
+            large.addAttribute("a" + i, i);
+            expected.put("a" + i, i);
+        }
+        Map<String, Object> built = large.buildCapability().getAttributes();
+        assertEquals(expected.toString(), built.toString());
+        assertEquals(expected, built);
+    }
+}
@@ -0,0 +1,111 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Version;
+import org.osgi.service.indexer.impl.util.OSGiHeader;
+
+public class BundleDescriptorUnitTest {
+
+    private File testFile(String name) {
+        return new File(getClass().getResource("/testdata/" + name).getPath());
+    }
+
+    @Test
+    public void testDescriptorIsSharedPerResource() throws Exception {
+        JarResource resource = new JarResource(testFile("03-export.jar"));
+        BundleDescriptor descriptor = BundleDescriptor.of(resource);
+        assertSame(descriptor, BundleDescriptor.of(resource));
+        assertSame(descriptor.getSymbolicName(),
+                Util.getSymbolicName(resource));
+        assertSame(descriptor.getVersion(), Util.getVersion(resource));
+        assertSame(descriptor.getExportPackage(),
+                descriptor.getExportPackage());
+        resource.close();
+    }
+
+    @Test
+    public void testHeadersMatchTheManifest() throws Exception {
+        String[] names = { "03-export.jar", "05-import.jar",
+                "08-fragmenthost.jar", "14-provide-require-cap.jar",
+                "org.apache.felix.scr-1.6.0.jar" };
+        for (String name : names) {
+            MappedJarResource resource = new MappedJarResource(
+                    testFile(name));
+            Manifest manifest = resource.getManifest();
+            BundleDescriptor descriptor = BundleDescriptor.of(resource);
+
+            assertEquals(
+                    OSGiHeader.parseHeader(manifest.getMainAttributes()
+                            .getValue(Constants.EXPORT_PACKAGE)),
+                    descriptor.getExportPackage());
+            assertEquals(
+                    OSGiHeader.parseHeader(manifest.getMainAttributes()
+                            .getValue(Constants.IMPORT_PACKAGE)),
+                    descriptor.getImportPackage());
+            assertEquals(
+                    OSGiHeader.parseHeader(manifest.getMainAttributes()
+                            .getValue(Constants.FRAGMENT_HOST)),
+                    descriptor.getFragmentHost());
+            assertEquals(
+                    OSGiHeader.parseHeader(manifest.getMainAttributes()
+                            .getValue("Require-Capability")),
+                    descriptor.getRequireCapability());
+            resource.close();
+        }
+    }
+
+    @Test
+    public void testFragment() throws Exception {
+        JarResource resource = new JarResource(
+                testFile("08-fragmenthost.jar"));
+        BundleDescriptor descriptor = BundleDescriptor.of(resource);
+        assertEquals(MimeType.FRAGMENT, descriptor.getMimeType());
+        assertTrue(descriptor.getFragmentHost()
+                .containsKey("org.example.a"));
+        resource.close();
+    }
+
+    @Test
+    public void testMissingManifest() throws Exception {
+        BundleDescriptor descriptor = new BundleDescriptor("foo.jar", null);
+        assertEquals(MimeType.JAR, descriptor.getMimeType());
+        assertTrue(descriptor.getExportPackage().isEmpty());
+        assertThrows(IllegalArgumentException.class,
+                descriptor::getSymbolicName);
+        assertThrows(IllegalArgumentException.class, descriptor::getVersion);
+    }
+
+    @Test
+    public void testMissingVersion() throws Exception {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME,
+                "org.example.x;singleton:=true");
+        BundleDescriptor descriptor = new BundleDescriptor("x.jar", manifest);
+        assertEquals(MimeType.BUNDLE, descriptor.getMimeType());
+        assertEquals("org.example.x", descriptor.getSymbolicName().getName());
+        assertEquals("true", descriptor.getSymbolicName().getAttributes()
+                .get(Constants.SINGLETON_DIRECTIVE + ":"));
+        assertEquals(Version.emptyVersion, descriptor.getVersion());
+    }
+}
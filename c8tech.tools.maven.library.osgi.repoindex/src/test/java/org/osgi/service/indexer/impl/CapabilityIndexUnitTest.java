@@ -0,0 +1,166 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.ResourceIndexer.IndexResult;
+
+public class CapabilityIndexUnitTest {
+
+    private static Requirement requirement(String namespace, String filter) {
+        Builder builder = new Builder().setNamespace(namespace);
+        if (filter != null)
+            builder.addDirective(Namespaces.DIRECTIVE_FILTER, filter);
+        return builder.buildRequirement();
+    }
+
+    private static Capability capability(String namespace, Object... attrs) {
+        Builder builder = new Builder().setNamespace(namespace);
+        for (int i = 0; i < attrs.length; i += 2)
+            builder.addAttribute((String) attrs[i], attrs[i + 1]);
+        return builder.buildCapability();
+    }
+
+    private static List<Capability> scan(List<Capability> all,
+            Requirement requirement) throws InvalidSyntaxException {
+        String filterStr = requirement.getDirectives()
+                .get(Namespaces.DIRECTIVE_FILTER);
+        Filter filter = filterStr == null ? null
+                : FrameworkUtil.createFilter(filterStr);
+        List<Capability> result = new ArrayList<Capability>();
+        for (Capability cap : all) {
+            if (cap.getNamespace().equals(requirement.getNamespace())
+                    && (filter == null || filter.matches(cap.getAttributes())))
+                result.add(cap);
+        }
+        return result;
+    }
+
+    @Test
+    public void testMatchesLinearScanOverTestBundles() throws Exception {
+        File dir = new File(getClass().getResource("/testdata").getPath());
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        CapabilityIndex<String> index = new CapabilityIndex<String>();
+        List<Capability> all = new ArrayList<Capability>();
+        List<Requirement> requirements = new ArrayList<Requirement>();
+
+        File[] jars = dir.listFiles((d, name) -> name.endsWith(".jar"));
+        Arrays.sort(jars);
+        for (File jar : jars) {
+            IndexResult result = indexer.indexFile(jar);
+            index.add(jar.getName(), result.getCapabilities());
+            all.addAll(result.getCapabilities());
+            requirements.addAll(result.getRequirements());
+        }
+        assertEquals(all.size(), index.size());
+        assertTrue(requirements.size() > 20);
+
+        int matched = 0;
+        for (Requirement requirement : requirements) {
+            List<Capability> expected;
+            try {
+                expected = scan(all, requirement);
+            } catch (InvalidSyntaxException e) {
+                assertThrows(InvalidSyntaxException.class,
+                        () -> index.findCapabilities(requirement));
+                continue;
+            }
+            assertEquals(expected, index.findCapabilities(requirement),
+                    requirement.toString());
+            matched += expected.size();
+        }
+        assertTrue(matched > 0);
+    }
+
+    @Test
+    public void testVersionRanges() throws Exception {
+        CapabilityIndex<String> index = new CapabilityIndex<String>();
+        List<Capability> all = new ArrayList<Capability>();
+        for (String version : Arrays.asList("1.0.0", "1.5.0", "2.0.0",
+                "2.0.1", "3.0.0")) {
+            all.add(capability(Namespaces.NS_WIRING_PACKAGE,
+                    Namespaces.NS_WIRING_PACKAGE, "org.example",
+                    Namespaces.ATTR_VERSION, Version.parseVersion(version)));
+        }
+        all.add(capability(Namespaces.NS_WIRING_PACKAGE,
+                Namespaces.NS_WIRING_PACKAGE, "org.example"));
+        all.add(capability(Namespaces.NS_WIRING_PACKAGE,
+                Namespaces.NS_WIRING_PACKAGE, "org.example.other",
+                Namespaces.ATTR_VERSION, Version.parseVersion("1.5.0")));
+        all.add(capability(Namespaces.NS_WIRING_PACKAGE,
+                Namespaces.NS_WIRING_PACKAGE, "org.example",
+                Namespaces.ATTR_VERSION, "1.7"));
+        index.add("all", all);
+
+        for (String filter : Arrays.asList(
+                "(osgi.wiring.package=org.example)",
+                "(&(osgi.wiring.package=org.example)(version>=1.5.0))",
+                "(&(osgi.wiring.package=org.example)(version>=1.5.0)(!(version>=2.0.0)))",
+                "(&(osgi.wiring.package=org.example)(!(version<=1.5.0))(version<=2.0.1))",
+                "(&(osgi.wiring.package=org.example)(version=2.0.0))",
+                "(&(osgi.wiring.package=org.example)(version>=3.0.0)(version<=1.0.0))",
+                "(&(osgi.wiring.package=org.example)(!(version>=1.0.0)))",
+                "(&(osgi.wiring.package=org.example*)(version>=1.5.0))",
+                "(&(|(osgi.wiring.package=org.example)(osgi.wiring.package=org.example.other))(version<=1.5.0))",
+                "(version>=2.0.0)",
+                "(osgi.wiring.package~=org.example)")) {
+            Requirement requirement = requirement(
+                    Namespaces.NS_WIRING_PACKAGE, filter);
+            assertEquals(scan(all, requirement),
+                    index.findCapabilities(requirement), filter);
+        }
+
+        assertEquals(all, index.findCapabilities(
+                requirement(Namespaces.NS_WIRING_PACKAGE, null)));
+        assertEquals(Collections.emptyList(), index.findCapabilities(
+                requirement(Namespaces.NS_WIRING_BUNDLE, null)));
+    }
+
+    @Test
+    public void testFindResources() throws Exception {
+        CapabilityIndex<String> index = new CapabilityIndex<String>();
+        index.add("a", Arrays.asList(capability(Namespaces.NS_SERVICE,
+                "objectClass", Arrays.asList("org.Foo", "org.Bar"))));
+        index.add("b", Arrays.asList(capability(Namespaces.NS_SERVICE,
+                "objectClass", Arrays.asList("org.Bar"))));
+        index.add("c", Arrays.asList(capability(Namespaces.NS_SERVICE,
+                "objectClass", Arrays.asList("org.Baz"))));
+
+        assertEquals(Arrays.asList("a", "b"),
+                new ArrayList<String>(index.findResources(requirement(
+                        Namespaces.NS_SERVICE, "(objectClass=org.Bar)"))));
+        assertEquals(Arrays.asList("a"),
+                new ArrayList<String>(index.findResources(requirement(
+                        Namespaces.NS_SERVICE, "(objectClass=org.Foo)"))));
+        assertThrows(InvalidSyntaxException.class,
+                () -> index.findResources(requirement(Namespaces.NS_SERVICE,
+                        "(objectClass=org.Foo")));
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.IndexingListener;
+import org.osgi.service.indexer.ResourceAnalyzer;
+
+public class ContentDeduplicationUnitTest {
+
+    private static final class AnalyzedLocations implements IndexingListener {
+        final Set<String> locations = Collections
+                .synchronizedSet(new HashSet<String>());
+
+        @Override
+        public void analyzerCompleted(String location,
+                ResourceAnalyzer analyzer, long nanos, int capabilities,
+                int requirements, Throwable failure) {
+            locations.add(location);
+        }
+    }
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private Map<String, String> config(File root, boolean deduplicate,
+            int threads) {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.ROOT_DIR, root.getPath());
+        config.put(Constants.PRETTY, "true");
+        config.put(Constants.COMPRESSED, "false");
+        config.put(Constants.DEDUPLICATE, Boolean.toString(deduplicate));
+        config.put(Constants.PARALLEL_THREADS, Integer.toString(threads));
+        return config;
+    }
+
+    private String index(Set<File> files, Map<String, String> config,
+            IndexingListener listener) throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(new SubsystemContentAnalyzer(),
+                FrameworkUtil.createFilter("(name=*.esa)"));
+        if (listener != null)
+            indexer.addListener(listener);
+        return Utils.index(indexer, files, config);
+    }
+
+    @Test
+    public void testCopiesAreAnalyzedOnce() throws Exception {
+        File root = temp.create("dedup");
+        Set<File> files = new TreeSet<>();
+        files.add(Utils.copyTestFile("03-export.jar", root, "a/export.jar"));
+        files.add(Utils.copyTestFile("03-export.jar", root,
+                "b/export-copy.jar"));
+        files.add(Utils.copyTestFile("03-export.jar", root, "c/export.jar"));
+        files.add(Utils.copyTestFile("06-requirebundle.jar", root,
+                "a/require.jar"));
+        File link = new File(root, "d/require.jar");
+        Files.createDirectories(link.getParentFile().toPath());
+        Files.createLink(link.toPath(), new File(root, "a/require.jar")
+                .toPath());
+        files.add(link);
+
+        String expected = index(files, config(root, false, 1), null);
+        for (int threads : new int[] { 1, 4 }) {
+            AnalyzedLocations analyzed = new AnalyzedLocations();
+            assertEquals(expected, index(files,
+                    config(root, true, threads), analyzed));
+            assertEquals(2, analyzed.locations.size());
+        }
+        assertTrue(expected.contains("value=\"b/export-copy.jar\""));
+        assertTrue(expected.contains("value=\"d/require.jar\""));
+    }
+
+    @Test
+    public void testCopiesMatchingOtherAnalyzersAreAnalyzed()
+            throws Exception {
+        File root = temp.create("dedup");
+        Set<File> files = new TreeSet<>();
+        files.add(Utils.copyTestFile("03-export.jar", root, "export.jar"));
+        // not matched by the filters of the built-in analyzers
+        files.add(Utils.copyTestFile("03-export.jar", root, "export.bin"));
+
+        assertEquals(index(files, config(root, false, 1), null),
+                index(files, config(root, true, 1), null));
+    }
+
+    @Test
+    public void testSubsystemCopiesKeepTheirUrl() throws Exception {
+        File root = temp.create("dedup");
+        Set<File> files = new TreeSet<>();
+        files.add(Utils.copyTestFile("03-export.jar", root, "a/one.esa"));
+        files.add(Utils.copyTestFile("03-export.jar", root, "b/two.esa"));
+
+        for (String template : new String[] { null, "%p/%f" }) {
+            Map<String, String> plain = config(root, false, 1);
+            Map<String, String> deduplicated = config(root, true, 2);
+            for (Map<String, String> config : Arrays.asList(plain,
+                    deduplicated)) {
+                config.put(Constants.BUNDLES_COPY_DIR,
+                        new File(root, "bundles").getPath());
+                config.put(Constants.SUBSYSTEMS_COPY_DIR,
+                        new File(root, "subsystems").getPath());
+                if (template != null)
+                    config.put(Constants.URL_TEMPLATE, template);
+            }
+
+            String expected = index(files, plain, null);
+            assertTrue(expected.contains("value=\"subsystems/one.esa\""));
+            assertTrue(expected.contains("value=\"subsystems/two.esa\""));
+            assertEquals(expected, index(files, deduplicated, null));
+        }
+    }
+}
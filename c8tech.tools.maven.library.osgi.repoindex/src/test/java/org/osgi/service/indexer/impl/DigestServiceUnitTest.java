@@ -0,0 +1,117 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.impl.util.Hex;
+
+public class DigestServiceUnitTest {
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private static File testFile() {
+        return Utils.testFile("org.apache.felix.scr-1.6.0.jar");
+    }
+
+    private static String digest(String algorithm, byte[] content)
+            throws Exception {
+        return Hex.toHexString(
+                MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    @Test
+    public void testAllAlgorithmsInOnePass() throws Exception {
+        File file = testFile();
+        byte[] content = Files.readAllBytes(file.toPath());
+
+        DigestService service = DigestService.load(null,
+                Arrays.asList("sha-1", "MD5"), new NullLogSvc());
+        assertEquals(Arrays.asList("SHA-256", "SHA-1", "MD5"),
+                service.getAlgorithms());
+
+        Map<String, String> digests = service.getDigests(file);
+        assertEquals(digest("SHA-256", content), digests.get("SHA-256"));
+        assertEquals(digest("SHA-1", content), digests.get("SHA-1"));
+        assertEquals(digest("MD5", content), digests.get("MD5"));
+    }
+
+    @Test
+    public void testDigestsAreReusedWhileTheFileIsUnchanged() throws Exception {
+        File dir = temp.create("digest-cache");
+        File file = new File(dir, "content.bin");
+        File cacheFile = new File(dir, "digests.bin");
+        Files.write(file.toPath(), new byte[] { 1, 2, 3, 4 });
+        long lastModified = file.lastModified();
+        String original = digest("SHA-256", new byte[] { 1, 2, 3, 4 });
+
+        DigestService service = DigestService.load(cacheFile,
+                Collections.<String>emptyList(), new NullLogSvc());
+        assertEquals(original, service.getSHA256(file, null));
+        service.save();
+        assertTrue(cacheFile.isFile());
+
+        // same size and time stamp: the cached digest is trusted
+        Files.write(file.toPath(), new byte[] { 4, 3, 2, 1 });
+        assertTrue(file.setLastModified(lastModified));
+        service = DigestService.load(cacheFile,
+                Collections.<String>emptyList(), new NullLogSvc());
+        assertEquals(original, service.getSHA256(file, null));
+
+        // a new time stamp invalidates it
+        assertTrue(file.setLastModified(lastModified + 2000));
+        assertEquals(digest("SHA-256", new byte[] { 4, 3, 2, 1 }),
+                service.getSHA256(file, null));
+
+        // asking for more algorithms invalidates it too
+        service = DigestService.load(cacheFile, Collections.singleton("MD5"),
+                new NullLogSvc());
+        assertEquals(digest("MD5", new byte[] { 4, 3, 2, 1 }),
+                service.getDigests(file).get("MD5"));
+    }
+
+    @Test
+    public void testIndexWithDigestCache() throws Exception {
+        Set<File> files = Utils.testFiles("03-export.jar",
+                "org.apache.felix.scr-1.6.0.jar");
+
+        Map<String, String> config = Utils.testConfig();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        String expected = Utils.indexFragment(indexer, files, config);
+
+        File cacheFile = new File(temp.create("digest-cache"), "digests.bin");
+        config.put(Constants.DIGEST_CACHE, cacheFile.getPath());
+        config.put(Constants.DIGEST_ALGORITHMS, "SHA-1, MD5");
+        for (int i = 0; i < 2; i++) {
+            assertEquals(expected, Utils.indexFragment(indexer, files, config));
+            assertTrue(cacheFile.isFile());
+        }
+    }
+}
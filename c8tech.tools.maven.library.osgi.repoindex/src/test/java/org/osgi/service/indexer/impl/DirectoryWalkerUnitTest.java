@@ -0,0 +1,262 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.Constants;
+
+public class DirectoryWalkerUnitTest {
+
+    private final TempDirectories temp = new TempDirectories();
+    private Path root;
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private File file(String path) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, path.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    private Set<File> expected(String... paths) {
+        Set<File> files = new TreeSet<File>();
+        for (String path : paths) {
+            files.add(root.resolve(path).toFile());
+        }
+        return files;
+    }
+
+    private void createTree() throws IOException {
+        root = temp.create("directory-walker").toPath();
+        file("a.jar");
+        file("a.txt");
+        file("lib/b.jar");
+        file("lib/deep/c.jar");
+        file("lib/deep/c-sources.jar");
+        file("target/d.jar");
+    }
+
+    private Set<File> walk(DirectoryWalker walker) {
+        return walker.walk(Collections.singleton(root.toFile()));
+    }
+
+    @Test
+    public void testEveryFileIsFoundByDefault() throws IOException {
+        createTree();
+        assertEquals(expected("a.jar", "a.txt", "lib/b.jar", "lib/deep/c.jar",
+                "lib/deep/c-sources.jar", "target/d.jar"),
+                walk(new DirectoryWalker(new NullLogSvc())));
+        assertEquals(
+                expected("a.jar", "a.txt", "lib/b.jar", "lib/deep/c.jar",
+                        "lib/deep/c-sources.jar", "target/d.jar"),
+                walk(new DirectoryWalker(new NullLogSvc()).setThreads(4)));
+    }
+
+    @Test
+    public void testIncludesAndExcludes() throws IOException {
+        createTree();
+        DirectoryWalker walker = new DirectoryWalker(new NullLogSvc())
+                .setIncludes("**/*.jar")
+                .setExcludes("target, **/*-sources.jar");
+        assertEquals(expected("a.jar", "lib/b.jar", "lib/deep/c.jar"),
+                walk(walker));
+
+        walker = new DirectoryWalker(new NullLogSvc()).setIncludes("*.jar");
+        assertEquals(expected("a.jar"), walk(walker));
+    }
+
+    @Test
+    public void testExcludedDirectoriesAreNotWalked() throws IOException {
+        createTree();
+        file("lib/target/e.jar");
+        file("lib/target/classes/f.jar");
+        // the snapshot records every directory listed
+        File snapshot = new File(temp.create("directory-snapshot"),
+                "snapshot.bin");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        for (String directory : new String[] { "", "lib", "lib/deep",
+                "lib/target", "lib/target/classes", "target" }) {
+            Files.setLastModifiedTime(root.resolve(directory), old);
+        }
+
+        assertEquals(
+                expected("a.jar", "a.txt", "lib/b.jar", "lib/deep/c.jar",
+                        "lib/deep/c-sources.jar"),
+                walk(new DirectoryWalker(new NullLogSvc())
+                        .setExcludes("**/target/**").setSnapshotFile(snapshot)
+                        .setThreads(4)));
+        Set<String> listed = listedDirectories(snapshot);
+        assertTrue(listed.contains(root.resolve("lib/deep").toString()));
+        assertFalse(listed.contains(root.resolve("lib/target").toString()));
+        assertFalse(listed.contains(root.resolve("target").toString()));
+        assertEquals(3, listed.size());
+    }
+
+    private static Set<String> listedDirectories(File snapshot)
+            throws IOException {
+        Set<String> directories = new TreeSet<String>();
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(snapshot))) {
+            in.readInt();
+            in.readInt();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                directories.add(in.readUTF());
+                in.readLong();
+                for (int j = in.readInt(); j > 0; j--) {
+                    in.readUTF();
+                }
+            }
+        }
+        return directories;
+    }
+
+    @Test
+    public void testFilterAndExplicitFiles() throws IOException {
+        createTree();
+        DirectoryWalker walker = new DirectoryWalker(new NullLogSvc())
+                .setFilter((file, attributes) -> file.getName()
+                        .startsWith("c"));
+        assertEquals(expected("lib/deep/c.jar", "lib/deep/c-sources.jar"),
+                walk(walker));
+
+        File explicit = root.resolve("a.txt").toFile();
+        File missing = root.resolve("missing.jar").toFile();
+        Set<File> files = new TreeSet<File>();
+        files.add(explicit);
+        files.add(missing);
+        files.add(root.resolve("lib/deep").toFile());
+        Set<File> expected = expected("a.txt", "missing.jar",
+                "lib/deep/c.jar", "lib/deep/c-sources.jar");
+        assertEquals(expected, walker.walk(files));
+    }
+
+    @Test
+    public void testSymbolicLinkLoopsAreWalkedOnce() throws IOException {
+        createTree();
+        try {
+            Files.createSymbolicLink(root.resolve("lib/deep/up"),
+                    root.resolve("lib"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // no symbolic links on this file system
+            return;
+        }
+        Set<File> files = walk(
+                new DirectoryWalker(new NullLogSvc()).setThreads(2));
+        assertTrue(files.containsAll(expected("lib/b.jar", "lib/deep/c.jar")));
+        assertEquals(6, files.size());
+    }
+
+    @Test
+    public void testSymbolicLinkAliasesAreWalkedThroughEveryPath()
+            throws IOException {
+        createTree();
+        try {
+            Files.createSymbolicLink(root.resolve("alias"),
+                    root.resolve("lib"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // no symbolic links on this file system
+            return;
+        }
+        Set<File> first = walk(
+                new DirectoryWalker(new NullLogSvc()).setThreads(4));
+        assertTrue(first.containsAll(expected("lib/b.jar", "lib/deep/c.jar",
+                "alias/b.jar", "alias/deep/c.jar")));
+        assertEquals(9, first.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(first, walk(
+                    new DirectoryWalker(new NullLogSvc()).setThreads(4)));
+        }
+    }
+
+    @Test
+    public void testUnchangedDirectoriesAreNotListedAgain() throws IOException {
+        createTree();
+        File snapshot = new File(temp.create("directory-snapshot"),
+                "snapshot.bin");
+        FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+        Path deep = root.resolve("lib/deep");
+        Files.setLastModifiedTime(deep, old);
+
+        assertEquals(2, new DirectoryWalker(new NullLogSvc())
+                .setSnapshotFile(snapshot).setIncludes("lib/deep/*").walk(
+                        Collections.singleton(root.toFile()))
+                .size());
+        assertTrue(snapshot.isFile());
+
+        // sneak a file in without changing the modification time
+        file("lib/deep/e.jar");
+        Files.setLastModifiedTime(deep, old);
+        assertFalse(new DirectoryWalker(new NullLogSvc())
+                .setSnapshotFile(snapshot).walk(
+                        Collections.singleton(root.toFile()))
+                .contains(root.resolve("lib/deep/e.jar").toFile()));
+
+        Files.setLastModifiedTime(deep,
+                FileTime.fromMillis(old.toMillis() + 1000));
+        assertTrue(new DirectoryWalker(new NullLogSvc())
+                .setSnapshotFile(snapshot).walk(
+                        Collections.singleton(root.toFile()))
+                .contains(root.resolve("lib/deep/e.jar").toFile()));
+    }
+
+    @Test
+    public void testIndexSkipsFilesNoAnalyzerAppliesTo() throws Exception {
+        createTree();
+        Files.copy(
+                new File(getClass().getResource("/testdata/03-export.jar")
+                        .getPath()).toPath(),
+                root.resolve("lib/export.jar"));
+        Files.delete(root.resolve("a.jar"));
+        Files.delete(root.resolve("lib/b.jar"));
+        Files.delete(root.resolve("lib/deep/c.jar"));
+        Files.delete(root.resolve("lib/deep/c-sources.jar"));
+        Files.delete(root.resolve("target/d.jar"));
+        file("lib/notes.zip");
+
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(Constants.ROOT_DIR, root.toString());
+        config.put(Constants.PRETTY, "true");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(
+                Collections.singleton(root.toFile()), out, config);
+        String index = out.toString("UTF-8");
+
+        int resources = index.split("<repo:resource>", -1).length - 1;
+        assertEquals(1, resources, index);
+        assertTrue(index.contains("export.jar"));
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.Constants;
+
+public class IndexFragmentUnitTest {
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private Map<String, String> config(boolean pretty) {
+        Map<String, String> config = Utils.testConfig();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.REPOSITORY_NAME, "fragments");
+        config.put(Constants.PRETTY, Boolean.toString(pretty));
+        config.put(Constants.COMPRESSED, "false");
+        return config;
+    }
+
+    private List<String> writeFragments(Set<File> files,
+            Map<String, String> config) throws Exception {
+        return Arrays.asList(Utils.indexFragment(
+                new RepoIndex(new NullLogSvc(), false), files, config)
+                .split("\n"));
+    }
+
+    private String assemble(File dir, List<String> names,
+            Map<String, String> config) throws Exception {
+        List<File> fragments = new ArrayList<>();
+        for (String name : names) {
+            fragments.add(new File(dir, name));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).assembleFragments(fragments,
+                out, config);
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testParallelFragmentKeepsOrder() throws Exception {
+        Set<File> files = Utils.testFiles("01-bsn+version.jar",
+                "03-export.jar", "05-import.jar", "06-requirebundle.jar",
+                "15-scr.jar", "17-blueprint1.jar");
+
+        String sequential = Utils.indexFragment(
+                new RepoIndex(new NullLogSvc(), false), files, config(true));
+
+        Map<String, String> config = config(true);
+        config.put(Constants.PARALLEL_THREADS, "4");
+        assertEquals(sequential, Utils.indexFragment(
+                new RepoIndex(new NullLogSvc(), false), files, config));
+    }
+
+    @Test
+    public void testAssembledFragmentsMatchIndex() throws Exception {
+        Set<File> files = Utils.testFiles("03-export.jar",
+                "06-requirebundle.jar", "15-scr.jar");
+        for (boolean pretty : new boolean[] { true, false }) {
+            File dir = temp.create("fragments");
+            Map<String, String> config = config(pretty);
+            config.put(Constants.FRAGMENT_DIR, dir.getPath());
+            config.put(Constants.PARALLEL_THREADS, "2");
+
+            List<String> names = writeFragments(files, config);
+            assertEquals(3, names.size());
+            assertEquals(3, dir.list().length);
+            for (String name : names) {
+                assertTrue(name.matches("[0-9a-f]{64}\\.xml"), name);
+            }
+
+            assertEquals(Utils.index(files, config(pretty)),
+                    assemble(dir, names, config));
+        }
+    }
+
+    @Test
+    public void testUnchangedResourcesKeepTheirFragment() throws Exception {
+        File dir = temp.create("fragments");
+        Map<String, String> config = config(true);
+        config.put(Constants.FRAGMENT_DIR, dir.getPath());
+
+        List<String> first = writeFragments(
+                Utils.testFiles("03-export.jar", "06-requirebundle.jar"),
+                config);
+        long lastModified = new File(dir, first.get(0)).lastModified();
+        List<String> second = writeFragments(
+                Utils.testFiles("03-export.jar", "05-import.jar"), config);
+
+        assertEquals(first.get(0), second.get(0));
+        assertNotEquals(first.get(1), second.get(1));
+        assertEquals(lastModified, new File(dir, first.get(0)).lastModified());
+        assertEquals(3, dir.list().length);
+    }
+}
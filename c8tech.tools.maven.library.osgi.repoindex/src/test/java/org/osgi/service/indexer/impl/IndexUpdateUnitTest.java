@@ -0,0 +1,192 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.service.indexer.Constants;
+
+public class IndexUpdateUnitTest {
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private static File jar(String name) {
+        return Utils.testFile(name);
+    }
+
+    private Map<String, String> config(String increment, boolean compressed) {
+        Map<String, String> config = Utils.testConfig();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, increment);
+        config.put(Constants.REPOSITORY_NAME, "update");
+        config.put(Constants.PRETTY, "true");
+        config.put(Constants.COMPRESSED, Boolean.toString(compressed));
+        return config;
+    }
+
+    private File writeIndex(Set<File> files, boolean compressed)
+            throws Exception {
+        File index = new File(temp.create("index-update"),
+                compressed ? "index.xml.gz" : "index.xml");
+        try (OutputStream out = new FileOutputStream(index)) {
+            new RepoIndex(new NullLogSvc(), false).index(files, out,
+                    config("0", compressed));
+        }
+        return index;
+    }
+
+    private String fullIndex(File... files) throws Exception {
+        return Utils.index(new LinkedHashSet<File>(Arrays.asList(files)),
+                config("1", false));
+    }
+
+    private String update(File index, Set<File> added, Set<File> removed,
+            Set<File> modified) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).update(index, added, removed,
+                modified, out, config("1", false));
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testAddedFileIsAppended() throws Exception {
+        File index = writeIndex(new LinkedHashSet<File>(Arrays.asList(
+                jar("03-export.jar"), jar("06-requirebundle.jar"))), false);
+
+        assertEquals(
+                fullIndex(jar("03-export.jar"), jar("06-requirebundle.jar"),
+                        jar("org.apache.felix.scr-1.6.0.jar")),
+                update(index,
+                        Collections.singleton(
+                                jar("org.apache.felix.scr-1.6.0.jar")),
+                        null, null));
+    }
+
+    @Test
+    public void testRemovedFileIsDropped() throws Exception {
+        File index = writeIndex(new LinkedHashSet<File>(Arrays.asList(
+                jar("03-export.jar"), jar("06-requirebundle.jar"))), true);
+
+        assertEquals(fullIndex(jar("06-requirebundle.jar")),
+                update(index, null, Collections.singleton(jar("03-export.jar")),
+                        null));
+    }
+
+    @Test
+    public void testModifiedFileIsReplacedInPlace() throws Exception {
+        File index = writeIndex(new LinkedHashSet<File>(Arrays.asList(
+                jar("03-export.jar"), jar("06-requirebundle.jar"))), false);
+
+        assertEquals(
+                fullIndex(jar("03-export.jar"), jar("06-requirebundle.jar")),
+                update(index, null, null,
+                        Collections.singleton(jar("03-export.jar"))));
+    }
+
+    @Test
+    public void testIncrementIsBumped() throws Exception {
+        File index = writeIndex(
+                Collections.singleton(jar("03-export.jar")), false);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Map<String, String> config = config("0", false);
+        config.remove(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE);
+        new RepoIndex(new NullLogSvc(), false).update(index, null, null, null,
+                out, config);
+
+        String updated = out.toString("UTF-8");
+        assertTrue(!updated.contains("increment=\"0\""));
+        assertTrue(updated.contains("increment=\""));
+    }
+
+    private RepoIndex subsystemIndexer() throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(new SubsystemContentAnalyzer(),
+                FrameworkUtil.createFilter("(name=*.esa)"));
+        return indexer;
+    }
+
+    /*
+     * Indexes the given files, then removes the first one from the disk and
+     * from the index, returning the updated index and the index of the
+     * remaining files.
+     */
+    private String[] removeDeleted(File root, Map<String, String> config,
+            File deleted, File kept) throws Exception {
+        File index = new File(root, "index.xml");
+        config.put(Constants.ROOT_DIR, root.getPath());
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        try (OutputStream out = new FileOutputStream(index)) {
+            subsystemIndexer().index(new LinkedHashSet<File>(
+                    Arrays.asList(deleted, kept)), out, config);
+        }
+        Files.delete(deleted.toPath());
+
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "1");
+        String expected = Utils.index(subsystemIndexer(),
+                Collections.singleton(kept), config);
+        ByteArrayOutputStream updated = new ByteArrayOutputStream();
+        subsystemIndexer().update(index, null,
+                Collections.singleton(deleted), null, updated, config);
+        return new String[] { expected, updated.toString("UTF-8") };
+    }
+
+    @Test
+    public void testDeletedFileWithUrlTemplateIsDropped() throws Exception {
+        File root = temp.create("index-update");
+        Map<String, String> config = config("0", false);
+        config.put(Constants.URL_TEMPLATE, "%s/%v/%f");
+
+        String[] result = removeDeleted(root, config,
+                Utils.copyTestFile("03-export.jar", root, "lib/export.jar"),
+                Utils.copyTestFile("06-requirebundle.jar", root,
+                        "lib/require.jar"));
+        assertEquals(result[0], result[1]);
+    }
+
+    @Test
+    public void testDeletedSubsystemIsDropped() throws Exception {
+        File root = temp.create("index-update");
+        Map<String, String> config = config("0", false);
+        config.put(Constants.BUNDLES_COPY_DIR,
+                new File(root, "bundles").getPath());
+        config.put(Constants.SUBSYSTEMS_COPY_DIR,
+                new File(root, "subsystems").getPath());
+
+        String[] result = removeDeleted(root, config,
+                Utils.copyTestFile("03-export.jar", root, "lib/one.esa"),
+                Utils.copyTestFile("06-requirebundle.jar", root,
+                        "lib/require.jar"));
+        assertTrue(!result[1].contains("subsystems/one.esa"));
+        assertEquals(result[0], result[1]);
+    }
+}
@@ -12,6 +12,7 @@
 package org.osgi.service.indexer.impl;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -24,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -31,10 +33,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
+import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
@@ -113,6 +120,77 @@ public class IndexerUnitTest {
         assertEquals(expected, writer.toString().trim());
     }
 
+    @Test
+    public void testRemoveAnalyzer() throws Exception {
+        RepoIndex indexer = new RepoIndex(true);
+        WibbleAnalyzer wibble = new WibbleAnalyzer();
+        indexer.addAnalyzer(wibble, null);
+        indexer.removeAnalyzer(wibble, null);
+
+        assertFragmentMatch(indexer, "testdata/fragment-01.txt",
+                "testdata/01-bsn+version.jar");
+    }
+
+    @Test
+    public void testConcurrentIndexCalls() throws Exception {
+        final RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        final Map<String, String> props = new HashMap<String, String>();
+        props.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        final String[] names = { "01-bsn+version", "03-export", "05-import",
+                "08-fragmenthost", "13-bree", "15-scr" };
+        // never applies, so the analyzers registered meanwhile leave the
+        // output as it is
+        final Filter none = FrameworkUtil.createFilter("(location=*.none)");
+
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            final AtomicBoolean indexing = new AtomicBoolean(true);
+            Future<?> registering = executor.submit(() -> {
+                while (indexing.get()) {
+                    WibbleAnalyzer wibble = new WibbleAnalyzer();
+                    indexer.addAnalyzer(wibble, none);
+                    indexer.removeAnalyzer(wibble, none);
+                }
+                return null;
+            });
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> {
+                    for (int j = 0; j < 5; j++) {
+                        for (String name : names) {
+                            String expected = Utils.readStream(
+                                    new FileInputStream(getClass().getResource(
+                                            "/testdata/fragment-"
+                                                    + name.substring(0, 2)
+                                                    + ".txt")
+                                            .getPath()));
+                            assertFalse(expected.isEmpty());
+                            StringWriter writer = new StringWriter();
+                            indexer.indexFragment(
+                                    Collections.singleton(new File(getClass()
+                                            .getResource("/testdata/" + name
+                                                    + ".jar")
+                                            .getPath())),
+                                    writer, props);
+                            assertEquals(expected, writer.toString().trim());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                indexing.set(false);
+            }
+            registering.get();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     @Test
     public void testBundleOutsideRootDirectory() throws Exception {
         LogService log = mock(LogService.class);
@@ -401,6 +479,28 @@ public class IndexerUnitTest {
         }
     }
 
+    @Test
+    public void testParallelIndexMatchesSequential() throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        Set<File> files = Collections.singleton(
+                new File(getClass().getResource("/testdata").getPath()));
+
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        config.put(Constants.PRETTY, "true");
+        config.put(Constants.COMPRESSED, "false");
+
+        ByteArrayOutputStream sequential = new ByteArrayOutputStream();
+        indexer.index(files, sequential, config);
+
+        config.put(Constants.PARALLEL_THREADS, "4");
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        indexer.index(files, parallel, config);
+
+        assertEquals(sequential.toString("UTF-8"), parallel.toString("UTF-8"));
+    }
+
     @Test
     public void testImportServiceOptional() throws Exception {
         assertFragmentMatch("testdata/org.apache.felix.eventadmin-1.3.2.xml",
@@ -0,0 +1,301 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.IndexingListener;
+import org.osgi.service.indexer.ResourceAnalyzer;
+import org.osgi.service.indexer.ResourceIndexer.IndexResult;
+import org.osgi.service.log.LogService;
+
+public class IndexingListenerUnitTest {
+
+    private static final class RecordingListener implements IndexingListener {
+        final List<Object[]> analyzers = Collections
+                .synchronizedList(new ArrayList<Object[]>());
+        final List<Object[]> resources = Collections
+                .synchronizedList(new ArrayList<Object[]>());
+        final List<Object[]> runs = Collections
+                .synchronizedList(new ArrayList<Object[]>());
+
+        @Override
+        public void analyzerCompleted(String location,
+                ResourceAnalyzer analyzer, long nanos, int capabilities,
+                int requirements, Throwable failure) {
+            analyzers.add(new Object[] { location, analyzer, capabilities,
+                    requirements, failure });
+        }
+
+        @Override
+        public void resourceCompleted(String location, long nanos,
+                long size, int capabilities, int requirements,
+                boolean cached) {
+            resources.add(new Object[] { location, size, capabilities,
+                    requirements, cached });
+        }
+
+        @Override
+        public void runCompleted(int resources, int failed, long nanos,
+                long size) {
+            runs.add(new Object[] { resources, failed, size });
+        }
+    }
+
+    private static final class FailingListener implements IndexingListener {
+        @Override
+        public void analyzerCompleted(String location,
+                ResourceAnalyzer analyzer, long nanos, int capabilities,
+                int requirements, Throwable failure) {
+            throw new IllegalStateException("analyzer");
+        }
+
+        @Override
+        public void resourceCompleted(String location, long nanos,
+                long size, int capabilities, int requirements,
+                boolean cached) {
+            throw new IllegalStateException("resource");
+        }
+
+        @Override
+        public void runCompleted(int resources, int failed, long nanos,
+                long size) {
+            throw new IllegalStateException("run");
+        }
+    }
+
+    private static final class RecordingLog extends NullLogSvc {
+        final List<String> messages = Collections
+                .synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void log(int level, String message) {
+            messages.add(level + " " + message);
+        }
+
+        @Override
+        public void log(int level, String message, Throwable exception) {
+            messages.add(level + " " + message);
+        }
+    }
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private static Set<File> testFiles() {
+        return Utils.testFiles("03-export.jar", "06-requirebundle.jar",
+                "org.apache.felix.scr-1.6.0.jar");
+    }
+
+    @Test
+    public void testAnalyzerCountsAddUpToTheResource() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addListener(listener);
+
+        File jar = Utils.testFile("org.apache.felix.scr-1.6.0.jar");
+        IndexResult result = indexer.indexFile(jar);
+
+        int capabilities = 0;
+        int requirements = 0;
+        for (Object[] event : listener.analyzers) {
+            capabilities += (Integer) event[2];
+            requirements += (Integer) event[3];
+            assertNull(event[4]);
+        }
+        assertFalse(listener.analyzers.isEmpty());
+        assertEquals(result.getCapabilities().size(), capabilities);
+        assertEquals(result.getRequirements().size(), requirements);
+
+        assertEquals(1, listener.resources.size());
+        Object[] resource = listener.resources.get(0);
+        assertEquals(jar.length(), resource[1]);
+        assertEquals(capabilities, resource[2]);
+        assertEquals(requirements, resource[3]);
+        assertEquals(Boolean.FALSE, resource[4]);
+    }
+
+    @Test
+    public void testIndexFileCompletesTheRun() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addListener(listener);
+
+        File jar = Utils.testFile("03-export.jar");
+        indexer.indexFile(jar);
+        assertEquals(1, listener.runs.size());
+        Object[] run = listener.runs.get(0);
+        assertEquals(1, run[0]);
+        assertEquals(0, run[1]);
+        assertEquals(jar.length(), run[2]);
+
+        File missing = new File(jar.getParentFile(), "missing.jar");
+        assertThrows(AnalyzerException.class,
+                () -> indexer.indexFile(missing));
+        assertEquals(2, listener.runs.size());
+        run = listener.runs.get(1);
+        assertEquals(0, run[0]);
+        assertEquals(1, run[1]);
+    }
+
+    @Test
+    public void testRunCompletedCountsTheResources() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addListener(listener);
+
+        Utils.indexFragment(indexer, testFiles(), Utils.testConfig());
+
+        long size = 0;
+        for (File file : testFiles()) {
+            size += file.length();
+        }
+        assertEquals(3, listener.resources.size());
+        assertEquals(1, listener.runs.size());
+        Object[] run = listener.runs.get(0);
+        assertEquals(3, run[0]);
+        assertEquals(0, run[1]);
+        assertEquals(size, run[2]);
+
+        indexer.removeListener(listener);
+        Utils.indexFragment(indexer, testFiles(), Utils.testConfig());
+        assertEquals(1, listener.runs.size());
+    }
+
+    @Test
+    public void testFailingAnalyzerIsReported() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(new NaughtyAnalyzer(), null);
+        indexer.addListener(listener);
+
+        Utils.indexFragment(indexer,
+                Collections.singleton(Utils.testFile("03-export.jar")),
+                Utils.testConfig());
+
+        Object[] failure = null;
+        for (Object[] event : listener.analyzers) {
+            if (event[1] instanceof NaughtyAnalyzer)
+                failure = event;
+        }
+        assertTrue(failure != null);
+        assertTrue(failure[4] instanceof UnsupportedOperationException);
+        assertEquals(1, listener.runs.get(0)[1]);
+    }
+
+    @Test
+    public void testMetricsAreLogged() throws Exception {
+        RecordingLog log = new RecordingLog();
+        RepoIndex indexer = new RepoIndex(log, false);
+        Map<String, String> config = Utils.testConfig();
+        config.put(Constants.METRICS, "true");
+
+        Utils.indexFragment(indexer, testFiles(), config);
+
+        boolean summary = false;
+        boolean analyzer = false;
+        for (String message : log.messages) {
+            summary |= message.startsWith(
+                    LogService.LOG_INFO + " Indexed 3 resources (0 failed, ");
+            analyzer |= message.startsWith(LogService.LOG_INFO + "   "
+                    + BundleAnalyzer.class.getName() + ": ");
+        }
+        assertTrue(summary, log.messages.toString());
+        assertTrue(analyzer, log.messages.toString());
+    }
+
+    @Test
+    public void testFailingListenerDoesNotStopIndexing() throws Exception {
+        RepoIndex plain = new RepoIndex(new NullLogSvc(), false);
+        String expected = Utils.indexFragment(plain, testFiles(),
+                Utils.testConfig());
+
+        RecordingLog log = new RecordingLog();
+        RepoIndex indexer = new RepoIndex(log, false);
+        indexer.addListener(new FailingListener());
+        assertEquals(expected, Utils.indexFragment(indexer, testFiles(),
+                Utils.testConfig()));
+        assertTrue(log.messages.contains(LogService.LOG_WARNING
+                + " Error calling indexing listener \""
+                + FailingListener.class.getName() + "\"."));
+    }
+
+    private static boolean analyzerThreadsAlive() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("repoindex-analyzer-")
+                    && thread.isAlive())
+                return true;
+        }
+        return false;
+    }
+
+    @Test
+    public void testFailedRunIsCompleted() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addListener(listener);
+        Map<String, String> config = Utils.testConfig();
+        config.put(Constants.PARALLEL_ANALYZERS, "2");
+        // fragment names are written as soon as each resource is indexed
+        config.put(Constants.FRAGMENT_DIR,
+                temp.create("fragments").getPath());
+        Writer broken = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length)
+                    throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public void flush() throws IOException {
+                throw new IOException("broken");
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        };
+
+        assertThrows(AnalyzerException.class,
+                () -> indexer.indexFragment(testFiles(), broken, config));
+        assertEquals(1, listener.runs.size());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (analyzerThreadsAlive()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(analyzerThreadsAlive());
+    }
+}
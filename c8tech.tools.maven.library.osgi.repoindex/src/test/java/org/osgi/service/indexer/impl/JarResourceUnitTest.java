@@ -11,13 +11,24 @@
  */
 package org.osgi.service.indexer.impl;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Enumeration;
 import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
+import org.osgi.service.indexer.impl.util.Hex;
+
 import org.junit.jupiter.api.Test;
 import org.osgi.service.indexer.Resource;
 
@@ -82,4 +93,67 @@ public class JarResourceUnitTest {
 		assertEquals("org.example.a", manifest.getMainAttributes().getValue("BUNDLE-SymbolicName"));
 	}
 
+    @Test
+	public void testJarDigestComputedWhileLoading() throws Exception {
+		File file = new File(getClass()
+                .getResource("/testdata/org.apache.felix.scr-1.6.0.jar").getPath());
+		JarResource resource = new JarResource(file);
+
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		try (InputStream in = new FileInputStream(file)) {
+			digest.update(readFully(in));
+		}
+		assertNotNull(resource.getContentDigest());
+		assertEquals(Hex.toHexString(digest.digest()), resource.getContentDigest());
+		assertEquals(resource.getContentDigest(), BundleAnalyzer.calculateSHA(resource));
+	}
+
+    @Test
+	public void testJarEntriesMatchJarFile() throws Exception {
+		File file = new File(getClass()
+                .getResource("/testdata/org.apache.felix.scr-1.6.0.jar").getPath());
+		JarResource resource = new JarResource(file);
+		try (JarFile jarFile = new JarFile(file)) {
+			Enumeration<JarEntry> entries = jarFile.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				Resource child = resource.getChild(entry.getName());
+				assertNotNull(child, entry.getName());
+				assertArrayEquals(readFully(jarFile.getInputStream(entry)),
+						readFully(child.getStream()));
+			}
+			assertEquals(jarFile.getManifest().getMainAttributes(),
+					resource.getManifest().getMainAttributes());
+		}
+	}
+
+    @Test
+	public void testReleasedJarIsReadFromFile() throws Exception {
+		JarResource resource = new JarResource(new File(getClass()
+                .getResource("/testdata/01-bsn+version.jar").getPath()));
+		resource.getManifest();
+		resource.release();
+
+		List<String> children = resource.listChildren("org/example/a/");
+		assertEquals(2, children.size());
+		Resource pkgInfoResource = resource.getChild("org/example/a/packageinfo");
+		assertEquals("version 1.0", Utils.readStream(pkgInfoResource.getStream()));
+		assertEquals("org.example.a", resource.getManifest().getMainAttributes().getValue("BUNDLE-SymbolicName"));
+		assertEquals(1104, readFully(resource.getStream()).length);
+		resource.close();
+	}
+
+	private static byte[] readFully(InputStream in) throws Exception {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) >= 0)
+				out.write(buf, 0, read);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
 }
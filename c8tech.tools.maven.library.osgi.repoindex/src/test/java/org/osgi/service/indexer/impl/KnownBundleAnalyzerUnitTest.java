@@ -0,0 +1,94 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+
+public class KnownBundleAnalyzerUnitTest {
+
+    private static List<Capability> analyze(KnownBundleAnalyzer analyzer,
+            List<Requirement> reqs) throws Exception {
+        JarResource resource = new JarResource(new File(
+                KnownBundleAnalyzerUnitTest.class
+                        .getResource("/testdata/01-bsn+version.jar")
+                        .getPath()));
+        try {
+            List<Capability> caps = new ArrayList<>();
+            analyzer.analyzeResource(resource, caps, reqs);
+            return caps;
+        } finally {
+            resource.close();
+        }
+    }
+
+    @Test
+    public void testLookupByNameAndVersion() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("common", "cap=foo;foo=${value}");
+        props.setProperty("value", "bar");
+        props.setProperty("org.example.a", "${common},req=baz");
+        props.setProperty("org.example.a;[1.0,2.0)", "cap=never");
+        props.setProperty("org.example.b", "cap=other");
+
+        List<Requirement> reqs = new ArrayList<>();
+        List<Capability> caps = analyze(
+                new KnownBundleAnalyzer(props, new NullLogSvc(), false), reqs);
+        assertEquals(1, caps.size());
+        assertEquals("foo", caps.get(0).getNamespace());
+        assertEquals("bar", caps.get(0).getAttributes().get("foo"));
+        assertEquals(1, reqs.size());
+        assertEquals("baz", reqs.get(0).getNamespace());
+    }
+
+    @Test
+    public void testExtrasAreRecompiled() throws Exception {
+        KnownBundleAnalyzer analyzer = new KnownBundleAnalyzer(
+                new Properties(), new NullLogSvc(), false);
+        assertTrue(analyze(analyzer, new ArrayList<>()).isEmpty());
+
+        Properties extras = new Properties();
+        extras.setProperty("org.example.a;[0,1)", "cap=extra");
+        analyzer.setKnownBundlesExtra(extras);
+        List<Capability> caps = analyze(analyzer, new ArrayList<>());
+        assertEquals(1, caps.size());
+        assertEquals("extra", caps.get(0).getNamespace());
+
+        analyzer.setKnownBundlesExtra(null);
+        assertTrue(analyze(analyzer, new ArrayList<>()).isEmpty());
+    }
+
+    @Test
+    public void testInvalidClauseFailsOnlyForItsBundle() throws Exception {
+        Properties props = new Properties();
+        props.setProperty("org.example.b", "nonsense=foo");
+        KnownBundleAnalyzer analyzer = new KnownBundleAnalyzer(props,
+                new NullLogSvc(), false);
+        assertTrue(analyze(analyzer, new ArrayList<>()).isEmpty());
+
+        props.setProperty("org.example.a", "nonsense=foo");
+        KnownBundleAnalyzer failing = new KnownBundleAnalyzer(props,
+                new NullLogSvc(), false);
+        assertThrows(IllegalArgumentException.class,
+                () -> analyze(failing, new ArrayList<>()));
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.Resource;
+
+public class MappedJarResourceUnitTest {
+
+    private File testFile(String name) {
+        return new File(getClass().getResource("/testdata/" + name).getPath());
+    }
+
+    @Test
+    public void testMatchesJarResource() throws Exception {
+        File file = testFile("org.apache.felix.scr-1.6.0.jar");
+        JarResource expected = new JarResource(file);
+        MappedJarResource actual = new MappedJarResource(file);
+
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(expected.getProperties(), actual.getProperties());
+        assertEquals(expected.getContentDigest(), actual.getContentDigest());
+        assertEquals(expected.getManifest().getMainAttributes(),
+                actual.getManifest().getMainAttributes());
+
+        for (String prefix : Arrays.asList("", "META-INF/", "OSGI-INF/",
+                "org/apache/felix/scr/impl/", "org/wibble/")) {
+            List<String> children = expected.listChildren(prefix);
+            assertEquals(children, actual.listChildren(prefix));
+            if (children == null)
+                continue;
+            for (String child : children) {
+                Resource expectedChild = expected.getChild(prefix + child);
+                Resource actualChild = actual.getChild(prefix + child);
+                assertNotNull(actualChild);
+                assertEquals(Utils.readStream(expectedChild.getStream()),
+                        Utils.readStream(actualChild.getStream()));
+            }
+        }
+        assertNull(actual.getChild("org/wibble/Missing.class"));
+        assertEquals(Utils.readStream(expected.getStream()),
+                Utils.readStream(actual.getStream()));
+
+        actual.close();
+        assertThrows(IOException.class,
+                () -> actual.getChild("META-INF/MANIFEST.MF"));
+    }
+
+    @Test
+    public void testMappedIndexMatchesDefault() throws Exception {
+        Set<File> files = new LinkedHashSet<File>(Arrays.asList(
+                testFile("03-export.jar"), testFile("15-scr.jar"),
+                testFile("17-blueprint1.jar"),
+                testFile("org.apache.felix.scr-1.6.0.jar")));
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        config.put(Constants.PRETTY, "true");
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(files, expected, config);
+
+        config.put(Constants.MEMORY_MAPPED, "true");
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(files, actual, config);
+
+        assertEquals(expected.toString("UTF-8"), actual.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.impl.util.OSGiHeader;
+import org.osgi.service.indexer.impl.util.Reporter;
+
+public class OSGiHeaderUnitTest {
+
+    /**
+     * Makes parseHeader take the original, reporting code path.
+     */
+    private static final class SilentReporter implements Reporter {
+        @Override
+        public void error(String s, Object... args) {
+            // silent
+        }
+
+        @Override
+        public void warning(String s, Object... args) {
+            // silent
+        }
+
+        @Override
+        public void progress(String s, Object... args) {
+            // silent
+        }
+
+        @Override
+        public void trace(String s, Object... args) {
+            // silent
+        }
+
+        @Override
+        public List<String> getWarnings() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<String> getErrors() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isPedantic() {
+            return false;
+        }
+    }
+
+    private static void assertSameParse(String header) {
+        Object expected;
+        try {
+            expected = OSGiHeader.parseHeader(header, new SilentReporter());
+        } catch (RuntimeException e) {
+            expected = e.getClass();
+        }
+        Object actual;
+        try {
+            actual = OSGiHeader.parseHeader(header);
+        } catch (RuntimeException e) {
+            actual = e.getClass();
+        }
+        assertEquals(expected, actual, header);
+    }
+
+    @Test
+    public void testSameResultAsTheReportingParser() throws Exception {
+        String[] headers = { "a", "a,b", "a;b;c;x=1;y=2", "a;x=1,a;x=2",
+                "a;x=1;x=2;x=3", "a;version=\"[1.8,2)\";resolution:=optional",
+                "a; version = '1.0' , b ;uses:=\"c,d\"", " , a,,b, ",
+                ";a", "a;", "a;=", "a;x=", "a;x", "a=b=c,d", "a;x=b=c,d",
+                "a;x=\"unterminated", "a;x=\"esc\\\"aped\";y=1",
+                "a;x=\"trailing\\", "a ", " a", "a b;c d=e f",
+                "a;x=\"\"", "\"quoted name\";x=1", "a\t;\tx\t=\t1",
+                "a;x:List<String>=\"p,q\"", "a~;x=1,a", "a;b;a;b" };
+        for (String header : headers) {
+            assertSameParse(header);
+        }
+
+        File dir = new File(getClass().getResource("/testdata").getPath());
+        List<String> values = new ArrayList<>();
+        for (File file : dir.listFiles()) {
+            if (!file.getName().endsWith(".jar"))
+                continue;
+            try (JarFile jar = new JarFile(file)) {
+                Manifest manifest = jar.getManifest();
+                if (manifest == null)
+                    continue;
+                for (Object value : manifest.getMainAttributes().values()) {
+                    values.add((String) value);
+                }
+            }
+        }
+        for (String value : values) {
+            assertSameParse(value);
+        }
+    }
+
+    @Test
+    public void testParsedHeadersAreSharedAndUnmodifiable() {
+        String header = "org.osgi.framework;version=\"[1.8,2)\"";
+        Map<String, Map<String, String>> parsed = OSGiHeader
+                .parseHeader(header);
+        assertSame(parsed, OSGiHeader.parseHeader(new String(header)));
+        assertThrows(UnsupportedOperationException.class,
+                () -> parsed.put("x", Collections.emptyMap()));
+        assertThrows(UnsupportedOperationException.class,
+                () -> parsed.get("org.osgi.framework").put("x", "y"));
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.ResourceAnalyzer;
+import org.osgi.service.indexer.ResourceIndexer.IndexResult;
+
+public class ParallelAnalyzersUnitTest {
+
+    /**
+     * Adds a capability telling how many package capabilities it saw.
+     */
+    private static final class PackageCounter implements ResourceAnalyzer {
+        private final Set<Class<? extends ResourceAnalyzer>> dependencies;
+
+        PackageCounter(Set<Class<? extends ResourceAnalyzer>> dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public Set<Input> getInputs() {
+            return EnumSet.of(Input.MANIFEST);
+        }
+
+        @Override
+        public Set<Class<? extends ResourceAnalyzer>> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public void analyzeResource(Resource resource,
+                List<Capability> capabilities, List<Requirement> requirements)
+                throws AnalyzerException {
+            long packages = 0;
+            for (Capability capability : capabilities) {
+                if (Namespaces.NS_WIRING_PACKAGE
+                        .equals(capability.getNamespace()))
+                    packages++;
+            }
+            capabilities.add(new Builder().setNamespace("packages")
+                    .addAttribute("count", packages).buildCapability());
+        }
+    }
+
+    /**
+     * Reads the manifest only, but asks for a child once.
+     */
+    private static final class ManifestReader implements ResourceAnalyzer {
+        volatile String digest = "unset";
+        volatile boolean childFound;
+
+        @Override
+        public Set<Input> getInputs() {
+            return EnumSet.of(Input.MANIFEST);
+        }
+
+        @Override
+        public void analyzeResource(Resource resource,
+                List<Capability> capabilities, List<Requirement> requirements)
+                throws AnalyzerException {
+            try {
+                digest = ((JarResource) resource).getContentDigest();
+                assertNotNull(resource.getManifest());
+                Resource child = resource.getChild("META-INF/MANIFEST.MF");
+                childFound = child != null;
+                if (child != null)
+                    child.close();
+            } catch (IOException e) {
+                throw new AnalyzerException("", e);
+            }
+        }
+    }
+
+    private File testFile(String name) {
+        return new File(getClass().getResource("/testdata/" + name).getPath());
+    }
+
+    private Set<File> testFiles() {
+        Set<File> files = new LinkedHashSet<File>();
+        files.add(testFile("03-export.jar"));
+        files.add(testFile("15-scr.jar"));
+        files.add(testFile("17-blueprint1.jar"));
+        files.add(testFile("org.apache.felix.framework-4.0.2.jar"));
+        files.add(testFile("org.apache.felix.scr-1.6.0.jar"));
+        files.add(testFile("jcip-annotations.jar"));
+        return files;
+    }
+
+    private String indexFragment(RepoIndex indexer, String analyzerThreads)
+            throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        if (analyzerThreads != null)
+            config.put(Constants.PARALLEL_ANALYZERS, analyzerThreads);
+        StringWriter writer = new StringWriter();
+        indexer.indexFragment(testFiles(), writer, config);
+        return writer.toString();
+    }
+
+    @Test
+    public void testParallelAnalyzersGiveTheSameIndex() throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(new WibbleAnalyzer(), null);
+        indexer.addAnalyzer(new PackageCounter(null), null);
+
+        String sequential = indexFragment(indexer, null);
+        assertEquals(sequential, indexFragment(indexer, "4"));
+        assertEquals(sequential, indexFragment(indexer, "0"));
+        assertTrue(sequential.contains("osgi.contract"));
+    }
+
+    private static List<String> packageCounts(String fragment) {
+        List<String> counts = new ArrayList<String>();
+        Matcher matcher = Pattern.compile(
+                "namespace=\"packages\">\\s*<repo:attribute name=\"count\""
+                        + " type=\"Long\" value=\"(\\d+)\"")
+                .matcher(fragment);
+        while (matcher.find()) {
+            counts.add(matcher.group(1));
+        }
+        return counts;
+    }
+
+    @Test
+    public void testDependenciesSeeOnlyTheirOutput() throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        indexer.addAnalyzer(new PackageCounter(
+                Collections.<Class<? extends ResourceAnalyzer>> singleton(
+                        BundleAnalyzer.class)),
+                null);
+        indexer.addAnalyzer(new PackageCounter(Collections
+                .<Class<? extends ResourceAnalyzer>> emptySet()), null);
+
+        // 03-export.jar exports a single package
+        List<String> counts = packageCounts(indexFragment(indexer, "4"));
+        assertEquals(Arrays.asList("1", "0"), counts.subList(0, 2));
+
+        // one after the other, the analyzers see every previous output
+        counts = packageCounts(indexFragment(indexer, null));
+        assertEquals(Arrays.asList("1"), counts.subList(0, 1));
+    }
+
+    @Test
+    public void testManifestOnlyAnalyzersDoNotLoadTheContent()
+            throws Exception {
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        Filter jars = FrameworkUtil.createFilter("(name=*.jar)");
+        for (ResourceAnalyzer analyzer : indexer.getAnalyzers()) {
+            indexer.removeAnalyzer(analyzer, jars);
+        }
+        ManifestReader reader = new ManifestReader();
+        indexer.addAnalyzer(reader, null);
+
+        IndexResult result = indexer.indexFile(testFile("03-export.jar"));
+        assertNotNull(result.getResource());
+
+        indexer.indexFragment(Collections.singleton(testFile("03-export.jar")),
+                new StringWriter(), new HashMap<String, String>());
+        assertNull(reader.digest);
+        assertTrue(reader.childFound);
+
+        indexer.addAnalyzer(new WibbleAnalyzer(), null);
+        indexer.indexFragment(Collections.singleton(testFile("03-export.jar")),
+                new StringWriter(), new HashMap<String, String>());
+        assertNotNull(reader.digest);
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.impl.util.ParallelGZIPOutputStream;
+
+public class ParallelGZIPOutputStreamUnitTest {
+
+    private static byte[] gunzip(byte[] data) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(
+                new ByteArrayInputStream(data))) {
+            byte[] buf = new byte[4096];
+            int read;
+            while ((read = in.read(buf)) >= 0)
+                out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] data, int blockSize, int threads)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ParallelGZIPOutputStream gzip = new ParallelGZIPOutputStream(out,
+                Deflater.DEFAULT_COMPRESSION, blockSize, threads)) {
+            // uneven writes, so that blocks are filled across write calls
+            int offset = 0;
+            int chunk = 1;
+            while (offset < data.length) {
+                int count = Math.min(chunk, data.length - offset);
+                gzip.write(data, offset, count);
+                offset += count;
+                chunk = chunk * 3 % 10007 + 1;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1024 * 1024) {
+            text.append("<capability namespace=\"osgi.wiring.package\" v=\"")
+                    .append(random.nextInt(1000)).append("\"/>\n");
+        }
+        byte[] data = text.toString().getBytes("UTF-8");
+
+        assertArrayEquals(data, gunzip(compress(data, 64 * 1024, 4)));
+        assertArrayEquals(data, gunzip(compress(data, 1000, 3)));
+        assertArrayEquals(data, gunzip(compress(data, data.length, 2)));
+    }
+
+    @Test
+    public void testEmptyAndIncompressibleInput() throws Exception {
+        assertEquals(0, gunzip(compress(new byte[0], 1024, 2)).length);
+
+        byte[] data = new byte[300 * 1024];
+        new Random(7).nextBytes(data);
+        assertArrayEquals(data, gunzip(compress(data, 16 * 1024, 4)));
+    }
+
+    @Test
+    public void testParallelCompressedIndexMatchesDefault() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        config.put(Constants.COMPRESSED, "true");
+
+        LinkedHashSet<File> files = new LinkedHashSet<File>(Arrays.asList(
+                new File(getClass().getResource("/testdata/03-export.jar")
+                        .getPath()),
+                new File(getClass()
+                        .getResource("/testdata/org.apache.felix.scr-1.6.0.jar")
+                        .getPath())));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(files, expected, config);
+
+        config.put(Constants.COMPRESSION_THREADS, "4");
+        config.put(Constants.COMPRESSION_BLOCK_SIZE, "512");
+        config.put(Constants.COMPRESSION_LEVEL, "9");
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(files, actual, config);
+
+        assertArrayEquals(gunzip(expected.toByteArray()),
+                gunzip(actual.toByteArray()));
+    }
+}
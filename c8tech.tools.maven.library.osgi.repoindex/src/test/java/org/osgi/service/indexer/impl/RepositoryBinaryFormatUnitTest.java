@@ -0,0 +1,202 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.Constants;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.ResourceIndexer.IndexResult;
+
+public class RepositoryBinaryFormatUnitTest {
+
+    private static Set<File> testFiles() {
+        return Utils.testFiles("03-export.jar", "05-import.jar",
+                "10-exportservice.jar", "14-provide-require-cap.jar",
+                "15-scr.jar", "19-bundlenativecode.jar",
+                "org.apache.felix.scr-1.6.0.jar");
+    }
+
+    private static Map<String, String> config() {
+        Map<String, String> config = Utils.testConfig();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "42");
+        config.put(Constants.REPOSITORY_NAME, "binary");
+        return config;
+    }
+
+    private byte[] index(Map<String, String> config) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(testFiles(), out, config);
+        return out.toByteArray();
+    }
+
+    /*
+     * Converts a value the way the XML representation does.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Collection<?>) {
+            List<Object> result = new ArrayList<Object>();
+            for (Object element : (Collection<?>) value)
+                result.add(normalize(element));
+            return result;
+        }
+        if (value instanceof Float || value instanceof Double)
+            return ((Number) value).doubleValue();
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+        if (value instanceof Version)
+            return value;
+        return String.valueOf(value);
+    }
+
+    private static Map<String, Object> normalize(Map<String, Object> map) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : map.entrySet())
+            result.put(entry.getKey(), normalize(entry.getValue()));
+        // indexFile() does not know the root directory
+        result.remove(Namespaces.ATTR_CONTENT_URL);
+        return result;
+    }
+
+    private static Map<String, Object> withoutUrl(Map<String, Object> map) {
+        Map<String, Object> result = new LinkedHashMap<String, Object>(map);
+        result.remove(Namespaces.ATTR_CONTENT_URL);
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, String> config = config();
+        config.put(Constants.FORMAT, Constants.FORMAT_BINARY);
+        byte[] binary = index(config);
+
+        RepoIndex indexer = new RepoIndex(new NullLogSvc(), false);
+        try (RepositoryBinaryReader reader = RepositoryBinaryReader
+                .open(new ByteArrayInputStream(binary))) {
+            assertEquals("binary", reader.getName());
+            assertEquals("42", reader.getIncrement());
+
+            for (File file : testFiles()) {
+                IndexResult expected = indexer.indexFile(file);
+                Resource actual = reader.next();
+
+                List<Capability> caps = actual.getCapabilities(null);
+                assertEquals(expected.getCapabilities().size(), caps.size());
+                for (int i = 0; i < caps.size(); i++) {
+                    Capability cap = expected.getCapabilities().get(i);
+                    assertEquals(cap.getNamespace(), caps.get(i).getNamespace());
+                    assertEquals(normalize(cap.getAttributes()),
+                            withoutUrl(caps.get(i).getAttributes()));
+                    assertEquals(cap.getDirectives(),
+                            caps.get(i).getDirectives());
+                    assertSame(actual, caps.get(i).getResource());
+                }
+
+                List<Requirement> reqs = actual.getRequirements(null);
+                assertEquals(expected.getRequirements().size(), reqs.size());
+                for (int i = 0; i < reqs.size(); i++) {
+                    Requirement req = expected.getRequirements().get(i);
+                    assertEquals(req.getNamespace(), reqs.get(i).getNamespace());
+                    assertEquals(normalize(req.getAttributes()),
+                            reqs.get(i).getAttributes());
+                    assertEquals(req.getDirectives(),
+                            reqs.get(i).getDirectives());
+                }
+            }
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testSmallerThanXml() throws Exception {
+        Map<String, String> config = config();
+        config.put(Constants.PRETTY, "false");
+        config.put(Constants.COMPRESSED, "false");
+        byte[] xml = index(config);
+        config.put(Constants.COMPRESSED, "true");
+        byte[] compressedXml = index(config);
+
+        config.put(Constants.FORMAT, Constants.FORMAT_BINARY);
+        byte[] compressedBinary = index(config);
+        config.put(Constants.COMPRESSED, "false");
+        byte[] binary = index(config);
+
+        assertTrue(binary.length * 3 < xml.length,
+                binary.length + " vs " + xml.length);
+        assertTrue(compressedBinary.length < compressedXml.length,
+                compressedBinary.length + " vs " + compressedXml.length);
+        assertEquals(testFiles().size(), RepositoryBinaryReader
+                .open(new ByteArrayInputStream(compressedBinary)).readAll()
+                .size());
+    }
+
+    @Test
+    public void testFailedResourceIsDiscarded() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (RepositoryBinaryWriter writer = new RepositoryBinaryWriter(out)) {
+            writer.writeRepositoryStart("partial", "1");
+
+            List<Capability> bad = Collections.singletonList(new Builder()
+                    .setNamespace("bad.namespace")
+                    .addAttribute("bad", new Object()).buildCapability());
+            assertThrows(IllegalArgumentException.class,
+                    () -> writer.writeResource(bad,
+                            Collections.<Requirement> emptyList()));
+
+            List<Capability> good = Collections.singletonList(new Builder()
+                    .setNamespace("good.namespace")
+                    .addAttribute("version", Version.parseVersion("1.2.3.q"))
+                    .addAttribute("sizes", Arrays.asList(1, 2, 3))
+                    .addDirective("effective", "active").buildCapability());
+            writer.writeResource(good, Collections.<Requirement> emptyList());
+            writer.writeRepositoryEnd();
+        }
+
+        RepositoryBinaryReader reader = RepositoryBinaryReader
+                .open(new ByteArrayInputStream(out.toByteArray()));
+        List<Resource> resources = reader.readAll();
+        assertEquals(1, resources.size());
+        Capability cap = resources.get(0).getCapabilities(null).get(0);
+        assertEquals("good.namespace", cap.getNamespace());
+        assertEquals(new Version(1, 2, 3, "q"),
+                cap.getAttributes().get("version"));
+        assertEquals(Arrays.asList(1L, 2L, 3L),
+                cap.getAttributes().get("sizes"));
+        assertEquals("active", cap.getDirectives().get("effective"));
+        assertEquals(1, resources.get(0)
+                .getCapabilities("good.namespace").size());
+        assertEquals(0, resources.get(0)
+                .getCapabilities("bad.namespace").size());
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.service.indexer.Constants;
+
+public class RepositoryXmlReaderUnitTest {
+
+    private Set<File> testFiles() {
+        Set<File> files = new TreeSet<File>();
+        for (String name : Arrays.asList("03-export.jar", "05-import.jar",
+                "10-exportservice.jar", "14-provide-require-cap.jar",
+                "15-scr.jar", "19-bundlenativecode.jar",
+                "org.apache.felix.scr-1.6.0.jar")) {
+            files.add(new File(
+                    getClass().getResource("/testdata/" + name).getPath()));
+        }
+        return files;
+    }
+
+    private byte[] index(String format, boolean compressed) throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "42");
+        config.put(Constants.REPOSITORY_NAME, "xml");
+        config.put(Constants.ROOT_DIR, getClass().getResource("/").getPath());
+        config.put(Constants.FORMAT, format);
+        config.put(Constants.COMPRESSED, Boolean.toString(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RepoIndex(new NullLogSvc(), false).index(testFiles(), out, config);
+        return out.toByteArray();
+    }
+
+    private static void assertSameClauses(
+            List<? extends Capability> expected,
+            List<? extends Capability> actual, Resource resource) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getNamespace(),
+                    actual.get(i).getNamespace());
+            assertEquals(expected.get(i).getAttributes(),
+                    actual.get(i).getAttributes());
+            assertEquals(expected.get(i).getDirectives(),
+                    actual.get(i).getDirectives());
+            assertSame(resource, actual.get(i).getResource());
+        }
+    }
+
+    @Test
+    public void testReadsWhatTheBinaryReaderReads() throws Exception {
+        List<Resource> expected = RepositoryBinaryReader
+                .open(new ByteArrayInputStream(
+                        index(Constants.FORMAT_BINARY, false)))
+                .readAll();
+
+        for (boolean compressed : new boolean[] { false, true }) {
+            try (RepositoryXmlReader reader = RepositoryXmlReader
+                    .open(new ByteArrayInputStream(
+                            index(Constants.FORMAT_XML, compressed)))) {
+                assertEquals("xml", reader.getName());
+                assertEquals("42", reader.getIncrement());
+                for (Resource resource : expected) {
+                    Resource actual = reader.next();
+                    assertSameClauses(resource.getCapabilities(null),
+                            actual.getCapabilities(null), actual);
+                    List<Requirement> reqs = actual.getRequirements(null);
+                    assertEquals(resource.getRequirements(null).size(),
+                            reqs.size());
+                    for (int i = 0; i < reqs.size(); i++) {
+                        Requirement req = resource.getRequirements(null)
+                                .get(i);
+                        assertEquals(req.getAttributes(),
+                                reqs.get(i).getAttributes());
+                        assertEquals(req.getDirectives(),
+                                reqs.get(i).getDirectives());
+                    }
+                }
+                assertNull(reader.next());
+                assertNull(reader.next());
+            }
+        }
+    }
+
+    private static RepositoryXmlReader read(String xml) throws IOException {
+        return RepositoryXmlReader.open(new ByteArrayInputStream(
+                xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testTypedAttributes() throws Exception {
+        String xml = "<?xml version='1.0'?>\n"
+                + "<repository xmlns='http://www.osgi.org/xmlns/repository/v1.0.0'>"
+                + "<!-- no name -->"
+                + "<resource><capability namespace='ns'>"
+                + "<attribute name='v' type='Version' value='1.2.3.q'/>"
+                + "<attribute name='l' type='List&lt;Long&gt;' value='1, 2,3'/>"
+                + "<attribute name='s' type='List&lt;String&gt;' value='a\\,b,c'/>"
+                + "<attribute name='d' type='Double' value='0.5'/>"
+                + "<attribute name='plain' value='x'/>"
+                + "<directive name='effective' value='active'/>"
+                + "<unknown><attribute name='ignored' value='y'/></unknown>"
+                + "</capability></resource>"
+                + "<resource/></repository>";
+        try (RepositoryXmlReader reader = read(xml)) {
+            assertNull(reader.getName());
+            Capability cap = reader.next().getCapabilities(null).get(0);
+            Map<String, Object> attributes = cap.getAttributes();
+            assertEquals(new Version(1, 2, 3, "q"), attributes.get("v"));
+            assertEquals(Arrays.asList(1L, 2L, 3L), attributes.get("l"));
+            assertEquals(Arrays.asList("a,b", "c"), attributes.get("s"));
+            assertEquals(0.5d, attributes.get("d"));
+            assertEquals("x", attributes.get("plain"));
+            assertEquals(5, attributes.size());
+            assertEquals("active", cap.getDirectives().get("effective"));
+            assertEquals(0, reader.next().getCapabilities(null).size());
+            assertNull(reader.next());
+        }
+    }
+
+    @Test
+    public void testMalformedDocuments() throws Exception {
+        assertThrows(IOException.class, () -> read("<notes/>"));
+        try (RepositoryXmlReader reader = read("<repository><resource>"
+                + "<capability namespace='ns'>"
+                + "<attribute name='n' type='Long' value='many'/>"
+                + "</capability></resource></repository>")) {
+            assertThrows(IOException.class, () -> reader.next());
+        }
+    }
+}
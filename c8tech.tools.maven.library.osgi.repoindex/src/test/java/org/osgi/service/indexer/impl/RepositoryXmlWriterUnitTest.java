@@ -0,0 +1,111 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.impl.util.Indent;
+
+public class RepositoryXmlWriterUnitTest {
+
+    private static String write(Indent indent, List<Capability> caps,
+            List<Requirement> reqs) throws Exception {
+        StringWriter out = new StringWriter();
+        RepositoryXmlWriter writer = new RepositoryXmlWriter(out);
+        writer.writeResource(indent, caps, reqs);
+        writer.flush();
+        return out.toString();
+    }
+
+    @Test
+    public void testEscaping() throws Exception {
+        List<Capability> caps = new ArrayList<>();
+        caps.add(new Builder().setNamespace("test.ns")
+                .addAttribute("text", "a<b>&\"c\"")
+                .addAttribute("versions",
+                        Arrays.asList(new Version("1.0.0"),
+                                new Version("2.0.0")))
+                .addDirective("filter", "(&(a>=1)(b<=2))")
+                .buildCapability());
+
+        assertEquals(String.format("%n<repo:resource>"
+                + "%n  <repo:capability namespace=\"test.ns\">"
+                + "%n    <repo:attribute name=\"text\" value=\"a&lt;b&gt;&amp;&quot;c&quot;\"/>"
+                + "%n    <repo:attribute name=\"versions\" type=\"List&lt;Version&gt;\" value=\"1.0.0,2.0.0\"/>"
+                + "%n    <repo:directive name=\"filter\" value=\"(&amp;(a&gt;=1)(b&lt;=2))\"/>"
+                + "%n  </repo:capability>%n</repo:resource>"),
+                write(Indent.PRETTY, caps,
+                        Collections.<Requirement> emptyList()));
+    }
+
+    @Test
+    public void testEmptyResource() throws Exception {
+        assertEquals("<repo:resource/>",
+                write(Indent.NONE, Collections.<Capability> emptyList(),
+                        Collections.<Requirement> emptyList()));
+    }
+
+    @Test
+    public void testFailedResourceIsDiscarded() throws Exception {
+        List<Requirement> good = Collections.singletonList(new Builder()
+                .setNamespace("good").addDirective("a", "b")
+                .buildRequirement());
+        List<Requirement> bad = Collections.singletonList(new Builder()
+                .setNamespace("bad")
+                .addAttribute("empty", Collections.emptyList())
+                .buildRequirement());
+
+        StringWriter out = new StringWriter();
+        RepositoryXmlWriter writer = new RepositoryXmlWriter(out);
+        writer.writeResource(Indent.NONE,
+                Collections.<Capability> emptyList(), good);
+        assertThrows(IllegalArgumentException.class,
+                () -> writer.writeResource(Indent.NONE,
+                        Collections.<Capability> emptyList(), bad));
+        writer.flush();
+
+        assertEquals("<repo:resource><repo:requirement namespace=\"good\">"
+                + "<repo:directive name=\"a\" value=\"b\"/>"
+                + "</repo:requirement></repo:resource>", out.toString());
+    }
+
+    @Test
+    public void testUtf8Encoding() throws Exception {
+        String value = "café € 😀";
+        List<Capability> caps = Collections.singletonList(new Builder()
+                .setNamespace("ns").addAttribute("v", value)
+                .buildCapability());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RepositoryXmlWriter writer = new RepositoryXmlWriter(out);
+        writer.writeResource(Indent.NONE, caps,
+                Collections.<Requirement> emptyList());
+        writer.close();
+
+        assertEquals(write(Indent.NONE, caps,
+                Collections.<Requirement> emptyList()),
+                new String(out.toByteArray(), "UTF-8"));
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.Resource;
+
+public class SCRAnalyzerUnitTest {
+
+    private static final int COMPONENTS = SCRAnalyzer.PARALLEL_THRESHOLD * 3;
+
+    /**
+     * Hides the type of a jar resource, so that its components are parsed on
+     * the calling thread.
+     */
+    private static final class PlainResource implements Resource {
+        private final Resource delegate;
+
+        PlainResource(Resource delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getLocation() {
+            return delegate.getLocation();
+        }
+
+        @Override
+        public Dictionary<String, Object> getProperties() {
+            return delegate.getProperties();
+        }
+
+        @Override
+        public long getSize() {
+            return delegate.getSize();
+        }
+
+        @Override
+        public InputStream getStream() throws IOException {
+            return delegate.getStream();
+        }
+
+        @Override
+        public Manifest getManifest() throws IOException {
+            return delegate.getManifest();
+        }
+
+        @Override
+        public List<String> listChildren(String prefix) throws IOException {
+            return delegate.listChildren(prefix);
+        }
+
+        @Override
+        public Resource getChild(String path) throws IOException {
+            return delegate.getChild(path);
+        }
+
+        @Override
+        public void close() {
+            delegate.close();
+        }
+    }
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private File createBundle() throws IOException {
+        File file = new File(temp.create("scr"), "components.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Bundle-SymbolicName",
+                "org.example.components");
+        manifest.getMainAttributes().putValue("Service-Component",
+                "OSGI-INF/*.xml");
+        try (OutputStream out = Files.newOutputStream(file.toPath());
+                JarOutputStream jar = new JarOutputStream(out, manifest)) {
+            for (int i = 0; i < COMPONENTS; i++) {
+                String namespace = i % 2 == 0 ? SCRAnalyzer.NS_1_1
+                        : SCRAnalyzer.NS_1_2;
+                String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<scr:component xmlns:scr=\"" + namespace
+                        + "\" name=\"c" + i + "\">\n"
+                        + "  <property name=\"topics\" type=\"String\">\n"
+                        + "    a/" + i + "\n\n    b/" + i + "\n  </property>\n"
+                        + "  <property name=\"rank\" type=\"Integer\" value=\""
+                        + i + "\"/>\n"
+                        + "  <Service><Provide interface=\"org.example.S" + i
+                        + "\"/></Service>\n"
+                        + "  <reference name=\"r\" interface=\"org.example.R"
+                        + i + "\" cardinality=\"0..n\"/>\n"
+                        + "</scr:component>\n";
+                jar.putNextEntry(new JarEntry(
+                        String.format("OSGI-INF/c%02d.xml", i)));
+                jar.write(xml.getBytes(StandardCharsets.UTF_8));
+                jar.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static String analyze(Resource resource) throws Exception {
+        List<Capability> caps = new ArrayList<>();
+        List<Requirement> reqs = new ArrayList<>();
+        new SCRAnalyzer(new NullLogSvc(), false).analyzeResource(resource,
+                caps, reqs);
+        assertEquals(COMPONENTS, caps.size());
+        assertEquals(COMPONENTS + 1, reqs.size());
+        return caps.toString() + reqs.toString();
+    }
+
+    @Test
+    public void testConcurrentParsingKeepsTheOrder() throws Exception {
+        File bundle = createBundle();
+        JarResource resource = new JarResource(bundle);
+        String expected = analyze(new PlainResource(resource));
+        assertEquals(expected, analyze(resource));
+        resource.close();
+    }
+
+    @Test
+    public void testComponentContent() throws Exception {
+        JarResource resource = new JarResource(createBundle());
+        List<Capability> caps = new ArrayList<>();
+        List<Requirement> reqs = new ArrayList<>();
+        new SCRAnalyzer(new NullLogSvc(), false).analyzeResource(resource,
+                caps, reqs);
+        resource.close();
+
+        Capability first = caps.get(0);
+        assertEquals(Namespaces.NS_SERVICE, first.getNamespace());
+        assertEquals(Arrays.asList("org.example.S0"),
+                first.getAttributes().get("objectClass"));
+        assertEquals(0L, first.getAttributes().get("rank"));
+        assertEquals(Arrays.asList("a/0", "b/0"),
+                first.getAttributes().get("topics"));
+        assertEquals("org.example", first.getDirectives().get("uses"));
+
+        Requirement reference = reqs.get(0);
+        assertEquals("(objectClass=org.example.R0)",
+                reference.getDirectives().get(Namespaces.DIRECTIVE_FILTER));
+        assertEquals(Namespaces.RESOLUTION_OPTIONAL, reference.getDirectives()
+                .get(Namespaces.DIRECTIVE_RESOLUTION));
+
+        Requirement extender = reqs.get(reqs.size() - 1);
+        assertEquals(
+                "(&(osgi.extender=" + Namespaces.EXTENDER_SCR
+                        + ")(version>=1.2.0)(!(version>=2.0.0)))",
+                extender.getDirectives().get(Namespaces.DIRECTIVE_FILTER));
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.osgi.service.indexer.AnalyzerException;
+import org.osgi.service.indexer.Constants;
+
+public class ShardedIndexerUnitTest {
+
+    private final TempDirectories temp = new TempDirectories();
+
+    @AfterEach
+    public void deleteTempDirectories() throws IOException {
+        temp.delete();
+    }
+
+    private static Set<File> jars() {
+        return Utils.testFiles("01-bsn+version.jar", "03-export.jar",
+                "05-import.jar", "06-requirebundle.jar", "15-scr.jar",
+                "17-blueprint1.jar", "19-bundlenativecode.jar");
+    }
+
+    private static Map<String, String> config() {
+        Map<String, String> config = Utils.testConfig();
+        config.put(RepoIndex.REPOSITORY_INCREMENT_OVERRIDE, "0");
+        config.put(Constants.REPOSITORY_NAME, "shards");
+        config.put(Constants.PRETTY, "true");
+        config.put(Constants.COMPRESSED, "false");
+        return config;
+    }
+
+    @Test
+    public void testPartitionKeepsOrder() {
+        Set<File> files = new TreeSet<>();
+        for (int i = 0; i < 10; i++) {
+            files.add(new File("f" + i));
+        }
+        List<List<File>> shards = ShardedIndexer.partition(files, 3);
+        assertEquals(3, shards.size());
+        assertEquals(3, shards.get(0).size());
+        assertEquals(3, shards.get(1).size());
+        assertEquals(4, shards.get(2).size());
+        assertEquals(new File("f3"), shards.get(1).get(0));
+
+        assertEquals(2, ShardedIndexer.partition(
+                new TreeSet<>(Arrays.asList(new File("a"), new File("b"))), 8)
+                .size());
+    }
+
+    @Test
+    public void testShardedIndexMatchesIndex() throws Exception {
+        String expected = Utils.index(jars(), config());
+
+        File fragments = temp.create("shard-fragments");
+        Map<String, String> config = config();
+        config.put(Constants.FRAGMENT_DIR, fragments.getPath());
+        ByteArrayOutputStream sharded = new ByteArrayOutputStream();
+        new ShardedIndexer(new NullLogSvc()).setShards(3).index(jars(),
+                sharded, config);
+
+        assertEquals(expected, sharded.toString("UTF-8"));
+        assertEquals(jars().size(), fragments.list().length);
+    }
+
+    @Test
+    public void testFailedShardIsReported() throws Exception {
+        AnalyzerException e = assertThrows(AnalyzerException.class,
+                () -> new ShardedIndexer(new NullLogSvc()).setShards(2)
+                        .setClassPath("does-not-exist")
+                        .index(jars(), new ByteArrayOutputStream(), config()));
+        assertTrue(e.getMessage().startsWith("Shard 0 failed"),
+                e.getMessage());
+        // the work directory of a failed run is kept, with the shard logs
+        String message = e.getMessage();
+        temp.add(new File(message.substring(message.indexOf(", see ") + 6,
+                message.length() - 1)).getParentFile());
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.osgi.resource.Capability;
+import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Builder;
+import org.osgi.service.indexer.Namespaces;
+import org.osgi.service.indexer.Resource;
+import org.osgi.service.indexer.ResourceAnalyzer;
+
+/**
+ * Writes the content url of subsystem archives the way the subsystem analyzer
+ * does, under the subsystems copy dir.
+ */
+public class SubsystemContentAnalyzer implements ResourceAnalyzer {
+
+    @Override
+    public void analyzeResource(Resource resource,
+            List<Capability> capabilities, List<Requirement> requirements) {
+        GeneratorState state = RepoIndex.getState(resource);
+        Path path = state.getSubsystemCopyDirPath()
+                .resolve(Paths.get(resource.getLocation()).getFileName());
+        capabilities.add(new Builder().setNamespace(Namespaces.NS_CONTENT)
+                .addAttribute(Namespaces.ATTR_CONTENT_URL,
+                        state.getRootPath().relativize(path).toString())
+                .buildCapability());
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * ======================================================================
+ * Copyright © 2015-2019, OSGi Alliance, Cristiano V. Gavião.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * =======================================================================
+ */
+package org.osgi.service.indexer.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Creates the temporary directories of a test and deletes them afterwards,
+ * from a method annotated with {@code AfterEach}.
+ */
+public class TempDirectories {
+
+    private final List<Path> created = new ArrayList<Path>();
+
+    public File create(String prefix) throws IOException {
+        Path directory = Files.createTempDirectory(prefix);
+        created.add(directory);
+        return directory.toFile();
+    }
+
+    /**
+     * Deletes a directory the code under test created, with the others.
+     */
+    public void add(File directory) {
+        created.add(directory.toPath());
+    }
+
+    /**
+     * Deletes the directories created and everything in them. Symbolic links
+     * are deleted, not followed.
+     */
+    public void delete() throws IOException {
+        for (Path directory : created) {
+            if (!Files.exists(directory))
+                continue;
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir,
+                        IOException exc) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        created.clear();
+    }
+}
@@ -12,16 +12,25 @@
 package org.osgi.service.indexer.impl;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 
 import org.osgi.resource.Capability;
 import org.osgi.resource.Requirement;
+import org.osgi.service.indexer.Constants;
 
 public class Utils {
 	public static final String readStream(InputStream stream) throws IOException {
@@ -72,4 +81,52 @@ public class Utils {
 
 		return result;
 	}
+
+	public static File testFile(String name) {
+		return new File(Utils.class.getResource("/testdata/" + name).getPath());
+	}
+
+	public static Set<File> testFiles(String... names) {
+		Set<File> files = new LinkedHashSet<File>();
+		for (String name : names) {
+			files.add(testFile(name));
+		}
+		return files;
+	}
+
+	/**
+	 * Copies a test file to a path relative to a directory.
+	 */
+	public static File copyTestFile(String name, File dir, String target) throws IOException {
+		File file = new File(dir, target);
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.copy(testFile(name).toPath(), file.toPath());
+		return file;
+	}
+
+	/**
+	 * @return a configuration indexing from the root of the test resources.
+	 */
+	public static Map<String, String> testConfig() {
+		Map<String, String> config = new HashMap<String, String>();
+		config.put(Constants.ROOT_DIR, Utils.class.getResource("/").getPath());
+		return config;
+	}
+
+	public static String index(Set<File> files, Map<String, String> config) throws Exception {
+		return index(new RepoIndex(new NullLogSvc(), false), files, config);
+	}
+
+	public static String index(RepoIndex indexer, Set<File> files, Map<String, String> config) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		indexer.index(files, out, config);
+		return out.toString("UTF-8");
+	}
+
+	public static String indexFragment(RepoIndex indexer, Set<File> files, Map<String, String> config)
+			throws Exception {
+		StringWriter writer = new StringWriter();
+		indexer.indexFragment(files, writer, config);
+		return writer.toString();
+	}
 }
@@ -68,7 +68,7 @@ public class SubsystemResourceAnalyzer implements ResourceAnalyzer {
     private static String calculateLocation(Resource resource) {
         Path resultPath;
         Path resourcePath = Paths.get(resource.getLocation());
-        GeneratorState state = RepoIndex.getStateLocal();
+        GeneratorState state = RepoIndex.getState(resource);
         if (state != null) {
             Path rootPath = state.getRootPath();
             Path artifactCopyDirPath = state.getSubsystemCopyDirPath();